@@ -0,0 +1,296 @@
+package de.unijena.bioinf.ChemistryBase.fp;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JobManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores many fingerprints of the same fingerprint version in a flat array. Deterministic fingerprints are
+ * stored as packed bit rows (one long[] block per fingerprint), probabilistic fingerprints as one double[] block
+ * per fingerprint. All indizes are relative indizes of the fingerprint version.
+ *
+ * The tanimoto kernels give the same results as the corresponding methods in {@link Tanimoto}, but avoid
+ * the iterator overhead and allow to compare one fingerprint against many.
+ */
+public class FingerprintMatrix {
+
+    /*
+     * number of rows and columns which are compared at once in the many-vs-many kernels
+     */
+    private static final int BLOCK_SIZE = 64;
+
+    protected final FingerprintVersion fingerprintVersion;
+    protected final int numberOfFingerprints, length, words;
+
+    // deterministic
+    protected final long[] bits;
+    protected final int[] cardinalities;
+
+    // probabilistic
+    protected final double[] probabilities;
+
+    FingerprintMatrix(FingerprintVersion fingerprintVersion, int numberOfFingerprints, long[] bits, int[] cardinalities, double[] probabilities) {
+        this.fingerprintVersion = fingerprintVersion;
+        this.numberOfFingerprints = numberOfFingerprints;
+        this.length = fingerprintVersion.size();
+        this.words = (length + 63) >>> 6;
+        this.bits = bits;
+        this.cardinalities = cardinalities;
+        this.probabilities = probabilities;
+    }
+
+    public static FingerprintMatrix fromFingerprints(FingerprintVersion version, List<? extends Fingerprint> fingerprints) {
+        final int words = (version.size() + 63) >>> 6;
+        final long[] bits = new long[words * fingerprints.size()];
+        final int[] cardinalities = new int[fingerprints.size()];
+        int row = 0;
+        for (Fingerprint fp : fingerprints) {
+            checkVersion(version, fp);
+            setBits(version, fp, bits, row * words);
+            cardinalities[row] = fp.cardinality();
+            ++row;
+        }
+        return new FingerprintMatrix(version, fingerprints.size(), bits, cardinalities, null);
+    }
+
+    public static FingerprintMatrix fromProbabilityFingerprints(FingerprintVersion version, List<ProbabilityFingerprint> fingerprints) {
+        final int length = version.size();
+        final double[] probabilities = new double[length * fingerprints.size()];
+        int row = 0;
+        for (ProbabilityFingerprint fp : fingerprints) {
+            checkVersion(version, fp);
+            System.arraycopy(fp.fingerprint, 0, probabilities, row * length, length);
+            ++row;
+        }
+        return new FingerprintMatrix(version, fingerprints.size(), null, null, probabilities);
+    }
+
+    private static void checkVersion(FingerprintVersion version, AbstractFingerprint fp) {
+        if (!fp.getFingerprintVersion().compatible(version) || fp.getFingerprintVersion().size() != version.size())
+            throw new IllegalArgumentException("fingerprint versions differ: " + version.toString() + " vs. " + fp.getFingerprintVersion().toString());
+    }
+
+    private static void setBits(FingerprintVersion version, Fingerprint fp, long[] bits, int offset) {
+        for (short absoluteIndex : fp.asArray().indizes) {
+            final int index = version.getRelativeIndexOf(absoluteIndex);
+            bits[offset + (index >>> 6)] |= 1L << index;
+        }
+    }
+
+    public FingerprintVersion getFingerprintVersion() {
+        return fingerprintVersion;
+    }
+
+    public int size() {
+        return numberOfFingerprints;
+    }
+
+    public boolean isProbabilistic() {
+        return probabilities != null;
+    }
+
+    public AbstractFingerprint getFingerprint(int row) {
+        if (isProbabilistic()) {
+            final double[] values = new double[length];
+            System.arraycopy(probabilities, row * length, values, 0, length);
+            return new ProbabilityFingerprint(fingerprintVersion, values);
+        } else {
+            final short[] indizes = new short[cardinalities[row]];
+            int k = 0;
+            for (int w = 0; w < words; ++w) {
+                long word = bits[row * words + w];
+                while (word != 0) {
+                    final int index = (w << 6) + Long.numberOfTrailingZeros(word);
+                    indizes[k++] = (short) fingerprintVersion.getAbsoluteIndexOf(index);
+                    word &= word - 1;
+                }
+            }
+            return new ArrayFingerprint(fingerprintVersion, indizes);
+        }
+    }
+
+    /**
+     * @return tanimoto of the given fingerprint with each fingerprint in this matrix
+     */
+    public double[] tanimoto(AbstractFingerprint query) {
+        final double[] result = new double[numberOfFingerprints];
+        tanimoto(query, result, 0, numberOfFingerprints);
+        return result;
+    }
+
+    private void tanimoto(AbstractFingerprint query, double[] result, int from, int to) {
+        checkVersion(fingerprintVersion, query);
+        if (query instanceof ProbabilityFingerprint) {
+            if (isProbabilistic()) {
+                for (int row = from; row < to; ++row)
+                    result[row] = Tanimoto.tanimoto(query, getFingerprint(row));
+            } else {
+                final double[] q = ((ProbabilityFingerprint) query).fingerprint;
+                for (int row = from; row < to; ++row)
+                    result[row] = probabilisticJaccard(row, q);
+            }
+        } else {
+            final Fingerprint fp = (Fingerprint) query;
+            final long[] q = new long[words];
+            setBits(fingerprintVersion, fp, q, 0);
+            if (isProbabilistic()) {
+                for (int row = from; row < to; ++row)
+                    result[row] = probabilisticJaccard(q, row);
+            } else {
+                final int qcard = fp.cardinality();
+                for (int row = from; row < to; ++row) {
+                    result[row] = jaccard(q, 0, qcard, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the tanimoto of each fingerprint in this matrix (rows) with each fingerprint in the other matrix (columns).
+     * Deterministic fingerprints are compared blockwise by popcount. If both matrices contain probabilistic
+     * fingerprints, the (slow) exact expectation value is computed.
+     */
+    public double[][] tanimoto(FingerprintMatrix other) {
+        final double[][] result = new double[numberOfFingerprints][other.numberOfFingerprints];
+        tanimotoBlock(other, result, 0, numberOfFingerprints);
+        return result;
+    }
+
+    /**
+     * Computes {@link #tanimoto(FingerprintMatrix)} by splitting the rows into blocks which are computed
+     * in parallel as CPU jobs of the global job manager.
+     */
+    public double[][] tanimotoParallel(final FingerprintMatrix other) {
+        final double[][] result = new double[numberOfFingerprints][other.numberOfFingerprints];
+        final JobManager manager = SiriusJobs.getGlobalJobManager();
+        final int numberOfJobs = Math.max(1, Math.min(manager.getCPUThreads() * 4, (numberOfFingerprints + BLOCK_SIZE - 1) / BLOCK_SIZE));
+        final int rowsPerJob = (numberOfFingerprints + numberOfJobs - 1) / numberOfJobs;
+        final List<BasicJJob<Boolean>> jobs = new ArrayList<>(numberOfJobs);
+        for (int from = 0; from < numberOfFingerprints; from += rowsPerJob) {
+            final int start = from, end = Math.min(numberOfFingerprints, from + rowsPerJob);
+            jobs.add(manager.submitJob(new BasicJJob<Boolean>() {
+                @Override
+                protected Boolean compute() throws Exception {
+                    tanimotoBlock(other, result, start, end);
+                    return true;
+                }
+            }));
+        }
+        for (BasicJJob<Boolean> job : jobs) job.takeResult();
+        return result;
+    }
+
+    private void tanimotoBlock(FingerprintMatrix other, double[][] result, int from, int to) {
+        if (!fingerprintVersion.compatible(other.fingerprintVersion) || length != other.length)
+            throw new IllegalArgumentException("fingerprint versions differ: " + fingerprintVersion.toString() + " vs. " + other.fingerprintVersion.toString());
+        if (!isProbabilistic() && !other.isProbabilistic()) {
+            for (int rowBlock = from; rowBlock < to; rowBlock += BLOCK_SIZE) {
+                final int rowEnd = Math.min(to, rowBlock + BLOCK_SIZE);
+                for (int colBlock = 0; colBlock < other.numberOfFingerprints; colBlock += BLOCK_SIZE) {
+                    final int colEnd = Math.min(other.numberOfFingerprints, colBlock + BLOCK_SIZE);
+                    for (int row = rowBlock; row < rowEnd; ++row) {
+                        final double[] resultRow = result[row];
+                        for (int col = colBlock; col < colEnd; ++col) {
+                            resultRow[col] = other.jaccard(bits, row * words, cardinalities[row], col);
+                        }
+                    }
+                }
+            }
+        } else {
+            for (int row = from; row < to; ++row) {
+                other.tanimoto(getFingerprint(row), result[row], 0, other.numberOfFingerprints);
+            }
+        }
+    }
+
+    /**
+     * Batched variant of {@link Tanimoto#probabilisticTanimoto(AbstractFingerprint, AbstractFingerprint)} and
+     * {@link Tanimoto#probabilisticTanimotoFixedLength(ProbabilityFingerprint, Fingerprint)}: computes the exact
+     * expectation value and variance of the tanimoto between the given deterministic fingerprint and each
+     * probabilistic fingerprint in this matrix.
+     */
+    public Tanimoto.ProbabilisticTanimoto[] probabilisticTanimoto(Fingerprint query, boolean fixedLength) {
+        if (!isProbabilistic())
+            throw new UnsupportedOperationException("probabilistic tanimoto needs a matrix of probabilistic fingerprints");
+        checkVersion(fingerprintVersion, query);
+        // split the fingerprint positions into the ones which are set in the query and the ones which are not
+        final boolean[] querySet = query.asBooleans().fingerprint;
+        final int NPOS = query.cardinality(), NNEG = length - NPOS;
+        final int[] positive = new int[NPOS], negative = new int[NNEG];
+        for (int k = 0, i = 0, j = 0; k < length; ++k) {
+            if (querySet[k]) positive[i++] = k;
+            else negative[j++] = k;
+        }
+        final Tanimoto.ProbabilisticTanimoto[] result = new Tanimoto.ProbabilisticTanimoto[numberOfFingerprints];
+        for (int row = 0; row < numberOfFingerprints; ++row) {
+            final double[] m = new double[NNEG + 1];
+            final double[] p = new double[NPOS + 1];
+            m[0] = 1d;
+            p[0] = 1d;
+            final int offset = row * length;
+            exactDP(p, positive, offset);
+            exactDP(m, negative, offset);
+            result[row] = new Tanimoto.ExactDP(m, p, length, fixedLength);
+        }
+        return result;
+    }
+
+    /*
+     * same recurrence as Tanimoto.ExactDP.computeDP, but the positions of the query are given as index arrays
+     */
+    private void exactDP(double[] table, int[] positions, int offset) {
+        int size = 1;
+        for (int position : positions) {
+            final double isset = probabilities[offset + position], isnotset = 1d - isset;
+            for (int k = size; k > 0; --k) {
+                table[k] = table[k - 1] * isset + table[k] * isnotset;
+            }
+            table[0] *= isnotset;
+            ++size;
+        }
+    }
+
+    private double jaccard(long[] query, int queryOffset, int queryCardinality, int row) {
+        int intersection = 0;
+        for (int w = 0, offset = row * words; w < words; ++w) {
+            intersection += Long.bitCount(query[queryOffset + w] & bits[offset + w]);
+        }
+        final int union = queryCardinality + cardinalities[row] - intersection;
+        return ((double) intersection) / union;
+    }
+
+    /*
+     * deterministic query, probabilistic row. Sums up in the same order as Tanimoto.probabilisticJaccard1
+     */
+    private double probabilisticJaccard(long[] query, int row) {
+        final int offset = row * length;
+        double Q = 0d, R = 0d;
+        for (int k = 0; k < length; ++k) {
+            final double p = probabilities[offset + k];
+            if ((query[k >>> 6] & (1L << k)) != 0) {
+                Q += p;
+                R += 1d;
+            } else R += p;
+        }
+        return Q / R;
+    }
+
+    /*
+     * probabilistic query, deterministic row
+     */
+    private double probabilisticJaccard(int row, double[] query) {
+        final int offset = row * words;
+        double Q = 0d, R = 0d;
+        for (int k = 0; k < length; ++k) {
+            if ((bits[offset + (k >>> 6)] & (1L << k)) != 0) {
+                Q += query[k];
+                R += 1d;
+            } else R += query[k];
+        }
+        return Q / R;
+    }
+
+}
@@ -1,16 +1,19 @@
 package de.unijena.bioinf.ChemistryBase.fp;
 
-import gnu.trove.list.array.TShortArrayList;
-import gnu.trove.map.hash.TShortShortHashMap;
-
+import java.util.Arrays;
 import java.util.BitSet;
 
 public class MaskedFingerprintVersion extends FingerprintVersion{
 
     private FingerprintVersion innerVersion;
-    private BitSet mask;
+    /*
+     * the mask as bitset over the absolute indizes. rank[w] is the number of enabled bits in the words before w,
+     * such that the relative index of an absolute index can be computed in constant time. allowedIndizes is the
+     * corresponding select table.
+     */
+    private long[] mask;
+    private int[] rank;
     private int[] allowedIndizes;
-    private TShortShortHashMap mapping;
 
     public static MaskedFingerprintVersion fromString(String s) {
         MaskedFingerprintVersion.Builder b = buildMaskFor(CdkFingerprintVersion.getDefault());
@@ -62,22 +65,17 @@ public class MaskedFingerprintVersion extends FingerprintVersion{
             return (T)new ProbabilityFingerprint(this, xs);
         } else if (fingerprint instanceof Fingerprint) {
             if (fingerprint instanceof ArrayFingerprint) {
-                int i=0, j=0;
-                final TShortArrayList list = new TShortArrayList(Math.min(fingerprint.cardinality(), allowedIndizes.length));
                 final short[] indizes = ((ArrayFingerprint) fingerprint).indizes;
-                while (i < allowedIndizes.length && j < indizes.length) {
-                    if (allowedIndizes[i] < indizes[j]) ++i;
-                    else if (allowedIndizes[i] > indizes[j]) ++j;
-                    else {
-                        list.add((short)allowedIndizes[i]);
-                        ++i; ++j;
-                    }
+                final short[] masked = new short[Math.min(indizes.length, allowedIndizes.length)];
+                int k=0;
+                for (short index : indizes) {
+                    if (isEnabled(index)) masked[k++] = index;
                 }
-                return (T)new ArrayFingerprint(this, list.toArray());
+                return (T)new ArrayFingerprint(this, k == masked.length ? masked : Arrays.copyOf(masked, k));
             } else if (fingerprint instanceof BooleanFingerprint) {
+                final boolean[] values = ((BooleanFingerprint) fingerprint).fingerprint;
                 final boolean[] masked = new boolean[allowedIndizes.length];
-                int k=0;
-                for (int index : allowedIndizes) masked[k++] = fingerprint.isSet(index);
+                for (int k=0; k < allowedIndizes.length; ++k) masked[k] = values[allowedIndizes[k]];
                 return (T) new BooleanFingerprint(this, masked);
             } else {
                 throw new RuntimeException("Cannot mask " + fingerprint.getClass());
@@ -106,28 +104,105 @@ public class MaskedFingerprintVersion extends FingerprintVersion{
      */
     protected ProbabilityFingerprint unmask(ProbabilityFingerprint fp) {
         final double[] complete = new double[getMaskedFingerprintVersion().size()];
-        for (FPIter f : fp) {
-            complete[f.getIndex()] = f.getProbability();
+        final double[] values = fp.fingerprint;
+        for (int k=0; k < values.length; ++k) {
+            complete[allowedIndizes[k]] = values[k];
         }
         return new ProbabilityFingerprint(getMaskedFingerprintVersion(), complete);
     }
 
     public MaskedFingerprintVersion getIntersection(MaskedFingerprintVersion other) {
         if (!innerVersion.compatible(other.innerVersion)) throw new RuntimeException("Fingerprint is not compatible to mask. Given fingerprint is version " + other.innerVersion.toString() + ", mask is version " + innerVersion.toString());
-        final BitSet intersection = (BitSet) mask.clone();
-        intersection.and(other.mask);
+        final BitSet intersection = toBitSet();
+        intersection.and(other.toBitSet());
         return new MaskedFingerprintVersion(innerVersion, intersection);
     }
     public MaskedFingerprintVersion getUnion(MaskedFingerprintVersion other) {
         if (!innerVersion.compatible(other.innerVersion)) throw new RuntimeException("Fingerprint is not compatible to mask. Given fingerprint is version " + other.innerVersion.toString() + ", mask is version " + innerVersion.toString());
-        final BitSet intersection = (BitSet) mask.clone();
-        intersection.or(other.mask);
-        return new MaskedFingerprintVersion(innerVersion, intersection);
+        final BitSet union = toBitSet();
+        union.or(other.toBitSet());
+        return new MaskedFingerprintVersion(innerVersion, union);
+    }
+
+    /**
+     * masks all fingerprints of the given matrix. Deterministic fingerprints are masked word-wise.
+     */
+    public FingerprintMatrix mask(FingerprintMatrix matrix) {
+        if (matrix.fingerprintVersion instanceof MaskedFingerprintVersion) {
+            if (!compatible(matrix.fingerprintVersion)) {
+                throw new RuntimeException("Fingerprint is already masked by a fingerprint mask which is not compatible to this mask: " + toString() +  " vs " + matrix.fingerprintVersion.toString());
+            }
+            // relative indizes of the matrix are not the absolute indizes of this mask
+            return mask(((MaskedFingerprintVersion)matrix.fingerprintVersion).unmask(matrix));
+        } else if (!innerVersion.compatible(matrix.fingerprintVersion)) {
+            throw new RuntimeException("Fingerprint is not compatible to mask. Given fingerprint is version " + matrix.fingerprintVersion.toString() + ", mask is version " + innerVersion.toString());
+        }
+        final int n = matrix.numberOfFingerprints, size = allowedIndizes.length;
+        if (matrix.isProbabilistic()) {
+            final double[] probabilities = new double[n * size];
+            for (int row=0; row < n; ++row) {
+                final int from = row*matrix.length, to = row*size;
+                for (int k=0; k < size; ++k) probabilities[to+k] = matrix.probabilities[from + allowedIndizes[k]];
+            }
+            return new FingerprintMatrix(this, n, null, null, probabilities);
+        } else {
+            final int words = (size + 63) >>> 6;
+            final long[] bits = new long[n * words];
+            final int[] cardinalities = new int[n];
+            final int commonWords = Math.min(matrix.words, mask.length);
+            for (int row=0; row < n; ++row) {
+                final int from = row*matrix.words, to = row*words;
+                int cardinality = 0;
+                for (int w=0; w < commonWords; ++w) {
+                    long word = matrix.bits[from + w] & mask[w];
+                    cardinality += Long.bitCount(word);
+                    // compaction: each remaining bit moves to its rank in the mask
+                    while (word != 0) {
+                        final int relative = relativeIndex(w, Long.numberOfTrailingZeros(word));
+                        bits[to + (relative >>> 6)] |= 1L << relative;
+                        word &= word - 1;
+                    }
+                }
+                cardinalities[row] = cardinality;
+            }
+            return new FingerprintMatrix(this, n, bits, cardinalities, null);
+        }
+    }
+
+    /**
+     * returns a new matrix without masking. All masked bits are set to false (or 0%).
+     */
+    protected FingerprintMatrix unmask(FingerprintMatrix matrix) {
+        final int n = matrix.numberOfFingerprints, size = innerVersion.size();
+        if (matrix.isProbabilistic()) {
+            final double[] probabilities = new double[n * size];
+            for (int row=0; row < n; ++row) {
+                final int from = row*matrix.length, to = row*size;
+                for (int k=0; k < matrix.length; ++k) probabilities[to + allowedIndizes[k]] = matrix.probabilities[from+k];
+            }
+            return new FingerprintMatrix(innerVersion, n, null, null, probabilities);
+        } else {
+            final int words = (size + 63) >>> 6;
+            final long[] bits = new long[n * words];
+            for (int row=0; row < n; ++row) {
+                final int from = row*matrix.words, to = row*words;
+                for (int w=0; w < matrix.words; ++w) {
+                    long word = matrix.bits[from + w];
+                    while (word != 0) {
+                        final int absolute = allowedIndizes[(w << 6) + Long.numberOfTrailingZeros(word)];
+                        bits[to + (absolute >>> 6)] |= 1L << absolute;
+                        word &= word - 1;
+                    }
+                }
+            }
+            return new FingerprintMatrix(innerVersion, n, bits, matrix.cardinalities.clone(), null);
+        }
     }
 
     @Override
     public int getRelativeIndexOf(int absoluteIndex) {
-        return mapping.get((short)absoluteIndex);
+        if (!isEnabled(absoluteIndex)) return -1;
+        return relativeIndex(absoluteIndex >>> 6, absoluteIndex & 63);
     }
     public int getAbsoluteIndexOf(int relativeIndex) {
         return allowedIndizes[relativeIndex];
@@ -135,21 +210,38 @@ public class MaskedFingerprintVersion extends FingerprintVersion{
 
     @Override
     public boolean hasProperty(int absoluteIndex) {
-        return mapping.containsKey((short)absoluteIndex);
+        return isEnabled(absoluteIndex);
+    }
+
+    private boolean isEnabled(int absoluteIndex) {
+        final int w = absoluteIndex >>> 6;
+        return absoluteIndex >= 0 && w < mask.length && (mask[w] & (1L << absoluteIndex)) != 0;
+    }
+
+    private int relativeIndex(int word, int bit) {
+        return rank[word] + Long.bitCount(mask[word] & ((1L << bit) - 1L));
+    }
+
+    private BitSet toBitSet() {
+        final BitSet set = new BitSet(innerVersion.size());
+        set.or(BitSet.valueOf(mask));
+        return set;
     }
 
     protected MaskedFingerprintVersion(FingerprintVersion innerVersion, BitSet mask) {
         this.innerVersion = innerVersion;
-        this.mask = (BitSet) mask.clone();
+        final long[] words = mask.toLongArray();
+        this.mask = Arrays.copyOf(words, Math.max(words.length, (innerVersion.size() + 63) >>> 6));
+        this.rank = new int[this.mask.length];
         this.allowedIndizes = new int[mask.cardinality()];
         int k=0;
-        for (int i = mask.nextSetBit(0); i >= 0 && i < mask.size(); i = mask.nextSetBit(i+1)) {
-            allowedIndizes[k++] = i;
-        }
-        this.mapping = new TShortShortHashMap(allowedIndizes.length, 0.75f, (short)-1, (short)-1);
-        k=0;
-        for (int allowedIndex : allowedIndizes) {
-            mapping.put((short)allowedIndex, (short)k++);
+        for (int w=0; w < this.mask.length; ++w) {
+            rank[w] = k;
+            long word = this.mask[w];
+            while (word != 0) {
+                allowedIndizes[k++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
         }
     }
 
@@ -181,20 +273,28 @@ public class MaskedFingerprintVersion extends FingerprintVersion{
         if (this == fingerprintVersion) return true;
         else if (fingerprintVersion.getClass().equals(MaskedFingerprintVersion.class)){
             MaskedFingerprintVersion other = (MaskedFingerprintVersion)fingerprintVersion;
-            return innerVersion.compatible(other.innerVersion) && mask.intersects(other.mask);
+            return innerVersion.compatible(other.innerVersion) && intersects(other);
         } else if (isNotFiltering()) {
             return innerVersion.compatible(fingerprintVersion);
         } else return false;
     }
 
+    private boolean intersects(MaskedFingerprintVersion other) {
+        for (int w=0, n = Math.min(mask.length, other.mask.length); w < n; ++w) {
+            if ((mask[w] & other.mask[w]) != 0) return true;
+        }
+        return false;
+    }
+
     public MaskedFingerprintVersion invert() {
-        final BitSet copy = (BitSet) mask.clone();
-        copy.flip(0, copy.size());
+        final BitSet copy = toBitSet();
+        // BitSet.valueOf drops trailing zero words, so flip the complete range of the fingerprint version
+        copy.flip(0, innerVersion.size());
         return new MaskedFingerprintVersion(innerVersion, copy);
     }
 
     public Builder modify() {
-        return new Builder(innerVersion, mask);
+        return new Builder(innerVersion, toBitSet());
     }
 
     public static class Builder {
@@ -202,7 +302,8 @@ public class MaskedFingerprintVersion extends FingerprintVersion{
         private final BitSet bitSet;
         protected Builder(FingerprintVersion version, BitSet set) {
             this.version = version;
-            this.bitSet = (BitSet) set.clone();
+            this.bitSet = new BitSet(version.size());
+            this.bitSet.or(set);
         }
         protected Builder(FingerprintVersion version) {
             this.version = version;
@@ -211,7 +312,7 @@ public class MaskedFingerprintVersion extends FingerprintVersion{
         }
 
         public Builder invert() {
-            this.bitSet.flip(0, bitSet.size());
+            this.bitSet.flip(0, version.size());
             return this;
         }
 
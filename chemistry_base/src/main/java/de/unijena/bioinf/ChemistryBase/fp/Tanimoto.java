@@ -155,7 +155,20 @@ public class Tanimoto {
             m[0] = 1d; p[0] = 1d;
 
             computeDP(m, p, left.iterator(), right.iterator());
+            computeMoments(m, p, N, NPOS, fixedLength);
+        }
+
+        /**
+         * Uses already computed DP tables, e.g. from {@link FingerprintMatrix}
+         * @param m DP table for the bits which are not set in the deterministic fingerprint
+         * @param p DP table for the bits which are set in the deterministic fingerprint
+         * @param N length of the fingerprint
+         */
+        protected ExactDP(double[] m, double[] p, int N, boolean fixedLength) {
+            computeMoments(m, p, N, p.length-1, fixedLength);
+        }
 
+        private void computeMoments(double[] m, double[] p, int N, int NPOS, boolean fixedLength) {
             // calculate expectation value
             var = 0d;
             exp = 0;
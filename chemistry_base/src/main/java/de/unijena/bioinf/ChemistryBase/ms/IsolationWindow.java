@@ -141,6 +141,65 @@ public abstract class IsolationWindow {
         estimateDistribution(isotopeRatioInformation);
     }
 
+    /**
+     * starts an estimation from experiments which are added one after another, so the experiments do not have to
+     * be in memory at the same time. The dataset only provides the measurement profile and the statistics, its
+     * experiments are ignored. Adding the experiments in the same order as in a dataset gives the same estimate as
+     * {@link #estimate(Ms2Dataset)}.
+     */
+    public Estimation startEstimation(Ms2Dataset ms2Dataset) {
+        return new Estimation(ms2Dataset);
+    }
+
+    public class Estimation {
+        private final Ms2Dataset ms2Dataset;
+        private final MutableMeasurementProfile mutableMeasurementProfile;
+        private final Deviation findMs1PeakDeviation;
+        private final List<NormalizedPattern> normalizedPatterns;
+
+        private Estimation(Ms2Dataset ms2Dataset) {
+            this.ms2Dataset = ms2Dataset;
+            this.mutableMeasurementProfile = new MutableMeasurementProfile(ms2Dataset.getMeasurementProfile());
+            this.findMs1PeakDeviation = IsolationWindow.this.findMs1PeakDeviation != null ? IsolationWindow.this.findMs1PeakDeviation : ms2Dataset.getMeasurementProfile().getAllowedMassDeviation();
+            this.normalizedPatterns = new ArrayList<>();
+        }
+
+        /**
+         * extracts the isotope patterns of a single experiment. May be called concurrently.
+         */
+        public ExperimentPatterns extract(Ms2Experiment experiment) {
+            final List<NormalizedPattern> patterns = new ArrayList<>();
+            extractNormalizedPatterns(experiment, ms2Dataset, mutableMeasurementProfile, findMs1PeakDeviation, patterns);
+            return new ExperimentPatterns(patterns);
+        }
+
+        /**
+         * adds the patterns of an experiment. The experiments have to be added in the order of the dataset.
+         */
+        public void add(ExperimentPatterns patterns) {
+            normalizedPatterns.addAll(patterns.patterns);
+        }
+
+        public void add(Ms2Experiment experiment) {
+            add(extract(experiment));
+        }
+
+        /**
+         * estimates the window from all added experiments
+         */
+        public void finish() {
+            estimateDistribution(extractIntensityRatios(normalizedPatterns));
+        }
+    }
+
+    public class ExperimentPatterns {
+        private final List<NormalizedPattern> patterns;
+
+        private ExperimentPatterns(List<NormalizedPattern> patterns) {
+            this.patterns = patterns;
+        }
+    }
+
 
 
 
@@ -158,13 +217,18 @@ public abstract class IsolationWindow {
 //        mutableMeasurementProfile.setAllowedMassDeviation(new Deviation(5));
 
 
-        int expCounter = 0;
-        int expCounter2 = 0;
-        int expCounter3 = 0;
-        int expCounter4 = 0;
         for (Ms2Experiment experiment : ms2Dataset.getExperiments()) {
-            if (!CompoundQuality.isNotBadQuality(experiment)) continue;
-            //changed now using the line above
+            extractNormalizedPatterns(experiment, ms2Dataset, mutableMeasurementProfile, findMs1PeakDeviation, normalizedPatterns);
+        }
+        return extractIntensityRatios(normalizedPatterns);
+    }
+
+    /**
+     * extracts the isotope patterns of a single experiment which are used to estimate the window
+     */
+    private void extractNormalizedPatterns(Ms2Experiment experiment, Ms2Dataset ms2Dataset, MutableMeasurementProfile mutableMeasurementProfile, Deviation findMs1PeakDeviation, List<NormalizedPattern> normalizedPatterns) {
+        if (!CompoundQuality.isNotBadQuality(experiment)) return;
+        //changed now using the line above
 //            if (!CompoundQuality.isNotBadQuality(experiment)){
 //                CompoundQuality quality = experiment.getAnnotation(CompoundQuality.class);
 //                for (SpectrumProperty spectrumProperty : quality.getProperties()) {
@@ -174,154 +238,149 @@ public abstract class IsolationWindow {
 //                }
 //            }
 
-            double ionMass = experiment.getIonMass();
+        double ionMass = experiment.getIonMass();
 
 
-            List<Spectrum<Peak>> ms1Spectra = new ArrayList<>();
-            List<Spectrum<Peak>> ms2Spectra = new ArrayList<>();
+        List<Spectrum<Peak>> ms1Spectra = new ArrayList<>();
+        List<Spectrum<Peak>> ms2Spectra = new ArrayList<>();
 
-            if (experiment.getMs1Spectra().size()== experiment.getMs2Spectra().size()){
-                //MS1 corresponds to one MS2
-                for (int i = 0; i < experiment.getMs1Spectra().size(); i++) {
-                    ms1Spectra.add(experiment.getMs1Spectra().get(i));
-                    ms2Spectra.add(experiment.getMs2Spectra().get(i));
-                }
-            } else if (experiment.getMs1Spectra().size()==1){
-                //MS1 corresponds to all MS2
-                for (int i = 0; i < experiment.getMs2Spectra().size(); i++) {
-                    ms1Spectra.add(experiment.getMs1Spectra().get(0));
-                    ms2Spectra.add(experiment.getMs2Spectra().get(i));
-                }
-            } else {
-                if (DEBUG) {
-                    LOG.warn("cannot match ms1 and ms2 spectra for isolation filter estimation: "+experiment.getName());
-                }
-                continue;
+        if (experiment.getMs1Spectra().size()== experiment.getMs2Spectra().size()){
+            //MS1 corresponds to one MS2
+            for (int i = 0; i < experiment.getMs1Spectra().size(); i++) {
+                ms1Spectra.add(experiment.getMs1Spectra().get(i));
+                ms2Spectra.add(experiment.getMs2Spectra().get(i));
+            }
+        } else if (experiment.getMs1Spectra().size()==1){
+            //MS1 corresponds to all MS2
+            for (int i = 0; i < experiment.getMs2Spectra().size(); i++) {
+                ms1Spectra.add(experiment.getMs1Spectra().get(0));
+                ms2Spectra.add(experiment.getMs2Spectra().get(i));
+            }
+        } else {
+            if (DEBUG) {
+                LOG.warn("cannot match ms1 and ms2 spectra for isolation filter estimation: "+experiment.getName());
             }
+            return;
+        }
 
 
-            for (int i = 0; i < ms1Spectra.size(); i++) {
-                Spectrum<Peak> spectrum1 = ms1Spectra.get(i);
-                Spectrum<Peak> spectrum2 = ms2Spectra.get(i);
+        for (int i = 0; i < ms1Spectra.size(); i++) {
+            Spectrum<Peak> spectrum1 = ms1Spectra.get(i);
+            Spectrum<Peak> spectrum2 = ms2Spectra.get(i);
 
-                MutableSpectrum<Peak> ms1 = new SimpleMutableSpectrum(spectrum1);
-                MutableSpectrum<Peak> ms2 = new SimpleMutableSpectrum(spectrum2);
+            MutableSpectrum<Peak> ms1 = new SimpleMutableSpectrum(spectrum1);
+            MutableSpectrum<Peak> ms2 = new SimpleMutableSpectrum(spectrum2);
 
-                MutableSpectrum<Peak> intensityMs1 = new MutableMs2Spectrum(Spectrums.getIntensityOrderedSpectrum(spectrum1));
+            MutableSpectrum<Peak> intensityMs1 = new MutableMs2Spectrum(Spectrums.getIntensityOrderedSpectrum(spectrum1));
 
-                final double center = experiment.getIonMass()+massShift;
-                final double oneSideWindowSize = maxWindowSize/2;
-                Spectrums.PeakPredicate filter = new Spectrums.PeakPredicate() {
-                    @Override
-                    public boolean apply(double mz, double intensity) {
-                        return (mz>center-oneSideWindowSize && mz<center+oneSideWindowSize);
-                    }
-                };
+            final double center = experiment.getIonMass()+massShift;
+            final double oneSideWindowSize = maxWindowSize/2;
+            Spectrums.PeakPredicate filter = new Spectrums.PeakPredicate() {
+                @Override
+                public boolean apply(double mz, double intensity) {
+                    return (mz>center-oneSideWindowSize && mz<center+oneSideWindowSize);
+                }
+            };
 
-                Spectrums.filter(intensityMs1, filter);
-                Spectrums.filter(ms1, filter);
-                Spectrums.filter(ms2, filter);
+            Spectrums.filter(intensityMs1, filter);
+            Spectrums.filter(ms1, filter);
+            Spectrums.filter(ms2, filter);
 
 
-                //find precursor/parent peak
-                int monoMs1Idx = Spectrums.mostIntensivePeakWithin(ms1, ionMass, findMs1PeakDeviation);
-                int monoMs2Idx = Spectrums.mostIntensivePeakWithin(ms2, ionMass, findMs1PeakDeviation);
+            //find precursor/parent peak
+            int monoMs1Idx = Spectrums.mostIntensivePeakWithin(ms1, ionMass, findMs1PeakDeviation);
+            int monoMs2Idx = Spectrums.mostIntensivePeakWithin(ms2, ionMass, findMs1PeakDeviation);
 
 
-                //todo exclude low intensity ms1 and ms2 peaks !!!
+            //todo exclude low intensity ms1 and ms2 peaks !!!
 
-                if (monoMs2Idx<0) continue;
-                if (monoMs1Idx<0) {
-                    if (DEBUG) {
-                        LOG.warn("no precursor peak found in MS1 for "+experiment.getName());
-                    }
-                    continue;
+            if (monoMs2Idx<0) continue;
+            if (monoMs1Idx<0) {
+                if (DEBUG) {
+                    LOG.warn("no precursor peak found in MS1 for "+experiment.getName());
                 }
+                continue;
+            }
 
 
-                //match peaks
-                //todo match based on relative diff -> allow just smaller mass diff?
+            //match peaks
+            //todo match based on relative diff -> allow just smaller mass diff?
 
-                final double ms2MonoMass = ms2.getMzAt(monoMs2Idx);
+            final double ms2MonoMass = ms2.getMzAt(monoMs2Idx);
 
 
 
 
-                double monoIntensityRatio = ms1.getIntensityAt(monoMs1Idx)/ms2.getIntensityAt(monoMs2Idx);
-                Deviation deviation = ms2Dataset.getMeasurementProfile().getAllowedMassDeviation().divide(2); //todo or smaller?
-                double maxMs1Intensity = Spectrums.getMaximalIntensity(spectrum1);
-                double maxMs2Intensity = Spectrums.getMaximalIntensity(spectrum2);
+            double monoIntensityRatio = ms1.getIntensityAt(monoMs1Idx)/ms2.getIntensityAt(monoMs2Idx);
+            Deviation deviation = ms2Dataset.getMeasurementProfile().getAllowedMassDeviation().divide(2); //todo or smaller?
+            double maxMs1Intensity = Spectrums.getMaximalIntensity(spectrum1);
+            double maxMs2Intensity = Spectrums.getMaximalIntensity(spectrum2);
 //            double medianNoiseIntensity = mutableMeasurementProfile.getMedianNoiseIntensity();
-                DatasetStatistics datasetStatistics = ms2Dataset.getDatasetStatistics();
-                double medianNoiseIntensity;
-                try {
-                    medianNoiseIntensity = (datasetStatistics!=null ? datasetStatistics.getMedianMs2NoiseIntensity() : 0);
-                } catch (IllegalStateException e){
-                    medianNoiseIntensity = 0;
-                    LOG.warn("Unknown median noise intensity: No noise peaks found. Setting to 0.");
-                }
+            DatasetStatistics datasetStatistics = ms2Dataset.getDatasetStatistics();
+            double medianNoiseIntensity;
+            try {
+                medianNoiseIntensity = (datasetStatistics!=null ? datasetStatistics.getMedianMs2NoiseIntensity() : 0);
+            } catch (IllegalStateException e){
+                medianNoiseIntensity = 0;
+                LOG.warn("Unknown median noise intensity: No noise peaks found. Setting to 0.");
+            }
 
-                int ms1Idx = monoMs1Idx;
-                int ms2Idx;
-                double ms1Mass;
+            int ms1Idx = monoMs1Idx;
+            int ms2Idx;
+            double ms1Mass;
 
-                if (monoIntensityRatio<1d){
-                    if (DEBUG){
-                        System.out.println(monoIntensityRatio);
-                    }
+            if (monoIntensityRatio<1d){
+                if (DEBUG){
+                    LOG.debug("precursor intensity ratio of MS1 and MS2 is below 1 for "+experiment.getName()+": "+monoIntensityRatio);
+                }
 
 //                continue;
-                }
-                expCounter++;
+            }
 
-                TDoubleHashSet usedPeaks = new TDoubleHashSet();
-                for (Peak peak : intensityMs1) {
-                    //todo may use peaks multiple times!
-                    ChargedSpectrum isotopePatternMs1 = extractPatternMs1(ms1, mutableMeasurementProfile, peak.getMass());
-                    ChargedSpectrum isotopePatternMs2 = extractPattern(ms2, mutableMeasurementProfile, peak.getMass(), isotopePatternMs1.getAbsCharge());
+            TDoubleHashSet usedPeaks = new TDoubleHashSet();
+            for (Peak peak : intensityMs1) {
+                //todo may use peaks multiple times!
+                ChargedSpectrum isotopePatternMs1 = extractPatternMs1(ms1, mutableMeasurementProfile, peak.getMass());
+                ChargedSpectrum isotopePatternMs2 = extractPattern(ms2, mutableMeasurementProfile, peak.getMass(), isotopePatternMs1.getAbsCharge());
 
-                    expCounter2++;
 
-                    if (isotopePatternMs2==null) continue;
+                if (isotopePatternMs2==null) continue;
 
-                    expCounter3++;
 
-                    //todo extract multiple charged spectra!!!!
-                    trimToSuitablePeaks(isotopePatternMs1, isotopePatternMs2, maxMs1Intensity, maxMs2Intensity, medianNoiseIntensity);
+                //todo extract multiple charged spectra!!!!
+                trimToSuitablePeaks(isotopePatternMs1, isotopePatternMs2, maxMs1Intensity, maxMs2Intensity, medianNoiseIntensity);
 
 
-                    double monoPosition = round(peak.getMass()-ionMass); // -1, -0.5, 0, 0.5, 1, ...
-                    int normalizationPosition;
-                    //todo good idea?
-                    if (monoPosition<0) normalizationPosition = 1; //all isotope patterns starting on left of precursor mass are normalized on +1 peak
-                    else  normalizationPosition = 0;
+                double monoPosition = round(peak.getMass()-ionMass); // -1, -0.5, 0, 0.5, 1, ...
+                int normalizationPosition;
+                //todo good idea?
+                if (monoPosition<0) normalizationPosition = 1; //all isotope patterns starting on left of precursor mass are normalized on +1 peak
+                else  normalizationPosition = 0;
 
 
-                    int size = isotopePatternMs1.size(); //should be same for ms2
-                    if (size<=1 || size<=normalizationPosition ){
-                        continue;
-                    }
+                int size = isotopePatternMs1.size(); //should be same for ms2
+                if (size<=1 || size<=normalizationPosition ){
+                    continue;
+                }
 
-                    expCounter4++;
 
-                    NormalizedPattern normalizedPattern = new NormalizedPattern(isotopePatternMs1, isotopePatternMs2, normalizationPosition, monoPosition, ionMass, isotopePatternMs1.getAbsCharge());
+                NormalizedPattern normalizedPattern = new NormalizedPattern(isotopePatternMs1, isotopePatternMs2, normalizationPosition, monoPosition, ionMass, isotopePatternMs1.getAbsCharge());
 
-                    normalizedPatterns.add(normalizedPattern);
+                normalizedPatterns.add(normalizedPattern);
 
-                }
             }
+        }
 
 
 
-        }
+    }
 
+    private IsotopeRatioInformation extractIntensityRatios(List<NormalizedPattern> normalizedPatterns) {
         if (normalizedPatterns.size()==0){
             LOG.warn("Cannot estimate isolation window no isotope patterns (in MS1 or MS2) found.");
         }
 
         if (DEBUG) {
-            System.out.println(expCounter+" used experiments");
-            System.out.println("counters "+expCounter2+" "+expCounter3+" "+expCounter4);
             System.out.println(normalizedPatterns.size()+" patterns");
         }
 
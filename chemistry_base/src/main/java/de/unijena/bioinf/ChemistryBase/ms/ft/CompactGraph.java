@@ -0,0 +1,155 @@
+package de.unijena.bioinf.ChemistryBase.ms.ft;
+
+/**
+ * Immutable, array based view of a {@link FGraph} for algorithms which traverse the graph very often, like the
+ * tree heuristics. The colours of the vertices and the edges are stored in primitive arrays, so the traversal
+ * does not have to follow the pointers between {@link Fragment} and {@link Loss} objects.
+ *
+ * Vertices are identified by their vertex id in the graph. Edges are identified by their position in the
+ * outgoing edge arrays: the outgoing edges of vertex u are the edges outgoingOffset(u) to outgoingOffset(u+1)-1,
+ * in the same order as in the fragment. The incoming edges of each vertex are stored in a second index, again
+ * in the same order as in the fragment.
+ *
+ * The view does not reflect changes of the graph after its creation. Each edge keeps a reference to its
+ * {@link Loss}, such that trees computed on the view can be converted back into {@link FTree} objects without
+ * losing any information.
+ */
+public final class CompactGraph {
+
+    private final FGraph graph;
+    private final int[] colors;
+    private final int[] outgoingOffsets;
+    private final int[] sources, targets;
+    private final double[] weights;
+    private final int[] incomingOffsets;
+    private final int[] incomingEdges;
+    private final Loss[] losses;
+    private final int maxColor;
+
+    public CompactGraph(FGraph graph) {
+        this.graph = graph;
+        final int n = graph.numberOfVertices();
+        final int m = graph.numberOfEdges();
+        this.colors = new int[n];
+        this.outgoingOffsets = new int[n + 1];
+        this.incomingOffsets = new int[n + 1];
+        this.sources = new int[m];
+        this.targets = new int[m];
+        this.weights = new double[m];
+        this.losses = new Loss[m];
+        this.incomingEdges = new int[m];
+        int k = 0, maxColor = 0;
+        for (int u = 0; u < n; ++u) {
+            final Fragment f = graph.getFragmentAt(u);
+            colors[u] = f.getColor();
+            maxColor = Math.max(maxColor, f.getColor());
+            outgoingOffsets[u] = k;
+            incomingOffsets[u + 1] = incomingOffsets[u] + f.getInDegree();
+            for (int i = 0, outDegree = f.getOutDegree(); i < outDegree; ++i) {
+                final Loss l = f.getOutgoingEdge(i);
+                losses[k] = l;
+                sources[k] = u;
+                targets[k] = l.getTarget().getVertexId();
+                weights[k] = l.getWeight();
+                ++k;
+            }
+        }
+        outgoingOffsets[n] = k;
+        this.maxColor = maxColor;
+        // the position of an edge in the outgoing edges of its source is stored in the loss
+        for (int v = 0; v < n; ++v) {
+            final Fragment f = graph.getFragmentAt(v);
+            int j = incomingOffsets[v];
+            for (int i = 0, inDegree = f.getInDegree(); i < inDegree; ++i) {
+                final Loss l = f.getIncomingEdge(i);
+                incomingEdges[j++] = outgoingOffsets[l.getSource().getVertexId()] + l.sourceEdgeOffset;
+            }
+        }
+    }
+
+    public FGraph getGraph() {
+        return graph;
+    }
+
+    public int numberOfVertices() {
+        return colors.length;
+    }
+
+    public int numberOfEdges() {
+        return sources.length;
+    }
+
+    public int maxColor() {
+        return maxColor;
+    }
+
+    public int getColor(int vertex) {
+        return colors[vertex];
+    }
+
+    /**
+     * @return vertex id of the pseudo root
+     */
+    public int getRoot() {
+        return graph.getRoot().getVertexId();
+    }
+
+    public Fragment getFragment(int vertex) {
+        return graph.getFragmentAt(vertex);
+    }
+
+    public int getOutDegree(int vertex) {
+        return outgoingOffsets[vertex + 1] - outgoingOffsets[vertex];
+    }
+
+    public int getInDegree(int vertex) {
+        return incomingOffsets[vertex + 1] - incomingOffsets[vertex];
+    }
+
+    /**
+     * @return id of the first outgoing edge of the given vertex
+     */
+    public int outgoingOffset(int vertex) {
+        return outgoingOffsets[vertex];
+    }
+
+    /**
+     * @return id of the k-th outgoing edge of the given vertex
+     */
+    public int getOutgoingEdge(int vertex, int k) {
+        return outgoingOffsets[vertex] + k;
+    }
+
+    /**
+     * @return id of the k-th incoming edge of the given vertex
+     */
+    public int getIncomingEdge(int vertex, int k) {
+        return incomingEdges[incomingOffsets[vertex] + k];
+    }
+
+    public int getSource(int edge) {
+        return sources[edge];
+    }
+
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+
+    public double getWeight(int edge) {
+        return weights[edge];
+    }
+
+    /**
+     * @return the loss the given edge was created from
+     */
+    public Loss getLoss(int edge) {
+        return losses[edge];
+    }
+
+    /**
+     * @return ids of all edges, ordered by their targets like {@link FGraph#losses()}
+     */
+    public int[] edgesByTarget() {
+        return incomingEdges.clone();
+    }
+}
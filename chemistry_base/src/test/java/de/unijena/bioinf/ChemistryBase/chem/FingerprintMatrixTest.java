@@ -0,0 +1,94 @@
+package de.unijena.bioinf.ChemistryBase.chem;
+
+import de.unijena.bioinf.ChemistryBase.fp.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FingerprintMatrixTest {
+
+    private static final MaskedFingerprintVersion MASK = MaskedFingerprintVersion.buildMaskFor(CdkFingerprintVersion.getDefault()).disableAll().enable(10, 300).disable(50, 80).toMask();
+
+    @Test
+    public void testDeterministicTanimoto() {
+        final Random r = new Random(42);
+        final List<ArrayFingerprint> fps = randomFingerprints(r, 150);
+        final FingerprintMatrix matrix = FingerprintMatrix.fromFingerprints(MASK, fps);
+        for (int i = 0; i < fps.size(); ++i) {
+            assertArrayEquals(fps.get(i).toIndizesArray(), ((Fingerprint) matrix.getFingerprint(i)).toIndizesArray());
+        }
+        final double[][] all = matrix.tanimoto(matrix);
+        for (int i = 0; i < fps.size(); ++i) {
+            final double[] row = matrix.tanimoto(fps.get(i));
+            for (int j = 0; j < fps.size(); ++j) {
+                final double expected = Tanimoto.tanimoto(fps.get(i), fps.get(j));
+                assertEquals(expected, row[j], 0d);
+                assertEquals(expected, all[i][j], 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testMixedTanimoto() {
+        final Random r = new Random(7);
+        final List<ArrayFingerprint> fps = randomFingerprints(r, 20);
+        final List<ProbabilityFingerprint> probs = randomProbabilityFingerprints(r, 30);
+        final FingerprintMatrix deterministic = FingerprintMatrix.fromFingerprints(MASK, fps);
+        final FingerprintMatrix probabilistic = FingerprintMatrix.fromProbabilityFingerprints(MASK, probs);
+        final double[][] dp = deterministic.tanimoto(probabilistic);
+        final double[][] pd = probabilistic.tanimoto(deterministic);
+        for (int i = 0; i < fps.size(); ++i) {
+            for (int j = 0; j < probs.size(); ++j) {
+                final double expected = Tanimoto.tanimoto(fps.get(i), probs.get(j));
+                assertEquals(expected, dp[i][j], 0d);
+                assertEquals(expected, pd[j][i], 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testBatchedExactDP() {
+        final Random r = new Random(3);
+        final List<ArrayFingerprint> fps = randomFingerprints(r, 5);
+        final List<ProbabilityFingerprint> probs = randomProbabilityFingerprints(r, 20);
+        final FingerprintMatrix probabilistic = FingerprintMatrix.fromProbabilityFingerprints(MASK, probs);
+        for (ArrayFingerprint fp : fps) {
+            final Tanimoto.ProbabilisticTanimoto[] batch = probabilistic.probabilisticTanimoto(fp, false);
+            final Tanimoto.ProbabilisticTanimoto[] batchFixed = probabilistic.probabilisticTanimoto(fp, true);
+            for (int j = 0; j < probs.size(); ++j) {
+                final Tanimoto.ProbabilisticTanimoto single = Tanimoto.probabilisticTanimoto(probs.get(j), fp);
+                assertEquals(single.expectationValue(), batch[j].expectationValue(), 0d);
+                assertEquals(single.variance(), batch[j].variance(), 0d);
+                final Tanimoto.ProbabilisticTanimoto fixed = Tanimoto.probabilisticTanimotoFixedLength(probs.get(j), fp);
+                assertEquals(fixed.expectationValue(), batchFixed[j].expectationValue(), 0d);
+                assertEquals(fixed.variance(), batchFixed[j].variance(), 0d);
+            }
+        }
+    }
+
+    private static List<ArrayFingerprint> randomFingerprints(Random r, int n) {
+        final List<ArrayFingerprint> fps = new ArrayList<>();
+        final boolean[] bits = new boolean[MASK.size()];
+        for (int i = 0; i < n; ++i) {
+            for (int k = 0; k < bits.length; ++k) bits[k] = r.nextDouble() < 0.2;
+            fps.add(new BooleanFingerprint(MASK, bits).asArray());
+        }
+        return fps;
+    }
+
+    private static List<ProbabilityFingerprint> randomProbabilityFingerprints(Random r, int n) {
+        final List<ProbabilityFingerprint> fps = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            final double[] values = new double[MASK.size()];
+            for (int k = 0; k < values.length; ++k) values[k] = r.nextDouble() < 0.7 ? r.nextDouble() * 0.1 : r.nextDouble();
+            fps.add(new ProbabilityFingerprint(MASK, values));
+        }
+        return fps;
+    }
+
+}
@@ -0,0 +1,142 @@
+package de.unijena.bioinf.ChemistryBase.fp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MaskedFingerprintVersionTest {
+
+    @Test
+    public void testIndexTranslation() {
+        final CdkFingerprintVersion version = CdkFingerprintVersion.getExtended();
+        for (CdkFingerprintVersion.USED_FINGERPRINTS type : CdkFingerprintVersion.USED_FINGERPRINTS.values()) {
+            final MaskedFingerprintVersion mask = version.getMaskFor(type);
+            final BitSet reference = referenceMask(version, type);
+            int relative = 0;
+            for (int absolute = 0; absolute < version.size(); ++absolute) {
+                if (reference.get(absolute)) {
+                    assertTrue(mask.hasProperty(absolute));
+                    assertEquals(type.name(), relative, mask.getRelativeIndexOf(absolute));
+                    assertEquals(type.name(), absolute, mask.getAbsoluteIndexOf(relative));
+                    ++relative;
+                } else {
+                    assertFalse(mask.hasProperty(absolute));
+                    assertEquals(-1, mask.getRelativeIndexOf(absolute));
+                }
+            }
+            assertEquals(relative, mask.size());
+        }
+    }
+
+    @Test
+    public void testMaskFingerprints() {
+        final CdkFingerprintVersion version = CdkFingerprintVersion.getExtended();
+        final Random r = new Random(12);
+        for (CdkFingerprintVersion.USED_FINGERPRINTS type : CdkFingerprintVersion.USED_FINGERPRINTS.values()) {
+            final MaskedFingerprintVersion mask = version.getMaskFor(type);
+            final BitSet reference = referenceMask(version, type);
+            final List<ArrayFingerprint> fps = new ArrayList<>();
+            final List<ProbabilityFingerprint> probs = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                final boolean[] bits = new boolean[version.size()];
+                final double[] values = new double[version.size()];
+                for (int k = 0; k < bits.length; ++k) {
+                    bits[k] = r.nextDouble() < 0.1;
+                    values[k] = r.nextDouble();
+                }
+                final BooleanFingerprint fp = new BooleanFingerprint(version, bits);
+                final short[] expected = referenceMaskIndizes(reference, fp.toIndizesArray());
+
+                assertArrayEquals(type.name(), expected, mask.mask(fp.asArray()).toIndizesArray());
+                assertArrayEquals(type.name(), expected, mask.mask(fp).toIndizesArray());
+                // masking an already masked fingerprint
+                assertArrayEquals(type.name(), expected, mask.mask(mask.mask(fp.asArray())).toIndizesArray());
+
+                final ProbabilityFingerprint prob = mask.mask(new ProbabilityFingerprint(version, values));
+                int k = 0;
+                for (int absolute = reference.nextSetBit(0); absolute >= 0; absolute = reference.nextSetBit(absolute + 1)) {
+                    assertEquals(values[absolute], prob.getProbability(absolute), 0d);
+                    ++k;
+                }
+                assertEquals(k, prob.toProbabilityArray().length);
+
+                fps.add(fp.asArray());
+                probs.add(new ProbabilityFingerprint(version, values));
+            }
+
+            // bulk operations
+            final FingerprintMatrix maskedMatrix = mask.mask(FingerprintMatrix.fromFingerprints(version, fps));
+            final FingerprintMatrix maskedProbs = mask.mask(FingerprintMatrix.fromProbabilityFingerprints(version, probs));
+            for (int i = 0; i < fps.size(); ++i) {
+                assertArrayEquals(type.name(), mask.mask(fps.get(i)).toIndizesArray(), ((Fingerprint) maskedMatrix.getFingerprint(i)).toIndizesArray());
+                assertArrayEquals(type.name(), mask.mask(probs.get(i)).toProbabilityArray(), maskedProbs.getFingerprint(i).toProbabilityArray(), 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testInvertSparseMask() {
+        final CdkFingerprintVersion version = CdkFingerprintVersion.getExtended();
+        // only a few low indizes are enabled, so all higher words of the mask are zero
+        final MaskedFingerprintVersion mask = MaskedFingerprintVersion.buildMaskFor(version).disableAll().enable(3).enable(5, 9).toMask();
+        final BitSet expected = new BitSet(version.size());
+        expected.set(0, version.size());
+        expected.clear(3);
+        expected.clear(5, 9);
+        assertInverted(version, expected, mask.invert());
+        assertInverted(version, expected, mask.modify().invert().toMask());
+        assertArrayEquals(mask.allowedIndizes(), mask.invert().invert().allowedIndizes());
+    }
+
+    @Test
+    public void testInvertMaskWithZeroEnd() {
+        final CdkFingerprintVersion version = CdkFingerprintVersion.getExtended();
+        // the last 200 indizes are disabled
+        final int end = version.size() - 200;
+        final MaskedFingerprintVersion mask = MaskedFingerprintVersion.buildMaskFor(version).disableAll().enable(10, end).toMask();
+        final BitSet expected = new BitSet(version.size());
+        expected.set(0, 10);
+        expected.set(end, version.size());
+        assertInverted(version, expected, mask.invert());
+        assertInverted(version, expected, mask.modify().invert().toMask());
+        assertArrayEquals(mask.allowedIndizes(), mask.invert().invert().allowedIndizes());
+
+        // inverting a mask without any enabled index enables the complete fingerprint
+        final MaskedFingerprintVersion empty = MaskedFingerprintVersion.buildMaskFor(version).disableAll().toMask();
+        assertEquals(version.size(), empty.invert().size());
+        assertTrue(empty.invert().isNotFiltering());
+        assertEquals(0, MaskedFingerprintVersion.buildMaskFor(version).invert().toMask().size());
+    }
+
+    private static void assertInverted(FingerprintVersion version, BitSet expected, MaskedFingerprintVersion inverted) {
+        assertEquals(expected.cardinality(), inverted.size());
+        for (int absolute = 0; absolute < version.size(); ++absolute)
+            assertEquals(String.valueOf(absolute), expected.get(absolute), inverted.hasProperty(absolute));
+    }
+
+    /*
+     * reference implementation: sorted merge of enabled indizes with the fingerprint indizes
+     */
+    private static short[] referenceMaskIndizes(BitSet reference, short[] indizes) {
+        final short[] buffer = new short[indizes.length];
+        int k = 0;
+        for (short index : indizes) {
+            if (reference.get(index)) buffer[k++] = index;
+        }
+        return Arrays.copyOf(buffer, k);
+    }
+
+    private static BitSet referenceMask(CdkFingerprintVersion version, CdkFingerprintVersion.USED_FINGERPRINTS type) {
+        final BitSet set = new BitSet(version.size());
+        final int offset = version.getOffsetFor(type);
+        set.set(offset, offset + type.length);
+        return set;
+    }
+
+}
@@ -0,0 +1,95 @@
+package de.unijena.bioinf.ChemistryBase.ms.ft;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CompactGraphTest {
+
+    /**
+     * pseudo root -> a, a -> b, a -> d, b -> d, c -> d. The edge a -> c is deleted, so the last outgoing edge of a is
+     * moved into its position.
+     */
+    private static FGraph exampleGraph() {
+        final FGraph graph = new FGraph();
+        final Fragment a = graph.addRootVertex(MolecularFormula.parse("C6H12O6"));
+        final Fragment b = graph.addFragment(MolecularFormula.parse("C6H10O5"));
+        final Fragment c = graph.addFragment(MolecularFormula.parse("C5H12O4"));
+        final Fragment d = graph.addFragment(MolecularFormula.parse("C4H8O4"));
+        a.setColor(3);
+        b.setColor(2);
+        c.setColor(1);
+        d.setColor(0);
+        graph.getRoot().getOutgoingEdge(0).setWeight(1d);
+        graph.addLoss(a, b).setWeight(0.5);
+        final Loss ac = graph.addLoss(a, c);
+        ac.setWeight(-0.2);
+        graph.addLoss(c, d).setWeight(0.7);
+        graph.addLoss(b, d).setWeight(1.5);
+        graph.addLoss(a, d).setWeight(0.1);
+        graph.deleteLoss(ac);
+        return graph;
+    }
+
+    @Test
+    public void testEdgeArrays() {
+        final FGraph graph = exampleGraph();
+        final CompactGraph compact = new CompactGraph(graph);
+        assertSame(graph, compact.getGraph());
+        assertEquals(5, compact.numberOfVertices());
+        assertEquals(5, compact.numberOfEdges());
+        assertEquals(0, compact.getRoot());
+        assertEquals(3, compact.maxColor());
+        assertArrayEquals(new int[]{0, 3, 2, 1, 0}, new int[]{compact.getColor(0), compact.getColor(1), compact.getColor(2), compact.getColor(3), compact.getColor(4)});
+        // outgoing edges: 0: root -> a, 1: a -> b, 2: a -> d, 3: b -> d, 4: c -> d
+        final int[] offsets = new int[6];
+        for (int u = 0; u <= 5; ++u) offsets[u] = compact.outgoingOffset(u);
+        assertArrayEquals(new int[]{0, 1, 3, 4, 5, 5}, offsets);
+        assertArrayEquals(new int[]{1, 2, 1, 1, 0}, new int[]{compact.getOutDegree(0), compact.getOutDegree(1), compact.getOutDegree(2), compact.getOutDegree(3), compact.getOutDegree(4)});
+        assertArrayEquals(new int[]{0, 1, 1, 2, 3}, new int[]{compact.getSource(0), compact.getSource(1), compact.getSource(2), compact.getSource(3), compact.getSource(4)});
+        assertArrayEquals(new int[]{1, 2, 4, 4, 4}, new int[]{compact.getTarget(0), compact.getTarget(1), compact.getTarget(2), compact.getTarget(3), compact.getTarget(4)});
+        assertArrayEquals(new double[]{1d, 0.5, 0.1, 1.5, 0.7}, new double[]{compact.getWeight(0), compact.getWeight(1), compact.getWeight(2), compact.getWeight(3), compact.getWeight(4)}, 0d);
+        // incoming edges of d in the order of the fragment: c -> d, b -> d, a -> d
+        assertEquals(3, compact.getInDegree(4));
+        assertArrayEquals(new int[]{4, 3, 2}, new int[]{compact.getIncomingEdge(4, 0), compact.getIncomingEdge(4, 1), compact.getIncomingEdge(4, 2)});
+        assertEquals(0, compact.getInDegree(3));
+        assertArrayEquals(new int[]{0, 1, 4, 3, 2}, compact.edgesByTarget());
+    }
+
+    @Test
+    public void testEdgesMatchLosses() {
+        final FGraph graph = exampleGraph();
+        final CompactGraph compact = new CompactGraph(graph);
+        for (int u = 0; u < compact.numberOfVertices(); ++u) {
+            final Fragment f = graph.getFragmentAt(u);
+            assertSame(f, compact.getFragment(u));
+            assertEquals(f.getOutDegree(), compact.getOutDegree(u));
+            for (int k = 0; k < f.getOutDegree(); ++k)
+                assertSame(f.getOutgoingEdge(k), compact.getLoss(compact.getOutgoingEdge(u, k)));
+            assertEquals(f.getInDegree(), compact.getInDegree(u));
+            for (int k = 0; k < f.getInDegree(); ++k)
+                assertSame(f.getIncomingEdge(k), compact.getLoss(compact.getIncomingEdge(u, k)));
+        }
+        final int[] byTarget = compact.edgesByTarget();
+        int k = 0;
+        for (Loss l : graph.losses()) {
+            final int e = byTarget[k++];
+            assertSame(l, compact.getLoss(e));
+            assertEquals(l.getSource().getVertexId(), compact.getSource(e));
+            assertEquals(l.getTarget().getVertexId(), compact.getTarget(e));
+            assertEquals(l.getWeight(), compact.getWeight(e), 0d);
+        }
+    }
+
+    @Test
+    public void testViewIgnoresLaterChanges() {
+        final FGraph graph = exampleGraph();
+        final CompactGraph compact = new CompactGraph(graph);
+        graph.getRoot().getOutgoingEdge(0).setWeight(5d);
+        graph.addLoss(graph.getFragmentAt(1), graph.getFragmentAt(3));
+        assertEquals(1d, compact.getWeight(0), 0d);
+        assertEquals(5, compact.numberOfEdges());
+    }
+
+}
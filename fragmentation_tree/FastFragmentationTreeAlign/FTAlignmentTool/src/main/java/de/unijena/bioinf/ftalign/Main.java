@@ -23,6 +23,7 @@ import de.unijena.bioinf.counting.*;
 import de.unijena.bioinf.ftalign.analyse.FTDataElement;
 import de.unijena.bioinf.ftalign.analyse.FTDataset;
 import de.unijena.bioinf.ftalign.analyse.FTDataset.AfterCallback;
+import de.unijena.bioinf.ftalign.analyse.ScoreMatrixFile;
 import de.unijena.bioinf.ftalign.analyse.TreeSizeNormalizer;
 import de.unijena.bioinf.ftalign.graphics.GraphicalBacktrace;
 import de.unijena.bioinf.ftalign.graphics.GraphicalBacktrace2;
@@ -95,6 +96,14 @@ public class Main {
 
     private final static String METHOD_OPT = "computation method. Either <alignment> (default), <paths> or <subtree>";
 
+    private final static String BINARY_OPT = "write scores tile-wise into the given binary matrix file instead of keeping " +
+            "the complete matrix in memory. If the file already exists, the computation is resumed. Without --align, " +
+            "the existing file is only exported via --matrix, --csv or --neighbours.";
+    private final static String TILE_OPT = "tile size (rows and columns) of the binary matrix file";
+    private final static String NEIGHBOURS_OPT = "print for each tree the k best scoring other trees as csv " +
+            "(each row is a tuple (tree, neighbour, rank, score)). Needs --binary";
+    private final static String TOPK_OPT = "number of neighbours for --neighbours";
+
     private final static String WEIGHTING_OPT = "weighting for trees. Prove a csv file with two columns, " +
             "one for the formula and one for the score. Use a further column with formula '*' to give a score for any formula.";
     private static final NumberFormat decimalFormat = NumberFormat.getInstance(Locale.ENGLISH);
@@ -178,6 +187,8 @@ public class Main {
      * --tanimoto=file file with tanimoto scores
      * --benchmark=[file] print benchmark as csv
      * --runtime measure runtime of complete computation
+     * --binary=file write (or resume) a tiled binary score matrix
+     * --neighbours[=file] -k n print the n best neighbours of each tree (needs --binary)
      *
      * @param args
      */
@@ -246,6 +257,11 @@ public class Main {
 
         final OptionSpec<String> method = parser.accepts("method", METHOD_OPT).withRequiredArg().ofType(String.class).defaultsTo("alignment");
 
+        final OptionSpec<File> binary = parser.accepts("binary", BINARY_OPT).withRequiredArg().ofType(File.class);
+        final OptionSpec<Integer> tileSize = parser.accepts("tile", TILE_OPT).withRequiredArg().ofType(Integer.class).defaultsTo(256);
+        final OptionSpec<File> neighbours = parser.accepts("neighbours", NEIGHBOURS_OPT).withOptionalArg().ofType(File.class);
+        final OptionSpec<Integer> topk = parser.accepts("k", TOPK_OPT).withRequiredArg().ofType(Integer.class).defaultsTo(10);
+
         final OptionSpec<File> weightingOpt = parser.acceptsAll(asList("w", "weights"), WEIGHTING_OPT).withOptionalArg().ofType(File.class);
 
         parser.accepts("version");
@@ -289,6 +305,27 @@ public class Main {
         final List<PrintStream> openStreams = new ArrayList<PrintStream>();
         final PrintStream matrixOut = setStream(set, matrix);
         final PrintStream csvOut = setStream(set, csv);
+        final PrintStream neighboursOut = setStream(set, neighbours);
+        if (neighboursOut != null && !set.has(binary)) {
+            System.err.println("--neighbours needs a binary matrix file (--binary)");
+            System.exit(1);
+        }
+        if (set.has(binary) && leftSet.isEmpty()) {
+            // export only
+            try {
+                final ScoreMatrixFile matrixFile = ScoreMatrixFile.open(binary.value(set));
+                try {
+                    exportBinaryMatrix(matrixFile, matrixOut, neighboursOut, set.valueOf(topk));
+                } finally {
+                    matrixFile.close();
+                }
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            if (csvOut != null) System.err.println("--csv needs the input trees (--align) and is ignored");
+            return;
+        }
         final PrintStream corOut = setStream(set, tcor);
         final boolean backtracking = set.has(backtrack);
         final boolean backtrackInDir;
@@ -529,6 +566,40 @@ public class Main {
             }
             benchmarkOut.close();
         }
+        if (set.has(binary)) {
+            if (set.has("f")) {
+                System.err.println("fingerprints need the complete matrix in memory and cannot be combined with --binary");
+                System.exit(1);
+            }
+            try {
+                final String[] rowNames = new String[dataset.rows()], colNames = new String[dataset.cols()];
+                for (int i = 0; i < rowNames.length; ++i) rowNames[i] = dataset.getRowElement(i).getName();
+                for (int j = 0; j < colNames.length; ++j) colNames[j] = dataset.getColElement(j).getName();
+                final ScoreMatrixFile matrixFile = ScoreMatrixFile.openOrCreate(binary.value(set), rowNames, colNames,
+                        dataset.isSymetric(), set.valueOf(tileSize));
+                try {
+                    dataset.computeAllTiled(matrixFile, usedCores);
+                    if (backtrackOut != null) backtrackOut.close();
+                    if (csvOut != null) {
+                        for (int i = 0; i < matrixFile.rows(); ++i) {
+                            int startJ = (matrixFile.isSymetric() ? (set.has("s") ? i : i + 1) : 0);
+                            for (int j = startJ; j < matrixFile.cols(); ++j) {
+                                printCSVRow(csvOut, dataset.getRowElement(i), dataset.getColElement(j), matrixFile.get(i, j));
+                            }
+                        }
+                        csvOut.close();
+                    }
+                    exportBinaryMatrix(matrixFile, matrixOut, neighboursOut, set.valueOf(topk));
+                } finally {
+                    matrixFile.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+
         if (!set.has("f")) {
             if (csvOut != null) {
                 dataset.pushAfterCallback(new AfterCallback() {
@@ -569,6 +640,19 @@ public class Main {
         if (matrixOut != null) matrixOut.close();
     }
 
+    private static void exportBinaryMatrix(ScoreMatrixFile matrixFile, PrintStream matrixOut, PrintStream neighboursOut, int k) throws IOException {
+        if (matrixOut != null) {
+            final BufferedWriter bw = new BufferedWriter(new PrintWriter(matrixOut));
+            matrixFile.writeCSV(bw, "scores");
+            bw.close();
+        }
+        if (neighboursOut != null) {
+            final BufferedWriter bw = new BufferedWriter(new PrintWriter(neighboursOut));
+            matrixFile.writeTopK(bw, k);
+            bw.close();
+        }
+    }
+
     private static class CountingFactory extends TreeAlignmentAlgorithm.Factory<Fragment> {
         private boolean countSubtrees;
         private Weighting<Fragment> weighting;
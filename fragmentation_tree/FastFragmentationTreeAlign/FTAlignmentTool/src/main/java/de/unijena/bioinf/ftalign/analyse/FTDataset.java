@@ -25,6 +25,7 @@ import de.unijena.bioinf.treealign.StackedBacktrace;
 import de.unijena.bioinf.treealign.TreeAlignmentAlgorithm;
 import de.unijena.bioinf.treealign.TreeAlignmentAlgorithm.Factory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -40,7 +41,7 @@ public class FTDataset {
     private final List<FTDataElement> rights;
     private final Factory<Fragment> factory;
     private final boolean symetric;
-    private final double[][] scoreMatrix;
+    private double[][] scoreMatrix;
     private volatile Backtrace<Fragment> tracer;
     private volatile Normalizer normalizer;
     private volatile List<BeforeCallback> beforeCallbacks;
@@ -52,10 +53,6 @@ public class FTDataset {
                       Factory<Fragment> factory) {
         this.lefts = new ArrayList<FTDataElement>(lefts);
         this.rights = new ArrayList<FTDataElement>(rights);
-        this.scoreMatrix = new double[lefts.size()][rights.size()];
-        for (double[] row : scoreMatrix) {
-            Arrays.fill(row, Double.NaN);
-        }
         this.symetric = symetric;
         this.factory = factory;
         this.tracer = null;
@@ -123,7 +120,22 @@ public class FTDataset {
         }
     }
 
+    /*
+     * the score matrix is allocated lazily, such that computeAllTiled never needs the complete
+     * matrix in memory
+     */
+    private synchronized double[][] matrix() {
+        if (scoreMatrix == null) {
+            scoreMatrix = new double[lefts.size()][rights.size()];
+            for (double[] row : scoreMatrix) {
+                Arrays.fill(row, Double.NaN);
+            }
+        }
+        return scoreMatrix;
+    }
+
     public CSVMatrix toCSV() {
+        final double[][] scoreMatrix = matrix();
         final double[][] matrixCopy = new double[lefts.size()][];
         for (int row = 0; row < lefts.size(); ++row) {
             matrixCopy[row] = Arrays.copyOf(scoreMatrix[row], scoreMatrix[row].length);
@@ -232,8 +244,67 @@ public class FTDataset {
         }
     }
 
+    /**
+     * Computes all scores tile by tile and writes each finished tile into the given score matrix file
+     * instead of keeping the matrix in memory. Tiles which are already marked as finished in the file are
+     * skipped, so an interrupted computation can be resumed. For symetric datasets only the upper tiles
+     * are computed.
+     */
+    public void computeAllTiled(final ScoreMatrixFile out, final int numberOfCPUs) throws IOException {
+        if (numberOfCPUs < 1) throw new IllegalArgumentException("illegal number of threads: " + numberOfCPUs);
+        if (out.rows() != lefts.size() || out.cols() != rights.size() || out.isSymetric() != symetric)
+            throw new IllegalArgumentException("score matrix file does not match the dataset dimensions");
+        final ExecutorService executor = Executors.newFixedThreadPool(numberOfCPUs);
+        final ArrayList<Future<?>> queue = new ArrayList<Future<?>>();
+        for (int ti = 0; ti < out.tileRows(); ++ti) {
+            for (int tj = (symetric ? ti : 0); tj < out.tileCols(); ++tj) {
+                if (out.isFinished(ti, tj)) continue;
+                final int tileRow = ti, tileCol = tj;
+                queue.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws IOException {
+                        out.writeTile(tileRow, tileCol, computeTile(tileRow, tileCol, out.getTileSize()));
+                        return true;
+                    }
+                }));
+            }
+        }
+        executor.shutdown();
+        try {
+            for (Future<?> f : queue) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private double[] computeTile(int tileRow, int tileCol, int tileSize) {
+        final int rowOffset = tileRow * tileSize, colOffset = tileCol * tileSize;
+        final int height = Math.min(tileSize, lefts.size() - rowOffset);
+        final int width = Math.min(tileSize, rights.size() - colOffset);
+        final double[] tile = new double[height * width];
+        for (int i = 0; i < height; ++i) {
+            for (int j = 0; j < width; ++j) {
+                final int row = rowOffset + i, col = colOffset + j;
+                if (symetric && col < row) {
+                    // lower half of a diagonal tile: mirror the already computed value
+                    tile[i * width + j] = tile[(col - rowOffset) * width + (row - colOffset)];
+                } else {
+                    tile[i * width + j] = score(row, col);
+                }
+            }
+        }
+        return tile;
+    }
+
     public double get(int i, int j) {
-        return scoreMatrix[i][j];
+        return matrix()[i][j];
     }
 
     public void computeFingerprints() {
@@ -250,6 +321,7 @@ public class FTDataset {
     }
 
     private void computeSymetricFingerprints() {
+        final double[][] scoreMatrix = matrix();
         final double[][] newMatrix = new double[lefts.size()][rights.size()];
         for (int i = 0; i < lefts.size(); ++i) {
             final double[] vectorLeft = scoreMatrix[i];
@@ -266,16 +338,25 @@ public class FTDataset {
     }
 
     public double compute(int i, int j) {
+        final double[][] scoreMatrix = matrix();
         if (!Double.isNaN(scoreMatrix[i][j])) return scoreMatrix[i][j];
+        return set(i, j, score(i, j));
+    }
+
+    private double score(int i, int j) {
         if (i == j && symetric && !forceSelf) {
             final float score = factory.getScoring().selfAlignScore(lefts.get(i).getTree().getRoot());
-            return set(i, i, normalize(lefts.get(i).getTree(), rights.get(i).getTree(), score));
+            return normalize(lefts.get(i).getTree(), rights.get(i).getTree(), score);
         } else {
-            return forceCompute(i, j);
+            return align(i, j);
         }
     }
 
     private double forceCompute(int i, int j) {
+        return set(i, j, align(i, j));
+    }
+
+    private double align(int i, int j) {
         final FTDataElement left = lefts.get(i);
         final FTDataElement right = rights.get(j);
         execBeforeCallback(left, right);
@@ -283,7 +364,6 @@ public class FTDataset {
         final float origScore = alg.compute();
 
         final double score = normalize(left.getTree(), right.getTree(), origScore);
-        set(i, j, score);
         if (tracer != null || afterCallbacks != null) {
             synchronized (this) {
                 if (tracer != null) alg.backtrace(tracer);
@@ -301,6 +381,7 @@ public class FTDataset {
     }
 
     private double set(int i, int j, double value) {
+        final double[][] scoreMatrix = matrix();
         synchronized (this) {
             scoreMatrix[i][j] = value;
             if (symetric && (i != j)) {
@@ -0,0 +1,390 @@
+/*
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2015 Kai Dührkop
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.bioinf.ftalign.analyse;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Binary score matrix on disk. The matrix is written tile by tile, such that a computation can be resumed
+ * after the process died and the complete matrix never has to be kept in memory.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int magic, int version, int rows, int cols, byte symetric, int tileSize, long tileTableOffset, long dataOffset
+ * row names (modified UTF-8), column names (only if not symetric)
+ * one byte per tile (1 = tile is completely written)
+ * rows*cols doubles in row major order, starting at dataOffset (8 byte aligned)
+ * </pre>
+ * The data block can be memory mapped directly. Symetric matrices are stored completely, although only
+ * the upper tiles have to be computed.
+ */
+public class ScoreMatrixFile implements Closeable {
+
+    private final static int MAGIC = 0x4654534D; // FTSM
+    private final static int VERSION = 1;
+    private final static int MAX_SEGMENT_SIZE = 1 << 30;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int rows, cols, tileSize;
+    private final boolean symetric;
+    private final String[] rowNames, colNames;
+    private final long tileTableOffset, dataOffset;
+    private final byte[] finishedTiles;
+    private final int tileRows, tileCols;
+    private MappedByteBuffer[] segments;
+    private int rowsPerSegment;
+
+    private ScoreMatrixFile(File file, RandomAccessFile raf, String[] rowNames, String[] colNames, boolean symetric,
+                            int tileSize, long tileTableOffset, long dataOffset, byte[] finishedTiles) {
+        this.file = file;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.rowNames = rowNames;
+        this.colNames = colNames;
+        this.rows = rowNames.length;
+        this.cols = colNames.length;
+        this.symetric = symetric;
+        this.tileSize = tileSize;
+        this.tileRows = (rows + tileSize - 1) / tileSize;
+        this.tileCols = (cols + tileSize - 1) / tileSize;
+        this.tileTableOffset = tileTableOffset;
+        this.dataOffset = dataOffset;
+        this.finishedTiles = finishedTiles;
+    }
+
+    /**
+     * Opens the given score matrix file. If the file exists, its header has to match the given names and
+     * the already finished tiles are kept. Otherwise, a new file is created.
+     */
+    public static ScoreMatrixFile openOrCreate(File file, String[] rowNames, String[] colNames, boolean symetric, int tileSize) throws IOException {
+        if (tileSize <= 0) throw new IllegalArgumentException("illegal tile size: " + tileSize);
+        if (symetric && !Arrays.equals(rowNames, colNames))
+            throw new IllegalArgumentException("symetric matrix expects same row and column names");
+        if (file.exists() && file.length() > 0) {
+            final ScoreMatrixFile existing = open(file, true);
+            if (existing.symetric != symetric || existing.tileSize != tileSize || !Arrays.equals(existing.rowNames, rowNames) || !Arrays.equals(existing.colNames, colNames)) {
+                existing.close();
+                throw new IOException("Cannot resume '" + file + "': the stored matrix has different dimension, names or tile size");
+            }
+            return existing;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(rowNames.length);
+        out.writeInt(colNames.length);
+        out.writeBoolean(symetric);
+        out.writeInt(tileSize);
+        final int offsetPosition = out.size();
+        out.writeLong(0L);
+        out.writeLong(0L);
+        for (String name : rowNames) out.writeUTF(name);
+        if (!symetric) for (String name : colNames) out.writeUTF(name);
+        out.flush();
+        final long tileTableOffset = out.size();
+        final int numberOfTiles = ((rowNames.length + tileSize - 1) / tileSize) * ((colNames.length + tileSize - 1) / tileSize);
+        final long dataOffset = align8(tileTableOffset + numberOfTiles);
+        final ByteBuffer header = ByteBuffer.wrap(bytes.toByteArray());
+        header.putLong(offsetPosition, tileTableOffset);
+        header.putLong(offsetPosition + 8, dataOffset);
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(dataOffset + 8L * rowNames.length * colNames.length);
+        raf.getChannel().write(header, 0);
+        final ScoreMatrixFile matrix = new ScoreMatrixFile(file, raf, rowNames.clone(), colNames.clone(), symetric, tileSize, tileTableOffset, dataOffset, new byte[numberOfTiles]);
+        matrix.fill(Double.NaN);
+        return matrix;
+    }
+
+    /**
+     * Opens an existing score matrix file, e.g. for export.
+     */
+    public static ScoreMatrixFile open(File file) throws IOException {
+        return open(file, false);
+    }
+
+    private static ScoreMatrixFile open(File file, boolean writable) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC) throw new IOException("'" + file + "' is not a score matrix file");
+                final int version = in.readInt();
+                if (version != VERSION) throw new IOException("Unsupported score matrix version " + version);
+                final int rows = in.readInt();
+                final int cols = in.readInt();
+                final boolean symetric = in.readBoolean();
+                final int tileSize = in.readInt();
+                final long tileTableOffset = in.readLong();
+                final long dataOffset = in.readLong();
+                final String[] rowNames = new String[rows];
+                for (int i = 0; i < rows; ++i) rowNames[i] = in.readUTF();
+                final String[] colNames;
+                if (symetric) {
+                    colNames = rowNames;
+                } else {
+                    colNames = new String[cols];
+                    for (int i = 0; i < cols; ++i) colNames[i] = in.readUTF();
+                }
+                final int numberOfTiles = ((rows + tileSize - 1) / tileSize) * ((cols + tileSize - 1) / tileSize);
+                final byte[] tiles = new byte[numberOfTiles];
+                raf.seek(tileTableOffset);
+                raf.readFully(tiles);
+                return new ScoreMatrixFile(file, raf, rowNames, colNames, symetric, tileSize, tileTableOffset, dataOffset, tiles);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private static long align8(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public boolean isSymetric() {
+        return symetric;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int tileRows() {
+        return tileRows;
+    }
+
+    public int tileCols() {
+        return tileCols;
+    }
+
+    public String getRowName(int row) {
+        return rowNames[row];
+    }
+
+    public String getColName(int col) {
+        return colNames[col];
+    }
+
+    /**
+     * @return true if the given tile was already written. For symetric matrices, tiles below the diagonal
+     * are finished together with their mirrored tile.
+     */
+    public synchronized boolean isFinished(int tileRow, int tileCol) {
+        if (symetric && tileRow > tileCol) return isFinished(tileCol, tileRow);
+        return finishedTiles[tileRow * tileCols + tileCol] != 0;
+    }
+
+    public synchronized int numberOfFinishedTiles() {
+        int n = 0;
+        for (byte b : finishedTiles) if (b != 0) ++n;
+        return n;
+    }
+
+    /**
+     * Writes the scores of a tile and marks it as finished. The scores are given in row major order with
+     * the width of the tile (which is smaller than tileSize for the last tile column).
+     * The data is forced to disk before the tile is marked, so a crash never leaves a finished tile with
+     * missing scores. This method is thread safe.
+     */
+    public void writeTile(int tileRow, int tileCol, double[] scores) throws IOException {
+        final int rowOffset = tileRow * tileSize, colOffset = tileCol * tileSize;
+        final int height = Math.min(tileSize, rows - rowOffset), width = Math.min(tileSize, cols - colOffset);
+        final ByteBuffer buffer = ByteBuffer.allocate(width * 8);
+        for (int i = 0; i < height; ++i) {
+            buffer.clear();
+            buffer.asDoubleBuffer().put(scores, i * width, width);
+            writeFully(buffer, position(rowOffset + i, colOffset));
+        }
+        if (symetric && tileRow != tileCol) {
+            final ByteBuffer column = ByteBuffer.allocate(height * 8);
+            for (int j = 0; j < width; ++j) {
+                column.clear();
+                final DoubleBuffer db = column.asDoubleBuffer();
+                for (int i = 0; i < height; ++i) db.put(scores[i * width + j]);
+                writeFully(column, position(colOffset + j, rowOffset));
+            }
+        }
+        channel.force(false);
+        synchronized (this) {
+            finishedTiles[tileRow * tileCols + tileCol] = 1;
+            writeFully(ByteBuffer.wrap(new byte[]{1}), tileTableOffset + tileRow * tileCols + tileCol);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private long position(int row, int col) {
+        return dataOffset + 8L * ((long) row * cols + col);
+    }
+
+    private void fill(double value) throws IOException {
+        final ByteBuffer row = ByteBuffer.allocate(cols * 8);
+        final double[] values = new double[cols];
+        Arrays.fill(values, value);
+        row.asDoubleBuffer().put(values);
+        for (int i = 0; i < rows; ++i) {
+            row.clear();
+            writeFully(row, position(i, 0));
+        }
+    }
+
+    /**
+     * @return the score in the given cell. The data block is memory mapped on first access.
+     */
+    public double get(int row, int col) throws IOException {
+        final MappedByteBuffer[] segments = getSegments();
+        final int segment = row / rowsPerSegment;
+        return segments[segment].getDouble(8 * ((row - segment * rowsPerSegment) * cols + col));
+    }
+
+    /**
+     * reads a complete row into the given array
+     */
+    public void getRow(int row, double[] values) throws IOException {
+        final MappedByteBuffer[] segments = getSegments();
+        final int segment = row / rowsPerSegment;
+        final ByteBuffer buf = segments[segment].duplicate();
+        buf.position(8 * (row - segment * rowsPerSegment) * cols);
+        buf.asDoubleBuffer().get(values, 0, cols);
+    }
+
+    private synchronized MappedByteBuffer[] getSegments() throws IOException {
+        if (segments == null) {
+            this.rowsPerSegment = Math.max(1, MAX_SEGMENT_SIZE / Math.max(1, cols * 8));
+            final MappedByteBuffer[] buffers = new MappedByteBuffer[(rows + rowsPerSegment - 1) / rowsPerSegment];
+            for (int k = 0; k < buffers.length; ++k) {
+                final int from = k * rowsPerSegment;
+                final int n = Math.min(rowsPerSegment, rows - from);
+                buffers[k] = channel.map(FileChannel.MapMode.READ_ONLY, position(from, 0), 8L * n * cols);
+                buffers[k].order(ByteOrder.BIG_ENDIAN);
+            }
+            this.segments = buffers;
+        }
+        return segments;
+    }
+
+    /**
+     * Exports the matrix in the same format as {@link de.unijena.bioinf.ftalign.CSVMatrix#write}, row by row.
+     */
+    public void writeCSV(Writer writer, String dummyHeader) throws IOException {
+        final NumberFormat formatter = NumberFormat.getNumberInstance(Locale.ENGLISH);
+        formatter.setGroupingUsed(false);
+        if (dummyHeader != null) {
+            writer.write('"');
+            writer.write(dummyHeader);
+            writer.write('"');
+            if (cols > 0) writer.write(',');
+        }
+        for (int j = 0; j < cols; ++j) {
+            writer.write('"');
+            writer.write(colNames[j]);
+            writer.write('"');
+            writer.write(j + 1 == cols ? '\n' : ',');
+        }
+        final double[] row = new double[cols];
+        for (int i = 0; i < rows; ++i) {
+            getRow(i, row);
+            writer.write('"');
+            writer.write(rowNames[i]);
+            writer.write('"');
+            if (cols > 0) writer.write(',');
+            for (int j = 0; j < cols; ++j) {
+                writer.write(formatter.format(row[j]));
+                writer.write(j + 1 == cols ? '\n' : ',');
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Exports a sparse neighbour list: for each row the k columns with highest score, as csv tuples
+     * (row, neighbour, rank, score). Self hits are ignored in symetric matrices, NaN entries are always ignored.
+     */
+    public void writeTopK(Writer writer, int k) throws IOException {
+        if (k <= 0) throw new IllegalArgumentException("k has to be positive");
+        final NumberFormat formatter = NumberFormat.getNumberInstance(Locale.ENGLISH);
+        formatter.setGroupingUsed(false);
+        writer.write("row,neighbour,rank,score\n");
+        final double[] row = new double[cols];
+        final int[] best = new int[k];
+        for (int i = 0; i < rows; ++i) {
+            getRow(i, row);
+            int size = 0;
+            for (int j = 0; j < cols; ++j) {
+                final double score = row[j];
+                if (Double.isNaN(score) || (symetric && i == j)) continue;
+                if (size == k && score <= row[best[size - 1]]) continue;
+                // insertion into the sorted list of the k best columns
+                int pos = (size < k) ? size++ : size - 1;
+                while (pos > 0 && row[best[pos - 1]] < score) {
+                    best[pos] = best[pos - 1];
+                    --pos;
+                }
+                best[pos] = j;
+            }
+            for (int r = 0; r < size; ++r) {
+                writer.write('"');
+                writer.write(rowNames[i]);
+                writer.write("\",\"");
+                writer.write(colNames[best[r]]);
+                writer.write("\",");
+                writer.write(String.valueOf(r + 1));
+                writer.write(',');
+                writer.write(formatter.format(row[best[r]]));
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments = null;
+        raf.close();
+    }
+}
@@ -0,0 +1,159 @@
+package de.unijena.bioinf.ftalign.analyse;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class ScoreMatrixFileTest {
+
+    private static File tempFile() throws IOException {
+        final File file = File.createTempFile("scores", ".matrix");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static String[] names(String prefix, int n) {
+        final String[] names = new String[n];
+        for (int i = 0; i < n; ++i) names[i] = prefix + i;
+        return names;
+    }
+
+    private static double score(int row, int col) {
+        return row * 1000 + col + 0.25;
+    }
+
+    private static double symetricScore(int row, int col) {
+        return Math.min(row, col) * 1000 + Math.max(row, col) + 0.5;
+    }
+
+    /**
+     * scores of the given tile in row major order, as expected by {@link ScoreMatrixFile#writeTile}
+     */
+    private static double[] tile(ScoreMatrixFile matrix, int tileRow, int tileCol) {
+        final int tileSize = matrix.getTileSize();
+        final int rowOffset = tileRow * tileSize, colOffset = tileCol * tileSize;
+        final int height = Math.min(tileSize, matrix.rows() - rowOffset), width = Math.min(tileSize, matrix.cols() - colOffset);
+        final double[] scores = new double[height * width];
+        for (int i = 0; i < height; ++i)
+            for (int j = 0; j < width; ++j)
+                scores[i * width + j] = matrix.isSymetric() ? symetricScore(rowOffset + i, colOffset + j) : score(rowOffset + i, colOffset + j);
+        return scores;
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        final File file = tempFile();
+        try (ScoreMatrixFile matrix = ScoreMatrixFile.openOrCreate(file, names("a", 7), names("b", 5), false, 3)) {
+            assertEquals(3, matrix.tileRows());
+            assertEquals(2, matrix.tileCols());
+            assertTrue(Double.isNaN(matrix.get(6, 4)));
+            for (int ti = 0; ti < matrix.tileRows(); ++ti)
+                for (int tj = 0; tj < matrix.tileCols(); ++tj)
+                    matrix.writeTile(ti, tj, tile(matrix, ti, tj));
+        }
+        try (ScoreMatrixFile matrix = ScoreMatrixFile.open(file)) {
+            assertEquals(7, matrix.rows());
+            assertEquals(5, matrix.cols());
+            assertFalse(matrix.isSymetric());
+            assertEquals("a6", matrix.getRowName(6));
+            assertEquals("b4", matrix.getColName(4));
+            assertEquals(matrix.tileRows() * matrix.tileCols(), matrix.numberOfFinishedTiles());
+            final double[] row = new double[5];
+            for (int i = 0; i < 7; ++i) {
+                matrix.getRow(i, row);
+                for (int j = 0; j < 5; ++j) {
+                    assertEquals(score(i, j), matrix.get(i, j), 0d);
+                    assertEquals(score(i, j), row[j], 0d);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSymetricMatrixIsMirrored() throws IOException {
+        final File file = tempFile();
+        final String[] names = names("c", 8);
+        try (ScoreMatrixFile matrix = ScoreMatrixFile.openOrCreate(file, names, names, true, 3)) {
+            for (int ti = 0; ti < matrix.tileRows(); ++ti)
+                for (int tj = ti; tj < matrix.tileCols(); ++tj)
+                    matrix.writeTile(ti, tj, tile(matrix, ti, tj));
+            assertTrue(matrix.isFinished(2, 0));
+        }
+        try (ScoreMatrixFile matrix = ScoreMatrixFile.open(file)) {
+            assertTrue(matrix.isSymetric());
+            assertEquals("c7", matrix.getColName(7));
+            for (int i = 0; i < 8; ++i)
+                for (int j = 0; j < 8; ++j)
+                    assertEquals(symetricScore(i, j), matrix.get(i, j), 0d);
+        }
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        final File file = tempFile();
+        final String[] rows = names("a", 5), cols = names("b", 4);
+        try (ScoreMatrixFile matrix = ScoreMatrixFile.openOrCreate(file, rows, cols, false, 2)) {
+            matrix.writeTile(0, 0, tile(matrix, 0, 0));
+            matrix.writeTile(2, 1, tile(matrix, 2, 1));
+        }
+        try (ScoreMatrixFile matrix = ScoreMatrixFile.openOrCreate(file, rows, cols, false, 2)) {
+            // finished tiles and their scores are kept, all other tiles are still missing
+            assertEquals(2, matrix.numberOfFinishedTiles());
+            assertTrue(matrix.isFinished(0, 0));
+            assertTrue(matrix.isFinished(2, 1));
+            assertFalse(matrix.isFinished(1, 0));
+            assertEquals(score(1, 1), matrix.get(1, 1), 0d);
+            assertEquals(score(4, 3), matrix.get(4, 3), 0d);
+            assertTrue(Double.isNaN(matrix.get(2, 0)));
+            for (int ti = 0; ti < matrix.tileRows(); ++ti)
+                for (int tj = 0; tj < matrix.tileCols(); ++tj)
+                    if (!matrix.isFinished(ti, tj)) matrix.writeTile(ti, tj, tile(matrix, ti, tj));
+        }
+        try (ScoreMatrixFile matrix = ScoreMatrixFile.open(file)) {
+            assertEquals(matrix.tileRows() * matrix.tileCols(), matrix.numberOfFinishedTiles());
+            for (int i = 0; i < 5; ++i)
+                for (int j = 0; j < 4; ++j)
+                    assertEquals(score(i, j), matrix.get(i, j), 0d);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testResumeWithDifferentNames() throws IOException {
+        final File file = tempFile();
+        ScoreMatrixFile.openOrCreate(file, names("a", 5), names("b", 4), false, 2).close();
+        ScoreMatrixFile.openOrCreate(file, names("a", 5), names("x", 4), false, 2).close();
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        final File file = tempFile();
+        final String[] names = names("c", 4);
+        try (ScoreMatrixFile matrix = ScoreMatrixFile.openOrCreate(file, names, names, true, 2)) {
+            for (int ti = 0; ti < matrix.tileRows(); ++ti)
+                for (int tj = ti; tj < matrix.tileCols(); ++tj)
+                    matrix.writeTile(ti, tj, tile(matrix, ti, tj));
+        }
+        try (ScoreMatrixFile matrix = ScoreMatrixFile.open(file)) {
+            final StringWriter csv = new StringWriter();
+            matrix.writeCSV(csv, "scores");
+            final String[] lines = csv.toString().split("\n");
+            assertEquals(5, lines.length);
+            assertEquals("\"scores\",\"c0\",\"c1\",\"c2\",\"c3\"", lines[0]);
+            assertEquals("\"c1\",1.5,1001.5,1002.5,1003.5", lines[2]);
+
+            // neighbours of c1, ordered by score and without the self hit
+            final StringWriter neighbours = new StringWriter();
+            matrix.writeTopK(neighbours, 2);
+            final String[] tuples = neighbours.toString().split("\n");
+            assertEquals(1 + 4 * 2, tuples.length);
+            assertEquals("row,neighbour,rank,score", tuples[0]);
+            assertEquals("\"c1\",\"c3\",1,1003.5", tuples[3]);
+            assertEquals("\"c1\",\"c2\",2,1002.5", tuples[4]);
+        }
+    }
+}
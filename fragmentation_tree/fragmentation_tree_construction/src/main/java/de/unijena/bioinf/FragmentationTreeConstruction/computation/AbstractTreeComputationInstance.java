@@ -27,21 +27,36 @@ public abstract class AbstractTreeComputationInstance extends BasicMasterJJob<Ab
 
     public final static class FinalResult {
     protected final boolean canceledDueToLowScore;
+    protected final boolean partial;
     protected final List<FTree> results;
 
     public FinalResult(List<FTree> results) {
+        this(results, false);
+    }
+
+    /**
+     * @param partial true if the computation was canceled by its timeout and the results are only the best trees
+     *                found so far
+     */
+    public FinalResult(List<FTree> results, boolean partial) {
         this.canceledDueToLowScore = false;
+        this.partial = partial;
         this.results = results;
     }
 
     public FinalResult() {
         this.canceledDueToLowScore = true;
+        this.partial = false;
         this.results = null;
     }
 
     public List<FTree> getResults() {
         return results;
     }
+
+    public boolean isPartial() {
+        return partial;
+    }
 }
 
     public AbstractTreeComputationInstance(FragmentationPatternAnalysis analyzer) {
@@ -6,7 +6,9 @@ import de.unijena.bioinf.FragmentationTreeConstruction.computation.recalibration
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.recalibration.SpectralRecalibration;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.TreeSizeScorer;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.LagrangianRelaxation;
 import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.treebuilder.ExtendedCriticalPathHeuristicTreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.treebuilder.PortfolioTreeBuilder;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.*;
 import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.exceptions.TimeoutException;
@@ -22,6 +24,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class FasterTreeComputationInstance extends AbstractTreeComputationInstance {
 
+    // iterations of the Lagrangian relaxation for the upper bound of each candidate
+    protected final static int LAGRANGIAN_ITERATIONS = 20;
+
     protected final Ms2Experiment experiment;
     protected final int numberOfResultsToKeep;
     // yet another workaround =/
@@ -31,9 +36,15 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
     protected volatile int nextProgress;
     protected int ticksPerProgress, progressPerTick;
 
-    protected long startTime;
-    protected volatile int restTime;
     protected int secondsPerInstance, secondsPerTree;
+    // all steps of the computation are canceled when the deadline is reached
+    protected Deadline deadline = Deadline.NEVER;
+    // true if the computation was canceled by the deadline and only the best trees found so far are returned
+    protected boolean partial;
+    // number of candidates for which no tree was computed, because their upper bound was too low
+    protected int numberOfSkippedTrees;
+    // disabled by default, as it did not speed up the computation on the spectra it was measured with
+    protected boolean upperBoundPruning = false;
 
     public FasterTreeComputationInstance(FragmentationPatternAnalysis analyzer, Ms2Experiment input, int numberOfResultsToKeep) {
         super(analyzer);
@@ -121,21 +132,36 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
     @Override
     protected FinalResult compute() throws Exception {
         configureProgress(0, 2, 1);
-        score();
-        startTime = System.currentTimeMillis();
+        validateInput();
         final Timeout timeout = pinput.getAnnotation(Timeout.class, Timeout.NO_TIMEOUT);
         secondsPerInstance = timeout.getNumberOfSecondsPerInstance();
         secondsPerTree = timeout.getNumberOfSecondsPerDecomposition();
-        restTime = Math.min(secondsPerInstance, secondsPerTree);
-        // preprocess input
-        List<Decomposition> decompositions = pinput.getAnnotationOrThrow(DecompositionList.class).getDecompositions();
-        // as long as we do not find good quality results
-        final boolean useHeuristic = pinput.getParentPeak().getMz() > 300;
-        final ExactResult[] results = estimateTreeSizeAndRecalibration(decompositions, useHeuristic);
-        final List<FTree> trees = new ArrayList<>(results.length);
-        for (ExactResult r : results) trees.add(r.tree);
-        //trees.forEach(this::recalculateScore);
-        return new FinalResult(trees);
+        // the deadline is stored in the input, such that decomposition, graph building, reduction and tree
+        // computation can check it by themselves
+        deadline = Deadline.inSeconds(secondsPerInstance);
+        partial = false;
+        pinput.setAnnotation(Deadline.class, deadline);
+        try {
+            try {
+                score();
+            } catch (TimeoutException e) {
+                LOG().warn("Decomposition of " + pinput.getExperimentInformation().getName() + " reached the timeout of " + secondsPerInstance + " seconds. No trees are computed.");
+                return new FinalResult(new ArrayList<>(), true);
+            }
+            // preprocess input
+            List<Decomposition> decompositions = pinput.getAnnotationOrThrow(DecompositionList.class).getDecompositions();
+            // as long as we do not find good quality results
+            // a portfolio decides by itself which builder wins, so we do not replace it by the heuristic
+            final boolean useHeuristic = pinput.getParentPeak().getMz() > 300 && !(analyzer.getTreeBuilder() instanceof PortfolioTreeBuilder);
+            final ExactResult[] results = estimateTreeSizeAndRecalibration(decompositions, useHeuristic);
+            final List<FTree> trees = new ArrayList<>(results.length);
+            for (ExactResult r : results) trees.add(r.tree);
+            //trees.forEach(this::recalculateScore);
+            return new FinalResult(trees, partial);
+        } finally {
+            // the trees keep a reference to the input, which must not cancel any later computation on them
+            pinput.setAnnotation(Deadline.class, Deadline.NEVER);
+        }
     }
 
     protected void recalculateScore(FTree tree) {
@@ -157,6 +183,8 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
         final int BATCH_SIZE = Math.min(4 * NCPUS, Math.max(30, NCPUS));
         final int MAX_GRAPH_CACHE_SIZE = Math.max(30, BATCH_SIZE);
         final int n = Math.min(decompositions.size(), numberOfResultsToKeep);
+        // number of best trees which are used later on. All other trees can be skipped
+        final int k = Math.max(n + 10, MIN_NUMBER_OF_TREES_CHECK_FOR_INTENSITY);
 
         TreeSizeScorer.TreeSizeBonus treeSizeBonus;
         final TreeSizeScorer tss = FragmentationPatternAnalysis.getByClassName(TreeSizeScorer.class, analyzer.getFragmentPeakScorers());
@@ -174,22 +202,41 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
             configureProgress(2, useHeuristic ? 50 : 90,decompositions.size());
             if (tss != null) tss.fastReplace(pinput, new TreeSizeScorer.TreeSizeBonus(treeSize));
             results.clear();
-            final List<TreeComputationJob> jobs = new ArrayList<>(decompositions.size());
             final TreeBuilder builder = useHeuristic ? getHeuristicTreeBuilder() : analyzer.getTreeBuilder();
-            for (Decomposition d : decompositions) {
-                if (Double.isInfinite(d.getScore())) continue;
-                final TreeComputationJob job = new TreeComputationJob(builder, null, d);
+            // keep the graphs of the best trees, such that they can be annotated without rebuilding them when the
+            // computation is canceled
+            final DoubleEndWeightedQueue2<ExactResult> treeCache = new DoubleEndWeightedQueue2<>(Math.min(n + 10, MAX_GRAPH_CACHE_SIZE), new TreeComputationInstance.ExactResultComparator());
+            treeCache.setCallback(r -> {
+                r.graph = null;
+                return true;
+            });
+            // scores of the k best trees computed so far. Each job builds the graph of its candidate and skips the tree
+            // computation if the upper bound of the graph is below the score of the k-th best tree
+            final DoubleEndWeightedQueue2<Decomposition> bestScores = new DoubleEndWeightedQueue2<>(k, (a, b) -> a.getCandidate().compareTo(b.getCandidate()));
+            final List<Decomposition> candidates = new ArrayList<>(decompositions.size());
+            for (Decomposition d : decompositions)
+                if (!Double.isInfinite(d.getScore())) candidates.add(d);
+            // good trees are found early if the candidates are processed in order of their decomposition score
+            candidates.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+            final List<TreeComputationJob> jobs = new ArrayList<>(candidates.size());
+            for (Decomposition d : candidates) {
+                final TreeComputationJob job = new TreeComputationJob(builder, treeCache, d, upperBoundPruning ? bestScores : null);
                 submitSubJob(job);
                 jobs.add(job);
             }
-            int counter = 0;
+            boolean timeout = false;
+            int skipped = 0;
             for (TreeComputationJob job : jobs) {
-                results.add(job.awaitResult());
-                if (++counter % 100 == 0) {
-                    checkTimeout();
-                }
+                final ExactResult r = awaitUnlessTimeout(job);
+                if (job.skipped) ++skipped;
+                else if (r == null) timeout = true;
+                else results.add(r);
             }
+            if (timeout || deadline.isExpired()) return partialResults(results, n);
             Collections.sort(results, Collections.reverseOrder());
+            numberOfSkippedTrees += skipped;
+            if (skipped > 0)
+                LOG().debug("Skip " + skipped + " of " + candidates.size() + " tree computations, as their upper bound is below the score of the " + k + "-th best tree.");
             final int treeSizeCheck = Math.min(results.size(), MIN_NUMBER_OF_TREES_CHECK_FOR_INTENSITY);
             if (tss == null || checkForTreeQuality(results.subList(0, treeSizeCheck), false)) {
                 break;
@@ -208,7 +255,7 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
             }
             jobs.forEach(this::submitSubJob);
             LoggerFactory.getLogger(FasterTreeComputationInstance.class).warn("Recalibration is disabled!");
-            return jobs.stream().map(this::takeResultAndCheckTime).sorted(Collections.reverseOrder()).toArray(ExactResult[]::new);
+            return collectResults(jobs, topResults, topResults.size());
         }
         final List<RecalibrationJob> recalibrationJobs = new ArrayList<>();
         for (ExactResult r : topResults) {
@@ -216,7 +263,7 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
             submitSubJob(recalibrationJob);
             recalibrationJobs.add(recalibrationJob);
         }
-        final ExactResult[] exact = recalibrationJobs.stream().map(this::takeResultAndCheckTime).sorted(Collections.reverseOrder()).limit(numberOfResultsToKeep).toArray(ExactResult[]::new);
+        final ExactResult[] exact = collectResults(recalibrationJobs, topResults, numberOfResultsToKeep);
 
         if (inc >= MAX_TREESIZE_INCREASE) {
             for (ExactResult t : exact) t.tree.setAnnotation(Beautified.class, Beautified.IS_BEAUTIFUL);
@@ -231,10 +278,78 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
         return new ExtendedCriticalPathHeuristicTreeBuilder();
     }
 
-    private ExactResult takeResultAndCheckTime(BasicJJob<ExactResult> r) {
-        final ExactResult result = r.takeResult();
-        checkTimeout();
-        return result;
+    /**
+     * @return result of the job or null, if the job was canceled by the deadline
+     */
+    private <T> T awaitUnlessTimeout(BasicJJob<T> job) throws ExecutionException {
+        try {
+            return job.awaitResult();
+        } catch (ExecutionException e) {
+            if (isTimeout(e)) return null;
+            throw e;
+        }
+    }
+
+    private static boolean isTimeout(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause())
+            if (t instanceof TimeoutException) return true;
+        return false;
+    }
+
+    /**
+     * Collects the results of the given jobs. If a job is canceled by the deadline, the result it was started from
+     * is used instead.
+     *
+     * @param templates for each job the result it was started from
+     */
+    private ExactResult[] collectResults(List<? extends BasicJJob<ExactResult>> jobs, List<ExactResult> templates, int limit) throws ExecutionException {
+        final List<ExactResult> collected = new ArrayList<>(jobs.size());
+        for (int i = 0; i < jobs.size(); ++i) {
+            final ExactResult r = awaitUnlessTimeout(jobs.get(i));
+            if (r != null) {
+                collected.add(r);
+            } else {
+                if (!partial) markAsPartial();
+                final ExactResult template = templates.get(i);
+                if (annotate(template)) collected.add(template);
+            }
+        }
+        return collected.stream().sorted(Collections.reverseOrder()).limit(limit).toArray(ExactResult[]::new);
+    }
+
+    /**
+     * Is called when the deadline is reached: returns the best n trees found so far, annotated with the graphs they
+     * were computed on. Trees whose graphs were not kept are skipped.
+     */
+    private ExactResult[] partialResults(List<ExactResult> results, int n) {
+        markAsPartial();
+        Collections.sort(results, Collections.reverseOrder());
+        final List<ExactResult> annotated = new ArrayList<>(n);
+        for (ExactResult r : results) {
+            if (annotated.size() >= n) break;
+            if (annotate(r)) annotated.add(r);
+        }
+        return annotated.toArray(new ExactResult[annotated.size()]);
+    }
+
+    private void markAsPartial() {
+        partial = true;
+        LOG().warn("Tree computation of " + pinput.getExperimentInformation().getName() + " was canceled by timeout. Return the best trees found so far.");
+    }
+
+    private boolean annotate(ExactResult r) {
+        if (r.tree == null) return false;
+        if (r.tree.getAnnotationOrNull(ProcessedInput.class) != null) return true;
+        if (r.graph == null) return false;
+        analyzer.addTreeAnnotations(r.graph, r.tree);
+        return true;
+    }
+
+    /**
+     * @return time limit for a single tree computation, which never exceeds the deadline of the instance
+     */
+    protected double treeTimeLimit() {
+        return Math.min(secondsPerTree, Math.max(1e-3, deadline.getRemainingSeconds()));
     }
 
     protected class ExactJob extends BasicJJob<ExactResult> {
@@ -247,7 +362,7 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
         @Override
         protected ExactResult compute() throws Exception {
             FGraph graph = analyzer.buildGraph(pinput, template.decomposition);
-            final FTree tree = analyzer.getTreeBuilder().computeTree().withMultithreading(1).withTimeLimit(Math.min(restTime, secondsPerTree)).withMinimalScore(template.score - 1e-3)/*.withTemplate(template.tree)*/.solve(pinput, graph).tree;
+            final FTree tree = analyzer.getTreeBuilder().computeTree().withMultithreading(1).withTimeLimit(treeTimeLimit()).withMinimalScore(template.score - 1e-3)/*.withTemplate(template.tree)*/.solve(pinput, graph).tree;
             analyzer.addTreeAnnotations(graph, tree);
             recalculateScore(tree, "ExactJob");
             tick();
@@ -273,23 +388,116 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
         }
     }
 
+    /**
+     * @return number of candidates for which the tree computation was skipped, because the upper bound of their
+     * score was below the score of the worst tree which is kept
+     */
+    public int getNumberOfSkippedTrees() {
+        return numberOfSkippedTrees;
+    }
+
+    public boolean isUpperBoundPruning() {
+        return upperBoundPruning;
+    }
+
+    /**
+     * @param upperBoundPruning if true, the tree computation is skipped for candidates whose upper bound is below the
+     *                          score of the k-th best tree computed so far. Otherwise, a tree is computed for every
+     *                          candidate (default)
+     */
+    public void setUpperBoundPruning(boolean upperBoundPruning) {
+        this.upperBoundPruning = upperBoundPruning;
+    }
+
+    /**
+     * Upper bound for the score of any colorful subtree of the graph: the weight of the root edge plus, for each
+     * other color, the best incoming edge of this color if it is positive.
+     */
+    protected static double upperBound(FGraph graph) {
+        final double[] bestPerColor = new double[graph.maxColor() + 1];
+        double rootScore = Double.NEGATIVE_INFINITY;
+        int rootColor = -1;
+        for (Fragment u : graph) {
+            if (u.isRoot()) continue;
+            for (int i = 0, n = u.getInDegree(); i < n; ++i) {
+                final Loss l = u.getIncomingEdge(i);
+                if (l.getSource().isRoot()) {
+                    if (l.getWeight() > rootScore) {
+                        rootScore = l.getWeight();
+                        rootColor = u.getColor();
+                    }
+                } else if (l.getWeight() > bestPerColor[u.getColor()]) {
+                    bestPerColor[u.getColor()] = l.getWeight();
+                }
+            }
+        }
+        if (rootColor < 0) return Double.NEGATIVE_INFINITY;
+        double bound = rootScore;
+        for (int c = 0; c < bestPerColor.length; ++c)
+            if (c != rootColor) bound += bestPerColor[c];
+        return bound;
+    }
+
+    /**
+     * @return true if no colorful subtree of the graph scores higher than the given score. The
+     * {@link LagrangianRelaxation} gives a much tighter bound, but is only run if the simple bound is not sufficient.
+     */
+    protected static boolean isBoundedBy(FGraph graph, double score) {
+        if (score == Double.NEGATIVE_INFINITY) return false;
+        if (upperBound(graph) + 1e-9 < score) return true;
+        final LagrangianRelaxation relaxation = new LagrangianRelaxation(graph);
+        relaxation.setNumberOfIterations(LAGRANGIAN_ITERATIONS);
+        return relaxation.computeBound().upperBound + 1e-9 < score;
+    }
+
+    protected FGraph buildGraph(TreeBuilder treeBuilder, Decomposition decomposition) {
+        return treeBuilder instanceof ExtendedCriticalPathHeuristicTreeBuilder ? analyzer.buildGraphWithoutReduction(pinput, decomposition) : analyzer.buildGraph(pinput, decomposition);
+    }
+
     protected class TreeComputationJob extends BasicJJob<ExactResult> {
 
         protected final TreeBuilder treeBuilder;
         protected final DoubleEndWeightedQueue2<ExactResult> graphCache;
+        protected final DoubleEndWeightedQueue2<Decomposition> bestScores;
         protected final Decomposition decomposition;
+        // true if the tree was not computed, because the upper bound of the graph is below the k-th best score
+        protected volatile boolean skipped;
 
         public TreeComputationJob(TreeBuilder treeBuilder, DoubleEndWeightedQueue2<ExactResult> graphCache, Decomposition decomposition) {
+            this(treeBuilder, graphCache, decomposition, null);
+        }
+
+        /**
+         * @param bestScores scores of the best trees computed so far, or null if a tree is computed in any case
+         */
+        public TreeComputationJob(TreeBuilder treeBuilder, DoubleEndWeightedQueue2<ExactResult> graphCache, Decomposition decomposition, DoubleEndWeightedQueue2<Decomposition> bestScores) {
             this.treeBuilder = treeBuilder;
             this.graphCache = graphCache;
             this.decomposition = decomposition;
+            this.bestScores = bestScores;
         }
 
         @Override
         protected ExactResult compute() throws Exception {
-            final FGraph graph = treeBuilder instanceof ExtendedCriticalPathHeuristicTreeBuilder ? analyzer.buildGraphWithoutReduction(pinput, decomposition) : analyzer.buildGraph(pinput, decomposition);
-            final FTree tree = treeBuilder.computeTree().withTimeLimit(Math.min(restTime, secondsPerTree)).solve(pinput, graph).tree;
+            final FGraph graph = buildGraph(treeBuilder, decomposition);
+            if (bestScores != null) {
+                final double kthBestScore;
+                synchronized (bestScores) {
+                    kthBestScore = bestScores.getWeightLowerbound();
+                }
+                if (isBoundedBy(graph, kthBestScore)) {
+                    skipped = true;
+                    tick();
+                    return null;
+                }
+            }
+            final FTree tree = treeBuilder.computeTree().withTimeLimit(treeTimeLimit()).solve(pinput, graph).tree;
             final ExactResult er = new ExactResult(decomposition, null, tree, tree.getTreeWeight());
+            if (bestScores != null) {
+                synchronized (bestScores) {
+                    bestScores.add(decomposition, tree.getTreeWeight());
+                }
+            }
             if (graphCache != null) {
                 double score = graphCache.getWeightLowerbound();
                 if (tree.getTreeWeight() > score) {
@@ -307,13 +515,6 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
         }
     }
 
-    private void checkTimeout() {
-        final long time = System.currentTimeMillis();
-        final int elapsedTime = (int) ((time - startTime) / 1000);
-        restTime = Math.min(restTime, secondsPerInstance - elapsedTime);
-        if (restTime <= 0) throw new TimeoutException("FasterTreeComputationInstance canceled by timeout!");
-    }
-
     private class RecalibrationJob extends BasicJJob<ExactResult> {
         private final ExactResult r;
         private final TreeBuilder tb;
@@ -325,16 +526,24 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
 
         @Override
         protected ExactResult compute() throws Exception {
-            FGraph graph;
-            if (r.graph == null) {
-                graph = analyzer.buildGraph(pinput, r.decomposition);
-            } else graph = r.graph;
-            final FTree tree = r.tree;
-            return recalibrate(pinput, tb, tree, graph);
+            // the graph of the tree is kept: building an unsorted graph to adapt it would cost as much as building
+            // the graph of the recalibrated input from scratch
+            if (r.graph != null) return recalibrate(pinput, tb, r.tree, r.graph);
+            // otherwise the unsorted graph is built once, for the input and for the recalibrated input
+            final FGraph unsortedGraph = analyzer.buildUnsortedGraph(pinput, r.decomposition);
+            return recalibrate(pinput, tb, r.tree, analyzer.finalizeGraph(unsortedGraph), unsortedGraph);
         }
     }
 
     protected ExactResult recalibrate(ProcessedInput input, TreeBuilder tb, FTree tree, FGraph origGraph) {
+        return recalibrate(input, tb, tree, origGraph, null);
+    }
+
+    /**
+     * @param unsortedGraph graph of the input built with {@link FragmentationPatternAnalysis#buildUnsortedGraph(ProcessedInput, Decomposition)},
+     *                      which is reused for the recalibrated input. If null, the graph is built from scratch.
+     */
+    protected ExactResult recalibrate(ProcessedInput input, TreeBuilder tb, FTree tree, FGraph origGraph, FGraph unsortedGraph) {
         if (tree.getAnnotationOrNull(ProcessedInput.class) == null)
             analyzer.addTreeAnnotations(origGraph, tree);
         final SpectralRecalibration rec = new HypothesenDrivenRecalibration2().collectPeaksFromMs2(input.getExperimentInformation(), tree);
@@ -344,13 +553,13 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
         pin.setAnnotation(DecompositionList.class, l);
         analyzer.performDecomposition(pin);
         analyzer.performPeakScoring(pin);
-        FGraph graph = analyzer.buildGraph(pin, l.getDecompositions().get(0));
+        FGraph graph = unsortedGraph == null ? analyzer.buildGraph(pin, l.getDecompositions().get(0)) : analyzer.finalizeGraph(analyzer.rescoreGraph(unsortedGraph, pin, l.getDecompositions().get(0)));
         graph.addAnnotation(SpectralRecalibration.class, rec);
         graph.setAnnotation(ProcessedInput.class, pin);
-        final FTree recal = tb.computeTree().withTimeLimit(Math.min(restTime, secondsPerTree)).solve(pin, graph).tree;
+        final FTree recal = tb.computeTree().withTimeLimit(treeTimeLimit()).solve(pin, graph).tree;
         final FTree finalTree;
         if (recal.getTreeWeight() >= tree.getTreeWeight()) {
-            finalTree = analyzer.getTreeBuilder().computeTree().withTimeLimit(Math.min(restTime, secondsPerTree)).withTemplate(recal).withMinimalScore(recal.getTreeWeight() - 1e-3).solve(pin, graph).tree;
+            finalTree = analyzer.getTreeBuilder().computeTree().withTimeLimit(treeTimeLimit()).withTemplate(recal).withMinimalScore(recal.getTreeWeight() - 1e-3).solve(pin, graph).tree;
             if (finalTree==null){
                 throw new RuntimeException("Recalibrated tree is null for "+input.getExperimentInformation().getName()+". Error in ILP?");
             }
@@ -359,12 +568,14 @@ public class FasterTreeComputationInstance extends AbstractTreeComputationInstan
             finalTree.setAnnotation(RecalibrationFunction.class, rec.toPolynomial());
             analyzer.addTreeAnnotations(graph, finalTree);
         } else {
-            finalTree = analyzer.getTreeBuilder().computeTree().withTimeLimit(Math.min(restTime, secondsPerTree)).withTemplate(tree).withMinimalScore(tree.getTreeWeight() - 1e-3).solve(input, origGraph).tree;
+            finalTree = analyzer.getTreeBuilder().computeTree().withTimeLimit(treeTimeLimit()).withTemplate(tree).withMinimalScore(tree.getTreeWeight() - 1e-3).solve(input, origGraph).tree;
             finalTree.setAnnotation(ProcessedInput.class, input);
             finalTree.setAnnotation(RecalibrationFunction.class, RecalibrationFunction.identity());
             finalTree.setAnnotation(SpectralRecalibration.class, SpectralRecalibration.none());
             analyzer.addTreeAnnotations(origGraph, finalTree);
         }
+        // the recalibrated input is kept in the tree and must not cancel any later computation on it
+        pin.setAnnotation(Deadline.class, Deadline.NEVER);
         recalculateScore(finalTree, "recalibrate");
         assert finalTree!=null;
         tick();
@@ -464,6 +464,7 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         final PeakAnnotation<DecompositionList> decompositionList = input.getOrCreatePeakAnnotation(DecompositionList.class);
         final MassToFormulaDecomposer decomposer = decomposers.getDecomposer(constraints.getChemicalAlphabet());
         final Deviation fragmentDeviation = input.getMeasurementProfile().getAllowedMassDeviation();
+        final Deadline deadline = Deadline.of(input);
 
         final List<MolecularFormula> pmds;
         final List<Decomposition> decomps = new ArrayList<>();
@@ -481,6 +482,9 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
                 validatorWarning.warn("Specified precursor molecular formula does not fall into given m/z error window. "
                         +formula.formatByHill()+" for m/z "+parentPeak.getOriginalMz()+" and ionization "+ionType);
             }
+        } else if (whiteset != null && whiteset.allowsNoFormula()) {
+            // no candidate is allowed for this precursor
+            pmds = new ArrayList<>();
         } else if (whiteset != null && !whiteset.getFormulas().isEmpty()) {
             final Collection<PrecursorIonType> ionTypes;
             if (experiment.getPrecursorIonType().isIonizationUnknown())
@@ -520,6 +524,7 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         decompositionList.set(parentPeak, new DecompositionList(decomps));
         int j = 0;
         for (ProcessedPeak peak : processedPeaks.subList(0, processedPeaks.size() - 1)) {
+            deadline.check();
             peak.setIndex(j++);
             final List<Decomposition> decompositions = new ArrayList<>();
             final double mz = peak.getMass();
@@ -606,9 +611,10 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         final List<ProcessedPeak> processedPeaks = input.getMergedPeaks();
         final ProcessedPeak parentPeak = input.getParentPeak();
         final int n = processedPeaks.size();
-        input.getOrCreateAnnotation(Scoring.class).initializeScoring(n);
+        // only pairs which can become an edge in some graph are scored
+        input.getOrCreateAnnotation(Scoring.class).initializeScoring(PeakPairScores.forExplainablePairs(processedPeaks, input.getPeakAnnotationOrThrow(DecompositionList.class), parentPeak));
         // score peak pairs
-        final double[][] peakPairScores = input.getAnnotationOrThrow(Scoring.class).getPeakPairScores();
+        final PeakPairScores peakPairScores = input.getAnnotationOrThrow(Scoring.class).getPeakPairScores();
         for (PeakPairScorer scorer : peakPairScorers) {
             scorer.score(processedPeaks, input, peakPairScores);
         }
@@ -780,7 +786,7 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
 
         getPostProcessors().add(new LimitNumberOfPeaksFilter(40));
 
-        //analysis.setTreeBuilder(new DPTreeBuilder(15));
+        //analysis.setTreeBuilder(new DPTreeBuilder());
         //setTreeBuilder(TreeBuilderFactory.getInstance().getTreeBuilder(TreeBuilderFactory.DefaultBuilder.GUROBI));
 
         getDefaultProfile().setMedianNoiseIntensity(ExponentialDistribution.fromLambda(0.4d).getMedian());
@@ -844,7 +850,7 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
 
         analysis.getPostProcessors().add(new LimitNumberOfPeaksFilter(40));
 
-        //analysis.setTreeBuilder(new DPTreeBuilder(15));
+        //analysis.setTreeBuilder(new DPTreeBuilder());
         //analysis.setTreeBuilder(TreeBuilderFactory.getInstance().getTreeBuilder(TreeBuilderFactory.DefaultBuilder.GUROBI));
 
         final MutableMeasurementProfile profile = new MutableMeasurementProfile();
@@ -1318,6 +1324,126 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         return performGraphReduction(buildGraphWithoutReduction(input,candidate,reduction==null),0d);
     }
 
+    /**
+     * Builds the scored graph without reduction and without topological sorting. Such a graph can be adapted to a
+     * recalibrated version of the input with {@link #rescoreGraph(FGraph, ProcessedInput, Decomposition)}. Use
+     * {@link #finalizeGraph(FGraph)} to obtain the graph returned by {@link #buildGraph(ProcessedInput, Decomposition)}.
+     */
+    public FGraph buildUnsortedGraph(ProcessedInput input, Decomposition candidate) {
+        return buildGraphWithoutReduction(input, candidate, false);
+    }
+
+    /**
+     * @return a copy of the unsorted graph which is sorted and reduced like in {@link #buildGraph(ProcessedInput, Decomposition)}
+     */
+    public FGraph finalizeGraph(FGraph unsortedGraph) {
+        final FGraph graph = new FGraph(unsortedGraph);
+        if (reduction == null) {
+            graph.sortTopological();
+            return graph;
+        }
+        return performGraphReduction(graph, 0d);
+    }
+
+    /**
+     * Adapts an unsorted graph built with {@link #buildUnsortedGraph(ProcessedInput, Decomposition)} to another
+     * version of the same input, e.g. after recalibration. The topology of the graph is kept as long as the
+     * decompositions of the peaks do not change. Fragments of peaks whose decompositions changed (and of all lighter
+     * peaks) are removed and added again. Afterwards, all vertex and edge scores are recomputed. The result is identical
+     * to the graph which would be built from scratch for the new input, but avoids most of the subformula checks.
+     * The given graph is not changed.
+     *
+     * @param candidate the decomposition of the root in the new input
+     */
+    public FGraph rescoreGraph(FGraph unsortedGraph, ProcessedInput input, Decomposition candidate) {
+        if (!(graphBuilder instanceof SubFormulaGraphBuilder))
+            return buildUnsortedGraph(input, candidate);
+        final ProcessedInput previousInput = unsortedGraph.getAnnotationOrThrow(ProcessedInput.class);
+        final FGraph graph = new FGraph(unsortedGraph);
+        // remove all annotations and vertices which were added during scoring
+        final List<Fragment> isotopes = new ArrayList<Fragment>();
+        final FragmentAnnotation<IsotopicMarker> marker = graph.getFragmentAnnotationOrNull(IsotopicMarker.class);
+        if (marker != null) {
+            for (Fragment f : graph) if (marker.get(f) != null) isotopes.add(f);
+            graph.deleteFragmentsKeepTopologicalOrder(isotopes);
+        }
+        for (FragmentAnnotation<Object> ano : graph.getFragmentAnnotations()) {
+            final Class<?> klass = ano.getAnnotationType();
+            if (klass != ProcessedPeak.class && klass != Peak.class && klass != Ionization.class)
+                graph.removeFragmentAnnotation(klass);
+        }
+        for (LossAnnotation<Object> ano : graph.getLossAnnotations())
+            graph.removeLossAnnotation(ano.getAnnotationType());
+
+        // find the first peak (in order of decreasing mass) whose decompositions differ
+        final FragmentAnnotation<Ionization> ion = graph.getFragmentAnnotationOrThrow(Ionization.class);
+        final HashSet<Ionization> allIons = new HashSet<Ionization>();
+        for (Fragment f : graph.getRoot().getChildren()) allIons.add(ion.get(f));
+        final ArrayList<ProcessedPeak> previousPeaks = new ArrayList<ProcessedPeak>(previousInput.getMergedPeaks());
+        final ArrayList<ProcessedPeak> peaks = new ArrayList<ProcessedPeak>(input.getMergedPeaks());
+        Collections.sort(previousPeaks, new ProcessedPeak.MassComparator());
+        Collections.sort(peaks, new ProcessedPeak.MassComparator());
+        final PeakAnnotation<DecompositionList> previousDecompositions = previousInput.getPeakAnnotationOrThrow(DecompositionList.class);
+        final PeakAnnotation<DecompositionList> decompositions = input.getPeakAnnotationOrThrow(DecompositionList.class);
+        int numberOfUnchangedPeaks = 0;
+        if (previousPeaks.size() == peaks.size()) {
+            for (int i = peaks.size() - 1; i >= 0; --i) {
+                final ProcessedPeak a = previousPeaks.get(i), b = peaks.get(i);
+                if (a.getIndex() != b.getIndex() || !sameDecompositions(previousDecompositions.get(a), decompositions.get(b), allIons))
+                    break;
+                ++numberOfUnchangedPeaks;
+            }
+        }
+        final FragmentAnnotation<ProcessedPeak> peakAno = graph.getFragmentAnnotationOrThrow(ProcessedPeak.class);
+        final BitSet unchangedPeaks = new BitSet();
+        for (int i = 0; i < numberOfUnchangedPeaks; ++i) unchangedPeaks.set(peaks.get(peaks.size() - 1 - i).getIndex());
+        final List<Fragment> changed = new ArrayList<Fragment>();
+        for (Fragment f : graph) {
+            if (f.isRoot() || f.getParent().isRoot()) continue;
+            if (!unchangedPeaks.get(peakAno.get(f).getIndex())) changed.add(f);
+        }
+        graph.deleteFragmentsKeepTopologicalOrder(changed);
+
+        // assign the recalibrated peaks and decomposition scores to the remaining fragments
+        final ScoredFormulaMap scoredFormulas = new ScoredFormulaMap();
+        for (Fragment f : graph) {
+            if (f.isRoot()) continue;
+            final ProcessedPeak peak = input.getMergedPeaks().get(peakAno.get(f).getIndex());
+            peakAno.set(f, peak);
+            if (f.getParent().isRoot()) {
+                scoredFormulas.put(f.getFormula(), candidate.getScore());
+            } else {
+                for (Decomposition d : decompositions.get(peak).getDecompositions()) {
+                    if (d.getCandidate().equals(f.getFormula()) && d.getIon().equals(ion.get(f))) {
+                        scoredFormulas.put(f.getFormula(), d.getScore());
+                        break;
+                    }
+                }
+            }
+        }
+        graph.setAnnotation(ScoredFormulaMap.class, scoredFormulas);
+        graph.setAnnotation(ProcessedInput.class, input);
+        ((SubFormulaGraphBuilder) graphBuilder).fillGraph(graph, numberOfUnchangedPeaks);
+        return performGraphScoring(graph);
+    }
+
+    private static boolean sameDecompositions(DecompositionList a, DecompositionList b, Set<Ionization> ions) {
+        final Iterator<Decomposition> i = a.getDecompositions().iterator(), j = b.getDecompositions().iterator();
+        while (true) {
+            Decomposition x = null, y = null;
+            while (i.hasNext() && x == null) {
+                x = i.next();
+                if (!ions.contains(x.getIon())) x = null;
+            }
+            while (j.hasNext() && y == null) {
+                y = j.next();
+                if (!ions.contains(y.getIon())) y = null;
+            }
+            if (x == null || y == null) return x == y;
+            if (!x.getCandidate().equals(y.getCandidate()) || !x.getIon().equals(y.getIon())) return false;
+        }
+    }
+
     public FGraph performGraphReduction(FGraph fragments, double lowerbound) {
         if(reduction==null) return fragments;
         return reduction.reduce(fragments, lowerbound);
@@ -1480,6 +1606,7 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         final LossAnnotation<Score> lAno = tree.getOrCreateLossAnnotation(Score.class);
         final LossAnnotation<InsourceFragmentation> isInsource = tree.getOrCreateLossAnnotation(InsourceFragmentation.class);
         final double[][] pseudoMatrix = new double[2][2];
+        final PeakPairScores pseudoPair = PeakPairScores.complete(2);
         while (edges.hasNext()) {
             final Loss loss = edges.next();
             if (isInsource.get(loss)!= null && isInsource.get(loss).isInsource()) continue;
@@ -1490,9 +1617,9 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
             final Score lscore = new Score(lossScores);
             int k=0;
             for (int i=0; i < peakPairScorers.size(); ++i) {
-                pseudoMatrix[0][0]=pseudoMatrix[0][1]=pseudoMatrix[1][0]=pseudoMatrix[1][1]=0.0d;
-                peakPairScorers.get(i).score(Arrays.asList(peakAno.get(v), peakAno.get(u)), input,pseudoMatrix);
-                lscore.set(k++, pseudoMatrix[1][0]);
+                pseudoPair.clear();
+                peakPairScorers.get(i).score(Arrays.asList(peakAno.get(v), peakAno.get(u)), input,pseudoPair);
+                lscore.set(k++, pseudoPair.get(1, 0));
             }
             for (int i=0; i < lossScorers.size(); ++i) {
                 lscore.set(k++, lossScorers.get(i).score(loss, input, preparedLoss[i]));
@@ -1566,12 +1693,23 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
         final ProcessedInput input = graph.getAnnotationOrThrow(ProcessedInput.class);
         final Scoring scoring = input.getAnnotationOrThrow(Scoring.class);
         final double[] peakScores = scoring.getPeakScores();
-        final double[][] peakPairScores = scoring.getPeakPairScores();
+        final PeakPairScores peakPairScores = scoring.getPeakPairScores();
+        // scores of loss scorers which only depend on the loss formula are shared by all graphs of the input
         final LossScorer[] lossScorers = this.lossScorers.toArray(new LossScorer[this.lossScorers.size()]);
+        final ArrayList<LossScorer> formulaLossScorers = new ArrayList<LossScorer>();
+        for (LossScorer s : lossScorers)
+            if (s instanceof FormulaLossScorer) formulaLossScorers.add(s);
+        final LossScoreCache lossScoreCache = formulaLossScorers.isEmpty() ? null : LossScoreCache.getOrCreate(input, formulaLossScorers.toArray(new LossScorer[formulaLossScorers.size()]));
+        final TLongObjectHashMap<double[]> newLossScores = LossScoreCache.newMap(64);
+        // index of each scorer in the cached scores, -1 for scorers which are not cached
+        final int[] cacheIndex = new int[lossScorers.length];
         final Object[] precomputeds = new Object[lossScorers.length];
+        for (int i = 0; i < lossScorers.length; ++i) {
+            cacheIndex[i] = lossScoreCache == null ? -1 : lossScoreCache.indexOf(lossScorers[i]);
+            if (cacheIndex[i] < 0) precomputeds[i] = lossScorers[i].prepare(input);
+        }
         final ScoredFormulaMap map = graph.getAnnotationOrThrow(ScoredFormulaMap.class);
         final FragmentAnnotation<ProcessedPeak> peakAno = graph.getFragmentAnnotationOrThrow(ProcessedPeak.class);
-        for (int i = 0; i < precomputeds.length; ++i) precomputeds[i] = lossScorers[i].prepare(input);
         while (edges.hasNext()) {
             final Loss loss = edges.next();
             final Fragment u = loss.getSource();
@@ -1583,16 +1721,36 @@ public class FragmentationPatternAnalysis implements Parameterized, Cloneable {
             score += peakScores[peakAno.get(v).getIndex()];
             assert !Double.isInfinite(score);
             // add it to the score of the peak pairs
-            if (!u.isRoot())
-                score += peakPairScores[peakAno.get(u).getIndex()][peakAno.get(v).getIndex()]; // TODO: Umdrehen!
+            if (!u.isRoot()) {
+                // only explainable peak pairs are scored, and every edge has to connect such a pair
+                final int pair = peakPairScores.indexOf(peakAno.get(u).getIndex(), peakAno.get(v).getIndex()); // TODO: Umdrehen!
+                if (pair < 0)
+                    throw new IllegalStateException("Peak pair of the loss " + u.getFormula() + " -> " + v.getFormula() + " is not scored");
+                score += peakPairScores.getScore(pair);
+            }
             assert !Double.isInfinite(score);
             // add the score of the loss
-            if (!u.isRoot())
+            if (!u.isRoot()) {
+                double[] cached = null;
+                if (lossScoreCache != null) {
+                    final long key = lossScoreCache.encode(loss.getFormula());
+                    if (key >= 0) {
+                        cached = lossScoreCache.get(key);
+                        if (cached == null) cached = newLossScores.get(key);
+                    }
+                    if (cached == null) {
+                        cached = lossScoreCache.score(loss, input);
+                        if (key >= 0) newLossScores.put(key, cached);
+                    }
+                }
+                // the scores are added in the order of the scorers, so the weights do not depend on the cache
                 for (int i = 0; i < lossScorers.length; ++i)
-                    score += lossScorers[i].score(loss, input, precomputeds[i]);
+                    score += cacheIndex[i] >= 0 ? cached[cacheIndex[i]] : lossScorers[i].score(loss, input, precomputeds[i]);
+            }
             assert !Double.isInfinite(score);
             loss.setWeight(score);
         }
+        if (lossScoreCache != null) lossScoreCache.addAll(newLossScores);
         scoreIsotopesInMs2(input, graph);
 
         return graph;
@@ -64,6 +64,15 @@ public class SubFormulaGraphBuilder implements GraphBuilder {
 
     @Override
     public FGraph fillGraph(FGraph graph) {
+        return fillGraph(graph, 0);
+    }
+
+    /**
+     * Adds only the fragments of peaks which come after the first numberOfFilledPeaks peaks in order of decreasing
+     * mass. The fragments of the first peaks have to be in the graph already, as if they were added by
+     * {@link #fillGraph(FGraph)}. The resulting graph is then identical to a graph filled from scratch.
+     */
+    public FGraph fillGraph(FGraph graph, int numberOfFilledPeaks) {
         final FragmentAnnotation<Ionization> ion = graph.getFragmentAnnotationOrThrow(Ionization.class);
         final HashSet<Ionization> allIons = new HashSet<>();
         for (Fragment f : graph.getRoot().getChildren())
@@ -73,6 +82,7 @@ public class SubFormulaGraphBuilder implements GraphBuilder {
 
         final PeakAnnotation<DecompositionList> decompList =
                 graph.getAnnotationOrThrow(ProcessedInput.class).getPeakAnnotationOrThrow(DecompositionList.class);
+        final Deadline deadline = Deadline.of(graph);
 
         MolecularFormula pmd;
         {
@@ -85,10 +95,11 @@ public class SubFormulaGraphBuilder implements GraphBuilder {
 
         final ArrayList<ProcessedPeak> peaks = new ArrayList<ProcessedPeak>(graph.getAnnotationOrThrow(ProcessedInput.class).getMergedPeaks());
         Collections.sort(peaks, new ProcessedPeak.MassComparator());
-        for (int i = peaks.size() - 1; i >= 0; --i) {
+        for (int i = peaks.size() - 1 - numberOfFilledPeaks; i >= 0; --i) {
             final ProcessedPeak peak = peaks.get(i);
             final int pi = peak.getIndex();
             for (Decomposition decomposition : decompList.get(peak).getDecompositions()) {
+                deadline.check();
                 if (!allIons.contains(decomposition.getIon())) continue;
                 final MolecularFormula formula = decomposition.getCandidate();
                 final boolean hasEdge = formula.getMass() < pmd.getMass() && pmd.isSubtractable(formula);
@@ -17,14 +17,40 @@
  */
 package de.unijena.bioinf.FragmentationTreeConstruction.computation.graph.reduction;
 
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.graph.GraphReduction;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
 
 /**
  * Created by Spectar on 05.11.2014.
  */
 public class TMinimalController implements GraphReduction {
 
+    /**
+     * graphs with fewer vertices are always reduced sequentially
+     */
+    public final static int MIN_VERTICES_FOR_PARALLEL_REDUCTION = 1000;
+
+    protected final boolean parallel;
+
+    public TMinimalController() {
+        this(false);
+    }
+
+    /**
+     * @param parallel if true, the upper bounds of large graphs are computed as CPU jobs of the global job manager.
+     *                 The reduced graph is the same in both cases. Disabled by default, as no speed-up was measured
+     *                 so far.
+     */
+    public TMinimalController(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
     @Override
     public FGraph reduce(FGraph graph, double lowerbound) {
 
@@ -32,6 +58,8 @@ public class TMinimalController implements GraphReduction {
 
 
         TReduce reduceInstance = new TReduce(graph);
+        if (parallel && graph.numberOfVertices() >= MIN_VERTICES_FOR_PARALLEL_REDUCTION)
+            reduceInstance.setParallelism(SiriusJobs.getGlobalJobManager());
 
         reduceInstance.DoCheckVerticesAreTopSorted("FOO");
 
@@ -42,8 +70,10 @@ public class TMinimalController implements GraphReduction {
         reduceInstance.reduceEdgesByVertexUpperBound();
 
         boolean hasDeletedLastTime; // more human readable
+        final Deadline deadline = Deadline.of(graph);
 
         do {
+            deadline.check();
             hasDeletedLastTime = false;
 
             reduceInstance.clearVertexUpperBounds(Double.POSITIVE_INFINITY);
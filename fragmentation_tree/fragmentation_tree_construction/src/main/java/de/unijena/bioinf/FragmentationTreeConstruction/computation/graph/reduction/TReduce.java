@@ -20,11 +20,16 @@ package de.unijena.bioinf.FragmentationTreeConstruction.computation.graph.reduct
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JobManager;
 import gnu.trove.map.TIntDoubleMap;
 import gnu.trove.map.hash.TIntDoubleHashMap;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
 
 /**
  * Created by Xentrics on 30.03.14.
@@ -42,6 +47,12 @@ public class TReduce {
     protected double[] gUB; // global upper bounds for vertices
     protected double[][] gLB; // global lower bounds for vertices
 
+    // parallel computation of bounds. null means sequential computation
+    protected JobManager gJobManager;
+
+    // the bound computations are canceled when the deadline of the input is reached
+    final protected Deadline gDeadline;
+
     ////////////////////////////
     /// --- CONSTRUCTORS --- ///
 
@@ -55,6 +66,7 @@ public class TReduce {
         gTraversedVertex = new BitSet(G.numberOfVertices());
         gGraph = G;
         VertexColorCount = G.maxColor() + 1;
+        gDeadline = Deadline.of(G);
         // we assume, we get top sorted input!
     }
 
@@ -280,8 +292,40 @@ public class TReduce {
 
         int edgesDeleted = 0;
 
+        // check the outgoing edges of all vertices in parallel: for each vertex, either its edges are marked for
+        // deletion or the minimum of its edges is stored for gScaredEdge. The deletion itself is sequential, as it
+        // changes the edge lists of both endpoints, but only visits the marked vertices.
+        final boolean[] hasDeletableEdges;
+        final double[] scaredEdges;
+        if (gJobManager != null) {
+            hasDeletableEdges = new boolean[gGraph.numberOfVertices()];
+            scaredEdges = new double[gGraph.numberOfVertices()];
+            final int[] all = new int[gGraph.numberOfVertices()];
+            for (int i = 0; i < all.length; i++) all[i] = i;
+            forEachInParallel(all, vi -> {
+                double scared = Double.POSITIVE_INFINITY;
+                for (Loss e : gGraph.getFragmentAt(vi).getOutgoingEdges()) {
+                    final double value = e.getWeight() + this.gUB[e.getTarget().getVertexId()];
+                    if (value <= 0) {
+                        hasDeletableEdges[vi] = true;
+                        return;
+                    }
+                    scared = Math.min(scared, value);
+                }
+                scaredEdges[vi] = scared;
+            });
+        } else {
+            hasDeletableEdges = null;
+            scaredEdges = null;
+        }
+
         for (Fragment v : gGraph.getFragments()) {
 
+            if (hasDeletableEdges != null && !hasDeletableEdges[v.getVertexId()]) {
+                gScaredEdge = Math.min(gScaredEdge, scaredEdges[v.getVertexId()]);
+                continue;
+            }
+
             List<Loss> edges = v.getOutgoingEdges();
             ListIterator<Loss> it = edges.listIterator(0);
             Loss e;
@@ -537,6 +581,11 @@ public class TReduce {
         this.gHighestUpperBoundScore = Double.NEGATIVE_INFINITY;
         gScaredEdge = Double.POSITIVE_INFINITY;
 
+        if (gJobManager != null) {
+            parallelTimVertexUpperBounds();
+            return;
+        }
+
         for (Fragment v : gGraph.getFragments())
             if (v != null)
                 timVertexUpperBound(v);
@@ -564,39 +613,18 @@ public class TReduce {
 
         if (!this.gTraversedVertex.get(v.getVertexId())) {
             // not visited yet
+            gDeadline.check();
 
 			/* Make sure, that every vertex 'below' / after the current vertex has a upper bound value applied */
-            List<Loss> edges = v.getOutgoingEdges();
-
-            TIntDoubleHashMap VertexColors = new TIntDoubleHashMap((int) (this.VertexColorCount * 1.5));
-
-            Double buffer;
-
-            for (Loss e : edges) {
+            for (Loss e : v.getOutgoingEdges()) {
                 if (e == null)
                     break;
 
                 // get down to leafs/ lower vertices first
                 timVertexUpperBound(e.getTarget());
-
-                if ((buffer = VertexColors.get(e.getTarget().getColor())) != null) {
-                    VertexColors.put(e.getTarget().getColor(), Math.max(buffer, e.getWeight() + gUB[e.getTarget().getVertexId()]));
-                } else {
-                    VertexColors.put(e.getTarget().getColor(), e.getWeight() + gUB[e.getTarget().getVertexId()]);
-                }
-            }
-
-            // we can sum UB's across colors
-            double x = 0.0;
-            for (Integer i : VertexColors.keys()) { // iterate through every color
-
-                // For each colour, we can choose the best UB of any child of that colour, or not to include any child
-                // of this colour at all if doing so would add a negative score.
-                x += Math.max(0.0, VertexColors.get(i)); // they are already summed up
             }
 
-            // Is the existing (e.g. Sebastian's) UB for this vertex better?  If so, grab it!
-            x = Math.min(x, this.gUB[v.getVertexId()]);
+            final double x = timUpperBoundFor(v);
 
             // Compute some interesting stats
             if ((x == 0.0) && (v.getOutgoingEdges().size() > 0)) {
@@ -612,6 +640,70 @@ public class TReduce {
     }
 
 
+    /**
+     * tims upper bound of a single vertex. The upper bounds of all its children have to be computed before.
+     *
+     * @return the upper bound, which is at most the existing upper bound of the vertex
+     */
+    private double timUpperBoundFor(Fragment v) {
+
+        List<Loss> edges = v.getOutgoingEdges();
+
+        TIntDoubleHashMap VertexColors = new TIntDoubleHashMap((int) (this.VertexColorCount * 1.5));
+
+        Double buffer;
+
+        for (Loss e : edges) {
+            if (e == null)
+                break;
+
+            if ((buffer = VertexColors.get(e.getTarget().getColor())) != null) {
+                VertexColors.put(e.getTarget().getColor(), Math.max(buffer, e.getWeight() + gUB[e.getTarget().getVertexId()]));
+            } else {
+                VertexColors.put(e.getTarget().getColor(), e.getWeight() + gUB[e.getTarget().getVertexId()]);
+            }
+        }
+
+        // we can sum UB's across colors
+        double x = 0.0;
+        for (Integer i : VertexColors.keys()) { // iterate through every color
+
+            // For each colour, we can choose the best UB of any child of that colour, or not to include any child
+            // of this colour at all if doing so would add a negative score.
+            x += Math.max(0.0, VertexColors.get(i)); // they are already summed up
+        }
+
+        // Is the existing (e.g. Sebastian's) UB for this vertex better?  If so, grab it!
+        return Math.min(x, this.gUB[v.getVertexId()]);
+    }
+
+    /**
+     * same as the recursive calculation, but all vertices of a topological layer are processed in parallel
+     */
+    private void parallelTimVertexUpperBounds() {
+
+        final int[][] layers = topologicalLayers();
+        final double[] ubs = new double[gGraph.numberOfVertices()];
+        for (int[] layer : layers) {
+            gDeadline.check();
+            forEachInParallel(layer, vi -> ubs[vi] = timUpperBoundFor(gGraph.getFragmentAt(vi)));
+            // the bounds of the next layer depend on the bounds of this layer
+            for (int vi : layer) this.gUB[vi] = ubs[vi];
+        }
+
+        // Compute some interesting stats
+        for (int vi = 0; vi < ubs.length; vi++) {
+            final Fragment v = gGraph.getFragmentAt(vi);
+            if ((ubs[vi] == 0.0) && (v.getOutgoingEdges().size() > 0)) {
+                this.gVerticesZeroUpperBoundCount++;
+                this.gEdgesDeletedByZeroUpperBounds += v.getOutgoingEdges().size();
+            }
+            this.gHighestUpperBoundScore = Math.max(this.gHighestUpperBoundScore, ubs[vi]);
+            this.gTraversedVertex.set(vi, true);
+        }
+    }
+
+
 /////
     //////////////////////////////////
 ///////--- SEBASTIAN-VERTEX-UBS ---///////
@@ -636,7 +728,9 @@ public class TReduce {
         if (!SInEdgesToColor.isInitiated)
             SInEdgesToColor.initiate();
 
-        if (this.gShouldStrengthenSebVertexUbs)
+        if (this.gShouldStrengthenSebVertexUbs && gJobManager != null)
+            parallelStrengthenedSebastianVertexUpperBounds();
+        else if (this.gShouldStrengthenSebVertexUbs)
             strengthenedSebastianVertexUpperBounds();
         else
             sebastianVertexUpperBounds();
@@ -664,6 +758,7 @@ public class TReduce {
 
         // for every vertex of graph g
         for (int vi = gGraph.numberOfVertices() - 1; vi >= 0; vi--) {
+            gDeadline.check();
 
             Fragment v = gGraph.getFragmentAt(vi);
             double x = 0.0;
@@ -749,6 +844,7 @@ public class TReduce {
 
         // for every vertex of graph g
         for (int vi = gGraph.numberOfVertices() - 1; vi >= 0; vi--) {
+            gDeadline.check();
 
             Fragment v = gGraph.getFragmentAt(vi);
             double x = 0.0;
@@ -813,6 +909,67 @@ public class TReduce {
     }
 
 
+    /**
+     * Same as strengthenedSebastianVertexUpperBounds, but instead of pushing the information of a vertex to its
+     * parents, each vertex pulls the information of its children. The children are merged in the same order as in the
+     * sequential computation (decreasing vertex id), so the bounds are identical. All vertices of a topological layer
+     * are independent of each other and are processed in parallel.
+     */
+    private void parallelStrengthenedSebastianVertexUpperBounds() {
+
+        final int n = gGraph.numberOfVertices();
+        final SInEdgesToColor[][] bestInEdgeToColor = new SInEdgesToColor[n][];
+        final double[] ubs = new double[n];
+        // the information of a vertex is deleted as soon as all its parents have merged it
+        final AtomicIntegerArray remainingParents = new AtomicIntegerArray(n);
+        for (int vi = 0; vi < n; vi++) remainingParents.set(vi, gGraph.getFragmentAt(vi).getIncomingEdges().size());
+
+        for (int[] layer : topologicalLayers()) {
+            gDeadline.check();
+            forEachInParallel(layer, ui -> {
+                final Fragment u = gGraph.getFragmentAt(ui);
+                SInEdgesToColor[] bestColorInEdgeToU = null;
+                if (!u.isLeaf()) {
+                    bestColorInEdgeToU = new SInEdgesToColor[this.VertexColorCount];
+                    for (int c = this.VertexColorCount - 1; c > u.getColor(); c--)
+                        bestColorInEdgeToU[c] = new SInEdgesToColor();
+
+                    final Loss[] edges = u.getOutgoingEdges().toArray(new Loss[0]);
+                    Arrays.sort(edges, (a, b) -> Integer.compare(b.getTarget().getVertexId(), a.getTarget().getVertexId()));
+                    for (Loss e : edges) {
+                        final Fragment v = e.getTarget();
+                        final SInEdgesToColor[] bestColorInEdgeToV = bestInEdgeToColor[v.getVertexId()];
+                        if (!v.isLeaf()) {
+                            for (int c = this.VertexColorCount - 1; c > v.getColor(); c--) {
+                                SInEdgesToColor.sebUBMergeEdge(bestColorInEdgeToU[c], bestColorInEdgeToV[c].besLoss, bestColorInEdgeToV[c].maxInEdge);
+                                SInEdgesToColor.sebUBMergeEdge(bestColorInEdgeToU[c], bestColorInEdgeToV[c].secondBesLoss, 0.0);
+
+                                if (bestColorInEdgeToU[c].besLoss.getSource() == v) {
+                                    bestColorInEdgeToU[c].maxInEdge = Math.max(bestColorInEdgeToU[c].maxInEdge, e.getWeight());
+                                }
+                            }
+                        }
+                        SInEdgesToColor.sebUBMergeEdge(bestColorInEdgeToU[v.getColor()], e, Double.NEGATIVE_INFINITY);
+                        if (remainingParents.decrementAndGet(v.getVertexId()) == 0)
+                            bestInEdgeToColor[v.getVertexId()] = null;
+                    }
+                }
+                ubs[ui] = bestColorInEdgeToU == null ? 0.0 : calcSebVubStrengthFor(u, bestColorInEdgeToU);
+                bestInEdgeToColor[ui] = bestColorInEdgeToU;
+            });
+        }
+
+        for (int vi = 0; vi < n; vi++) {
+            final Fragment v = gGraph.getFragmentAt(vi);
+            gUB[vi] = Math.min(gUB[vi], ubs[vi]);
+            if ((ubs[vi] == 0.0) && (!v.isLeaf())) {
+                this.gEdgesDeletedByZeroUpperBounds += v.getOutgoingEdges().size();
+            }
+            gHighestSebUpperBoundScoreEver = Math.max(gHighestSebUpperBoundScoreEver, ubs[vi]);
+        }
+    }
+
+
     /* Tims' strengthening of Sebastian's original bound.
     // The idea is that if the graph we have is not a subtree, then we can find a bound
     // on how many edges need to be changed, and from that, find a bound on how much we can safely reduce the score by.
@@ -1062,6 +1219,71 @@ public class TReduce {
         this.gShouldStrengthenSebVertexUbs = true;
     }
 
+    /**
+     * Computes the vertex upper bounds (tims and strengthened sebastians) and the edge elimination by upper bounds
+     * as CPU jobs of the given job manager. The results are identical to the sequential computation.
+     *
+     * @param jobManager job manager to use, or null for sequential computation
+     */
+    public void setParallelism(JobManager jobManager) {
+        this.gJobManager = jobManager;
+    }
+
+    /**
+     * - groups the vertices into layers, such that all children of a vertex are in a previous layer
+     * - layer k contains all vertices whose longest path to a leaf has length k
+     * - as vertices are top sorted, children always have a higher vertex id
+     */
+    protected int[][] topologicalLayers() {
+
+        final int n = gGraph.numberOfVertices();
+        final int[] height = new int[n];
+        int maxHeight = 0;
+        for (int vi = n - 1; vi >= 0; vi--) {
+            int h = 0;
+            for (Loss e : gGraph.getFragmentAt(vi).getOutgoingEdges())
+                h = Math.max(h, height[e.getTarget().getVertexId()] + 1);
+            height[vi] = h;
+            maxHeight = Math.max(maxHeight, h);
+        }
+        final int[] sizes = new int[maxHeight + 1];
+        for (int h : height) sizes[h]++;
+        final int[][] layers = new int[maxHeight + 1][];
+        for (int h = 0; h <= maxHeight; h++) layers[h] = new int[sizes[h]];
+        Arrays.fill(sizes, 0);
+        for (int vi = 0; vi < n; vi++) layers[height[vi]][sizes[height[vi]]++] = vi;
+        return layers;
+    }
+
+    private final static int PARALLEL_BLOCK_SIZE = 32;
+
+    /**
+     * - splits the vertices into blocks which are processed as CPU jobs
+     * - the first block is processed by the calling thread, such that the computation proceeds even if all CPU
+     * threads are busy
+     */
+    private void forEachInParallel(final int[] vertices, final IntConsumer f) {
+        final int numberOfBlocks = Math.min(gJobManager.getCPUThreads(), vertices.length / PARALLEL_BLOCK_SIZE);
+        if (numberOfBlocks <= 1) {
+            for (int vi : vertices) f.accept(vi);
+            return;
+        }
+        final int blockSize = (vertices.length + numberOfBlocks - 1) / numberOfBlocks;
+        final List<BasicJJob<Boolean>> jobs = new ArrayList<>(numberOfBlocks - 1);
+        for (int from = blockSize; from < vertices.length; from += blockSize) {
+            final int start = from, end = Math.min(vertices.length, from + blockSize);
+            jobs.add(gJobManager.submitJob(new BasicJJob<Boolean>() {
+                @Override
+                protected Boolean compute() throws Exception {
+                    for (int i = start; i < end; i++) f.accept(vertices[i]);
+                    return true;
+                }
+            }));
+        }
+        for (int i = 0; i < blockSize; i++) f.accept(vertices[i]);
+        for (BasicJJob<Boolean> job : jobs) job.takeResult();
+    }
+
     protected double[][] getLB() {
         return gLB;
     }
@@ -25,6 +25,7 @@ import de.unijena.bioinf.ChemistryBase.data.DataDocument;
 import de.unijena.bioinf.ChemistryBase.ms.CollisionEnergy;
 import de.unijena.bioinf.ChemistryBase.ms.Ms2Spectrum;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.MS2Peak;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.PeakPairScores;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
 import gnu.trove.list.array.TDoubleArrayList;
@@ -140,7 +141,7 @@ public class CollisionEnergyEdgeScorer implements PeakPairScorer {
     */
 
     @Override
-    public void score(List<ProcessedPeak> peaks, ProcessedInput input, double[][] scores) {
+    public void score(List<ProcessedPeak> peaks, ProcessedInput input, PeakPairScores scores) {
         final List<? extends Ms2Spectrum> spectra = input.getExperimentInformation().getMs2Spectra();
         // map the different collision energies to indizes
         // for example: you have the energies [10, 20, 30, 40, 60] and you map each
@@ -214,27 +215,28 @@ public class CollisionEnergyEdgeScorer implements PeakPairScorer {
                 continue;
             }
             if (minEnergy[parent]==maxEnergy[parent] && minEnergy[parent]==0) continue;
-            for (int fragment = 0; fragment < parent; ++fragment) {
+            for (int k = scores.start(parent), end = scores.end(parent); k < end; ++k) {
+                final int fragment = scores.getFragment(k);
                 if (minEnergy[fragment]==maxEnergy[fragment] && minEnergy[fragment]==0) continue;
                 // you don't have to score pairs where the parent is smaller than the fragment, because
                 // we don't allow this in later steps --> so matrix is not symmetric
                 if (parentFragment.getMz() <= peaks.get(fragment).getMz())  {
-                    scores[parent][fragment] += Double.NEGATIVE_INFINITY;
+                    scores.add(k, Double.NEGATIVE_INFINITY);
                     assert false;
                 }
                 // 1. fragment appears at lower collision energies than parent -> alpha (10%) probability
                 if (minEnergy[fragment] < minEnergy[parent]) {
-                    scores[parent][fragment] += logAlpha;
+                    scores.add(k, logAlpha);
                     // 2. fragment appears at higher collision energies than parent
                 } else if (maxEnergy[parent] < minEnergy[fragment]) {
                     final int intermediates = maxEnergy[parent] - minEnergy[fragment] - 1;
                     //      - for three collision energies c1 < c2 < c3 where the parent appears lastly at c1 and the fragment
                     //        appears firstly at c3, alpha (10%) probability
                     if (intermediates >= 1) {
-                        scores[parent][fragment] += logAlpha;
+                        scores.add(k, logAlpha);
                     } else if (intermediates == 0) {
                         // if fragment appears direct after parent, give beta (80%)probability
-                        scores[parent][fragment] += logBeta;
+                        scores.add(k, logBeta);
                     } else {
                         // give 100% probability
                     }
@@ -294,10 +296,10 @@ public class CollisionEnergyEdgeScorer implements PeakPairScorer {
                     //      - for three collision energies c1 < c2 < c3 where the parent appears lastly at c1 and the fragment
                     //        appears firstly at c3, alpha (10%) probability
                     if (intermediates >= 1) {
-                        scores[parent][fragment] += logAlpha;
+                        scores.add(k, logAlpha);
                     } else if (intermediates == 0) {
                         // if fragment appears direct after parent, give beta (80%)probability
-                        scores[parent][fragment] += logBeta;
+                        scores.add(k, logBeta);
                     } else {
                         // give 100% probability
                     }
@@ -322,10 +324,10 @@ public class CollisionEnergyEdgeScorer implements PeakPairScorer {
                     //      - for three collision energies c1 < c2 < c3 where the parent appears lastly at c1 and the fragment
                     //        appears firstly at c3, alpha (10%) probability
                     if (intermediates >= 1) {
-                        scores[parent][fragment] += logAlpha;
+                        scores.add(k, logAlpha);
                     } else if (intermediates == 0) {
                         // if fragment appears direct after parent, give beta (80%)probability
-                        scores[parent][fragment] += logBeta;
+                        scores.add(k, logBeta);
                     } else {
                         // give 100% probability
                     }
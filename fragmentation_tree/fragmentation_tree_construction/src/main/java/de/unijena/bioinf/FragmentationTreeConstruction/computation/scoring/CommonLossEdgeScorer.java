@@ -29,7 +29,7 @@ import gnu.trove.procedure.TObjectDoubleProcedure;
 
 import java.util.*;
 
-public class CommonLossEdgeScorer implements LossScorer {
+public class CommonLossEdgeScorer implements FormulaLossScorer {
 
     public final static String[] ales_list = new String[]{
             "H2", "H2O", "CH4", "C2H4", "C2H2",
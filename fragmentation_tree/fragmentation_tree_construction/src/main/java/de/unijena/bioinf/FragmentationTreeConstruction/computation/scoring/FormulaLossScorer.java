@@ -0,0 +1,28 @@
+/*
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2015 Kai Dührkop
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring;
+
+/**
+ * A loss scorer whose score only depends on the molecular formula of the loss and on the data prepared for the
+ * input, but not on the fragments, peaks or graph the loss belongs to. The same loss formulas occur in nearly all
+ * candidate graphs of a compound, so the scores of these scorers are computed once per input and cached
+ * (see {@link LossScoreCache}).
+ */
+public interface FormulaLossScorer<T> extends LossScorer<T> {
+
+}
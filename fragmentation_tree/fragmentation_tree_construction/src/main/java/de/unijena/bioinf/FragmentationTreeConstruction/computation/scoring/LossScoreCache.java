@@ -0,0 +1,129 @@
+/*
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2015 Kai Dührkop
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Caches the scores of all {@link FormulaLossScorer}s for each loss formula. The cache is stored as annotation
+ * of the {@link ProcessedInput} and shared by all graphs which are scored for this input, also by graphs which are
+ * scored concurrently. The score of each scorer is cached separately, so the caller can add them in the same order
+ * as without cache and obtains exactly the same edge weights.
+ *
+ * Lookups read an immutable snapshot of the cache without locking. New scores are collected by the caller and added
+ * at once with {@link #addAll(TLongObjectHashMap)}, which replaces the snapshot.
+ */
+public final class LossScoreCache {
+
+    private final LossScorer[] scorers;
+    private final Object[] precomputed;
+    private final MolecularFormulaPacker packer;
+    private volatile TLongObjectHashMap<double[]> scores;
+
+    /**
+     * @return the cache of the input for the given formula loss scorers. A new cache is created if the input has no
+     * cache yet or if its cache was created for other scorers.
+     */
+    public static LossScoreCache getOrCreate(ProcessedInput input, LossScorer[] formulaLossScorers) {
+        synchronized (input) {
+            LossScoreCache cache = input.getAnnotation(LossScoreCache.class, null);
+            if (cache == null || !cache.isValidFor(formulaLossScorers)) {
+                cache = new LossScoreCache(input, formulaLossScorers);
+                input.setAnnotation(LossScoreCache.class, cache);
+            }
+            return cache;
+        }
+    }
+
+    private LossScoreCache(ProcessedInput input, LossScorer[] scorers) {
+        this.scorers = scorers.clone();
+        this.precomputed = new Object[scorers.length];
+        for (int i = 0; i < scorers.length; ++i) precomputed[i] = scorers[i].prepare(input);
+        this.packer = MolecularFormulaPacker.newPacker(input.getMeasurementProfile().getFormulaConstraints().getChemicalAlphabet());
+        this.scores = newMap(1024);
+    }
+
+    private boolean isValidFor(LossScorer[] formulaLossScorers) {
+        if (formulaLossScorers.length != scorers.length) return false;
+        for (int i = 0; i < scorers.length; ++i)
+            if (scorers[i] != formulaLossScorers[i]) return false;
+        return true;
+    }
+
+    /**
+     * @return the loss formula encoded as key of this cache or a negative value if the formula cannot be cached
+     */
+    public long encode(MolecularFormula lossFormula) {
+        if (!lossFormula.isAllPositiveOrZero()) return -1;
+        return packer.tryEncode(lossFormula);
+    }
+
+    /**
+     * @return the cached scores of the encoded loss formula, in the order of the scorers, or null if they are not
+     * cached yet. The returned array must not be changed.
+     */
+    public double[] get(long key) {
+        return scores.get(key);
+    }
+
+    /**
+     * @return the score of each formula loss scorer for the loss, without looking into the cache
+     */
+    public double[] score(Loss loss, ProcessedInput input) {
+        final double[] values = new double[scorers.length];
+        for (int i = 0; i < scorers.length; ++i)
+            values[i] = scorers[i].score(loss, input, precomputed[i]);
+        return values;
+    }
+
+    /**
+     * @return the index of the scorer in the cached score arrays or -1 if the scorer is not cached
+     */
+    public int indexOf(LossScorer scorer) {
+        for (int i = 0; i < scorers.length; ++i)
+            if (scorers[i] == scorer) return i;
+        return -1;
+    }
+
+    /**
+     * adds the given scores (by encoded loss formula) to the cache
+     */
+    public synchronized void addAll(TLongObjectHashMap<double[]> newScores) {
+        if (newScores.isEmpty()) return;
+        final TLongObjectHashMap<double[]> current = scores;
+        final TLongObjectHashMap<double[]> copy = newMap(current.size() + newScores.size());
+        copy.putAll(current);
+        copy.putAll(newScores);
+        this.scores = copy;
+    }
+
+    public int size() {
+        return scores.size();
+    }
+
+    /**
+     * @return an empty map for collecting new scores
+     */
+    public static TLongObjectHashMap<double[]> newMap(int capacity) {
+        return new TLongObjectHashMap<double[]>(capacity, 0.5f, -1L);
+    }
+}
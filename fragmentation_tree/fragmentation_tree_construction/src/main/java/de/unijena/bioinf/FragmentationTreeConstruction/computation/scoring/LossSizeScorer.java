@@ -23,6 +23,7 @@ import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaScorer;
 import de.unijena.bioinf.ChemistryBase.data.DataDocument;
 import de.unijena.bioinf.ChemistryBase.math.DensityFunction;
 import de.unijena.bioinf.ChemistryBase.math.LogNormalDistribution;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.PeakPairScores;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
 import gnu.trove.list.array.TDoubleArrayList;
@@ -83,30 +84,31 @@ public class LossSizeScorer implements PeakPairScorer, MolecularFormulaScorer{
     }
 
     @Override
-    public void score(List<ProcessedPeak> peaks, ProcessedInput input, double[][] scores) {
-        final TDoubleArrayList lossSizeScores = adjustNormalizationBasedOnData ? new TDoubleArrayList() : null;
+    public void score(List<ProcessedPeak> peaks, ProcessedInput input, PeakPairScores scores) {
+        for (int parent=0; parent < peaks.size(); ++parent) {
+            final double parentMass = peaks.get(parent).getMass();
+            for (int k=scores.start(parent), n=scores.end(parent); k < n; ++k) {
+                scores.add(k, scoring(parentMass-peaks.get(scores.getFragment(k)).getMass()));
+            }
+        }
+        if (!adjustNormalizationBasedOnData) return;
+        // the normalization depends on the best loss of each fragment, including pairs which are not scored
+        final TDoubleArrayList lossSizeScores = new TDoubleArrayList();
         for (int fragment=0; fragment < peaks.size(); ++fragment) {
             final double fragmentMass = peaks.get(fragment).getMass();
             double bestScore = Double.NEGATIVE_INFINITY;
             for (int parent=fragment+1; parent < peaks.size(); ++parent) {
-                final double parentMass = peaks.get(parent).getMass();
-                final double score = scoring(parentMass-fragmentMass);
-                scores[parent][fragment] += score;
-                if (adjustNormalizationBasedOnData) {
-                    bestScore = Math.max(bestScore, score);
-                }
+                bestScore = Math.max(bestScore, scoring(peaks.get(parent).getMass()-fragmentMass));
             }
-            if (adjustNormalizationBasedOnData && !Double.isInfinite(bestScore)) {
+            if (!Double.isInfinite(bestScore)) {
                 lossSizeScores.add(bestScore);
             }
         }
-        if (adjustNormalizationBasedOnData && lossSizeScores.size() > 0) {
+        if (lossSizeScores.size() > 0) {
             final double avgScore = lossSizeScores.sum()/((double)lossSizeScores.size());
             if (avgScore < 0 && !Double.isInfinite(avgScore)) {
-                for (int fragment=0; fragment < peaks.size(); ++fragment) {
-                    for (int parent=fragment+1; parent < peaks.size(); ++parent) {
-                        scores[parent][fragment] += -avgScore;
-                    }
+                for (int k=0, n=scores.size(); k < n; ++k) {
+                    scores.add(k, -avgScore);
                 }
             }
         }
@@ -18,6 +18,7 @@
 package de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring;
 
 import de.unijena.bioinf.ChemistryBase.algorithm.Parameterized;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.PeakPairScores;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
 
@@ -25,6 +26,9 @@ import java.util.List;
 
 public interface PeakPairScorer extends Parameterized {
 
-    void score(List<ProcessedPeak> peaks, ProcessedInput input, double[][] scores);
+    /**
+     * adds the score of each pair of parent and fragment peak which is contained in the given scores
+     */
+    void score(List<ProcessedPeak> peaks, ProcessedInput input, PeakPairScores scores);
 
 }
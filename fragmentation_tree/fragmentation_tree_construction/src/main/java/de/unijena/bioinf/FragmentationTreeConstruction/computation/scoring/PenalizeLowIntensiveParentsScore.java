@@ -2,6 +2,7 @@ package de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring;
 
 import de.unijena.bioinf.ChemistryBase.algorithm.ParameterHelper;
 import de.unijena.bioinf.ChemistryBase.data.DataDocument;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.PeakPairScores;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
 
@@ -31,14 +32,15 @@ public class PenalizeLowIntensiveParentsScore implements PeakPairScorer {
     }
 
     @Override
-    public void score(List<ProcessedPeak> peaks, ProcessedInput input, double[][] scores) {
-        for (int fragment=0; fragment < peaks.size(); ++fragment) {
-            double fragmentIntensity = peaks.get(fragment).getRelativeIntensity();
-            for (int parent = fragment + 1; parent < peaks.size(); ++parent) {
-                final double parentMass = peaks.get(parent).getMass();
-                double parentIntensity = peaks.get(parent).getRelativeIntensity();
-                if (parentMass > minMass && parentIntensity < minIntensity && fragmentIntensity/parentIntensity < ratio) {
-                    scores[parent][fragment] += penalty;
+    public void score(List<ProcessedPeak> peaks, ProcessedInput input, PeakPairScores scores) {
+        for (int parent = 0; parent < peaks.size(); ++parent) {
+            final double parentMass = peaks.get(parent).getMass();
+            double parentIntensity = peaks.get(parent).getRelativeIntensity();
+            if (parentMass <= minMass || parentIntensity >= minIntensity) continue;
+            for (int k = scores.start(parent), n = scores.end(parent); k < n; ++k) {
+                double fragmentIntensity = peaks.get(scores.getFragment(k)).getRelativeIntensity();
+                if (fragmentIntensity/parentIntensity < ratio) {
+                    scores.add(k, penalty);
                 }
             }
         }
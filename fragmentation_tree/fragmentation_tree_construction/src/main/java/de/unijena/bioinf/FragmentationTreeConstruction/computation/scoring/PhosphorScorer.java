@@ -27,7 +27,7 @@ import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
 
-public class PhosphorScorer implements DecompositionScorer<Element[]>, LossScorer<Element[]> {
+public class PhosphorScorer implements DecompositionScorer<Element[]>, FormulaLossScorer<Element[]> {
     @Override
     public Element[] prepare(ProcessedInput input) {
         return new Element[]{
@@ -25,7 +25,7 @@ import de.unijena.bioinf.ChemistryBase.data.DataDocument;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 
-public class PureCarbonNitrogenLossScorer implements LossScorer<Element[]> {
+public class PureCarbonNitrogenLossScorer implements FormulaLossScorer<Element[]> {
 
     private double penalty;
 
@@ -20,6 +20,7 @@ package de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring;
 import de.unijena.bioinf.ChemistryBase.algorithm.Called;
 import de.unijena.bioinf.ChemistryBase.algorithm.ParameterHelper;
 import de.unijena.bioinf.ChemistryBase.data.DataDocument;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.PeakPairScores;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
 
@@ -28,11 +29,11 @@ import java.util.List;
 @Called("Loss Size")
 public class RelativeLossSizeScorer implements PeakPairScorer {
     @Override
-    public void score(List<ProcessedPeak> peaks, ProcessedInput input, double[][] scores) {
-        for (int fragment=0; fragment < peaks.size(); ++fragment) {
-            for (int parent=fragment+1; parent < peaks.size(); ++parent) {
-                final double parentMass = peaks.get(parent).getMass();
-                scores[parent][fragment] += Math.log(1d-(parentMass-peaks.get(fragment).getMass())/parentMass);
+    public void score(List<ProcessedPeak> peaks, ProcessedInput input, PeakPairScores scores) {
+        for (int parent=0; parent < peaks.size(); ++parent) {
+            final double parentMass = peaks.get(parent).getMass();
+            for (int k=scores.start(parent), n=scores.end(parent); k < n; ++k) {
+                scores.add(k, Math.log(1d-(parentMass-peaks.get(scores.getFragment(k)).getMass())/parentMass));
             }
         }
     }
@@ -3,6 +3,7 @@ package de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring;
 import de.unijena.bioinf.ChemistryBase.algorithm.ParameterHelper;
 import de.unijena.bioinf.ChemistryBase.data.DataDocument;
 import de.unijena.bioinf.ChemistryBase.math.DensityFunction;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.PeakPairScores;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
 
@@ -29,7 +30,9 @@ public class SmallestLossScorer2 implements PeakPairScorer{
     }
 
     @Override
-    public void score(List<ProcessedPeak> peaks, ProcessedInput input, double[][] scores) {
+    public void score(List<ProcessedPeak> peaks, ProcessedInput input, PeakPairScores scores) {
+        // the bonus of a fragment depends on all heavier peaks, not only on the scored pairs
+        final double[] bonus = new double[peaks.size()];
         for (int fragment=0; fragment < peaks.size(); ++fragment) {
             final double fragmentMass = peaks.get(fragment).getMass();
             double smallestPenalty = Double.NEGATIVE_INFINITY;
@@ -41,10 +44,12 @@ public class SmallestLossScorer2 implements PeakPairScorer{
                 smallestPenalty = Math.max(smallestPenalty,  Math.log(Math.max(1e-12, distribution.getDensity(diff))) - normalization);
             }
             if (!Double.isInfinite(smallestPenalty) && smallestPenalty < -0.75) {
-                final double score = Math.max(0, -0.2 + -0.9*smallestPenalty);
-                for (int parent=fragment+1; parent < peaks.size(); ++parent) {
-                    scores[parent][fragment] += score;
-                }
+                bonus[fragment] = Math.max(0, -0.2 + -0.9*smallestPenalty);
+            }
+        }
+        for (int parent=0; parent < peaks.size(); ++parent) {
+            for (int k=scores.start(parent), n=scores.end(parent); k < n; ++k) {
+                scores.add(k, bonus[scores.getFragment(k)]);
             }
         }
     }
@@ -30,7 +30,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 
-public class StrangeElementLossScorer implements LossScorer {
+public class StrangeElementLossScorer implements FormulaLossScorer {
 
     private HashSet<MolecularFormula> lossList;
     private double score;
@@ -0,0 +1,250 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
+
+import java.util.Arrays;
+
+/**
+ * Upper bound for the maximum colorful subtree problem by Lagrangian relaxation of the colour constraints, which
+ * needs no ILP solver.
+ *
+ * For multipliers lambda(c) {@literal >=} 0 each edge into a vertex of colour c is penalized with lambda(c), and
+ * the sum of all multipliers is added to the score. Without the colour constraints, the best subtree of the penalized
+ * graph can be bounded by a simple dynamic programming over the DAG: the bound of a vertex is the sum of the
+ * positive (penalized edge weight + bound of the child) over its outgoing edges. For each choice of the multipliers
+ * this gives an upper bound for the score of every colorful subtree. The multipliers are optimized by subgradient
+ * descent with Polyak step sizes. In each iteration, a colorful subtree is extracted from the relaxed solution,
+ * which gives a lower bound.
+ */
+public class LagrangianRelaxation {
+
+    public final static int DEFAULT_NUMBER_OF_ITERATIONS = 100;
+
+    protected final CompactGraph graph;
+    protected final int[] topologicalOrder;
+    protected int numberOfIterations;
+
+    public LagrangianRelaxation(FGraph graph) {
+        this(new CompactGraph(graph));
+    }
+
+    public LagrangianRelaxation(CompactGraph graph) {
+        this.graph = graph;
+        this.topologicalOrder = topologicalOrder(graph);
+        this.numberOfIterations = DEFAULT_NUMBER_OF_ITERATIONS;
+    }
+
+    public int getNumberOfIterations() {
+        return numberOfIterations;
+    }
+
+    public void setNumberOfIterations(int numberOfIterations) {
+        this.numberOfIterations = numberOfIterations;
+    }
+
+    public Bound computeBound() {
+        return computeBound(Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * @param lowerBound score of a known colorful subtree (e.g. computed by a heuristic), which speeds up the
+     *                   convergence of the multipliers, or Double.NEGATIVE_INFINITY if no tree is known
+     */
+    public Bound computeBound(double lowerBound) {
+        final int root = graph.getRoot();
+        if (graph.getOutDegree(root) == 0) return new Bound(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, 0);
+        final Deadline deadline = Deadline.of(graph.getGraph());
+        final int ncolors = graph.maxColor() + 1;
+        final double[] lambda = new double[ncolors];
+        // starting with the best incoming edge of each colour, no penalized edge is positive
+        for (int e = 0, m = graph.numberOfEdges(); e < m; ++e) {
+            final int c = graph.getColor(graph.getTarget(e));
+            lambda[c] = Math.max(lambda[c], graph.getWeight(e));
+        }
+        // the tree consisting of the best root alone is always feasible
+        double bestRootEdge = Double.NEGATIVE_INFINITY;
+        for (int e = graph.outgoingOffset(root), n = graph.outgoingOffset(root + 1); e < n; ++e)
+            bestRootEdge = Math.max(bestRootEdge, graph.getWeight(e));
+        double lower = Math.max(lowerBound, bestRootEdge);
+        double upper = Double.POSITIVE_INFINITY;
+
+        final double[] value = new double[graph.numberOfVertices()];
+        final double[] multiplicity = new double[graph.numberOfVertices()];
+        final double[] subgradient = new double[ncolors];
+        double stepFactor = 1d;
+        int iteration = 0, iterationsWithoutImprovement = 0;
+        while (iteration < numberOfIterations) {
+            deadline.check();
+            ++iteration;
+            final double bound = relaxedBound(lambda, value);
+            if (bound < upper - 1e-9) {
+                upper = bound;
+                iterationsWithoutImprovement = 0;
+            } else if (++iterationsWithoutImprovement >= 5) {
+                stepFactor /= 2;
+                iterationsWithoutImprovement = 0;
+            }
+            lower = Math.max(lower, colorfulSubtree(lambda, value));
+            if (upper - lower <= 1e-9 || stepFactor < 1e-4) break;
+
+            // the subgradient is 1 - (number of vertices of the colour in the relaxed solution)
+            countColors(lambda, value, multiplicity, subgradient);
+            double norm = 0d;
+            for (int c = 0; c < ncolors; ++c) {
+                subgradient[c] = 1d - subgradient[c];
+                // multipliers which are zero cannot decrease any further
+                if (lambda[c] <= 0 && subgradient[c] > 0) subgradient[c] = 0d;
+                norm += subgradient[c] * subgradient[c];
+            }
+            // the relaxed solution is colorful, so its bound cannot be improved
+            if (norm <= 0) break;
+            final double step = stepFactor * (bound - lower) / norm;
+            for (int c = 0; c < ncolors; ++c)
+                lambda[c] = Math.max(0d, lambda[c] - step * subgradient[c]);
+        }
+        return new Bound(Math.max(upper, lower), lower, iteration);
+    }
+
+    /**
+     * computes the bound of each vertex in the penalized graph
+     *
+     * @return the upper bound for the given multipliers
+     */
+    private double relaxedBound(double[] lambda, double[] value) {
+        for (int i = topologicalOrder.length - 1; i >= 0; --i) {
+            final int u = topologicalOrder[i];
+            double x = 0d;
+            for (int e = graph.outgoingOffset(u), n = graph.outgoingOffset(u + 1); e < n; ++e) {
+                final double gain = gain(e, lambda, value);
+                if (gain > 0) x += gain;
+            }
+            value[u] = x;
+        }
+        double bound = value[graph.getRoot()];
+        for (double l : lambda) bound += l;
+        return bound;
+    }
+
+    private double gain(int edge, double[] lambda, double[] value) {
+        final int v = graph.getTarget(edge);
+        return graph.getWeight(edge) - lambda[graph.getColor(v)] + value[v];
+    }
+
+    /**
+     * counts how often each colour occurs in the relaxed solution. Vertices which are reachable on several paths
+     * occur several times.
+     */
+    private void countColors(double[] lambda, double[] value, double[] multiplicity, double[] counts) {
+        final int root = graph.getRoot();
+        // a larger number of occurrences does not change the direction of the subgradient much
+        final double maxMultiplicity = counts.length;
+        Arrays.fill(multiplicity, 0d);
+        Arrays.fill(counts, 0d);
+        multiplicity[root] = 1d;
+        for (int u : topologicalOrder) {
+            if (multiplicity[u] <= 0) continue;
+            if (u != root) counts[graph.getColor(u)] += multiplicity[u];
+            for (int e = graph.outgoingOffset(u), n = graph.outgoingOffset(u + 1); e < n; ++e) {
+                if (gain(e, lambda, value) > 0) {
+                    final int v = graph.getTarget(e);
+                    multiplicity[v] = Math.min(maxMultiplicity, multiplicity[v] + multiplicity[u]);
+                }
+            }
+        }
+    }
+
+    /**
+     * extracts a colorful subtree from the relaxed solution: starting with the best edge of the pseudo root, each
+     * vertex is added with the first edge of the relaxed solution which reaches it, as long as its colour is not
+     * used yet.
+     *
+     * @return score of the subtree
+     */
+    private double colorfulSubtree(double[] lambda, double[] value) {
+        final int root = graph.getRoot();
+        // a tree has a single root, so only the best edge of the pseudo root is used
+        int rootEdge = -1;
+        double bestGain = Double.NEGATIVE_INFINITY;
+        for (int e = graph.outgoingOffset(root), n = graph.outgoingOffset(root + 1); e < n; ++e) {
+            final double gain = gain(e, lambda, value);
+            if (gain > bestGain) {
+                bestGain = gain;
+                rootEdge = e;
+            }
+        }
+        if (rootEdge < 0) return Double.NEGATIVE_INFINITY;
+        final boolean[] inTree = new boolean[graph.numberOfVertices()];
+        final boolean[] usedColors = new boolean[graph.maxColor() + 1];
+        final int treeRoot = graph.getTarget(rootEdge);
+        inTree[treeRoot] = true;
+        usedColors[graph.getColor(treeRoot)] = true;
+        double score = graph.getWeight(rootEdge);
+        for (int u : topologicalOrder) {
+            if (!inTree[u]) continue;
+            for (int e = graph.outgoingOffset(u), n = graph.outgoingOffset(u + 1); e < n; ++e) {
+                final int v = graph.getTarget(e);
+                if (inTree[v] || usedColors[graph.getColor(v)] || gain(e, lambda, value) <= 0) continue;
+                inTree[v] = true;
+                usedColors[graph.getColor(v)] = true;
+                score += graph.getWeight(e);
+            }
+        }
+        return score;
+    }
+
+    private static int[] topologicalOrder(CompactGraph graph) {
+        final int n = graph.numberOfVertices();
+        final int[] inDegree = new int[n];
+        for (int v = 0; v < n; ++v) inDegree[v] = graph.getInDegree(v);
+        final int[] order = new int[n];
+        int size = 0;
+        for (int v = 0; v < n; ++v)
+            if (inDegree[v] == 0) order[size++] = v;
+        for (int i = 0; i < size; ++i) {
+            final int u = order[i];
+            for (int e = graph.outgoingOffset(u), end = graph.outgoingOffset(u + 1); e < end; ++e) {
+                final int v = graph.getTarget(e);
+                if (--inDegree[v] == 0) order[size++] = v;
+            }
+        }
+        return size == n ? order : Arrays.copyOf(order, size);
+    }
+
+    /**
+     * Result of the relaxation. Every colorful subtree of the graph has a score of at most upperBound. lowerBound is
+     * the score of the best colorful subtree found during the computation, or of the tree given as lower bound.
+     */
+    public static class Bound {
+        public final double upperBound;
+        public final double lowerBound;
+        public final int numberOfIterations;
+
+        public Bound(double upperBound, double lowerBound, int numberOfIterations) {
+            this.upperBound = upperBound;
+            this.lowerBound = lowerBound;
+            this.numberOfIterations = numberOfIterations;
+        }
+
+        /**
+         * @return difference between upper and lower bound. No tree can be better than the lower bound by more than
+         * this value.
+         */
+        public double getGap() {
+            return Math.max(0d, upperBound - lowerBound);
+        }
+
+        /**
+         * @return the gap between the upper bound and the given score
+         */
+        public double getGap(double score) {
+            return Math.max(0d, upperBound - score);
+        }
+
+        @Override
+        public String toString() {
+            return "upper bound " + upperBound + ", lower bound " + lowerBound + " after " + numberOfIterations + " iterations";
+        }
+    }
+}
@@ -24,6 +24,7 @@ import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 import de.unijena.bioinf.jjobs.exceptions.TimeoutException;
 import org.slf4j.Logger;
@@ -44,6 +45,7 @@ abstract public class AbstractSolver {
     protected final int[] edgeOffsets; // contains: the first index j of edges starting from a given vertex i
 
     protected TreeBuilder.FluentInterface options;
+    protected final Deadline deadline;
 
     ////////////////////////
     //--- CONSTRUCTORS ---//
@@ -62,9 +64,11 @@ abstract public class AbstractSolver {
         this.edgeOffsets = new int[graph.numberOfVertices()];
         this.input = input;
         this.options = options;
+        this.deadline = input != null ? Deadline.of(input) : Deadline.of(graph);
     }
 
     public TreeBuilder.Result compute() {
+        deadline.check();
         if (graph.numberOfEdges() == 1)
             return new TreeBuilder.Result(buildSolution(graph.getRoot().getOutgoingEdge(0).getWeight(), new boolean[]{true}), true, TreeBuilder.AbortReason.COMPUTATION_CORRECT);
         return solve();
@@ -88,8 +92,12 @@ abstract public class AbstractSolver {
             initializeModel();
             if (options.getNumberOfCPUS() > 0)
                 setNumberOfCpus(options.getNumberOfCPUS());
+            // the solver must not run beyond the deadline of the input
+            double timeLimit = deadline.getRemainingSeconds();
             if (options.getTimeLimitsInSeconds() > 0)
-                setTimeLimitInSeconds(options.getTimeLimitsInSeconds());
+                timeLimit = Math.min(timeLimit, options.getTimeLimitsInSeconds());
+            if (!Double.isInfinite(timeLimit))
+                setTimeLimitInSeconds(Math.max(timeLimit, 1e-3));
             computeOffsets();
             assert (edgeOffsets != null && (edgeOffsets.length != 0 || losses.size() == 0)) : "Edge edgeOffsets were not calculated?!";
 
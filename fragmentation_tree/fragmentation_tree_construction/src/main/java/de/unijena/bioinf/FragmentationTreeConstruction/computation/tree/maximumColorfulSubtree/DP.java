@@ -22,12 +22,22 @@ import com.google.common.collect.Lists;
 import de.unijena.bioinf.ChemistryBase.ms.ft.*;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
 import de.unijena.bioinf.graphUtils.tree.PostOrderTraversal;
+import gnu.trove.map.hash.TIntIntHashMap;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
 class DP {
 
+    /**
+     * each entry of a DP table needs a double for the score and an int for the colour set
+     */
+    static final int BYTES_PER_ENTRY = 12;
+    static final int BYTES_PER_REFERENCE = 8;
+    /**
+     * colour sets are stored as int bitsets
+     */
+    static final int MAX_NUMBER_OF_COLORS = 30;
 
     private final FGraph graph;
     private final DPTable[] tables;
@@ -44,20 +54,8 @@ class DP {
         //while (fiter.hasNext()) vertices.add(fiter.next());
 
 
-        // order vertices by intensity
-        final FragmentAnnotation<ProcessedPeak> ano = graph.getFragmentAnnotationOrThrow(ProcessedPeak.class);
-        vertices = new ArrayList<Fragment>(graph.getFragmentsWithoutRoot());
-        Collections.sort(vertices, new Comparator<Fragment>() {
-            @Override
-            public int compare(Fragment fragment, Fragment fragment2) {
-                return Double.compare(ano.get(fragment2).getRelativeIntensity(), ano.get(fragment).getRelativeIntensity());
-            }
-        });
-        for (int i = 0; i < vertices.size(); ++i) {
-            vertices.get(i).setColor(i + 1);
-        }
-        graph.getRoot().getOutgoingEdge(0).getTarget().setColor(0);
-
+        colorByIntensity(graph);
+        this.vertices = new ArrayList<Fragment>();
 
         this.tables = new DPTable[graph.numberOfVertices()];
         this.maxNumberOfColors = k;
@@ -68,7 +66,6 @@ class DP {
         for (int i = 0; i <= k; ++i) colorBitSet.set(i);
         final Iterator<Fragment> fiter = graph.postOrderIterator(graph.getRoot().getChildren(0), colorBitSet);
 
-        this.vertices.clear();
         while (fiter.hasNext()) vertices.add(fiter.next());
 
         for (Fragment vertex : vertices) {
@@ -82,6 +79,63 @@ class DP {
         this.epsilon = epsilon;
     }
 
+    /**
+     * Colours the vertices by the intensity of their peaks: all vertices of the same peak get the same colour, the
+     * most intense peak gets colour 1 and so on. The root gets colour 0.
+     *
+     * @return the largest colour
+     */
+    static int colorByIntensity(FGraph graph) {
+        final FragmentAnnotation<ProcessedPeak> ano = graph.getFragmentAnnotationOrThrow(ProcessedPeak.class);
+        final TIntIntHashMap colors = new TIntIntHashMap(32, 0.75f, -1, -1);
+        colors.put(ano.get(graph.getRoot().getChildren(0)).getIndex(), 0);
+        final ArrayList<ProcessedPeak> peaks = new ArrayList<ProcessedPeak>();
+        for (Fragment f : graph.getFragmentsWithoutRoot()) {
+            final ProcessedPeak peak = ano.get(f);
+            if (!colors.containsKey(peak.getIndex())) {
+                colors.put(peak.getIndex(), -1);
+                peaks.add(peak);
+            }
+        }
+        Collections.sort(peaks, new Comparator<ProcessedPeak>() {
+            @Override
+            public int compare(ProcessedPeak a, ProcessedPeak b) {
+                final int c = Double.compare(b.getRelativeIntensity(), a.getRelativeIntensity());
+                return c != 0 ? c : Integer.compare(a.getIndex(), b.getIndex());
+            }
+        });
+        for (int i = 0; i < peaks.size(); ++i) colors.put(peaks.get(i).getIndex(), i + 1);
+        for (Fragment f : graph.getFragmentsWithoutRoot()) f.setColor(colors.get(ano.get(f).getIndex()));
+        return peaks.size();
+    }
+
+    /**
+     * Estimates the memory of the DP tables and of the cached colour sets if only the colours 0 to k are used.
+     * The graph has to be coloured with {@link #colorByIntensity(FGraph)} before.
+     *
+     * @return estimated memory in bytes
+     */
+    static long estimateMemory(FGraph graph, int k) {
+        final int[] colorsets = new int[graph.numberOfVertices()];
+        final BitSet colorBitSet = new BitSet(graph.maxColor() + 1);
+        for (int i = 0; i <= k; ++i) colorBitSet.set(i);
+        final Iterator<Fragment> fiter = graph.postOrderIterator(graph.getRoot().getChildren(0), colorBitSet);
+        long entries = 0;
+        // the key pool of the algorithm allocates an index with 2^(b+1) references for each highest bit b of a colour set
+        long highestBits = 0;
+        while (fiter.hasNext()) {
+            final Fragment u = fiter.next();
+            int colorset = (1 << u.getColor());
+            for (Fragment v : u.getChildren()) {
+                if (v.getColor() <= k) colorset |= colorsets[v.getVertexId()];
+            }
+            colorsets[u.getVertexId()] = colorset;
+            entries += 1L << (Integer.bitCount(colorset) - 1);
+            highestBits |= Integer.highestOneBit(colorset & ~(1 << u.getColor()));
+        }
+        return entries * BYTES_PER_ENTRY + (Long.highestOneBit(highestBits) << 2) * BYTES_PER_REFERENCE;
+    }
+
     /*
         Computation
      */
@@ -97,6 +151,7 @@ class DP {
         final Fragment graphRoot = graph.getRoot().getChildren(0);
         final TreeScoring scoring = tree.getAnnotationOrThrow(TreeScoring.class);
         scoring.setOverallScore(scoring.getOverallScore() + additionalScore);
+        tree.setTreeWeight(scoring.getOverallScore());
 
         assert computationIsCorrect(tree, graph);
         tree.removeAnnotation(TreeScoring.class);
@@ -145,6 +200,7 @@ class DP {
         final int vertexId = vertex.getVertexId();
         final double optScore = tables[vertexId].bestScore();
         final FTree tree = new FTree(vertex.getFormula());
+        tree.getRoot().setColor(vertex.getColor());
         final TreeScoring treeScoring = new TreeScoring();
         tree.addAnnotation(TreeScoring.class, treeScoring);
 
@@ -210,6 +266,8 @@ class DP {
                 final double weight = l.getWeight();
                 if (isEqual(subtreeWeight + weight, node.accumulatedWeight)) {
                     final Fragment childNode = tree.addFragment(node.treeNode, l.getTarget().getFormula());
+                    childNode.setColor(color);
+                    childNode.getIncomingEdge().setWeight(weight);
                     if (!isLeq(subtreeWeight, 0)) {
                         final TraceItem childItem = new TraceItem(v, childNode, childBitset,
                                 subtreeWeight);
@@ -294,6 +352,7 @@ class DP {
 
                 final Fragment v = tree.addFragment(bestCandidate, bestEdge.getTarget().getFormula());
                 v.getIncomingEdge().setWeight(bestEdge.getWeight());
+                v.setColor(graphV.getColor());
                 tree2GraphMapping.put(v, bestEdge.getTarget());
                 final Iterator<Loss> iterator = bestCandidate.getOutgoingEdges().iterator();
                 final Fragment u = bestCandidate;
@@ -389,15 +448,12 @@ class DP {
 
     protected double distributeColors(Fragment u, int S) {
         final DPTable W_u = tables[u.getVertexId()];
-        final int[] subsetsOfS = algo.subsetsFor(S);
-        final int n = subsetsOfS.length;
-        final int maxToLookup = n / 2 + n % 2;
-        final int m = n - 1;
         double opt = Double.NEGATIVE_INFINITY;
-        for (int i = 0; i < maxToLookup; ++i) {
-            assert (subsetsOfS[i] | subsetsOfS[m - i]) == S && (subsetsOfS[i] & subsetsOfS[m - i]) == 0;
-            final double score = W_u.get(subsetsOfS[i]) + W_u.get(subsetsOfS[m - i]);
-            opt = Math.max(score, opt);
+        // enumerate each split of S into two disjoint subsets once, without caching all subsets of S
+        for (int subset = S; ; subset = (subset - 1) & S) {
+            final int rest = S & ~subset;
+            if (subset >= rest) opt = Math.max(W_u.get(subset) + W_u.get(rest), opt);
+            if (subset == 0) break;
         }
         return opt;
     }
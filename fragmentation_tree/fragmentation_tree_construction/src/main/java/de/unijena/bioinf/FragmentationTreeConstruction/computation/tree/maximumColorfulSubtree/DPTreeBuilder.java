@@ -0,0 +1,58 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.maximumColorfulSubtree;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
+
+/**
+ * Computes trees with the dynamic programming for the maximum colorful subtree problem, without any ILP solver.
+ * The DP tables are limited by a memory budget. For small compounds the DP is exact. For larger compounds only
+ * the most intense colours are used in the DP, the remaining ones are inserted greedily. The result reports
+ * whether the tree is proven optimal. The given graph is not modified, so the same graph can be used by several
+ * threads at once.
+ */
+public class DPTreeBuilder implements TreeBuilder {
+
+    protected final MaximumColorfulSubtreeAlgorithm algorithm;
+    protected final long memoryBudget;
+
+    public DPTreeBuilder() {
+        this(256 * 1024l * 1024l);
+    }
+
+    /**
+     * @param memoryBudget maximal memory of the DP tables in bytes
+     */
+    public DPTreeBuilder(long memoryBudget) {
+        this.algorithm = new MaximumColorfulSubtreeAlgorithm(memoryBudget);
+        this.memoryBudget = memoryBudget;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    @Override
+    public FluentInterface computeTree() {
+        return new FluentInterface(this);
+    }
+
+    @Override
+    public Result computeTree(ProcessedInput input, FGraph graph, FluentInterface options) {
+        // the DP colours the graph by intensity. The graph might be shared with other tree builders, so we colour a copy
+        final Result result = algorithm.computeWithinBudget(new FGraph(graph), memoryBudget);
+        if (result.tree.getTreeWeight() < options.getMinimalScore())
+            return new Result(null, false, AbortReason.NO_SOLUTION);
+        return result;
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "DP with " + (memoryBudget / (1024 * 1024)) + " MB";
+    }
+}
@@ -20,6 +20,8 @@ package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.maximum
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.TreeScoring;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
 import java.util.List;
@@ -65,6 +67,38 @@ public class MaximumColorfulSubtreeAlgorithm {
         return tree;
     }
 
+    /**
+     * Computes the tree with the DP, using as many colours as fit into the given memory budget. Colours are ordered
+     * by the intensity of their peaks. If not all colours fit into the budget, the DP is computed on the most
+     * intense colours and the vertices of the remaining colours are inserted greedily into the tree afterwards.
+     *
+     * @param memoryBudget maximal memory of the DP tables in bytes
+     * @return the tree, which is only optimal if the DP could use all colours of the graph
+     */
+    public TreeBuilder.Result computeWithinBudget(FGraph graph, long memoryBudget) {
+        final int numberOfColors = DP.colorByIntensity(graph);
+        int k = maxNumberOfColorsWithinBudget(graph, Math.min(numberOfColors, DP.MAX_NUMBER_OF_COLORS), memoryBudget);
+        if (k < numberOfColors) {
+            LoggerFactory.getLogger(MaximumColorfulSubtreeAlgorithm.class).debug("DP tables for all " + numberOfColors + " colours exceed the memory budget. Compute the DP on the " + k + " most intense colours.");
+        }
+        final FTree tree = compute(graph, k);
+        return new TreeBuilder.Result(tree, k >= numberOfColors, TreeBuilder.AbortReason.COMPUTATION_CORRECT);
+    }
+
+    /**
+     * @return the largest number of colours (at most maxColorNumber) for which the DP tables fit into the memory budget
+     */
+    private static int maxNumberOfColorsWithinBudget(FGraph graph, int maxColorNumber, long memoryBudget) {
+        // the table size grows with the number of colours, so we can search for the largest fitting number
+        int lo = 0, hi = maxColorNumber;
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (DP.estimateMemory(graph, mid) <= memoryBudget) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
     public List<FTree> computeMultipleTrees(FGraph graph, int maxColorNumber) {
         DP dp = new DP(this, graph, maxColorNumber, false);
         dp.compute();
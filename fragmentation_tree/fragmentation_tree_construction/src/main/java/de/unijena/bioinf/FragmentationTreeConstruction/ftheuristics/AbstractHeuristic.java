@@ -1,10 +1,12 @@
 package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
 
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -14,13 +16,38 @@ import java.util.List;
 public abstract class AbstractHeuristic {
 
     protected final FGraph graph;
+    /**
+     * array based view of the graph, or null if the heuristic works on the fragments directly
+     */
+    protected final CompactGraph compact;
     protected final List<Loss> selectedEdges;
     protected final int ncolors;
+    /**
+     * deadline of the input, which is checked regularly while the heuristic is running
+     */
+    protected Deadline deadline;
 
     public AbstractHeuristic(FGraph graph) {
         this.ncolors = graph.maxColor()+1;
         this.graph = graph;
+        this.compact = null;
         this.selectedEdges = new ArrayList<>(ncolors);
+        this.deadline = Deadline.of(graph);
+    }
+
+    public AbstractHeuristic(CompactGraph graph) {
+        this.ncolors = graph.maxColor()+1;
+        this.graph = graph.getGraph();
+        this.compact = graph;
+        this.selectedEdges = new ArrayList<>(ncolors);
+        this.deadline = Deadline.of(this.graph);
+    }
+
+    /**
+     * @param deadline replaces the deadline of the input, e.g. to stop the heuristic earlier
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
     }
 
     public abstract FTree solve();
@@ -58,6 +85,27 @@ public abstract class AbstractHeuristic {
         return tree;
     }
 
+    /**
+     * sorts the given edges of the compact graph by descending weight. Edges with same weight keep their order.
+     */
+    protected final void sortEdgesByWeight(int[] edges) {
+        final int[] buffer = new int[edges.length];
+        for (int width = 1; width < edges.length; width *= 2) {
+            deadline.check();
+            for (int from = 0; from < edges.length; from += 2 * width) {
+                final int mid = Math.min(from + width, edges.length), to = Math.min(from + 2 * width, edges.length);
+                int i = from, j = mid, k = from;
+                while (i < mid && j < to) {
+                    if (Double.compare(compact.getWeight(edges[j]), compact.getWeight(edges[i])) > 0) buffer[k++] = edges[j++];
+                    else buffer[k++] = edges[i++];
+                }
+                while (i < mid) buffer[k++] = edges[i++];
+                while (j < to) buffer[k++] = edges[j++];
+            }
+            System.arraycopy(buffer, 0, edges, 0, edges.length);
+        }
+    }
+
     protected final double prune(FTree tree, Fragment f) {
         double score = 0d;
         if (!f.isRoot()) score += f.getIncomingEdge().getWeight();
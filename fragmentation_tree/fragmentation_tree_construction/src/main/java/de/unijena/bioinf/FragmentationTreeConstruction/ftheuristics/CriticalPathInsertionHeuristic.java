@@ -114,7 +114,7 @@ public class CriticalPathInsertionHeuristic extends AbstractHeuristic {
     public FTree solve() {
         initialize();
         while (findCriticalPaths()) {
-
+            deadline.check();
         }
         return buildSolution();
     }
@@ -5,6 +5,7 @@ import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
 import gnu.trove.map.hash.TIntObjectHashMap;
 
 import java.util.*;
@@ -21,6 +22,7 @@ public class ExtendedCriticalPathHeuristic {
     protected int numberOfSelectedEdges;
     protected ArrayList<Loss> selectableEdges;
     protected double[] criticalPaths;
+    protected final Deadline deadline;
 
     public ExtendedCriticalPathHeuristic(FGraph graph) {
         this(graph,true,1);
@@ -35,6 +37,7 @@ public class ExtendedCriticalPathHeuristic {
         this.numberOfSelectedEdges = 0;
         this.selectableEdges = new ArrayList(graph.maxColor()+1);
         this.criticalPaths = new double[graph.numberOfVertices()];
+        this.deadline = Deadline.of(graph);
         if (graph.getRoot().getOutDegree()==1) {
             // just add this edge
             usedEdges[numberOfSelectedEdges++] = graph.getRoot().getOutgoingEdge(0);
@@ -66,7 +69,7 @@ public class ExtendedCriticalPathHeuristic {
 
     public FTree solve() {
         while (findCriticalPaths()) {
-
+            deadline.check();
         }
         if (INSERTION==1) relocateAll();
         else if (INSERTION==2) relocateBySpanningTree();
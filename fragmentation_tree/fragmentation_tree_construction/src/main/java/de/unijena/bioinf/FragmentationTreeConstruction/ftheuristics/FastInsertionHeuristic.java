@@ -1,10 +1,8 @@
 package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
 
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
-import gnu.trove.map.hash.TIntObjectHashMap;
 
 import java.util.Arrays;
 import java.util.BitSet;
@@ -12,102 +10,107 @@ import java.util.BitSet;
 public class FastInsertionHeuristic extends AbstractHeuristic {
 
     protected final double[] maxIn, maxOut;
-    protected final Loss[] maxInVertices;
+    protected final int[] maxInEdges;
     private final BitSet usedColors;
-    private final TIntObjectHashMap<Loss> color2Edge;
+    private final int[] color2Edge;
 
     private final int[] vertices2consider;
     private int nv;
 
     public FastInsertionHeuristic(FGraph graph) {
+        this(new CompactGraph(graph));
+    }
+
+    public FastInsertionHeuristic(CompactGraph graph) {
         super(graph);
         usedColors = new BitSet(ncolors);
-        color2Edge = new TIntObjectHashMap<>(ncolors, 0.75f, -1);
+        color2Edge = new int[ncolors];
+        Arrays.fill(color2Edge, -1);
         this.maxIn = new double[graph.numberOfVertices()];
         this.maxOut = new double[graph.numberOfVertices()];
-        this.maxInVertices = new Loss[graph.numberOfVertices()];
+        this.maxInEdges = new int[graph.numberOfVertices()];
         this.vertices2consider = new int[graph.numberOfVertices()];
     }
 
     @Override
     public FTree solve() {
-        if (graph.getRoot().getOutDegree() > 1)
+        if (compact.getOutDegree(compact.getRoot()) > 1)
             throw new RuntimeException("Algorithm is optimized for graphs with pseudo root outdegree = 1");
-        extend(graph.getRoot().getOutgoingEdge(0));
+        extend(compact.getOutgoingEdge(compact.getRoot(), 0));
         compute();
-        selectedEdges.addAll(color2Edge.valueCollection());
+        for (int l : color2Edge)
+            if (l >= 0) selectedEdges.add(compact.getLoss(l));
         return buildSolution(true);
     }
 
-    private void extend(Loss l) {
-        usedColors.set(l.getTarget().getColor());
-        color2Edge.put(l.getTarget().getColor(), l);
+    private void extend(int l) {
+        final int color = compact.getColor(compact.getTarget(l));
+        usedColors.set(color);
+        color2Edge[color] = l;
     }
 
     private void compute() {
         initialize();
         while (true) {
+            deadline.check();
             double maxScore = Double.NEGATIVE_INFINITY;
-            Loss maxLoss = null;
+            int maxLoss = -1;
             // find vertex with max score
             int k=0;
             for (int j = 0; j < nv; ++j) {
                 final int i = vertices2consider[j];
-                if (usedColors.get(graph.getFragmentAt(i).getColor())) {
+                if (usedColors.get(compact.getColor(i))) {
                     maxIn[i] = Double.NaN;
                 } else {
                     final double score = maxIn[i] + maxOut[i];
                     if (score > maxScore) {
                         maxScore = score;
-                        maxLoss = maxInVertices[i];
+                        maxLoss = maxInEdges[i];
                     }
                     vertices2consider[k++] = i;
                 }
             }
             this.nv = k;
-            if (maxLoss == null)
+            if (maxLoss < 0)
                 break;
             insert(maxLoss);
         }
     }
 
-    private void insert(Loss maxLoss) {
-        final Fragment newVertex = maxLoss.getTarget();
-        usedColors.set(newVertex.getColor());
-        color2Edge.put(newVertex.getColor(), maxLoss);
+    private void insert(int maxLoss) {
+        final int newVertex = compact.getTarget(maxLoss);
+        final double maxLossWeight = compact.getWeight(maxLoss);
+        usedColors.set(compact.getColor(newVertex));
+        color2Edge[compact.getColor(newVertex)] = maxLoss;
         // relocate and update
-        for (int i = 0, n = newVertex.getOutDegree(); i < n; ++i) {
-            final Loss l = newVertex.getOutgoingEdge(i);
-            final Fragment w = l.getTarget();
-            final Loss xw = color2Edge.get(w.getColor());
-            if (xw != null) {
-                if (xw.getTarget() == w && xw.getWeight() < l.getWeight()) {
-                    color2Edge.put(w.getColor(), l);
-                    for (int j = 0, m = w.getInDegree(); j < m; ++j) {
-                        final Loss zw = w.getIncomingEdge(j);
-                        final Fragment z = zw.getSource();
-                        final int zid = z.getVertexId();
+        for (int l = compact.outgoingOffset(newVertex), n = compact.outgoingOffset(newVertex + 1); l < n; ++l) {
+            final int w = compact.getTarget(l);
+            final int xw = color2Edge[compact.getColor(w)];
+            if (xw >= 0) {
+                if (compact.getTarget(xw) == w && compact.getWeight(xw) < compact.getWeight(l)) {
+                    color2Edge[compact.getColor(w)] = l;
+                    for (int j = 0, m = compact.getInDegree(w); j < m; ++j) {
+                        final int zid = compact.getSource(compact.getIncomingEdge(w, j));
                         if (!Double.isNaN(maxIn[zid])) {
                             maxOut[zid] = Math.max(
                                     0,
-                                    maxOut[zid] + xw.getWeight() - l.getWeight()
+                                    maxOut[zid] + compact.getWeight(xw) - compact.getWeight(l)
                             );
                         }
                     }
                 }
             } else {
-                final int wid = w.getVertexId();
-                if (maxIn[wid] < l.getWeight()) {
-                    maxIn[wid] = l.getWeight();
-                    maxInVertices[wid] = l;
+                if (maxIn[w] < compact.getWeight(l)) {
+                    maxIn[w] = compact.getWeight(l);
+                    maxInEdges[w] = l;
                 }
             }
         }
-        for (int i=0, n = newVertex.getInDegree(); i < n; ++i) {
-            final Loss yv = newVertex.getIncomingEdge(i);
-            if (yv.getWeight() > maxLoss.getWeight()) {
-                int y = yv.getSource().getVertexId();
-                maxOut[y] += yv.getWeight()-maxLoss.getWeight();
+        for (int i=0, n = compact.getInDegree(newVertex); i < n; ++i) {
+            final int yv = compact.getIncomingEdge(newVertex, i);
+            if (compact.getWeight(yv) > maxLossWeight) {
+                int y = compact.getSource(yv);
+                maxOut[y] += compact.getWeight(yv)-maxLossWeight;
             }
         }
 
@@ -115,19 +118,19 @@ public class FastInsertionHeuristic extends AbstractHeuristic {
 
     private void initialize() {
         Arrays.fill(maxIn, Double.NEGATIVE_INFINITY);
-        final Loss rootLoss = graph.getRoot().getOutgoingEdge(0);
-        final Fragment root = rootLoss.getTarget();
-        for (int i = 0, n = root.getOutDegree(); i < n; ++i) {
-            final Loss uv = root.getOutgoingEdge(i);
-            final int vertexId = uv.getTarget().getVertexId();
-            maxIn[vertexId] = uv.getWeight();
-            maxInVertices[vertexId] = uv;
+        Arrays.fill(maxInEdges, -1);
+        final int pseudoRoot = compact.getRoot();
+        final int root = compact.getTarget(compact.getOutgoingEdge(pseudoRoot, 0));
+        for (int uv = compact.outgoingOffset(root), n = compact.outgoingOffset(root + 1); uv < n; ++uv) {
+            final int vertexId = compact.getTarget(uv);
+            maxIn[vertexId] = compact.getWeight(uv);
+            maxInEdges[vertexId] = uv;
         }
-        maxIn[root.getVertexId()] = Double.NaN;
-        maxOut[root.getVertexId()] = Double.NaN;
-        maxIn[graph.getRoot().getVertexId()] = maxOut[graph.getRoot().getVertexId()] = Double.NaN;
+        maxIn[root] = Double.NaN;
+        maxOut[root] = Double.NaN;
+        maxIn[pseudoRoot] = maxOut[pseudoRoot] = Double.NaN;
         int k=0;
-        for (int i=0; i < graph.numberOfVertices(); ++i) {
+        for (int i=0; i < compact.numberOfVertices(); ++i) {
             vertices2consider[k++] = i;
         }
         this.nv = k;
@@ -1,44 +1,49 @@
 package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
 
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
-import gnu.trove.map.hash.TIntIntHashMap;
 
 import java.util.Arrays;
 import java.util.BitSet;
 
 public class GreedyHeuristic extends AbstractHeuristic {
 
-    protected final Loss[] losses;
+    protected final int[] edges;
 
     public GreedyHeuristic(FGraph graph) {
+        this(new CompactGraph(graph));
+    }
+
+    public GreedyHeuristic(CompactGraph graph) {
         super(graph);
-        this.losses = graph.losses().toArray(new Loss[graph.numberOfEdges()]);
-        Arrays.sort(losses, (u,v)->Double.compare(v.getWeight(),u.getWeight()));
+        this.edges = graph.edgesByTarget();
+        sortEdgesByWeight(edges);
     }
     public FTree solve() {
-        final TIntIntHashMap selectedVertices = new TIntIntHashMap(ncolors, 0.75f, -1, -1);
+        final int[] selectedVertices = new int[ncolors];
+        Arrays.fill(selectedVertices, -1);
         final BitSet usedColors = new BitSet(ncolors);
-        for (int i=0; i < losses.length; ++i) {
-            final Fragment target = losses[i].getTarget();
-            final int O = target.getColor();
+        for (int i=0; i < edges.length; ++i) {
+            if ((i & 0xfff) == 0) deadline.check();
+            final int target = compact.getTarget(edges[i]);
+            final int O = compact.getColor(target);
             if (!usedColors.get(O)) {
-                final int fout = selectedVertices.get(O);
-                if (fout < 0 || fout == target.getVertexId()) {
-                    final Fragment source = losses[i].getSource();
-                    final int fid = selectedVertices.get(source.getColor());
+                final int fout = selectedVertices[O];
+                if (fout < 0 || fout == target) {
+                    final int source = compact.getSource(edges[i]);
+                    final int sourceColor = compact.getColor(source);
+                    final int fid = selectedVertices[sourceColor];
                     if (fid < 0) {
                         // color is not used yet, so we are free to use this vertex
-                        selectedEdges.add(losses[i]);
+                        selectedEdges.add(compact.getLoss(edges[i]));
                         usedColors.set(O); // we are not allowed to use this color again
                         // whenever we want to use the incoming color, we have to use THIS vertex
-                        selectedVertices.put(source.getColor(), source.getVertexId());
-                        if (fout<0)selectedVertices.put(target.getColor(), target.getVertexId());
-                    } else if (fid == source.getVertexId()) {
-                        selectedEdges.add(losses[i]);
-                        selectedVertices.put(target.getColor(), target.getVertexId());
+                        selectedVertices[sourceColor] = source;
+                        if (fout<0) selectedVertices[O] = target;
+                    } else if (fid == source) {
+                        selectedEdges.add(compact.getLoss(edges[i]));
+                        selectedVertices[O] = target;
                         usedColors.set(O); // we are not allowed to use this color again
                     }
                 }
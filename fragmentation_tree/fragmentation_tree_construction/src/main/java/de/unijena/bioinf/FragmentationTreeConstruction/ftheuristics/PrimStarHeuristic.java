@@ -1,28 +1,32 @@
 package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
 
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 
 import java.util.BitSet;
 
 public class PrimStarHeuristic extends AbstractHeuristic {
 
-    protected Loss[] edges;
+    protected int[] edges;
     protected int edgeSize;
     protected BitSet selectedColors;
 
     public PrimStarHeuristic(FGraph graph) {
+        this(new CompactGraph(graph));
+    }
+
+    public PrimStarHeuristic(CompactGraph graph) {
         super(graph);
-        edges = new Loss[graph.numberOfEdges()];
+        edges = new int[graph.numberOfEdges()];
         edgeSize = 0;
         selectedColors = new BitSet(ncolors);
     }
 
     public FTree solve() {
         int k=0;
-        for (Loss l : graph.getRoot().getOutgoingEdges())
+        final int root = compact.getRoot();
+        for (int l=compact.outgoingOffset(root), n=compact.outgoingOffset(root+1); l < n; ++l)
             edges[k++] = l;
         edgeSize = k;
         compute();
@@ -30,15 +34,16 @@ public class PrimStarHeuristic extends AbstractHeuristic {
     }
 
     private void compute() {
-        Loss l;
-        while (edgeSize>0 && (l = findMax())!=null) {
-            selectedEdges.add(l);
-            final Fragment v = l.getTarget();
-            selectedColors.set(v.getColor());
-            filterOut(v.getColor());
-            for (int i=0; i < v.getOutDegree(); ++i) {
-                if (!selectedColors.get(v.getChildren(i).getColor()))
-                    edges[edgeSize++] = v.getOutgoingEdge(i);
+        int l;
+        while (edgeSize>0 && (l = findMax())>=0) {
+            deadline.check();
+            selectedEdges.add(compact.getLoss(l));
+            final int v = compact.getTarget(l);
+            selectedColors.set(compact.getColor(v));
+            filterOut(compact.getColor(v));
+            for (int e=compact.outgoingOffset(v), n=compact.outgoingOffset(v+1); e < n; ++e) {
+                if (!selectedColors.get(compact.getColor(compact.getTarget(e))))
+                    edges[edgeSize++] = e;
             }
 
         }
@@ -47,24 +52,24 @@ public class PrimStarHeuristic extends AbstractHeuristic {
     private void filterOut(int c) {
         int k=0;
         for (int i=0; i < edgeSize; ++i) {
-            if (edges[i].getTarget().getColor()!=c) {
+            if (compact.getColor(compact.getTarget(edges[i]))!=c) {
                 edges[k++] = edges[i];
             }
         }
         edgeSize = k;
     }
 
-    private Loss findMax() {
+    private int findMax() {
         double maxWeight=Double.NEGATIVE_INFINITY;
         int maxIndex=-1;
         for (int i=0; i < edgeSize; ++i) {
-            final double w = edges[i].getWeight();
+            final double w = compact.getWeight(edges[i]);
             if (w > maxWeight) {
                 maxWeight = w;
                 maxIndex = i;
             }
         }
-        return maxIndex<0 ? null : edges[maxIndex];
+        return maxIndex<0 ? -1 : edges[maxIndex];
     }
 
 
@@ -1,5 +1,6 @@
 package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
 
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
@@ -7,6 +8,11 @@ import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 
 import java.util.BitSet;
 
+/**
+ * The heuristic visits every edge at most once, so building a {@link CompactGraph} costs more than it saves.
+ * Therefore, it works on the fragments of a {@link FGraph} and only uses the compact view if it is given, e.g.
+ * when the view is shared with other heuristics.
+ */
 public class TopDownHeuristic extends AbstractHeuristic {
 
     private final BitSet usedColors;
@@ -16,9 +22,15 @@ public class TopDownHeuristic extends AbstractHeuristic {
         this.usedColors = new BitSet(ncolors);
     }
 
+    public TopDownHeuristic(CompactGraph graph) {
+        super(graph);
+        this.usedColors = new BitSet(ncolors);
+    }
+
     @Override
     public FTree solve() {
-        compute();
+        if (compact != null) computeCompact();
+        else compute();
         return buildSolution(true);
     }
 
@@ -26,9 +38,9 @@ public class TopDownHeuristic extends AbstractHeuristic {
         Fragment root = graph.getRoot().getChildren(0);
         usedColors.set(root.getColor());
         selectedEdges.add(root.getIncomingEdge());
-        Fragment u = root;
         Loss l;
         while ((l=findBestLoss(root))!=null) {
+            deadline.check();
             Fragment v = l.getTarget();
             Loss l2;
             while ((l2=findBestLoss(v))!=null) {
@@ -52,4 +64,35 @@ public class TopDownHeuristic extends AbstractHeuristic {
             return bestLoss;
         }
     }
+
+    private void computeCompact() {
+        final int rootEdge = compact.getOutgoingEdge(compact.getRoot(), 0);
+        final int root = compact.getTarget(rootEdge);
+        usedColors.set(compact.getColor(root));
+        selectedEdges.add(compact.getLoss(rootEdge));
+        int l;
+        while ((l=findBestCompactLoss(root))>=0) {
+            deadline.check();
+            int v = compact.getTarget(l);
+            int l2;
+            while ((l2=findBestCompactLoss(v))>=0) {
+                v = compact.getTarget(l2);
+            }
+        }
+    }
+
+    private int findBestCompactLoss(int u) {
+        int bestLoss = -1;
+        for (int l=compact.outgoingOffset(u), n=compact.outgoingOffset(u+1); l < n; ++l) {
+            if (!usedColors.get(compact.getColor(compact.getTarget(l))) && (bestLoss<0 || compact.getWeight(bestLoss) < compact.getWeight(l))) {
+                bestLoss = l;
+            }
+        }
+        if (bestLoss < 0) return -1;
+        else {
+            selectedEdges.add(compact.getLoss(bestLoss));
+            usedColors.set(compact.getColor(compact.getTarget(bestLoss)));
+            return bestLoss;
+        }
+    }
 }
@@ -5,6 +5,7 @@ import de.unijena.bioinf.ChemistryBase.ms.ft.IsotopicMarker;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
 import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.CriticalPathInsertionHeuristic;
 import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.CriticalPathInsertionWithIsotopePeaksHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 
 public class ExtendedCriticalPathHeuristicTreeBuilder implements TreeBuilder {
@@ -16,11 +17,21 @@ public class ExtendedCriticalPathHeuristicTreeBuilder implements TreeBuilder {
 
     @Override
     public Result computeTree(ProcessedInput input, FGraph graph, FluentInterface options) {
+        return computeTree(graph, Deadline.of(graph));
+    }
+
+    /**
+     * @param deadline deadline which is checked by the heuristic instead of the deadline of the input
+     */
+    public Result computeTree(FGraph graph, Deadline deadline) {
+        final CriticalPathInsertionHeuristic heuristic;
         if (graph.getFragmentAnnotationOrNull(IsotopicMarker.class)!=null) {
-            return new Result(new CriticalPathInsertionWithIsotopePeaksHeuristic(graph).solve(), false, AbortReason.COMPUTATION_CORRECT);
+            heuristic = new CriticalPathInsertionWithIsotopePeaksHeuristic(graph);
         } else {
-            return new Result(new CriticalPathInsertionHeuristic(graph).solve(), false, AbortReason.COMPUTATION_CORRECT);
+            heuristic = new CriticalPathInsertionHeuristic(graph);
         }
+        heuristic.setDeadline(deadline);
+        return new Result(heuristic.solve(), false, AbortReason.COMPUTATION_CORRECT);
     }
 
     @Override
@@ -1,8 +1,10 @@
 package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.treebuilder;
 
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
 import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.AbstractHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 
 import java.lang.reflect.Constructor;
@@ -12,6 +14,7 @@ public class GreedyBuilder implements TreeBuilder {
 
     protected final AbstractHeuristic heuristic;
     protected final Constructor<? extends AbstractHeuristic> constructor;
+    protected final Constructor<? extends AbstractHeuristic> compactConstructor;
 
     public GreedyBuilder(AbstractHeuristic heuristic) {
         this.heuristic = heuristic;
@@ -20,6 +23,35 @@ public class GreedyBuilder implements TreeBuilder {
         } catch (NoSuchMethodException e) {
             throw new RuntimeException(e);
         }
+        this.compactConstructor = findCompactConstructor(heuristic.getClass());
+    }
+
+    /**
+     * @param heuristicClass heuristic with a public constructor which takes the graph
+     */
+    public GreedyBuilder(Class<? extends AbstractHeuristic> heuristicClass) {
+        this.heuristic = null;
+        try {
+            this.constructor = heuristicClass.getConstructor(FGraph.class);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+        this.compactConstructor = findCompactConstructor(heuristicClass);
+    }
+
+    private static Constructor<? extends AbstractHeuristic> findCompactConstructor(Class<? extends AbstractHeuristic> heuristicClass) {
+        try {
+            return heuristicClass.getConstructor(CompactGraph.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the heuristic can work on a {@link CompactGraph}, which can then be shared between builders
+     */
+    public boolean supportsCompactGraph() {
+        return compactConstructor != null;
     }
 
     @Override
@@ -29,13 +61,47 @@ public class GreedyBuilder implements TreeBuilder {
 
     @Override
     public Result computeTree(ProcessedInput input, FGraph graph, FluentInterface options) {
+        return computeTree(graph, Deadline.of(graph));
+    }
+
+    /**
+     * @param deadline deadline which is checked by the heuristic instead of the deadline of the input
+     */
+    public Result computeTree(FGraph graph, Deadline deadline) {
+        try {
+            return solve(constructor.newInstance(graph), deadline);
+        } catch (InstantiationException|IllegalAccessException|InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * computes the tree on the compact view of the graph. Only allowed if {@link #supportsCompactGraph()} is true.
+     */
+    public Result computeTree(CompactGraph graph) {
+        return computeTree(graph, Deadline.of(graph.getGraph()));
+    }
+
+    /**
+     * computes the tree on the compact view of the graph. Only allowed if {@link #supportsCompactGraph()} is true.
+     *
+     * @param deadline deadline which is checked by the heuristic instead of the deadline of the input
+     */
+    public Result computeTree(CompactGraph graph, Deadline deadline) {
+        if (compactConstructor == null)
+            throw new UnsupportedOperationException(constructor.getDeclaringClass().getSimpleName() + " does not support compact graphs");
         try {
-            return new Result(constructor.newInstance(graph).solve(), false, AbortReason.COMPUTATION_CORRECT);
+            return solve(compactConstructor.newInstance(graph), deadline);
         } catch (InstantiationException|IllegalAccessException|InvocationTargetException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static Result solve(AbstractHeuristic heuristic, Deadline deadline) {
+        heuristic.setDeadline(deadline);
+        return new Result(heuristic.solve(), false, AbortReason.COMPUTATION_CORRECT);
+    }
+
     @Override
     public boolean isThreadSafe() {
         return true;
@@ -43,6 +109,6 @@ public class GreedyBuilder implements TreeBuilder {
 
     @Override
     public String toString() {
-        return "Heuristic Solver: Greedy";
+        return "Heuristic Solver: " + constructor.getDeclaringClass().getSimpleName();
     }
 }
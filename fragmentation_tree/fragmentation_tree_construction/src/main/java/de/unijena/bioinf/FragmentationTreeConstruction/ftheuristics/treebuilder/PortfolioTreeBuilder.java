@@ -0,0 +1,329 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.treebuilder;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.ft.IsotopicMarker;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.LagrangianRelaxation;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.FastInsertionHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.GreedyHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.PrimStarHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.TopDownHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JobManager;
+import de.unijena.bioinf.jjobs.exceptions.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs a portfolio of heuristics concurrently on the same graph. The score of the best heuristic tree is used as
+ * lower bound for the exact solver, which can then skip all solutions which are worse. The heuristics run as jobs of
+ * the global job manager and check a common {@link Deadline}, which expires at the time limit for the heuristics or
+ * at the deadline of the input. Heuristics which did not finish until then are stopped and ignored. If there is no
+ * exact solver, or the exact solver does not find a tree within the time limit, the best heuristic tree is returned.
+ *
+ * Before the exact solver is started, an upper bound for the optimal score is computed by
+ * {@link LagrangianRelaxation}. If the best heuristic tree is at most {@link #getGapThreshold()} below this bound,
+ * the exact solver is skipped.
+ *
+ * For each computed tree it is recorded which builder has won, see {@link #getStatistics()} and {@link #getNumberOfWins()}.
+ */
+public class PortfolioTreeBuilder implements TreeBuilder {
+
+    protected static Logger logger = LoggerFactory.getLogger(PortfolioTreeBuilder.class);
+
+    protected final List<TreeBuilder> heuristics;
+    protected final TreeBuilder exactSolver;
+    protected double heuristicTimeLimitInSeconds;
+    protected double gapThreshold;
+    protected final List<Statistics> statistics;
+
+    /**
+     * portfolio of all heuristics without exact solver
+     */
+    public PortfolioTreeBuilder() {
+        this(defaultHeuristics(), null);
+    }
+
+    /**
+     * @param exactSolver solver which is started after the heuristics, or null if only heuristics should be used
+     */
+    public PortfolioTreeBuilder(TreeBuilder exactSolver) {
+        this(defaultHeuristics(), exactSolver);
+    }
+
+    public PortfolioTreeBuilder(List<TreeBuilder> heuristics, TreeBuilder exactSolver) {
+        if (heuristics.isEmpty() && exactSolver == null)
+            throw new IllegalArgumentException("Portfolio needs at least one tree builder");
+        this.heuristics = new ArrayList<>(heuristics);
+        this.exactSolver = exactSolver;
+        this.heuristicTimeLimitInSeconds = 0d;
+        this.gapThreshold = 0d;
+        this.statistics = new ArrayList<>();
+    }
+
+    public static List<TreeBuilder> defaultHeuristics() {
+        return Arrays.asList(
+                new ExtendedCriticalPathHeuristicTreeBuilder(),
+                new GreedyBuilder(GreedyHeuristic.class),
+                new GreedyBuilder(PrimStarHeuristic.class),
+                new GreedyBuilder(TopDownHeuristic.class),
+                new GreedyBuilder(FastInsertionHeuristic.class)
+        );
+    }
+
+    public List<TreeBuilder> getHeuristics() {
+        return Collections.unmodifiableList(heuristics);
+    }
+
+    public TreeBuilder getExactSolver() {
+        return exactSolver;
+    }
+
+    public double getHeuristicTimeLimitInSeconds() {
+        return heuristicTimeLimitInSeconds;
+    }
+
+    /**
+     * @param seconds time after which running heuristics are cancelled. 0 means that the heuristics are only limited
+     *                by the time limit of the tree computation.
+     */
+    public void setHeuristicTimeLimitInSeconds(double seconds) {
+        this.heuristicTimeLimitInSeconds = seconds;
+    }
+
+    public double getGapThreshold() {
+        return gapThreshold;
+    }
+
+    /**
+     * @param gapThreshold maximal difference between the upper bound of the optimal score and the score of the best
+     *                     heuristic tree for which the exact solver is skipped. 0 means that the exact solver is only
+     *                     skipped if the heuristic tree is provably optimal.
+     */
+    public void setGapThreshold(double gapThreshold) {
+        this.gapThreshold = gapThreshold;
+    }
+
+    @Override
+    public FluentInterface computeTree() {
+        return new FluentInterface(this);
+    }
+
+    @Override
+    public Result computeTree(ProcessedInput input, FGraph graph, FluentInterface options) {
+        final long start = System.currentTimeMillis();
+        final double timeLimit = options.getTimeLimitsInSeconds();
+        double heuristicTimeLimit = heuristicTimeLimitInSeconds;
+        if (timeLimit > 0) heuristicTimeLimit = heuristicTimeLimit > 0 ? Math.min(heuristicTimeLimit, timeLimit) : timeLimit;
+
+        // only the critical path heuristic considers the constraints of isotope peaks
+        final boolean hasIsotopes = graph.getFragmentAnnotationOrNull(IsotopicMarker.class) != null;
+        final List<TreeBuilder> builders = new ArrayList<>(heuristics.size());
+        for (TreeBuilder b : heuristics)
+            if (!hasIsotopes || b instanceof ExtendedCriticalPathHeuristicTreeBuilder) builders.add(b);
+
+        // race the heuristics
+        final Deadline deadline = input != null ? Deadline.of(input) : Deadline.of(graph);
+        final Deadline race = deadline.limit(heuristicTimeLimit > 0 ? (long) Math.ceil(heuristicTimeLimit * 1000) : 0);
+        final double[] scores = new double[heuristics.size() + 1];
+        Arrays.fill(scores, Double.NaN);
+        final List<HeuristicJob> jobs = new ArrayList<>(builders.size());
+        // heuristics which support it share a single compact view of the graph
+        CompactGraph compact = null;
+        for (final TreeBuilder b : builders) {
+            if (b instanceof GreedyBuilder && ((GreedyBuilder) b).supportsCompactGraph()) {
+                if (compact == null) compact = new CompactGraph(graph);
+                jobs.add(new HeuristicJob(b, input, graph, compact, race));
+            } else {
+                jobs.add(new HeuristicJob(b, input, graph, null, race));
+            }
+        }
+        final JobManager jobManager = SiriusJobs.getGlobalJobManager();
+        for (HeuristicJob job : jobs) jobManager.submitJob(job);
+        FTree best = null;
+        int winner = -1;
+        try {
+            for (int i = 0; i < jobs.size(); ++i) {
+                Result r = null;
+                try {
+                    r = jobs.get(i).awaitResult();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof TimeoutException) {
+                        // the deadline of the input is reached, so there is no time left for the remaining builders
+                        if (deadline.isExpired()) throw (TimeoutException) e.getCause();
+                        // otherwise the heuristic did not finish within the time limit for the heuristics
+                    } else {
+                        logger.warn("Heuristic " + builders.get(i) + " failed: " + e.getCause().getMessage());
+                    }
+                }
+                if (r != null && r.tree != null) {
+                    final int index = heuristics.indexOf(builders.get(i));
+                    scores[index] = r.tree.getTreeWeight();
+                    if (r.tree.getTreeWeight() >= options.getMinimalScore() && (best == null || r.tree.getTreeWeight() > best.getTreeWeight())) {
+                        best = r.tree;
+                        winner = index;
+                    }
+                }
+            }
+        } finally {
+            // stops the heuristics which are still running if the race is left by an exception
+            race.cancel();
+            for (HeuristicJob job : jobs) job.cancel(false);
+        }
+
+        // the exact solver only has to search for trees which are better than the best heuristic tree
+        Result result = best == null ? null : new Result(best, false, AbortReason.COMPUTATION_CORRECT);
+        double upperBound = Double.NaN;
+        boolean skipExactSolver = false;
+        if (exactSolver != null && best != null) {
+            final LagrangianRelaxation.Bound bound = (compact == null ? new LagrangianRelaxation(graph) : new LagrangianRelaxation(compact)).computeBound(best.getTreeWeight());
+            upperBound = bound.upperBound;
+            final double gap = bound.getGap(best.getTreeWeight());
+            if (gap <= gapThreshold + 1e-9) {
+                skipExactSolver = true;
+                result = new Result(best, gap <= 1e-9, AbortReason.COMPUTATION_CORRECT);
+            }
+        }
+        if (exactSolver != null && !skipExactSolver) {
+            final double restTime = timeLimit - (System.currentTimeMillis() - start) / 1000d;
+            if (timeLimit <= 0 || restTime > 0) {
+                FluentInterface exactOptions = exactSolver.computeTree().withMultithreading(options.getNumberOfCPUS()).withTemplate(options.getTemplate());
+                if (timeLimit > 0) exactOptions = exactOptions.withTimeLimit(restTime);
+                exactOptions = exactOptions.withMinimalScore(best == null ? options.getMinimalScore() : Math.max(options.getMinimalScore(), best.getTreeWeight() - 1e-3));
+                final Result exact = exactOptions.solve(input, graph);
+                if (exact.tree != null) {
+                    scores[heuristics.size()] = exact.tree.getTreeWeight();
+                    if (best == null || exact.tree.getTreeWeight() >= best.getTreeWeight() - 1e-3) {
+                        result = exact;
+                        winner = heuristics.size();
+                    }
+                }
+                if (result == null) result = exact;
+            }
+        }
+        if (result == null) result = new Result(null, false, AbortReason.NO_SOLUTION);
+
+        final String winnerName = winner < 0 ? null : (winner < heuristics.size() ? heuristics.get(winner) : exactSolver).toString();
+        final Statistics s = new Statistics(input == null ? null : input.getExperimentInformation().getName(), winnerName, scores, upperBound, System.currentTimeMillis() - start);
+        synchronized (statistics) {
+            statistics.add(s);
+        }
+        logger.debug(s.toString());
+        return result;
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return exactSolver == null || exactSolver.isThreadSafe();
+    }
+
+    /**
+     * @return statistics of all trees computed with this builder
+     */
+    public List<Statistics> getStatistics() {
+        synchronized (statistics) {
+            return new ArrayList<>(statistics);
+        }
+    }
+
+    /**
+     * @return for each builder, how often it computed the returned tree
+     */
+    public Map<String, Integer> getNumberOfWins() {
+        final Map<String, Integer> wins = new LinkedHashMap<>();
+        for (TreeBuilder b : heuristics) wins.put(b.toString(), 0);
+        if (exactSolver != null) wins.put(exactSolver.toString(), 0);
+        for (Statistics s : getStatistics())
+            if (s.winner != null) wins.put(s.winner, wins.get(s.winner) + 1);
+        return wins;
+    }
+
+    public void clearStatistics() {
+        synchronized (statistics) {
+            statistics.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Portfolio: " + heuristics + (exactSolver == null ? "" : " and " + exactSolver);
+    }
+
+    /**
+     * Computes the tree of a single heuristic of the portfolio. The heuristics of this package check the deadline of
+     * the race. Other builders only know the deadline of the input and get the remaining time of the race as time limit.
+     */
+    protected static class HeuristicJob extends BasicJJob<Result> {
+        protected final TreeBuilder builder;
+        protected final ProcessedInput input;
+        protected final FGraph graph;
+        // compact view of the graph, or null if the builder works on the graph
+        protected final CompactGraph compact;
+        protected final Deadline deadline;
+
+        protected HeuristicJob(TreeBuilder builder, ProcessedInput input, FGraph graph, CompactGraph compact, Deadline deadline) {
+            this.builder = builder;
+            this.input = input;
+            this.graph = graph;
+            this.compact = compact;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected Result compute() throws Exception {
+            deadline.check();
+            if (builder instanceof GreedyBuilder) {
+                return compact != null ? ((GreedyBuilder) builder).computeTree(compact, deadline) : ((GreedyBuilder) builder).computeTree(graph, deadline);
+            } else if (builder instanceof ExtendedCriticalPathHeuristicTreeBuilder) {
+                return ((ExtendedCriticalPathHeuristicTreeBuilder) builder).computeTree(graph, deadline);
+            }
+            final double seconds = deadline.getRemainingSeconds();
+            return builder.computeTree(input, graph, Double.isInfinite(seconds) ? builder.computeTree() : builder.computeTree().withTimeLimit(seconds));
+        }
+    }
+
+    /**
+     * Result of the portfolio for a single tree computation
+     */
+    public static class Statistics {
+        /**
+         * name of the compound
+         */
+        public final String compound;
+        /**
+         * builder which computed the returned tree, or null if no tree was found
+         */
+        public final String winner;
+        /**
+         * score of each heuristic (in the order of the portfolio) followed by the score of the exact solver.
+         * NaN if the builder did not finish or was not used.
+         */
+        public final double[] scores;
+        /**
+         * upper bound of the optimal score computed by the Lagrangian relaxation, or NaN if it was not computed
+         */
+        public final double upperBound;
+        public final long milliseconds;
+
+        public Statistics(String compound, String winner, double[] scores, double upperBound, long milliseconds) {
+            this.compound = compound;
+            this.winner = winner;
+            this.scores = scores;
+            this.upperBound = upperBound;
+            this.milliseconds = milliseconds;
+        }
+
+        @Override
+        public String toString() {
+            return compound + ": " + winner + " won with scores " + Arrays.toString(scores) + " (upper bound " + upperBound + ") in " + milliseconds + " ms";
+        }
+    }
+}
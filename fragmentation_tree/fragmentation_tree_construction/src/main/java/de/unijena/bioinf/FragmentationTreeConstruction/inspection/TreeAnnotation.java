@@ -28,9 +28,12 @@ import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.Decom
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.LossScorer;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.PeakPairScorer;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.PeakScorer;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.PeakPairScores;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
 import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
 
+import gnu.trove.list.array.TLongArrayList;
+
 import java.util.*;
 
 public class TreeAnnotation {
@@ -103,10 +106,13 @@ public class TreeAnnotation {
             lossClasses[i] = analysis.getLossScorers().get(i).getClass();
         for (int i = analysis.getLossScorers().size(); i < analysis.getPeakPairScorers().size() + analysis.getLossScorers().size(); ++i)
             lossClasses[i] = analysis.getPeakPairScorers().get(i - analysis.getLossScorers().size()).getClass();
-        // calculate peak pair scores
-        final double[][][] peakPairScores = new double[analysis.getPeakPairScorers().size()][input.getMergedPeaks().size()][input.getMergedPeaks().size()];
+        // calculate peak pair scores of the edges of the tree
+        final TLongArrayList pairs = new TLongArrayList(pathway.numberOfVertices());
+        for (Loss l : pathway.losses()) pairs.add(PeakPairScores.pair(peakAno.get(l.getSource()).getIndex(), peakAno.get(l.getTarget()).getIndex()));
+        final PeakPairScores[] peakPairScores = new PeakPairScores[analysis.getPeakPairScorers().size()];
         k = 0;
         for (PeakPairScorer s : analysis.getPeakPairScorers()) {
+            peakPairScores[k] = PeakPairScores.fromPairs(input.getMergedPeaks().size(), pairs);
             s.score(input.getMergedPeaks(), input, peakPairScores[k++]);
         }
         final ScoreReportMap rootAnnotation = new ScoreReportMap(rootClasses);
@@ -120,7 +126,7 @@ public class TreeAnnotation {
 
     protected void annotateFragmentsAndEdges(FTree pathway, FragmentationPatternAnalysis analysis,
                                              Object[] decompositionInits, Object[] lossInits, double[][] peakScores,
-                                             double[][][] peakPairScores, Class[] vertexClasses, Class[] lossClasses, ProcessedInput input) {
+                                             PeakPairScores[] peakPairScores, Class[] vertexClasses, Class[] lossClasses, ProcessedInput input) {
         final PrecursorIonType ionType = pathway.getAnnotationOrThrow(PrecursorIonType.class);
         // iterate tree in post-order
         final FragmentAnnotation<ProcessedPeak> peakAno = pathway.getFragmentAnnotationOrThrow(ProcessedPeak.class);
@@ -157,7 +163,7 @@ public class TreeAnnotation {
         vertexAnnotations.put(vertex, vertexAnnotation);
     }
 
-    protected void annotateLoss(FragmentationPatternAnalysis analysis, FragmentAnnotation<ProcessedPeak> ano, Class[] lossClasses, Object[] lossInits, double[][][] peakPairScores, Fragment vertex, ProcessedInput input) {
+    protected void annotateLoss(FragmentationPatternAnalysis analysis, FragmentAnnotation<ProcessedPeak> ano, Class[] lossClasses, Object[] lossInits, PeakPairScores[] peakPairScores, Fragment vertex, ProcessedInput input) {
         for (final Loss loss : vertex.getIncomingEdges()) {
             int j;// Loss Scorer
             //final Loss loss = vertex.getIncomingEdge();
@@ -169,7 +175,7 @@ public class TreeAnnotation {
             // peak pair Scorers
             j = 0;
             for (PeakPairScorer s : analysis.getPeakPairScorers()) {
-                edgeAnnotation.put(s.getClass(), peakPairScores[j++][ano.get(loss.getSource()).getIndex()][ano.get(loss.getTarget()).getIndex()]);
+                edgeAnnotation.put(s.getClass(), peakPairScores[j++].get(ano.get(loss.getSource()).getIndex(), ano.get(loss.getTarget()).getIndex()));
             }
             edgeAnnotations.put(loss, edgeAnnotation);
         }
@@ -0,0 +1,107 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.model;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.jjobs.exceptions.TimeoutException;
+
+/**
+ * Point in time at which the tree computation of an instance has to stop. The deadline is stored as annotation of
+ * the {@link ProcessedInput}, such that every step of the computation can reach it via the input or the graph.
+ * Long running loops call {@link #check()} regularly, which throws a {@link TimeoutException} as soon as the
+ * deadline is reached.
+ *
+ * A computation which should stop earlier than the instance, e.g. the heuristics of a portfolio, uses a deadline
+ * derived with {@link #limit(long)}. Such a deadline can also be canceled, which stops all computations checking it.
+ */
+public final class Deadline {
+
+    public final static Deadline NEVER = new Deadline(Long.MAX_VALUE);
+
+    private final long endTime;
+    // the deadline this one was derived from, or null
+    private final Deadline parent;
+    private volatile boolean canceled;
+
+    public static Deadline inSeconds(int seconds) {
+        if (seconds <= 0 || seconds == Integer.MAX_VALUE) return NEVER;
+        return new Deadline(System.currentTimeMillis() + seconds * 1000L);
+    }
+
+    public static Deadline inMilliseconds(long milliseconds) {
+        if (milliseconds <= 0 || milliseconds == Long.MAX_VALUE) return NEVER;
+        return new Deadline(System.currentTimeMillis() + milliseconds);
+    }
+
+    /**
+     * @return deadline of the given input or {@link #NEVER} if the input has no deadline
+     */
+    public static Deadline of(ProcessedInput input) {
+        return input == null ? NEVER : input.getAnnotation(Deadline.class, NEVER);
+    }
+
+    /**
+     * @return deadline of the input the given graph was built from
+     */
+    public static Deadline of(FGraph graph) {
+        return of(graph.getAnnotationOrNull(ProcessedInput.class));
+    }
+
+    private Deadline(long endTime) {
+        this(endTime, null);
+    }
+
+    private Deadline(long endTime, Deadline parent) {
+        this.endTime = endTime;
+        this.parent = parent;
+    }
+
+    /**
+     * @param milliseconds time limit of the new deadline. 0 means that only this deadline applies.
+     * @return a new deadline, which is reached after the given time, when this deadline is reached or when it is
+     * canceled, whatever comes first
+     */
+    public Deadline limit(long milliseconds) {
+        final long end = milliseconds <= 0 ? endTime : Math.min(endTime, System.currentTimeMillis() + milliseconds);
+        return new Deadline(end, this);
+    }
+
+    /**
+     * Expires this deadline and all deadlines derived from it immediately
+     */
+    public void cancel() {
+        if (this == NEVER) throw new UnsupportedOperationException("Deadline.NEVER cannot be canceled");
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled || (parent != null && parent.isCanceled());
+    }
+
+    public boolean isExpired() {
+        return isCanceled() || (endTime != Long.MAX_VALUE && System.currentTimeMillis() >= endTime);
+    }
+
+    /**
+     * @return milliseconds until the deadline is reached, or Long.MAX_VALUE if there is no deadline
+     */
+    public long getRemainingMilliseconds() {
+        if (isCanceled()) return 0;
+        if (endTime == Long.MAX_VALUE) return Long.MAX_VALUE;
+        return Math.max(0, endTime - System.currentTimeMillis());
+    }
+
+    /**
+     * @return seconds until the deadline is reached, or Double.POSITIVE_INFINITY if there is no deadline
+     */
+    public double getRemainingSeconds() {
+        final long milliseconds = getRemainingMilliseconds();
+        if (milliseconds == Long.MAX_VALUE) return Double.POSITIVE_INFINITY;
+        return milliseconds / 1000d;
+    }
+
+    /**
+     * @throws TimeoutException if the deadline is reached
+     */
+    public void check() {
+        if (isExpired()) throw new TimeoutException("Computation canceled by timeout!");
+    }
+}
@@ -0,0 +1,228 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.model;
+
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse matrix of peak pair scores. Only pairs of a parent peak and a (lighter) fragment peak which might be
+ * connected by an edge in a fragmentation graph are stored. The pairs are stored in CSR order: for each parent
+ * peak the range [start(parent), end(parent)) contains its fragment peaks in ascending order. Peaks are identified
+ * by their position in the peak list, which is the index of the merged peaks.
+ *
+ * Peak pair scorers iterate over the stored pairs and add their score with {@link #add(int, double)}. Pairs which
+ * are not stored have score zero.
+ */
+public class PeakPairScores implements Cloneable {
+
+    private final int[] rowStart;
+    private final int[] fragments;
+    private double[] scores;
+
+    /**
+     * @param rowStart  start of the pairs of each parent peak in the fragments array, with rowStart[n] = number of pairs
+     * @param fragments fragment peak of each pair, in ascending order for each parent peak
+     */
+    public PeakPairScores(int[] rowStart, int[] fragments) {
+        this.rowStart = rowStart;
+        this.fragments = fragments;
+        this.scores = new double[fragments.length];
+    }
+
+    /**
+     * @return scores for all pairs of peaks, where the parent peak has the larger index
+     */
+    public static PeakPairScores complete(int numberOfPeaks) {
+        final int[] rowStart = new int[numberOfPeaks + 1];
+        final int[] fragments = new int[numberOfPeaks * (numberOfPeaks - 1) / 2];
+        int k = 0;
+        for (int parent = 0; parent < numberOfPeaks; ++parent) {
+            rowStart[parent] = k;
+            for (int fragment = 0; fragment < parent; ++fragment) fragments[k++] = fragment;
+        }
+        rowStart[numberOfPeaks] = k;
+        return new PeakPairScores(rowStart, fragments);
+    }
+
+    /**
+     * @param pairs pairs of parent and fragment peak in arbitrary order, encoded with {@link #pair(int, int)}. Duplicates are ignored.
+     */
+    public static PeakPairScores fromPairs(int numberOfPeaks, TLongArrayList pairs) {
+        final long[] sorted = pairs.toArray();
+        Arrays.sort(sorted);
+        final int[] rowStart = new int[numberOfPeaks + 1];
+        final int[] fragments = new int[sorted.length];
+        int k = 0, parent = 0;
+        for (int i = 0; i < sorted.length; ++i) {
+            if (i > 0 && sorted[i] == sorted[i - 1]) continue;
+            final int p = (int) (sorted[i] >>> 32);
+            while (parent <= p) rowStart[parent++] = k;
+            fragments[k++] = (int) sorted[i];
+        }
+        while (parent <= numberOfPeaks) rowStart[parent++] = k;
+        return new PeakPairScores(rowStart, k == fragments.length ? fragments : Arrays.copyOf(fragments, k));
+    }
+
+    public static long pair(int parent, int fragment) {
+        return (((long) parent) << 32) | fragment;
+    }
+
+    /**
+     * Restricts the pairs to those whose mass difference can be explained by a decomposition of the parent peak
+     * and a decomposition of the fragment peak with the same ionization, such that the fragment formula is a
+     * subformula of the parent formula. Only these pairs can be connected by an edge in a fragmentation graph.
+     * All pairs with the parent peak (the precursor) are kept, as the root candidates of a graph are not
+     * necessarily decompositions of the parent peak.
+     *
+     * @param peaks merged peaks, ordered by mass
+     */
+    public static PeakPairScores forExplainablePairs(List<ProcessedPeak> peaks, PeakAnnotation<DecompositionList> decompositions, ProcessedPeak parentPeak) {
+        final int n = peaks.size();
+        // decompositions of each peak grouped by ionization, together with their union
+        final List<Map<Ionization, Group>> groups = new ArrayList<Map<Ionization, Group>>(n);
+        for (ProcessedPeak peak : peaks) {
+            final HashMap<Ionization, Group> map = new HashMap<Ionization, Group>();
+            final DecompositionList list = decompositions.get(peak);
+            if (list != null) {
+                for (Decomposition d : list.getDecompositions()) {
+                    Group g = map.get(d.getIon());
+                    if (g == null) {
+                        g = new Group();
+                        map.put(d.getIon(), g);
+                    }
+                    g.add(d.getCandidate());
+                }
+            }
+            groups.add(map);
+        }
+        final int[] rowStart = new int[n + 1];
+        final int[] buffer = new int[n];
+        int[] fragments = new int[Math.max(16, n * 4)];
+        int k = 0;
+        for (int parent = 0; parent < n; ++parent) {
+            rowStart[parent] = k;
+            int m = 0;
+            if (peaks.get(parent) == parentPeak) {
+                for (int fragment = 0; fragment < parent; ++fragment) buffer[m++] = fragment;
+            } else {
+                final Map<Ionization, Group> parentGroups = groups.get(parent);
+                if (parentGroups.isEmpty()) continue;
+                for (int fragment = 0; fragment < parent; ++fragment) {
+                    if (isExplainable(parentGroups, groups.get(fragment))) buffer[m++] = fragment;
+                }
+            }
+            if (k + m > fragments.length) fragments = Arrays.copyOf(fragments, Math.max(k + m, fragments.length * 2));
+            System.arraycopy(buffer, 0, fragments, k, m);
+            k += m;
+        }
+        rowStart[n] = k;
+        return new PeakPairScores(rowStart, Arrays.copyOf(fragments, k));
+    }
+
+    private static boolean isExplainable(Map<Ionization, Group> parentGroups, Map<Ionization, Group> fragmentGroups) {
+        for (Map.Entry<Ionization, Group> entry : fragmentGroups.entrySet()) {
+            final Group parent = parentGroups.get(entry.getKey());
+            if (parent == null) continue;
+            for (MolecularFormula fragment : entry.getValue().formulas) {
+                // no decomposition of the parent can contain the fragment if their union does not contain it
+                if (!parent.union.isSubtractable(fragment)) continue;
+                final double mass = fragment.getMass();
+                for (MolecularFormula formula : parent.formulas) {
+                    if (formula.getMass() > mass && formula.isSubtractable(fragment)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static final class Group {
+        private final ArrayList<MolecularFormula> formulas = new ArrayList<MolecularFormula>();
+        private MolecularFormula union;
+
+        private void add(MolecularFormula formula) {
+            formulas.add(formula);
+            union = union == null ? formula : union.union(formula);
+        }
+    }
+
+    public int numberOfPeaks() {
+        return rowStart.length - 1;
+    }
+
+    /**
+     * @return number of stored pairs
+     */
+    public int size() {
+        return fragments.length;
+    }
+
+    /**
+     * @return position of the first pair of the given parent peak
+     */
+    public int start(int parent) {
+        return rowStart[parent];
+    }
+
+    /**
+     * @return position after the last pair of the given parent peak
+     */
+    public int end(int parent) {
+        return rowStart[parent + 1];
+    }
+
+    /**
+     * @return fragment peak of the pair at the given position
+     */
+    public int getFragment(int position) {
+        return fragments[position];
+    }
+
+    public double getScore(int position) {
+        return scores[position];
+    }
+
+    public void add(int position, double score) {
+        scores[position] += score;
+    }
+
+    /**
+     * @return position of the pair or a negative value if the pair is not stored
+     */
+    public int indexOf(int parent, int fragment) {
+        final int i = Arrays.binarySearch(fragments, rowStart[parent], rowStart[parent + 1], fragment);
+        return i < 0 ? -1 : i;
+    }
+
+    public boolean contains(int parent, int fragment) {
+        return indexOf(parent, fragment) >= 0;
+    }
+
+    /**
+     * @return score of the pair or zero if the pair is not stored
+     */
+    public double get(int parent, int fragment) {
+        final int i = indexOf(parent, fragment);
+        return i < 0 ? 0d : scores[i];
+    }
+
+    public void clear() {
+        Arrays.fill(scores, 0d);
+    }
+
+    @Override
+    public PeakPairScores clone() {
+        try {
+            final PeakPairScores copy = (PeakPairScores) super.clone();
+            copy.scores = scores.clone();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
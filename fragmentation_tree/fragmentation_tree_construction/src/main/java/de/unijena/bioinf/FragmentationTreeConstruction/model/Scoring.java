@@ -20,22 +20,29 @@ package de.unijena.bioinf.FragmentationTreeConstruction.model;
 public class Scoring {
 
     private double[] peakScores;
-    private double[][] peakPairScores;
+    private PeakPairScores peakPairScores;
 
     public Scoring() {
 
     }
 
     public void initializeScoring(int numberOfPeaks) {
-        this.peakPairScores = new double[numberOfPeaks][numberOfPeaks];
-        this.peakScores = new double[numberOfPeaks];
+        initializeScoring(PeakPairScores.complete(numberOfPeaks));
+    }
+
+    /**
+     * @param peakPairScores empty scores for the pairs of peaks which have to be scored
+     */
+    public void initializeScoring(PeakPairScores peakPairScores) {
+        this.peakPairScores = peakPairScores;
+        this.peakScores = new double[peakPairScores.numberOfPeaks()];
     }
 
     public double[] getPeakScores() {
         return peakScores;
     }
 
-    public double[][] getPeakPairScores() {
+    public PeakPairScores getPeakPairScores() {
         return peakPairScores;
     }
 
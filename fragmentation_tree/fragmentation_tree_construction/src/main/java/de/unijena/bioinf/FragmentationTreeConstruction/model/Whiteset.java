@@ -12,20 +12,48 @@ import java.util.*;
  */
 public class Whiteset {
 
+    /**
+     * @return a whiteset which allows no molecular formula at all. In contrast to a whiteset without formulas, which
+     * does not restrict the candidates, no candidate is considered for the precursor.
+     */
+    public static Whiteset none() {
+        return new Whiteset(Collections.<MolecularFormula>emptySet(), true);
+    }
+
     public static Whiteset of(MolecularFormula... formulas) {
         return new Whiteset(new HashSet<MolecularFormula>(Arrays.asList(formulas)));
     }
 
     protected final Set<MolecularFormula> formulas;
+    protected final boolean strict;
 
     public Whiteset(Set<MolecularFormula> formulas) {
+        this(formulas, false);
+    }
+
+    /**
+     * @param strict if true, only the given formulas are allowed, even if there are none
+     */
+    public Whiteset(Set<MolecularFormula> formulas, boolean strict) {
         this.formulas = formulas;
+        this.strict = strict;
     }
 
     public Set<MolecularFormula> getFormulas() {
         return formulas;
     }
 
+    public boolean isStrict() {
+        return strict;
+    }
+
+    /**
+     * @return true if no molecular formula is allowed for the precursor
+     */
+    public boolean allowsNoFormula() {
+        return strict && formulas.isEmpty();
+    }
+
     /**
      * returns a new whiteset of all formulas that can be explained with the given mass and one
      * of the precursor ions
@@ -0,0 +1,174 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.computation;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMeasurementProfile;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.Peak;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FragmentAnnotation;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.graph.reduction.TMinimalController;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.RandomGraphs;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.ExtendedCriticalPathHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.GreedyHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
+import de.unijena.bioinf.jjobs.exceptions.TimeoutException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DeadlineTest {
+
+    private final static long BUDGET = 100, SLACK = 2000;
+
+    private static ProcessedInput input() {
+        return new ProcessedInput(new MutableMs2Experiment(), new MutableMs2Experiment(), new MutableMeasurementProfile());
+    }
+
+    /**
+     * deadline which is already reached, independent of the clock
+     */
+    private static Deadline expired() {
+        final Deadline deadline = Deadline.NEVER.limit(0);
+        deadline.cancel();
+        return deadline;
+    }
+
+    /**
+     * random graph whose input has the given deadline
+     */
+    private static FGraph graph(Deadline deadline) {
+        final ProcessedInput input = input();
+        input.setAnnotation(Deadline.class, deadline);
+        final FGraph graph = RandomGraphs.randomGraph(3, 10, 5, 0.3);
+        graph.addAnnotation(ProcessedInput.class, input);
+        return graph;
+    }
+
+    /**
+     * random graph with about 850000 edges, which is large enough that neither the reduction nor the heuristics
+     * finish within the budget on usual hardware
+     */
+    private static FGraph largeGraph(ProcessedInput input) {
+        final Random r = new Random(3);
+        final FGraph graph = new FGraph();
+        graph.addAnnotation(ProcessedInput.class, input);
+        final FragmentAnnotation<Peak> peaks = graph.addFragmentAnnotation(Peak.class);
+        final Fragment root = graph.addRootVertex(MolecularFormula.parse("C200H4000"));
+        root.setColor(1);
+        peaks.set(root, new Peak(1000, 1));
+        final List<Fragment> all = new ArrayList<>();
+        all.add(root);
+        for (int k = 1; k <= 120; ++k) {
+            final List<Fragment> peak = new ArrayList<>();
+            for (int j = 0; j < 20; ++j) {
+                final Fragment f = graph.addFragment(MolecularFormula.parse("C" + (200 - k) + "H" + (4000 - 20 * k - j)));
+                f.setColor(k + 1);
+                peaks.set(f, new Peak(1000 - 10 * k, 1));
+                for (Fragment u : all)
+                    if (r.nextDouble() < 0.3) graph.addLoss(u, f).setWeight(r.nextGaussian() * 2 - 0.5);
+                peak.add(f);
+            }
+            all.addAll(peak);
+        }
+        return graph;
+    }
+
+    /**
+     * @return wall time in milliseconds until the computation finished or was canceled
+     */
+    private static long wallTime(Runnable computation) {
+        final long start = System.currentTimeMillis();
+        try {
+            computation.run();
+        } catch (TimeoutException e) {
+            // expected
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static void assertTimeout(String name, Runnable computation) {
+        try {
+            computation.run();
+            fail(name + " is not canceled by the deadline");
+        } catch (TimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNoDeadline() {
+        final ProcessedInput input = input();
+        assertFalse(Deadline.of(input).isExpired());
+        assertTrue(Double.isInfinite(Deadline.of(input).getRemainingSeconds()));
+        Deadline.NEVER.check();
+    }
+
+    @Test
+    public void testExpiredDeadline() throws InterruptedException {
+        final Deadline deadline = Deadline.inMilliseconds(1);
+        Thread.sleep(5);
+        assertTrue(deadline.isExpired());
+        assertTrue(deadline.getRemainingMilliseconds() == 0);
+    }
+
+    @Test
+    public void testCanceledDeadline() {
+        final Deadline parent = Deadline.NEVER.limit(0), child = parent.limit(0);
+        assertFalse(child.isExpired());
+        assertEquals(Long.MAX_VALUE, child.getRemainingMilliseconds());
+        parent.cancel();
+        assertTrue(parent.isExpired());
+        assertTrue(child.isExpired());
+        assertEquals(0, child.getRemainingMilliseconds());
+        assertTimeout("check", child::check);
+        assertFalse(Deadline.NEVER.isExpired());
+        try {
+            Deadline.NEVER.cancel();
+            fail("Deadline.NEVER is canceled");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReductionStopsAtDeadline() {
+        new TMinimalController(false).reduce(graph(Deadline.NEVER), 0d);
+        final FGraph graph = graph(expired());
+        assertTimeout("reduction", () -> new TMinimalController(false).reduce(graph, 0d));
+    }
+
+    @Test
+    public void testHeuristicsStopAtDeadline() {
+        new GreedyHeuristic(graph(Deadline.NEVER)).solve();
+        new ExtendedCriticalPathHeuristic(graph(Deadline.NEVER)).solve();
+        final FGraph graph = graph(expired());
+        assertTimeout("greedy heuristic", () -> new GreedyHeuristic(graph).solve());
+        assertTimeout("critical path heuristic", () -> new ExtendedCriticalPathHeuristic(graph).solve());
+    }
+
+    /**
+     * the computations on a large graph have to stop shortly after the clock reached the deadline. The slack is
+     * generous, such that the test does not fail on slow or busy machines.
+     */
+    @Test
+    public void testLargeGraphStopsAtDeadline() {
+        final ProcessedInput input = input();
+        final FGraph graph = largeGraph(input), copy = new FGraph(graph);
+        assertSame(input, copy.getAnnotationOrThrow(ProcessedInput.class));
+        input.setAnnotation(Deadline.class, Deadline.inMilliseconds(BUDGET));
+        final long reduction = wallTime(() -> new TMinimalController(false).reduce(copy, 0d));
+        assertTrue("reduction took " + reduction + " ms", reduction <= BUDGET + SLACK);
+        input.setAnnotation(Deadline.class, Deadline.inMilliseconds(BUDGET));
+        final long greedy = wallTime(() -> new GreedyHeuristic(graph).solve());
+        assertTrue("greedy heuristic took " + greedy + " ms", greedy <= BUDGET + SLACK);
+        input.setAnnotation(Deadline.class, Deadline.inMilliseconds(BUDGET));
+        final long criticalPath = wallTime(() -> new ExtendedCriticalPathHeuristic(graph).solve());
+        assertTrue("critical path heuristic took " + criticalPath + " ms", criticalPath <= BUDGET + SLACK);
+    }
+}
@@ -0,0 +1,61 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.graph.reduction;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.RandomGraphs;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TMinimalControllerTest {
+
+    @AfterClass
+    public static void resetJobManager() {
+        SiriusJobs.setGlobalJobManager(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * random graph with wide topological layers, such that the bounds of a layer are split into several jobs
+     */
+    private static FGraph graph(long seed) {
+        final FGraph graph = RandomGraphs.randomGraph(seed, 10, 120, 0.05);
+        assertTrue(graph.numberOfVertices() >= TMinimalController.MIN_VERTICES_FOR_PARALLEL_REDUCTION);
+        return graph;
+    }
+
+    /**
+     * vertices and edges with their weights
+     */
+    private static List<String> describe(FGraph graph) {
+        final List<String> lines = new ArrayList<>();
+        for (Fragment f : graph.getFragments()) {
+            lines.add(f.getVertexId() + " " + f.getFormula() + " " + f.getColor());
+            for (Loss l : f.getOutgoingEdges())
+                lines.add(f.getVertexId() + " -> " + l.getTarget().getVertexId() + " " + l.getWeight());
+        }
+        return lines;
+    }
+
+    @Test
+    public void testParallelReductionIsSameAsSequential() {
+        for (int cpuThreads : new int[]{1, 2, 4}) {
+            SiriusJobs.setGlobalJobManager(cpuThreads);
+            for (long seed = 0; seed < 5; ++seed) {
+                final FGraph sequential = new TMinimalController(false).reduce(graph(seed), 0d);
+                final FGraph parallel = new TMinimalController(true).reduce(graph(seed), 0d);
+                final List<String> expected = describe(sequential);
+                assertEquals(expected, describe(parallel));
+                // the reduction deleted some edges
+                assertTrue(sequential.numberOfEdges() < graph(seed).numberOfEdges());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.maximumColorfulSubtree.DPTreeBuilder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LagrangianRelaxationTest {
+
+    private static double optimalScore(FGraph graph) {
+        final TreeBuilder.Result result = new DPTreeBuilder().computeTree().solve(null, graph);
+        assertTrue(result.isOptimal);
+        return result.tree.getTreeWeight();
+    }
+
+    @Test
+    public void testBoundsEncloseOptimum() {
+        for (long seed = 1; seed <= 50; ++seed) {
+            final FGraph graph = RandomGraphs.randomGraph(seed, 8, 3, 0.4);
+            final double optimum = optimalScore(graph);
+            final LagrangianRelaxation.Bound bound = new LagrangianRelaxation(graph).computeBound();
+            assertTrue("seed " + seed + ": " + bound + " but optimum is " + optimum, bound.upperBound >= optimum - 1e-9);
+            assertTrue("seed " + seed + ": " + bound + " but optimum is " + optimum, bound.lowerBound <= optimum + 1e-9);
+        }
+    }
+
+    @Test
+    public void testGivenLowerBound() {
+        final FGraph graph = RandomGraphs.randomGraph(7, 8, 3, 0.4);
+        final double optimum = optimalScore(graph);
+        final LagrangianRelaxation.Bound bound = new LagrangianRelaxation(graph).computeBound(optimum);
+        assertEquals(optimum, bound.lowerBound, 1e-9);
+        assertTrue(bound.upperBound >= optimum - 1e-9);
+        assertEquals(bound.upperBound - optimum, bound.getGap(), 1e-9);
+    }
+
+    @Test
+    public void testTreeIsTight() {
+        // without conflicting colours the relaxation is exact
+        final FGraph graph = RandomGraphs.randomGraph(11, 8, 1, 0.5);
+        final double optimum = optimalScore(graph);
+        final LagrangianRelaxation.Bound bound = new LagrangianRelaxation(graph).computeBound();
+        assertEquals(optimum, bound.upperBound, 1e-6);
+        assertEquals(optimum, bound.lowerBound, 1e-6);
+    }
+}
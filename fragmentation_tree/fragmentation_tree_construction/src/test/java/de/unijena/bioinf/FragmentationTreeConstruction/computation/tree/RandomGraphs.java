@@ -0,0 +1,58 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.ms.Peak;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FragmentAnnotation;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * random fragmentation graphs for testing the tree builders
+ */
+public class RandomGraphs {
+
+    /**
+     * random graph with a single root and the given number of further peaks and vertices per peak. Edges between
+     * the vertices are added with the given probability. Colors and vertex order are the same as in the graphs of the
+     * graph builder.
+     */
+    public static FGraph randomGraph(long seed, int peaks, int perPeak, double p) {
+        final Random r = new Random(seed);
+        final FGraph graph = new FGraph();
+        final FragmentAnnotation<ProcessedPeak> annotation = graph.addFragmentAnnotation(ProcessedPeak.class);
+        final List<Fragment> all = new ArrayList<>();
+        for (int k = 0; k <= peaks; ++k) {
+            final ProcessedPeak peak = new ProcessedPeak();
+            peak.setIndex(peaks - k);
+            peak.setMz(1000 - 10 * k);
+            peak.setRelativeIntensity(r.nextDouble());
+            final List<Fragment> vertices = new ArrayList<>();
+            for (int j = 0, n = k == 0 ? 1 : perPeak; j < n; ++j) {
+                final Fragment f;
+                if (k == 0) {
+                    f = graph.addRootVertex(MolecularFormula.parse("C200H4000"));
+                    graph.getRoot().getOutgoingEdge(0).setWeight(r.nextDouble());
+                } else {
+                    f = graph.addFragment(MolecularFormula.parse("C" + (200 - k) + "H" + (4000 - 20 * k - j)));
+                    for (Fragment u : all)
+                        if (u.getColor() == peaks || r.nextDouble() < p)
+                            graph.addLoss(u, f).setWeight(r.nextGaussian() * 2 - 0.3);
+                }
+                f.setColor(peaks - k);
+                annotation.set(f, peak);
+                vertices.add(f);
+            }
+            all.addAll(vertices);
+        }
+        // colors and vertex order as in the graphs of the graph builder
+        graph.addAliasForFragmentAnnotation(ProcessedPeak.class, Peak.class);
+        graph.sortTopological();
+        return graph;
+    }
+
+}
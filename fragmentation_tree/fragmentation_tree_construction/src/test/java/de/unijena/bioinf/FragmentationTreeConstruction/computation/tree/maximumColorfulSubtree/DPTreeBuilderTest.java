@@ -0,0 +1,140 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.maximumColorfulSubtree;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.RandomGraphs;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DPTreeBuilderTest {
+
+    private static FGraph graph(long seed) {
+        return RandomGraphs.randomGraph(seed, 6, 2, 0.5);
+    }
+
+    private static int[] colors(FGraph graph) {
+        final int[] colors = new int[graph.numberOfVertices()];
+        for (int i = 0; i < colors.length; ++i) colors[i] = graph.getFragmentAt(i).getColor();
+        return colors;
+    }
+
+    /**
+     * score of the best colorful subtree, by trying all subtrees. Vertices are topologically sorted, so the parent
+     * of a vertex is decided before the vertex itself.
+     */
+    private static double bruteForce(FGraph graph) {
+        final Fragment root = graph.getRoot().getChildren(0);
+        final boolean[] included = new boolean[graph.numberOfVertices()];
+        included[root.getVertexId()] = true;
+        return root.getIncomingEdge().getWeight() + bruteForce(graph, root.getVertexId() + 1, included, 1L << root.getColor());
+    }
+
+    private static double bruteForce(FGraph graph, int vertexId, boolean[] included, long usedColors) {
+        if (vertexId >= graph.numberOfVertices()) return 0d;
+        // the vertex is not part of the tree
+        double best = bruteForce(graph, vertexId + 1, included, usedColors);
+        final Fragment v = graph.getFragmentAt(vertexId);
+        if ((usedColors & (1L << v.getColor())) != 0) return best;
+        included[vertexId] = true;
+        for (Loss l : v.getIncomingEdges()) {
+            if (included[l.getSource().getVertexId()])
+                best = Math.max(best, l.getWeight() + bruteForce(graph, vertexId + 1, included, usedColors | (1L << v.getColor())));
+        }
+        included[vertexId] = false;
+        return best;
+    }
+
+    /**
+     * checks that the tree is a colorful subtree of the graph
+     *
+     * @return the score of the tree in the graph
+     */
+    private static double scoreInGraph(FGraph graph, FTree tree) {
+        final Map<MolecularFormula, Fragment> vertices = new HashMap<>();
+        for (Fragment f : graph.getFragmentsWithoutRoot()) vertices.put(f.getFormula(), f);
+        final Fragment root = vertices.get(tree.getRoot().getFormula());
+        assertSame(graph.getRoot().getChildren(0), root);
+        double score = root.getIncomingEdge().getWeight();
+        long usedColors = 0;
+        for (Fragment f : tree) {
+            final Fragment v = vertices.get(f.getFormula());
+            assertEquals("colour is used twice", 0, usedColors & (1L << v.getColor()));
+            usedColors |= 1L << v.getColor();
+            if (f.isRoot()) continue;
+            final Loss l = graph.getLoss(vertices.get(f.getParent().getFormula()), v.getFormula());
+            assertNotNull("edge is not in graph", l);
+            assertEquals(l.getWeight(), f.getIncomingEdge().getWeight(), 1e-9);
+            score += l.getWeight();
+        }
+        return score;
+    }
+
+    @Test
+    public void testOptimalTreeOnRandomGraphs() {
+        for (long seed = 1; seed <= 40; ++seed) {
+            final FGraph graph = graph(seed);
+            final int[] colors = colors(graph);
+            final double optimum = bruteForce(graph);
+            final TreeBuilder.Result result = new DPTreeBuilder().computeTree().solve(null, graph);
+            assertTrue(result.isOptimal);
+            assertEquals("seed " + seed, optimum, result.tree.getTreeWeight(), 1e-9);
+            assertEquals("seed " + seed, optimum, scoreInGraph(graph, result.tree), 1e-9);
+            assertArrayEquals("graph was recoloured", colors, colors(graph));
+        }
+    }
+
+    @Test
+    public void testBudgetFallbackOnRandomGraphs() {
+        for (long seed = 1; seed <= 40; ++seed) {
+            final FGraph graph = graph(seed);
+            final int[] colors = colors(graph);
+            final double optimum = bruteForce(graph);
+            final FGraph colored = new FGraph(graph);
+            final int numberOfColors = DP.colorByIntensity(colored);
+            for (long budget : new long[]{0, DP.estimateMemory(colored, numberOfColors / 2)}) {
+                final TreeBuilder.Result result = new DPTreeBuilder(budget).computeTree().solve(null, graph);
+                assertFalse("seed " + seed + " with budget " + budget, result.isOptimal);
+                final double score = scoreInGraph(graph, result.tree);
+                assertEquals(score, result.tree.getTreeWeight(), 1e-9);
+                assertTrue("seed " + seed + " with budget " + budget, score <= optimum + 1e-9);
+                assertArrayEquals("graph was recoloured", colors, colors(graph));
+            }
+        }
+    }
+
+    @Test
+    public void testSharedGraph() throws Exception {
+        // several threads compute trees on the same graph at once. The graphs are too large for the brute force
+        SiriusJobs.setGlobalJobManager(4);
+        final DPTreeBuilder builder = new DPTreeBuilder();
+        for (long seed = 1; seed <= 3; ++seed) {
+            final FGraph graph = RandomGraphs.randomGraph(seed, 12, 6, 0.3);
+            final int[] colors = colors(graph);
+            final double optimum = builder.computeTree().solve(null, graph).tree.getTreeWeight();
+            final List<BasicJJob<Double>> jobs = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<Double>() {
+                    @Override
+                    protected Double compute() throws Exception {
+                        return scoreInGraph(graph, builder.computeTree().solve(null, graph).tree);
+                    }
+                }));
+            }
+            for (BasicJJob<Double> job : jobs) assertEquals("seed " + seed, optimum, job.awaitResult(), 1e-9);
+            assertArrayEquals(colors, colors(graph));
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.ms.ft.*;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.RandomGraphs;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * The heuristics on {@link CompactGraph} have to compute the same trees as their previous implementations, which
+ * worked on the fragments of the {@link FGraph}. These implementations are kept here as reference.
+ */
+public class CompactHeuristicsTest {
+
+    public static class FGraphGreedyHeuristic extends AbstractHeuristic {
+
+        protected final Loss[] losses;
+
+        public FGraphGreedyHeuristic(FGraph graph) {
+            super(graph);
+            this.losses = graph.losses().toArray(new Loss[graph.numberOfEdges()]);
+            Arrays.sort(losses, (u,v)->Double.compare(v.getWeight(),u.getWeight()));
+        }
+        public FTree solve() {
+            final TIntIntHashMap selectedVertices = new TIntIntHashMap(ncolors, 0.75f, -1, -1);
+            final BitSet usedColors = new BitSet(ncolors);
+            for (int i=0; i < losses.length; ++i) {
+                final Fragment target = losses[i].getTarget();
+                final int O = target.getColor();
+                if (!usedColors.get(O)) {
+                    final int fout = selectedVertices.get(O);
+                    if (fout < 0 || fout == target.getVertexId()) {
+                        final Fragment source = losses[i].getSource();
+                        final int fid = selectedVertices.get(source.getColor());
+                        if (fid < 0) {
+                            selectedEdges.add(losses[i]);
+                            usedColors.set(O);
+                            selectedVertices.put(source.getColor(), source.getVertexId());
+                            if (fout<0)selectedVertices.put(target.getColor(), target.getVertexId());
+                        } else if (fid == source.getVertexId()) {
+                            selectedEdges.add(losses[i]);
+                            selectedVertices.put(target.getColor(), target.getVertexId());
+                            usedColors.set(O);
+                        }
+                    }
+                }
+            }
+            return buildSolution(true);
+        }
+    }
+
+    public static class FGraphPrimStarHeuristic extends AbstractHeuristic {
+
+        protected Loss[] edges;
+        protected int edgeSize;
+        protected BitSet selectedColors;
+
+        public FGraphPrimStarHeuristic(FGraph graph) {
+            super(graph);
+            edges = new Loss[graph.numberOfEdges()];
+            edgeSize = 0;
+            selectedColors = new BitSet(ncolors);
+        }
+
+        public FTree solve() {
+            int k=0;
+            for (Loss l : graph.getRoot().getOutgoingEdges())
+                edges[k++] = l;
+            edgeSize = k;
+            Loss l;
+            while (edgeSize>0 && (l = findMax())!=null) {
+                selectedEdges.add(l);
+                final Fragment v = l.getTarget();
+                selectedColors.set(v.getColor());
+                filterOut(v.getColor());
+                for (int i=0; i < v.getOutDegree(); ++i) {
+                    if (!selectedColors.get(v.getChildren(i).getColor()))
+                        edges[edgeSize++] = v.getOutgoingEdge(i);
+                }
+            }
+            return buildSolution(true);
+        }
+
+        private void filterOut(int c) {
+            int k=0;
+            for (int i=0; i < edgeSize; ++i) {
+                if (edges[i].getTarget().getColor()!=c) {
+                    edges[k++] = edges[i];
+                }
+            }
+            edgeSize = k;
+        }
+
+        private Loss findMax() {
+            double maxWeight=Double.NEGATIVE_INFINITY;
+            int maxIndex=-1;
+            for (int i=0; i < edgeSize; ++i) {
+                final double w = edges[i].getWeight();
+                if (w > maxWeight) {
+                    maxWeight = w;
+                    maxIndex = i;
+                }
+            }
+            return maxIndex<0 ? null : edges[maxIndex];
+        }
+    }
+
+    public static class FGraphFastInsertionHeuristic extends AbstractHeuristic {
+
+        protected final double[] maxIn, maxOut;
+        protected final Loss[] maxInVertices;
+        private final BitSet usedColors;
+        private final TIntObjectHashMap<Loss> color2Edge;
+
+        private final int[] vertices2consider;
+        private int nv;
+
+        public FGraphFastInsertionHeuristic(FGraph graph) {
+            super(graph);
+            usedColors = new BitSet(ncolors);
+            color2Edge = new TIntObjectHashMap<>(ncolors, 0.75f, -1);
+            this.maxIn = new double[graph.numberOfVertices()];
+            this.maxOut = new double[graph.numberOfVertices()];
+            this.maxInVertices = new Loss[graph.numberOfVertices()];
+            this.vertices2consider = new int[graph.numberOfVertices()];
+        }
+
+        @Override
+        public FTree solve() {
+            final Loss rootLoss = graph.getRoot().getOutgoingEdge(0);
+            usedColors.set(rootLoss.getTarget().getColor());
+            color2Edge.put(rootLoss.getTarget().getColor(), rootLoss);
+            initialize();
+            while (true) {
+                double maxScore = Double.NEGATIVE_INFINITY;
+                Loss maxLoss = null;
+                int k=0;
+                for (int j = 0; j < nv; ++j) {
+                    final int i = vertices2consider[j];
+                    if (usedColors.get(graph.getFragmentAt(i).getColor())) {
+                        maxIn[i] = Double.NaN;
+                    } else {
+                        final double score = maxIn[i] + maxOut[i];
+                        if (score > maxScore) {
+                            maxScore = score;
+                            maxLoss = maxInVertices[i];
+                        }
+                        vertices2consider[k++] = i;
+                    }
+                }
+                this.nv = k;
+                if (maxLoss == null)
+                    break;
+                insert(maxLoss);
+            }
+            selectedEdges.addAll(color2Edge.valueCollection());
+            return buildSolution(true);
+        }
+
+        private void insert(Loss maxLoss) {
+            final Fragment newVertex = maxLoss.getTarget();
+            usedColors.set(newVertex.getColor());
+            color2Edge.put(newVertex.getColor(), maxLoss);
+            for (int i = 0, n = newVertex.getOutDegree(); i < n; ++i) {
+                final Loss l = newVertex.getOutgoingEdge(i);
+                final Fragment w = l.getTarget();
+                final Loss xw = color2Edge.get(w.getColor());
+                if (xw != null) {
+                    if (xw.getTarget() == w && xw.getWeight() < l.getWeight()) {
+                        color2Edge.put(w.getColor(), l);
+                        for (int j = 0, m = w.getInDegree(); j < m; ++j) {
+                            final int zid = w.getIncomingEdge(j).getSource().getVertexId();
+                            if (!Double.isNaN(maxIn[zid])) {
+                                maxOut[zid] = Math.max(0, maxOut[zid] + xw.getWeight() - l.getWeight());
+                            }
+                        }
+                    }
+                } else {
+                    final int wid = w.getVertexId();
+                    if (maxIn[wid] < l.getWeight()) {
+                        maxIn[wid] = l.getWeight();
+                        maxInVertices[wid] = l;
+                    }
+                }
+            }
+            for (int i=0, n = newVertex.getInDegree(); i < n; ++i) {
+                final Loss yv = newVertex.getIncomingEdge(i);
+                if (yv.getWeight() > maxLoss.getWeight()) {
+                    maxOut[yv.getSource().getVertexId()] += yv.getWeight()-maxLoss.getWeight();
+                }
+            }
+        }
+
+        private void initialize() {
+            Arrays.fill(maxIn, Double.NEGATIVE_INFINITY);
+            final Fragment root = graph.getRoot().getOutgoingEdge(0).getTarget();
+            for (int i = 0, n = root.getOutDegree(); i < n; ++i) {
+                final Loss uv = root.getOutgoingEdge(i);
+                maxIn[uv.getTarget().getVertexId()] = uv.getWeight();
+                maxInVertices[uv.getTarget().getVertexId()] = uv;
+            }
+            maxIn[root.getVertexId()] = Double.NaN;
+            maxOut[root.getVertexId()] = Double.NaN;
+            maxIn[graph.getRoot().getVertexId()] = maxOut[graph.getRoot().getVertexId()] = Double.NaN;
+            for (int i=0; i < graph.numberOfVertices(); ++i) vertices2consider[i] = i;
+            this.nv = graph.numberOfVertices();
+        }
+    }
+
+    private static List<FGraph> graphs() {
+        final List<FGraph> graphs = new ArrayList<>();
+        for (long seed = 0; seed < 20; ++seed) graphs.add(RandomGraphs.randomGraph(seed, 10, 5, 0.3));
+        for (long seed = 0; seed < 3; ++seed) graphs.add(RandomGraphs.randomGraph(seed, 30, 20, 0.1));
+        return graphs;
+    }
+
+    /**
+     * edges of the tree as "parent -> child: weight", independent of the order of the children
+     */
+    private static Set<String> edges(FTree tree) {
+        final Set<String> edges = new HashSet<>();
+        for (Fragment f : tree) {
+            if (!f.isRoot())
+                edges.add(f.getIncomingEdge().getSource().getFormula() + " -> " + f.getFormula() + ": " + f.getIncomingEdge().getWeight());
+        }
+        return edges;
+    }
+
+    private static void assertSameTree(FTree expected, FTree actual) {
+        assertEquals(expected.getRoot().getFormula(), actual.getRoot().getFormula());
+        assertEquals(edges(expected), edges(actual));
+        // the score is summed up in the order of the children, which might differ
+        assertEquals(expected.getTreeWeight(), actual.getTreeWeight(), 1e-9);
+    }
+
+    /**
+     * each edge of the tree has to be an edge of the graph with the same weight
+     */
+    private static void assertTreeOfGraph(FGraph graph, FTree tree) {
+        final Map<MolecularFormula, Fragment> vertices = new HashMap<>();
+        for (Fragment f : graph) vertices.put(f.getFormula(), f);
+        for (Fragment f : tree) {
+            if (f.isRoot()) {
+                assertNotNull(graph.getLoss(graph.getRoot(), vertices.get(f.getFormula())));
+            } else {
+                final Loss l = graph.getLoss(vertices.get(f.getIncomingEdge().getSource().getFormula()), vertices.get(f.getFormula()));
+                assertNotNull(l);
+                assertEquals(l.getWeight(), f.getIncomingEdge().getWeight(), 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testGreedyHeuristic() {
+        for (FGraph graph : graphs()) {
+            final FTree tree = new GreedyHeuristic(graph).solve();
+            assertSameTree(new FGraphGreedyHeuristic(graph).solve(), tree);
+            assertTreeOfGraph(graph, tree);
+        }
+    }
+
+    @Test
+    public void testPrimStarHeuristic() {
+        for (FGraph graph : graphs()) {
+            final FTree tree = new PrimStarHeuristic(graph).solve();
+            assertSameTree(new FGraphPrimStarHeuristic(graph).solve(), tree);
+            assertTreeOfGraph(graph, tree);
+        }
+    }
+
+    @Test
+    public void testFastInsertionHeuristic() {
+        for (FGraph graph : graphs()) {
+            final FTree tree = new FastInsertionHeuristic(graph).solve();
+            assertSameTree(new FGraphFastInsertionHeuristic(graph).solve(), tree);
+            assertTreeOfGraph(graph, tree);
+        }
+    }
+
+    @Test
+    public void testTopDownHeuristic() {
+        for (FGraph graph : graphs()) {
+            final FTree tree = new TopDownHeuristic(new CompactGraph(graph)).solve();
+            assertSameTree(new TopDownHeuristic(graph).solve(), tree);
+            assertTreeOfGraph(graph, tree);
+        }
+    }
+
+    @Test
+    public void testSharedCompactGraph() {
+        // the view is not modified by the heuristics, so it can be shared between them
+        for (FGraph graph : graphs()) {
+            final CompactGraph compact = new CompactGraph(graph);
+            assertSameTree(new GreedyHeuristic(graph).solve(), new GreedyHeuristic(compact).solve());
+            assertSameTree(new PrimStarHeuristic(graph).solve(), new PrimStarHeuristic(compact).solve());
+            assertSameTree(new TopDownHeuristic(graph).solve(), new TopDownHeuristic(compact).solve());
+            assertSameTree(new FastInsertionHeuristic(graph).solve(), new FastInsertionHeuristic(compact).solve());
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.treebuilder;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMeasurementProfile;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.RandomGraphs;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.maximumColorfulSubtree.DPTreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.AbstractHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
+import de.unijena.bioinf.jjobs.exceptions.TimeoutException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PortfolioTreeBuilderTest {
+
+    @BeforeClass
+    public static void setupJobManager() {
+        SiriusJobs.setGlobalJobManager(2);
+    }
+
+    /**
+     * heuristic which never finishes on its own, but checks its deadline
+     */
+    public static class EndlessHeuristic extends AbstractHeuristic {
+        private static final AtomicInteger started = new AtomicInteger(), running = new AtomicInteger();
+
+        public EndlessHeuristic(FGraph graph) {
+            super(graph);
+        }
+
+        @Override
+        public FTree solve() {
+            started.incrementAndGet();
+            running.incrementAndGet();
+            try {
+                while (true) {
+                    deadline.check();
+                    Thread.yield();
+                }
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    private static FGraph graph(long seed) {
+        return RandomGraphs.randomGraph(seed, 8, 3, 0.4);
+    }
+
+    private static PortfolioTreeBuilder.Statistics lastStatistics(PortfolioTreeBuilder portfolio) {
+        final List<PortfolioTreeBuilder.Statistics> statistics = portfolio.getStatistics();
+        return statistics.get(statistics.size() - 1);
+    }
+
+    @Test
+    public void testBestHeuristicWins() {
+        final PortfolioTreeBuilder portfolio = new PortfolioTreeBuilder();
+        final List<TreeBuilder> heuristics = portfolio.getHeuristics();
+        for (long seed = 1; seed <= 20; ++seed) {
+            final FGraph graph = graph(seed);
+            final TreeBuilder.Result result = portfolio.computeTree().solve(null, graph);
+            final PortfolioTreeBuilder.Statistics s = lastStatistics(portfolio);
+            // every heuristic finished with the same tree it computes on its own
+            double best = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < heuristics.size(); ++i) {
+                final double score = heuristics.get(i).computeTree().solve(null, graph).tree.getTreeWeight();
+                assertEquals(score, s.scores[i], 1e-9);
+                best = Math.max(best, score);
+            }
+            assertTrue(Double.isNaN(s.scores[heuristics.size()]));
+            assertEquals(best, result.tree.getTreeWeight(), 1e-9);
+            assertEquals(best, s.scores[Arrays.asList(portfolio.getNumberOfWins().keySet().toArray()).indexOf(s.winner)], 1e-9);
+            assertNull(s.compound);
+        }
+        final Map<String, Integer> wins = portfolio.getNumberOfWins();
+        int sum = 0;
+        for (int w : wins.values()) sum += w;
+        assertEquals(20, sum);
+        assertEquals(20, portfolio.getStatistics().size());
+        portfolio.clearStatistics();
+        assertTrue(portfolio.getStatistics().isEmpty());
+    }
+
+    @Test
+    public void testExactSolverFindsOptimum() {
+        final DPTreeBuilder dp = new DPTreeBuilder();
+        final PortfolioTreeBuilder portfolio = new PortfolioTreeBuilder(dp);
+        for (long seed = 1; seed <= 20; ++seed) {
+            final FGraph graph = graph(seed);
+            final double optimum = dp.computeTree().solve(null, graph).tree.getTreeWeight();
+            assertEquals(optimum, portfolio.computeTree().solve(null, graph).tree.getTreeWeight(), 1e-9);
+            final PortfolioTreeBuilder.Statistics s = lastStatistics(portfolio);
+            assertTrue(s.upperBound >= optimum - 1e-9);
+            assertNotNull(s.winner);
+        }
+    }
+
+    @Test
+    public void testSlowHeuristicIsStopped() {
+        final PortfolioTreeBuilder portfolio = new PortfolioTreeBuilder(Arrays.<TreeBuilder>asList(new ExtendedCriticalPathHeuristicTreeBuilder(), new GreedyBuilder(EndlessHeuristic.class)), null);
+        portfolio.setHeuristicTimeLimitInSeconds(0.05);
+        final int started = EndlessHeuristic.started.get();
+        final FGraph graph = graph(3);
+        final TreeBuilder.Result result = portfolio.computeTree().solve(null, graph);
+        assertEquals(started + 1, EndlessHeuristic.started.get());
+        // the heuristic stopped by itself at the time limit
+        assertEquals(0, EndlessHeuristic.running.get());
+        final PortfolioTreeBuilder.Statistics s = lastStatistics(portfolio);
+        assertTrue(Double.isNaN(s.scores[1]));
+        assertEquals(new ExtendedCriticalPathHeuristicTreeBuilder().computeTree().solve(null, graph).tree.getTreeWeight(), result.tree.getTreeWeight(), 1e-9);
+        assertEquals(new ExtendedCriticalPathHeuristicTreeBuilder().toString(), s.winner);
+    }
+
+    @Test
+    public void testCanceledInputStopsAllHeuristics() {
+        final PortfolioTreeBuilder portfolio = new PortfolioTreeBuilder(Arrays.<TreeBuilder>asList(new GreedyBuilder(EndlessHeuristic.class), new ExtendedCriticalPathHeuristicTreeBuilder()), new DPTreeBuilder());
+        final ProcessedInput input = new ProcessedInput(new MutableMs2Experiment(), null, new MutableMeasurementProfile());
+        final Deadline deadline = Deadline.NEVER.limit(0);
+        deadline.cancel();
+        input.setAnnotation(Deadline.class, deadline);
+        final FGraph graph = graph(5);
+        graph.setAnnotation(ProcessedInput.class, input);
+        try {
+            portfolio.computeTree().solve(input, graph);
+            fail("canceled deadline of the input is ignored");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertEquals(0, EndlessHeuristic.running.get());
+        assertTrue(portfolio.getStatistics().isEmpty());
+    }
+
+}
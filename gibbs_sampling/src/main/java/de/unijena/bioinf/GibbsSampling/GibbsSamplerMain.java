@@ -23,6 +23,8 @@ import de.unijena.bioinf.sirius.Ms2DatasetPreprocessor;
 import de.unijena.bioinf.sirius.Sirius;
 import de.unijena.bioinf.sirius.projectspace.DirectoryReader;
 import de.unijena.bioinf.sirius.projectspace.ExperimentResult;
+import de.unijena.bioinf.sirius.projectspace.IndexedWorkspace;
+import de.unijena.bioinf.sirius.projectspace.IndexedWorkspaceReader;
 import de.unijena.bioinf.sirius.projectspace.SiriusFileReader;
 import de.unijena.bioinf.sirius.projectspace.SiriusWorkspaceReader;
 import gnu.trove.list.array.TDoubleArrayList;
@@ -2354,7 +2356,9 @@ public class GibbsSamplerMain {
 
 
         final DirectoryReader.ReadingEnvironment env;
-        if (file.isDirectory()) {
+        if (IndexedWorkspace.isIndexedWorkspace(file)) {
+            env = new IndexedWorkspaceReader(file);
+        } else if (file.isDirectory()) {
             env = new SiriusFileReader(file);
         } else {
             env = new SiriusWorkspaceReader(file);
@@ -17,6 +17,9 @@
  */
 package de.unijena.bioinf.babelms;
 
+import de.unijena.bioinf.babelms.utils.ChunkedFileReader;
+import de.unijena.bioinf.babelms.utils.MappedFileReader;
+
 import java.io.*;
 import java.net.URL;
 import java.util.ArrayList;
@@ -101,8 +104,17 @@ public class GenericParser<T> implements Parser<T> {
         };
     }
 
+    /**
+     * opens the file as {@link MappedFileReader} if the parser reads its input through a line cursor. Large files
+     * are opened as {@link ChunkedFileReader}, which scans the file concurrently in chunks.
+     */
+    protected BufferedReader openFile(File file) throws IOException {
+        if (parser instanceof MappedFileParser) return ChunkedFileReader.open(file);
+        else return new BufferedReader(new FileReader(file));
+    }
+
     public <S extends T> CloseableIterator<S> parseFromFileIterator(File file) throws IOException {
-        final BufferedReader r = new BufferedReader(new FileReader(file));
+        final BufferedReader r = openFile(file);
         return parseIterator(r, file.toURI().toURL());
     }
 
@@ -111,7 +123,7 @@ public class GenericParser<T> implements Parser<T> {
         BufferedReader reader = null;
         final URL source = file.toURI().toURL();
         try {
-            reader = new BufferedReader(new FileReader(file));
+            reader = openFile(file);
             final ArrayList<S> list = new ArrayList<S>();
             S elem = parse(reader,source);
             while (elem!=null) {
@@ -132,7 +144,7 @@ public class GenericParser<T> implements Parser<T> {
         BufferedReader reader = null;
         final URL source = file.toURI().toURL();
         try {
-            reader = new BufferedReader(new FileReader(file));
+            reader = openFile(file);
             return parse(reader,source);
         } catch (IOException e) {
             final IOException newOne = new IOException("Error while parsing " + file.getName(), e);
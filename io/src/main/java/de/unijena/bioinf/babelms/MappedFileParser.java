@@ -0,0 +1,11 @@
+package de.unijena.bioinf.babelms;
+
+import de.unijena.bioinf.babelms.utils.LineCursor;
+import de.unijena.bioinf.babelms.utils.MappedFileReader;
+
+/**
+ * Marker for parsers which read their input through a {@link LineCursor}. Files parsed with such a parser
+ * are opened as {@link MappedFileReader}, so lines and peaks are read directly from the memory mapped file.
+ */
+public interface MappedFileParser {
+}
@@ -21,6 +21,7 @@ import de.unijena.bioinf.ChemistryBase.ms.Ms2Spectrum;
 import de.unijena.bioinf.ChemistryBase.ms.Peak;
 import de.unijena.bioinf.babelms.mgf.MgfParser;
 import de.unijena.bioinf.babelms.ms.CsvParser;
+import de.unijena.bioinf.babelms.utils.MappedFileReader;
 
 import java.io.*;
 import java.util.Iterator;
@@ -37,7 +38,7 @@ public abstract class SpectralParser {
     }
 
     public Iterator<Ms2Spectrum<Peak>> parseSpectra(File file) throws IOException {
-        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        final BufferedReader reader = this instanceof MappedFileParser ? MappedFileReader.open(file) : new BufferedReader(new FileReader(file));
         return parseSpectra(reader);
     }
 
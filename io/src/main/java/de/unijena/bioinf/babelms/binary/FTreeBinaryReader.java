@@ -1,7 +1,12 @@
 package de.unijena.bioinf.babelms.binary;
 
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PeriodicTable;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
 import de.unijena.bioinf.ChemistryBase.ms.AnnotatedPeak;
+import de.unijena.bioinf.ChemistryBase.ms.CollisionEnergy;
 import de.unijena.bioinf.ChemistryBase.ms.Peak;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
@@ -13,7 +18,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Created by kaidu on 20.06.2015.
@@ -43,7 +51,80 @@ public class FTreeBinaryReader {
     }
 
     public static FTree[] readTrees(DataInputStream in) throws IOException {
+        final int header = in.readInt();
+        if (header == FTreeBinaryWriter.MAGIC_VERSION_2) return readTreesVersion2(in);
+        else if (header >= 0) return readTreesVersion1(in, header);
+        else throw new IOException("Unknown binary tree format version");
+    }
+
+    protected static FTree[] readTreesVersion2(DataInputStream in) throws IOException {
         final int numberOfTrees = in.readInt();
+        final MolecularFormulaPacker packer = MolecularFormulaPacker.fromString(in.readUTF());
+        final FTree[] trees = new FTree[numberOfTrees];
+        for (int k=0; k < trees.length; ++k) {
+            trees[k] = readTreeVersion2(in, packer);
+        }
+        return trees;
+    }
+
+    protected static FTree readTreeVersion2(DataInputStream in, MolecularFormulaPacker packer) throws IOException {
+        final int numberOfVertices = in.readInt();
+        final double treeWeight = in.readDouble();
+        final String ionTypeName = in.readUTF();
+        final long[] formulas = new long[numberOfVertices];
+        for (int i=0; i < numberOfVertices; ++i) formulas[i] = in.readLong();
+        final int[] parents = new int[numberOfVertices];
+        for (int i=0; i < numberOfVertices; ++i) parents[i] = in.readInt();
+        // vertices are stored in pre-order, so each parent is already inserted when its children are read
+        final Fragment[] fragments = new Fragment[numberOfVertices];
+        final FTree tree = new FTree(packer.decode(formulas[0]));
+        tree.setTreeWeight(treeWeight);
+        Ionization ionization = null;
+        if (!ionTypeName.isEmpty()) {
+            final PrecursorIonType ionType = PeriodicTable.getInstance().ionByName(ionTypeName);
+            tree.addAnnotation(PrecursorIonType.class, ionType);
+            ionization = ionType.getIonization();
+        }
+        fragments[0] = tree.getRoot();
+        for (int i=1; i < numberOfVertices; ++i) {
+            if (parents[i] < 0 || parents[i] >= i) throw new IOException("Vertices are not stored in pre-order");
+            fragments[i] = tree.addFragment(fragments[parents[i]], packer.decode(formulas[i]));
+        }
+        // read columns
+        double[] mz = null, intensity = null;
+        final int numberOfColumns = in.readUnsignedByte();
+        for (int c=0; c < numberOfColumns; ++c) {
+            final String name = in.readUTF();
+            final byte type = in.readByte();
+            final int length = in.readInt();
+            final boolean known = name.equals(FTreeBinaryWriter.MZ_COLUMN) || name.equals(FTreeBinaryWriter.INTENSITY_COLUMN) || name.equals(FTreeBinaryWriter.LOSS_WEIGHT_COLUMN);
+            if (type != FTreeBinaryWriter.DOUBLE_COLUMN || !known) {
+                // columns written by newer versions are skipped
+                skipFully(in, length);
+                continue;
+            }
+            if (length != numberOfVertices * 8) throw new IOException("Column " + name + " has " + length + " bytes but " + numberOfVertices + " vertices");
+            final double[] values = new double[numberOfVertices];
+            for (int i=0; i < numberOfVertices; ++i) values[i] = in.readDouble();
+            if (name.equals(FTreeBinaryWriter.MZ_COLUMN)) mz = values;
+            else if (name.equals(FTreeBinaryWriter.INTENSITY_COLUMN)) intensity = values;
+            else {
+                for (int i=1; i < numberOfVertices; ++i) fragments[i].getIncomingEdge().setWeight(values[i]);
+            }
+        }
+        if (mz == null || intensity == null) throw new IOException("Missing peak columns");
+        // add peaks
+        final FragmentAnnotation<Peak> peakAno = tree.addFragmentAnnotation(Peak.class);
+        final FragmentAnnotation<AnnotatedPeak> pano = tree.addFragmentAnnotation(AnnotatedPeak.class);
+        for (int i=0; i < numberOfVertices; ++i) {
+            final Peak peak = new Peak(mz[i], intensity[i]);
+            peakAno.set(fragments[i], peak);
+            pano.set(fragments[i], getPeakAnnotation(fragments[i], peak, ionization));
+        }
+        return tree;
+    }
+
+    protected static FTree[] readTreesVersion1(DataInputStream in, int numberOfTrees) throws IOException {
         final FTree[] trees = new FTree[numberOfTrees];
         final int numberOfFormulas = in.readInt();
         final MolecularFormula[] formulas = new MolecularFormula[numberOfFormulas];
@@ -51,8 +132,8 @@ public class FTreeBinaryReader {
         // read formulas
         final byte[] buffer = new byte[255];
         for (int i=0; i < formulas.length; ++i) {
-            final byte n = in.readByte();
-            in.read(buffer, 0, n);
+            final int n = in.readUnsignedByte();
+            in.readFully(buffer, 0, n);
             final String s = new String(buffer, 0, n, ASCII);
             formulas[i] = MolecularFormula.parse(s);
         }
@@ -68,7 +149,6 @@ public class FTreeBinaryReader {
         final MolecularFormula root = formulas[in.readInt()];
         final MolecularFormula[] edgeSource = new MolecularFormula[numberOfEdges];
         final MolecularFormula[] edgeTarget = new MolecularFormula[numberOfEdges];
-        final MolecularFormula[] edges = new MolecularFormula[numberOfEdges];
         final Peak[] peaks = new Peak[numberOfEdges+1];
         // read peaks
         for (int i=0; i < peaks.length; ++i) {
@@ -79,31 +159,62 @@ public class FTreeBinaryReader {
             edgeTarget[i] = formulas[in.readInt()];
             edgeSource[i] = formulas[in.readInt()];
         }
+        // group edges by their source and insert them top-down
+        final HashMap<MolecularFormula, List<Integer>> outgoingEdges = new HashMap<MolecularFormula, List<Integer>>(numberOfEdges * 2);
+        for (int i=0; i < numberOfEdges; ++i) {
+            List<Integer> edges = outgoingEdges.get(edgeSource[i]);
+            if (edges == null) {
+                edges = new ArrayList<Integer>(2);
+                outgoingEdges.put(edgeSource[i], edges);
+            }
+            edges.add(i);
+        }
         final FTree tree = new FTree(root);
-        final HashMap<MolecularFormula, Fragment> treemap = new HashMap<MolecularFormula, Fragment>();
-        treemap.put(root, tree.getRoot());
-        while (tree.numberOfEdges() < numberOfEdges) {
-            for (int i=0; i < numberOfEdges; ++i) {
-                final Fragment f = treemap.get(edgeSource[i]);
-                if (f!=null) {
-                    treemap.put(edgeTarget[i], tree.addFragment(f, edgeTarget[i]));
-                }
+        final Fragment[] edgeFragments = new Fragment[numberOfEdges];
+        final ArrayDeque<Fragment> stack = new ArrayDeque<Fragment>();
+        stack.push(tree.getRoot());
+        while (!stack.isEmpty()) {
+            final Fragment f = stack.pop();
+            final List<Integer> edges = outgoingEdges.get(f.getFormula());
+            if (edges == null) continue;
+            for (int i : edges) {
+                if (edgeFragments[i] != null) throw new IOException("Tree contains a cycle");
+                edgeFragments[i] = tree.addFragment(f, edgeTarget[i]);
+                stack.push(edgeFragments[i]);
             }
         }
+        if (tree.numberOfEdges() < numberOfEdges) throw new IOException("Tree is not connected");
         // add peaks
         final FragmentAnnotation<Peak> peakAno = tree.addFragmentAnnotation(Peak.class);
         final FragmentAnnotation<AnnotatedPeak> pano = tree.addFragmentAnnotation(AnnotatedPeak.class);
         peakAno.set(tree.getRoot(), peaks[0]);
         pano.set(tree.getRoot(), getPeakAnnotation(tree.getRoot(), peaks[0]));
         for (int i=0; i < numberOfEdges; ++i) {
-            peakAno.set(treemap.get(edgeTarget[i]), peaks[i+1]);
-            pano.set(treemap.get(edgeTarget[i]), getPeakAnnotation(treemap.get(edgeTarget[i]), peaks[i+1]));
+            peakAno.set(edgeFragments[i], peaks[i+1]);
+            pano.set(edgeFragments[i], getPeakAnnotation(edgeFragments[i], peaks[i+1]));
         }
         return tree;
     }
 
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        if (length < 0) throw new IOException("Negative column length");
+        int skipped = 0;
+        while (skipped < length) {
+            final int n = in.skipBytes(length - skipped);
+            if (n <= 0) {
+                // skipBytes stops at the end of the stream, where readByte throws an EOFException
+                in.readByte();
+                ++skipped;
+            } else skipped += n;
+        }
+    }
+
     private static AnnotatedPeak getPeakAnnotation(Fragment f, Peak peak) {
         return new AnnotatedPeak(f.getFormula(), peak.getMass(), peak.getMass(), peak.getIntensity(), null, null, null);
     }
 
+    private static AnnotatedPeak getPeakAnnotation(Fragment f, Peak peak, Ionization ionization) {
+        return new AnnotatedPeak(f.getFormula(), peak.getMass(), peak.getMass(), peak.getIntensity(), ionization, new Peak[0], new CollisionEnergy[0]);
+    }
+
 }
@@ -2,6 +2,7 @@ package de.unijena.bioinf.babelms.binary;
 
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
 import de.unijena.bioinf.ChemistryBase.ms.AnnotatedPeak;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
@@ -11,22 +12,131 @@ import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 /**
  * Writes a fragmentation tree into a binary stream
  * this format carries only the most necessary information for trees to perform
  * a tree alignment
+ *
+ * The current format (version 2) starts with the negative {@link #MAGIC_VERSION_2} (version 1 files start with
+ * the non-negative number of trees) followed by the number of trees and the element table of the
+ * {@link MolecularFormulaPacker} used to encode the formulas. Each tree is stored as
+ * <ul>
+ *     <li>number of vertices, tree weight and precursor ion type</li>
+ *     <li>the packed molecular formulas of all vertices in pre-order</li>
+ *     <li>the index of the parent of each vertex (-1 for the root). In pre-order, each parent comes before its children</li>
+ *     <li>a list of typed columns with one value per vertex (peak m/z, peak intensity, weight of the incoming loss).
+ *     Each column starts with its name, its type and the length of its values in bytes</li>
+ * </ul>
+ * Readers skip columns with unknown name or type by their length. Trees whose formulas cannot be packed (e.g. negative amounts of elements)
+ * are written in the version 1 format.
  */
 public class FTreeBinaryWriter {
 
+    public final static int MAGIC_VERSION_2 = -0x46540002;
+
+    final static byte DOUBLE_COLUMN = 1;
+
+    final static String MZ_COLUMN = "mz", INTENSITY_COLUMN = "intensity", LOSS_WEIGHT_COLUMN = "lossWeight";
+
     public static void writeTrees(OutputStream stream, FTree[] trees) throws IOException {
         final DataOutputStream out = new DataOutputStream(stream);
         writeTrees(out, trees);
+        out.flush();
     }
 
     public static void writeTrees(DataOutputStream out, FTree[] trees) throws IOException {
+        final MolecularFormulaPacker packer = packerFor(trees);
+        if (packer == null) {
+            writeTreesVersion1(out, trees);
+            return;
+        }
+        out.writeInt(MAGIC_VERSION_2);
+        out.writeInt(trees.length);
+        out.writeUTF(packer.serializeToString());
+        for (FTree tree : trees) {
+            final int n = tree.numberOfVertices();
+            final Fragment[] preorder = new Fragment[n];
+            final int[] vertexToIndex = new int[n];
+            final Iterator<Fragment> iter = tree.preOrderIterator(tree.getRoot());
+            for (int k = 0; iter.hasNext(); ++k) {
+                preorder[k] = iter.next();
+                vertexToIndex[preorder[k].getVertexId()] = k;
+            }
+            out.writeInt(n);
+            out.writeDouble(tree.getTreeWeight());
+            final PrecursorIonType ionType = tree.getAnnotationOrNull(PrecursorIonType.class);
+            out.writeUTF(ionType == null ? "" : ionType.toString());
+            for (Fragment f : preorder) {
+                out.writeLong(packer.encode(f.getFormula()));
+            }
+            for (Fragment f : preorder) {
+                out.writeInt(f.isRoot() ? -1 : vertexToIndex[f.getParent().getVertexId()]);
+            }
+            // write columns
+            final FragmentAnnotation<AnnotatedPeak> fano2 = tree.getFragmentAnnotationOrThrow(AnnotatedPeak.class);
+            final double[] mz = new double[n], intensity = new double[n], lossWeight = new double[n];
+            for (int k = 0; k < n; ++k) {
+                final Fragment f = preorder[k];
+                final AnnotatedPeak p = fano2.get(f);
+                if (p == null) {
+                    // peak is synthetic...
+                    mz[k] = tree.getAnnotationOrThrow(PrecursorIonType.class).neutralMassToPrecursorMass(f.getFormula().getMass());
+                    intensity[k] = 0d;
+                } else {
+                    mz[k] = p.getRecalibratedMass();
+                    intensity[k] = p.getRelativeIntensity();
+                }
+                lossWeight[k] = f.isRoot() ? 0d : f.getIncomingEdge().getWeight();
+            }
+            out.writeByte(3);
+            writeColumn(out, MZ_COLUMN, mz);
+            writeColumn(out, INTENSITY_COLUMN, intensity);
+            writeColumn(out, LOSS_WEIGHT_COLUMN, lossWeight);
+        }
+    }
+
+    private static void writeColumn(DataOutputStream out, String name, double[] values) throws IOException {
+        out.writeUTF(name);
+        out.writeByte(DOUBLE_COLUMN);
+        out.writeInt(values.length * 8);
+        for (double value : values) out.writeDouble(value);
+    }
+
+    /*
+     * returns a packer which is able to encode all fragment formulas or null if there is no such packer
+     */
+    private static MolecularFormulaPacker packerFor(FTree[] trees) {
+        final ArrayList<MolecularFormula> formulas = new ArrayList<MolecularFormula>();
+        for (FTree tree : trees) {
+            for (Fragment f : tree.getFragments()) {
+                if (!f.getFormula().isAllPositiveOrZero()) return null;
+                formulas.add(f.getFormula());
+            }
+        }
+        final MolecularFormulaPacker packer;
+        try {
+            packer = MolecularFormulaPacker.newPackerFor(formulas.toArray(new MolecularFormula[formulas.size()]));
+        } catch (RuntimeException e) {
+            // more elements than fit into 63 bits
+            return null;
+        }
+        final String table = packer.serializeToString();
+        if (table.isEmpty() || table.length() > 0xFFFF) return null;
+        for (MolecularFormula f : formulas) {
+            if (packer.tryEncode(f) < 0) return null;
+        }
+        return packer;
+    }
+
+    /**
+     * Writes the trees in the version 1 format which is understood by older versions of {@link FTreeBinaryReader}
+     */
+    public static void writeTreesVersion1(DataOutputStream out, FTree[] trees) throws IOException {
         // write molecular formulas
         final HashMap<MolecularFormula, Integer> formulaToInt = new HashMap<MolecularFormula, Integer>();
         int k=0;
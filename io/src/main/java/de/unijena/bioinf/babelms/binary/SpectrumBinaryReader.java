@@ -3,6 +3,7 @@ package de.unijena.bioinf.babelms.binary;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -33,4 +34,11 @@ public class SpectrumBinaryReader {
         return spectra;
     }
 
+    /**
+     * opens a spectral library written by {@link SpectrumBinaryWriter#writeLibrary}. The library has to be closed after use.
+     */
+    public static SpectrumLibrary openLibrary(File file) throws IOException {
+        return SpectrumLibrary.open(file);
+    }
+
 }
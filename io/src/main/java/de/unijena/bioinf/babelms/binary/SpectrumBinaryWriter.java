@@ -3,6 +3,7 @@ package de.unijena.bioinf.babelms.binary;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -30,4 +31,18 @@ public class SpectrumBinaryWriter {
         }
     }
 
+    /**
+     * writes the spectra into a columnar spectral library which allows random access to single spectra and
+     * queries by precursor m/z, see {@link SpectrumLibrary}
+     * @param precursorMz precursor m/z of each spectrum, NaN if unknown
+     */
+    public static void writeLibrary(File file, SimpleSpectrum[] spectra, double[] precursorMz, SpectrumLibrary.MzEncoding encoding) throws IOException {
+        if (spectra.length != precursorMz.length) throw new IllegalArgumentException("Number of spectra and precursors differ");
+        try (final SpectrumLibraryWriter writer = new SpectrumLibraryWriter(file, encoding)) {
+            for (int i=0; i < spectra.length; ++i) {
+                writer.add(spectra[i], precursorMz[i]);
+            }
+        }
+    }
+
 }
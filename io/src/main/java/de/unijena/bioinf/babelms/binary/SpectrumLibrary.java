@@ -0,0 +1,322 @@
+package de.unijena.bioinf.babelms.binary;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.ChemistryBase.ms.Peak;
+import de.unijena.bioinf.ChemistryBase.ms.Spectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.AbstractSpectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random access to a spectral library written by {@link SpectrumLibraryWriter}. The position of each spectrum in
+ * the m/z and intensity columns is given by an offset index, so spectrum k is read without reading the spectra
+ * before it. The precursor index allows to find all spectra in a precursor m/z window by binary search.
+ *
+ * If the library is memory mapped, {@link #getSpectrum(int)} returns a view on the mapped columns without copying
+ * the peaks (except for the DELTA encoding, whose m/z values have to be decoded). Otherwise, the peaks of a spectrum
+ * are read by a single positional read from the file and the index sections are read into memory on opening.
+ *
+ * All methods can be called concurrently.
+ */
+public class SpectrumLibrary implements Closeable {
+
+    public enum MzEncoding {
+        /**
+         * m/z and intensities as doubles
+         */
+        DOUBLE,
+        /**
+         * m/z and intensities as floats, which is precise enough for most spectra (relative error below 0.1 ppm)
+         */
+        FLOAT,
+        /**
+         * m/z rounded to {@link #MZ_RESOLUTION} and stored as variable length differences to the previous peak,
+         * intensities as floats. Mass sorted spectra need 3-4 bytes per m/z value.
+         */
+        DELTA
+    }
+
+    public final static double MZ_RESOLUTION = 1e-6;
+
+    final static int MAGIC = 0x53504c42, VERSION = 1;
+    final static int MZ_COLUMN = 0, INTENSITY_COLUMN = 1, PEAK_OFFSETS = 2, MZ_OFFSETS = 3, PRECURSORS = 4,
+            SORTED_PRECURSORS = 5, SORTED_INDIZES = 6, NUMBER_OF_SECTIONS = 7;
+    final static int HEADER_SIZE = 24 + 8 * NUMBER_OF_SECTIONS;
+
+    // the file is mapped in segments of this size. Values in the columns are aligned, so they never cross a segment
+    private final static int SEGMENT_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final MzEncoding encoding;
+    private final int numberOfSpectra;
+    private final long numberOfPeaks;
+    private final long[] sections;
+    private final LongBuffer peakOffsets, mzOffsets;
+    private final DoubleBuffer precursors, sortedPrecursors;
+    private final IntBuffer sortedIndizes;
+    private final ByteBuffer[] segments;
+    private final int segmentSize;
+
+    public static SpectrumLibrary open(File file) throws IOException {
+        return new SpectrumLibrary(file, true, SEGMENT_SIZE);
+    }
+
+    public static SpectrumLibrary open(File file, boolean memoryMapped) throws IOException {
+        return new SpectrumLibrary(file, memoryMapped, SEGMENT_SIZE);
+    }
+
+    SpectrumLibrary(File file, boolean memoryMapped, int segmentSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final long fileSize = channel.size();
+            final ByteBuffer header = read(0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) throw new IOException(file.getName() + " is not a spectral library");
+            final int version = header.getInt();
+            if (version != VERSION) throw new IOException("Unsupported spectral library version: " + version);
+            this.encoding = MzEncoding.values()[header.getInt()];
+            this.numberOfSpectra = header.getInt();
+            this.numberOfPeaks = header.getLong();
+            this.sections = new long[NUMBER_OF_SECTIONS];
+            for (int i = 0; i < sections.length; ++i) sections[i] = header.getLong();
+            this.segmentSize = segmentSize;
+            if (memoryMapped) {
+                this.segments = new ByteBuffer[(int) ((fileSize + segmentSize - 1) / segmentSize)];
+                for (int i = 0; i < segments.length; ++i) {
+                    final long start = (long) i * segmentSize;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, fileSize - start));
+                }
+            } else {
+                this.segments = null;
+            }
+            this.peakOffsets = read(sections[PEAK_OFFSETS], 8L * (numberOfSpectra + 1)).asLongBuffer();
+            this.mzOffsets = encoding == MzEncoding.DELTA ? read(sections[MZ_OFFSETS], 8L * (numberOfSpectra + 1)).asLongBuffer() : null;
+            this.precursors = read(sections[PRECURSORS], 8L * numberOfSpectra).asDoubleBuffer();
+            this.sortedPrecursors = read(sections[SORTED_PRECURSORS], 8L * numberOfSpectra).asDoubleBuffer();
+            this.sortedIndizes = read(sections[SORTED_INDIZES], 4L * numberOfSpectra).asIntBuffer();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int numberOfSpectra() {
+        return numberOfSpectra;
+    }
+
+    public long numberOfPeaks() {
+        return numberOfPeaks;
+    }
+
+    public MzEncoding getEncoding() {
+        return encoding;
+    }
+
+    public double getPrecursorMz(int index) {
+        return precursors.get(index);
+    }
+
+    /**
+     * @return a view on the peaks of the spectrum with the given index. The view is valid as long as the library is open.
+     */
+    public Spectrum<Peak> getSpectrum(int index) throws IOException {
+        if (index < 0 || index >= numberOfSpectra) throw new IndexOutOfBoundsException(String.valueOf(index));
+        final long from = peakOffsets.get(index), to = peakOffsets.get(index + 1);
+        final int n = (int) (to - from);
+        final int intensityBytes = encoding == MzEncoding.DOUBLE ? 8 : 4;
+        final ByteBuffer intensities = read(sections[INTENSITY_COLUMN] + from * intensityBytes, (long) n * intensityBytes);
+        switch (encoding) {
+            case DOUBLE:
+                return new DoubleColumnSpectrum(read(sections[MZ_COLUMN] + from * 8, n * 8L).asDoubleBuffer(), intensities.asDoubleBuffer());
+            case FLOAT:
+                return new FloatColumnSpectrum(read(sections[MZ_COLUMN] + from * 4, n * 4L), intensities);
+            default:
+                final long start = mzOffsets.get(index), end = mzOffsets.get(index + 1);
+                final ByteBuffer bytes = read(sections[MZ_COLUMN] + start, end - start);
+                final double[] mz = new double[n];
+                long value = 0;
+                for (int i = 0; i < n; ++i) {
+                    long zigzag = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        final byte b = bytes.get();
+                        zigzag |= (long) (b & 0x7F) << shift;
+                        if (b >= 0) break;
+                    }
+                    value += (zigzag >>> 1) ^ -(zigzag & 1);
+                    mz[i] = fromFixedPoint(value);
+                }
+                return new DeltaSpectrum(mz, intensities);
+        }
+    }
+
+    /**
+     * @return a copy of the spectrum with the given index
+     */
+    public SimpleSpectrum getSimpleSpectrum(int index) throws IOException {
+        return new SimpleSpectrum(getSpectrum(index));
+    }
+
+    /**
+     * @return the indizes of all spectra whose precursor m/z is within [from, to], in ascending order of the precursor m/z
+     */
+    public int[] searchByPrecursor(double from, double to) {
+        final int start = lowerBound(from);
+        int end = start;
+        while (end < numberOfSpectra && sortedPrecursors.get(end) <= to) ++end;
+        final int[] indizes = new int[end - start];
+        for (int i = start; i < end; ++i) indizes[i - start] = sortedIndizes.get(i);
+        return indizes;
+    }
+
+    /**
+     * @return the indizes of all spectra whose precursor m/z is within the allowed deviation of the given m/z
+     */
+    public int[] searchByPrecursor(double precursorMz, Deviation deviation) {
+        final double delta = deviation.absoluteFor(precursorMz);
+        return searchByPrecursor(precursorMz - delta, precursorMz + delta);
+    }
+
+    private int lowerBound(double mz) {
+        int low = 0, high = numberOfSpectra;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (sortedPrecursors.get(middle) < mz) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    static long toFixedPoint(double mz) {
+        return Math.round(mz / MZ_RESOLUTION);
+    }
+
+    static double fromFixedPoint(long value) {
+        return value * MZ_RESOLUTION;
+    }
+
+    /*
+     * returns the bytes [position, position+length) of the file. If the file is mapped and the range is within a
+     * segment, the buffer is a slice of the mapping. Otherwise, the bytes are read from the file.
+     */
+    private ByteBuffer read(long position, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) throw new IOException("Section of spectral library is too large: " + length + " bytes");
+        if (length == 0) return ByteBuffer.allocate(0);
+        if (segments != null) {
+            final int segment = (int) (position / segmentSize), offset = (int) (position % segmentSize);
+            if (offset + length <= segments[segment].limit()) {
+                final ByteBuffer slice = segments[segment].duplicate();
+                slice.position(offset);
+                slice.limit(offset + (int) length);
+                return slice.slice();
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of spectral library");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static class DoubleColumnSpectrum extends AbstractSpectrum<Peak> {
+        private final DoubleBuffer mz, intensities;
+
+        private DoubleColumnSpectrum(DoubleBuffer mz, DoubleBuffer intensities) {
+            this.mz = mz;
+            this.intensities = intensities;
+        }
+
+        @Override
+        public double getMzAt(int index) {
+            return mz.get(index);
+        }
+
+        @Override
+        public double getIntensityAt(int index) {
+            return intensities.get(index);
+        }
+
+        @Override
+        public Peak getPeakAt(int index) {
+            return new Peak(getMzAt(index), getIntensityAt(index));
+        }
+
+        @Override
+        public int size() {
+            return mz.limit();
+        }
+    }
+
+    private static class FloatColumnSpectrum extends AbstractSpectrum<Peak> {
+        private final ByteBuffer mz, intensities;
+
+        private FloatColumnSpectrum(ByteBuffer mz, ByteBuffer intensities) {
+            this.mz = mz;
+            this.intensities = intensities;
+        }
+
+        @Override
+        public double getMzAt(int index) {
+            return mz.getFloat(index << 2);
+        }
+
+        @Override
+        public double getIntensityAt(int index) {
+            return intensities.getFloat(index << 2);
+        }
+
+        @Override
+        public Peak getPeakAt(int index) {
+            return new Peak(getMzAt(index), getIntensityAt(index));
+        }
+
+        @Override
+        public int size() {
+            return mz.limit() >> 2;
+        }
+    }
+
+    private static class DeltaSpectrum extends AbstractSpectrum<Peak> {
+        private final double[] mz;
+        private final ByteBuffer intensities;
+
+        private DeltaSpectrum(double[] mz, ByteBuffer intensities) {
+            this.mz = mz;
+            this.intensities = intensities;
+        }
+
+        @Override
+        public double getMzAt(int index) {
+            return mz[index];
+        }
+
+        @Override
+        public double getIntensityAt(int index) {
+            return intensities.getFloat(index << 2);
+        }
+
+        @Override
+        public Peak getPeakAt(int index) {
+            return new Peak(mz[index], getIntensityAt(index));
+        }
+
+        @Override
+        public int size() {
+            return mz.length;
+        }
+    }
+}
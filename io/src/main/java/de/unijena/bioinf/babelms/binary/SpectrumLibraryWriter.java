@@ -0,0 +1,198 @@
+package de.unijena.bioinf.babelms.binary;
+
+import de.unijena.bioinf.ChemistryBase.ms.Peak;
+import de.unijena.bioinf.ChemistryBase.ms.Spectrum;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.*;
+
+/**
+ * Writes a spectral library in the columnar format read by {@link SpectrumLibrary}. Spectra are added one after
+ * another, so a library with millions of spectra can be written without keeping the spectra in memory. Only the
+ * offsets and precursor m/z values (16 bytes per spectrum) are kept until the library is closed.
+ *
+ * The file consists of a fixed size header followed by the sections
+ * <ul>
+ *     <li>m/z column: the m/z values of all peaks of all spectra, encoded as given by the {@link SpectrumLibrary.MzEncoding}</li>
+ *     <li>intensity column: the intensities of all peaks (double for DOUBLE encoding, float otherwise)</li>
+ *     <li>peak offsets: index of the first peak of each spectrum (numberOfSpectra+1 longs)</li>
+ *     <li>m/z offsets: byte offset of each spectrum in the m/z column (numberOfSpectra+1 longs, DELTA encoding only)</li>
+ *     <li>precursor m/z of each spectrum</li>
+ *     <li>precursor index: precursor m/z values in ascending order, followed by the indizes of the corresponding spectra</li>
+ * </ul>
+ * The header stores the positions of all sections. All sections start at a multiple of 8 bytes.
+ * The intensity column is written into a temporary file next to the library and appended on {@link #close()}.
+ */
+public class SpectrumLibraryWriter implements Closeable {
+
+    private final File file;
+    private final SpectrumLibrary.MzEncoding encoding;
+    private final CountingOutputStream mzCounter;
+    private final DataOutputStream mzOut;
+    private final File intensityFile;
+    private final DataOutputStream intensityOut;
+    private final TLongArrayList peakOffsets, mzOffsets;
+    private final TDoubleArrayList precursors;
+    private long numberOfPeaks;
+    private boolean closed;
+
+    public SpectrumLibraryWriter(File file) throws IOException {
+        this(file, SpectrumLibrary.MzEncoding.DOUBLE);
+    }
+
+    public SpectrumLibraryWriter(File file, SpectrumLibrary.MzEncoding encoding) throws IOException {
+        this.file = file;
+        this.encoding = encoding;
+        this.intensityFile = File.createTempFile("spectra", ".intensities", file.getAbsoluteFile().getParentFile());
+        this.mzCounter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        this.mzOut = new DataOutputStream(mzCounter);
+        this.intensityOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(intensityFile), 1 << 16));
+        this.peakOffsets = new TLongArrayList();
+        this.mzOffsets = new TLongArrayList();
+        this.precursors = new TDoubleArrayList();
+        // space for the header, which is written on close
+        mzOut.write(new byte[SpectrumLibrary.HEADER_SIZE]);
+        peakOffsets.add(0);
+        mzOffsets.add(0);
+    }
+
+    /**
+     * adds a spectrum to the library
+     * @param precursorMz m/z of the precursor, NaN if unknown
+     * @return the index of the spectrum in the library
+     */
+    public <P extends Peak> int add(Spectrum<P> spectrum, double precursorMz) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        if (precursors.size() == Integer.MAX_VALUE) throw new IOException("Too many spectra in library");
+        final int n = spectrum.size();
+        switch (encoding) {
+            case DOUBLE:
+                for (int i = 0; i < n; ++i) mzOut.writeDouble(spectrum.getMzAt(i));
+                for (int i = 0; i < n; ++i) intensityOut.writeDouble(spectrum.getIntensityAt(i));
+                break;
+            case FLOAT:
+                for (int i = 0; i < n; ++i) mzOut.writeFloat((float) spectrum.getMzAt(i));
+                for (int i = 0; i < n; ++i) intensityOut.writeFloat((float) spectrum.getIntensityAt(i));
+                break;
+            case DELTA:
+                long previous = 0;
+                for (int i = 0; i < n; ++i) {
+                    final long value = SpectrumLibrary.toFixedPoint(spectrum.getMzAt(i));
+                    writeVarLong(mzOut, (value - previous << 1) ^ (value - previous >> 63));
+                    previous = value;
+                }
+                for (int i = 0; i < n; ++i) intensityOut.writeFloat((float) spectrum.getIntensityAt(i));
+                break;
+        }
+        numberOfPeaks += n;
+        peakOffsets.add(numberOfPeaks);
+        mzOffsets.add(mzCounter.written - SpectrumLibrary.HEADER_SIZE);
+        precursors.add(precursorMz);
+        return precursors.size() - 1;
+    }
+
+    public int numberOfSpectra() {
+        return precursors.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        final long[] header = new long[SpectrumLibrary.NUMBER_OF_SECTIONS];
+        try {
+            intensityOut.close();
+            header[SpectrumLibrary.MZ_COLUMN] = SpectrumLibrary.HEADER_SIZE;
+            pad();
+            mzOut.flush();
+            header[SpectrumLibrary.INTENSITY_COLUMN] = mzCounter.written;
+            try (final InputStream in = new FileInputStream(intensityFile)) {
+                final byte[] buffer = new byte[1 << 16];
+                int read;
+                while ((read = in.read(buffer)) > 0) mzOut.write(buffer, 0, read);
+            }
+            pad();
+            header[SpectrumLibrary.PEAK_OFFSETS] = mzCounter.written;
+            for (int i = 0; i < peakOffsets.size(); ++i) mzOut.writeLong(peakOffsets.get(i));
+            if (encoding == SpectrumLibrary.MzEncoding.DELTA) {
+                header[SpectrumLibrary.MZ_OFFSETS] = mzCounter.written;
+                for (int i = 0; i < mzOffsets.size(); ++i) mzOut.writeLong(mzOffsets.get(i));
+            }
+            header[SpectrumLibrary.PRECURSORS] = mzCounter.written;
+            for (int i = 0; i < precursors.size(); ++i) mzOut.writeDouble(precursors.get(i));
+            final int[] order = sortByPrecursor(precursors.toArray());
+            header[SpectrumLibrary.SORTED_PRECURSORS] = mzCounter.written;
+            for (int index : order) mzOut.writeDouble(precursors.get(index));
+            header[SpectrumLibrary.SORTED_INDIZES] = mzCounter.written;
+            for (int index : order) mzOut.writeInt(index);
+        } finally {
+            mzOut.close();
+            intensityOut.close();
+            intensityFile.delete();
+        }
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(SpectrumLibrary.MAGIC);
+            raf.writeInt(SpectrumLibrary.VERSION);
+            raf.writeInt(encoding.ordinal());
+            raf.writeInt(precursors.size());
+            raf.writeLong(numberOfPeaks);
+            for (long position : header) raf.writeLong(position);
+        }
+    }
+
+    private void pad() throws IOException {
+        while ((mzCounter.written & 7) != 0) mzOut.write(0);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /*
+     * stable merge sort of the spectrum indizes by their precursor m/z. NaN values are sorted to the end.
+     */
+    private static int[] sortByPrecursor(double[] precursors) {
+        int[] order = new int[precursors.length], buffer = new int[precursors.length];
+        for (int i = 0; i < order.length; ++i) order[i] = i;
+        for (int width = 1; width < order.length; width *= 2) {
+            for (int left = 0; left < order.length; left += 2 * width) {
+                final int middle = Math.min(left + width, order.length), right = Math.min(left + 2 * width, order.length);
+                int i = left, j = middle, k = left;
+                while (i < middle && j < right) {
+                    buffer[k++] = Double.compare(precursors[order[j]], precursors[order[i]]) < 0 ? order[j++] : order[i++];
+                }
+                while (i < middle) buffer[k++] = order[i++];
+                while (j < right) buffer[k++] = order[j++];
+            }
+            final int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long written;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++written;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2015 Kai Dührkop
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.bioinf.babelms.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A persistent set of molecular formulas which is memory mapped instead of loaded onto the heap. The file is written
+ * by {@link MappedFormulaDatabaseBuilder} and contains the formulas encoded by a {@link MolecularFormulaPacker},
+ * sorted by their neutral monoisotopic mass. The formulas are divided into mass buckets, and the start of each
+ * bucket is kept in memory, so a query only touches the pages of the buckets in its mass window.
+ *
+ * In contrast to {@link DBMolecularFormulaCache}, the database is complete and never changes after it was built,
+ * so there is nothing to cover or to query online. All methods only read the mapping without changing its state,
+ * so they can be called concurrently without locks.
+ */
+public class MappedFormulaDatabase implements CompoundQuery, Closeable {
+
+    final static int MAGIC = 0x4d464442, VERSION = 1;
+    // magic, version, bucketsPerDalton, firstBucket, numberOfBuckets, numberOfFormulas, 4 section offsets
+    final static int HEADER_SIZE = 20 + 8 + 8 * 4;
+    final static int PACKER = 0, MASSES = 1, FORMULAS = 2, BUCKETS = 3;
+
+    // the file is mapped in segments of this size. Values are aligned to 8 bytes, so they never cross a segment
+    private final static int SEGMENT_SIZE = 1 << 30;
+    private final static int SEGMENT_SHIFT = 30;
+
+    private final FileChannel channel;
+    private final MolecularFormulaPacker packer;
+    private final ByteBuffer[] segments;
+    private final long massesOffset, formulasOffset;
+    private final long numberOfFormulas;
+    private final int bucketsPerDalton, firstBucket;
+    // index of the first formula of each bucket. bucketStart[numberOfBuckets] is the number of formulas
+    private final long[] bucketStart;
+
+    public static MappedFormulaDatabase open(File file) throws IOException {
+        return new MappedFormulaDatabase(file);
+    }
+
+    MappedFormulaDatabase(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            if (header.getInt() != MAGIC) throw new IOException(file.getName() + " is not a formula database");
+            final int version = header.getInt();
+            if (version != VERSION) throw new IOException("Unsupported formula database version: " + version);
+            this.bucketsPerDalton = header.getInt();
+            this.firstBucket = header.getInt();
+            final int numberOfBuckets = header.getInt();
+            this.numberOfFormulas = header.getLong();
+            final long[] sections = new long[4];
+            for (int i = 0; i < sections.length; ++i) sections[i] = header.getLong();
+            this.massesOffset = sections[MASSES];
+            this.formulasOffset = sections[FORMULAS];
+
+            channel.position(sections[PACKER]);
+            this.packer = MolecularFormulaPacker.fromString(new DataInputStream(Channels.newInputStream(channel)).readUTF());
+
+            final ByteBuffer buckets = ByteBuffer.allocate(8 * (numberOfBuckets + 1));
+            readFully(buckets, sections[BUCKETS]);
+            this.bucketStart = new long[numberOfBuckets + 1];
+            buckets.asLongBuffer().get(bucketStart);
+
+            final long size = channel.size();
+            this.segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; ++i) {
+                final long start = (long) i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public MolecularFormulaPacker getPacker() {
+        return packer;
+    }
+
+    public long size() {
+        return numberOfFormulas;
+    }
+
+    /**
+     * @return true if the formula is contained in the database
+     */
+    public boolean isFormulaExist(MolecularFormula formula) {
+        final long encoded = packer.tryEncode(formula);
+        return encoded >= 0 && contains(encoded);
+    }
+
+    /**
+     * @param encoded molecular formula encoded with the packer of this database
+     * @return true if the formula is contained in the database
+     */
+    public boolean contains(long encoded) {
+        // the builder computed the masses with the same packer, so equal formulas have exactly the same mass
+        final double mass = packer.getMass(encoded);
+        for (long i = lowerBound(mass); i < numberOfFormulas && getMass(i) == mass; ++i) {
+            if (getEncodedFormula(i) == encoded) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the start (inclusive) and end (exclusive) index of the formulas with a neutral mass within [minMass, maxMass]
+     */
+    public long[] findRange(double minMass, double maxMass) {
+        final long start = lowerBound(minMass);
+        final long end = maxMass < minMass ? start : lowerBound(Math.nextUp(maxMass));
+        return new long[]{start, end};
+    }
+
+    /**
+     * @return all formulas with a neutral mass within [minMass, maxMass], encoded with the packer of this database
+     * and in ascending order of their mass
+     */
+    public long[] findEncodedFormulasByMass(double minMass, double maxMass) {
+        final long[] range = findRange(minMass, maxMass);
+        final long n = range[1] - range[0];
+        if (n > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many formulas in mass window");
+        final long[] formulas = new long[(int) n];
+        for (int i = 0; i < formulas.length; ++i) formulas[i] = getEncodedFormula(range[0] + i);
+        return formulas;
+    }
+
+    @Override
+    public Set<MolecularFormula> findMolecularFormulasByMass(double mass, double absoluteDeviation) {
+        final long[] encoded = findEncodedFormulasByMass(mass - absoluteDeviation, mass + absoluteDeviation);
+        final HashSet<MolecularFormula> formulas = new HashSet<MolecularFormula>(encoded.length * 2);
+        for (long f : encoded) formulas.add(packer.decode(f));
+        return formulas;
+    }
+
+    @Override
+    public Set<MolecularFormula> findMolecularFormulasByMass(double mass, Deviation allowedDeviation) {
+        return findMolecularFormulasByMass(mass, allowedDeviation.absoluteFor(mass));
+    }
+
+    /**
+     * @return all formulas which explain the precursor m/z with one of the given ion types, i.e. whose neutral mass
+     * is within the allowed deviation of the neutral precursor mass of an ion type
+     */
+    public Set<MolecularFormula> findMolecularFormulasByPrecursor(double precursorMz, Deviation allowedDeviation, Iterable<PrecursorIonType> ionTypes) {
+        final double delta = allowedDeviation.absoluteFor(precursorMz);
+        final HashSet<MolecularFormula> formulas = new HashSet<MolecularFormula>();
+        for (PrecursorIonType ionType : ionTypes) {
+            final double mass = ionType.precursorMassToNeutralMass(precursorMz);
+            for (long f : findEncodedFormulasByMass(mass - delta, mass + delta)) formulas.add(packer.decode(f));
+        }
+        return formulas;
+    }
+
+    /**
+     * @return the neutral mass of the i-th formula in the database
+     */
+    public double getMass(long index) {
+        final long position = massesOffset + 8 * index;
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getDouble((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+    /**
+     * @return the i-th formula in the database, encoded with the packer of this database
+     */
+    public long getEncodedFormula(long index) {
+        final long position = formulasOffset + 8 * index;
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getLong((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+    public MolecularFormula getFormula(long index) {
+        return packer.decode(getEncodedFormula(index));
+    }
+
+    /*
+     * index of the first formula with a mass not smaller than the given mass. Only the bucket of the mass is searched.
+     */
+    private long lowerBound(double mass) {
+        final double b = Math.floor(mass * bucketsPerDalton) - firstBucket;
+        if (!(b >= 0)) return 0;
+        if (b >= bucketStart.length - 1) return numberOfFormulas;
+        final int bucket = (int) b;
+        long low = bucketStart[bucket], high = bucketStart[bucket + 1];
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            if (getMass(middle) < mass) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of formula database");
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2015 Kai Dührkop
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.bioinf.babelms.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.ChemicalAlphabet;
+import de.unijena.bioinf.ChemistryBase.chem.Element;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PeriodicTable;
+import de.unijena.bioinf.ChemistryBase.chem.utils.FormulaVisitor;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Builds a {@link MappedFormulaDatabase} offline from a formula list. The list is a text file with one molecular
+ * formula per line. Further tab separated columns, empty lines and lines starting with '#' are ignored, as well as
+ * formulas which cannot be parsed or encoded. Alternatively, the formulas can be taken from the molecular formula
+ * property of the records of a SDF file (files ending with .sdf). Charges at the end of the formulas are removed,
+ * so all formulas are stored by their neutral mass.
+ *
+ * The formulas are sorted by an external merge sort: the list is read in chunks which are sorted in memory and
+ * written into temporary files next to the target, which are merged afterwards. Therefore, building the database
+ * needs only memory for one chunk, independent of the size of the list. Duplicate formulas are removed.
+ */
+public class MappedFormulaDatabaseBuilder {
+
+    public final static int DEFAULT_BUCKETS_PER_DALTON = 1;
+    public final static int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    private final File target;
+    private MolecularFormulaPacker packer;
+    private int bucketsPerDalton = DEFAULT_BUCKETS_PER_DALTON;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private long skipped;
+
+    public MappedFormulaDatabaseBuilder(File target) {
+        this.target = target;
+    }
+
+    /**
+     * builds a database from the given formula list
+     */
+    public static void build(File formulaList, File target) throws IOException {
+        new MappedFormulaDatabaseBuilder(target).build(formulaList);
+    }
+
+    /**
+     * @param packer packer which is used to encode the formulas. If not set, a packer for the elements and maximal
+     *               element amounts in the formula list is created, which needs an additional pass over the list.
+     */
+    public MappedFormulaDatabaseBuilder setPacker(MolecularFormulaPacker packer) {
+        this.packer = packer;
+        return this;
+    }
+
+    /**
+     * @param bucketsPerDalton number of mass buckets per Dalton. More buckets need more memory when the database is
+     *                         opened, but make the binary search within a bucket shorter.
+     */
+    public MappedFormulaDatabaseBuilder setBucketsPerDalton(int bucketsPerDalton) {
+        if (bucketsPerDalton <= 0) throw new IllegalArgumentException("number of buckets has to be positive");
+        this.bucketsPerDalton = bucketsPerDalton;
+        return this;
+    }
+
+    /**
+     * @param chunkSize number of formulas which are sorted in memory (16 bytes each)
+     */
+    public MappedFormulaDatabaseBuilder setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunk size has to be positive");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @return the number of formulas of the last build which were ignored because they could not be parsed or
+     * encoded, including SDF records without formula
+     */
+    public long getNumberOfSkippedLines() {
+        return skipped;
+    }
+
+    public void build(File formulaList) throws IOException {
+        skipped = 0;
+        final MolecularFormulaPacker packer = this.packer != null ? this.packer : makePacker(formulaList);
+        final List<File> runs = new ArrayList<File>();
+        try {
+            sortChunks(formulaList, packer, runs);
+            merge(runs, packer);
+        } finally {
+            for (File run : runs) run.delete();
+        }
+        if (skipped > 0)
+            LoggerFactory.getLogger(MappedFormulaDatabaseBuilder.class).warn(skipped + " formulas in " + formulaList.getName() + " could not be parsed or encoded and are ignored.");
+    }
+
+    /*
+     * first pass: a packer for the maximal amount of each element
+     */
+    private static MolecularFormulaPacker makePacker(File formulaList) throws IOException {
+        final TIntIntHashMap maxima = new TIntIntHashMap(18);
+        try (final FormulaListReader reader = new FormulaListReader(formulaList)) {
+            String value;
+            while ((value = reader.next()) != null) {
+                final MolecularFormula formula = parse(value);
+                if (formula == null) continue;
+                formula.visit(new FormulaVisitor<Object>() {
+                    @Override
+                    public Object visit(Element element, int amount) {
+                        if (amount > maxima.get(element.getId())) maxima.put(element.getId(), amount);
+                        return null;
+                    }
+                });
+            }
+        }
+        if (maxima.size() == 0) return MolecularFormulaPacker.newPacker(new ChemicalAlphabet());
+        final PeriodicTable table = PeriodicTable.getInstance();
+        final int[] ids = maxima.keys();
+        final Element[] elements = new Element[ids.length];
+        for (int i = 0; i < ids.length; ++i) elements[i] = table.get(ids[i]);
+        final ChemicalAlphabet alphabet = new ChemicalAlphabet(elements);
+        final int[] upperbounds = new int[alphabet.size()];
+        for (int i = 0; i < upperbounds.length; ++i) upperbounds[i] = maxima.get(alphabet.get(i).getId());
+        return MolecularFormulaPacker.newPacker(alphabet, upperbounds);
+    }
+
+    /*
+     * second pass: sort chunks of the formula list by mass and write them into temporary files
+     */
+    private void sortChunks(File formulaList, MolecularFormulaPacker packer, List<File> runs) throws IOException {
+        final double[] masses = new double[chunkSize];
+        final long[] formulas = new long[chunkSize];
+        int n = 0;
+        try (final FormulaListReader reader = new FormulaListReader(formulaList)) {
+            String value;
+            while ((value = reader.next()) != null) {
+                final MolecularFormula formula = parse(value);
+                if (formula == null) {
+                    ++skipped;
+                    continue;
+                }
+                final long encoded = packer.tryEncode(formula);
+                if (encoded <= 0) {
+                    ++skipped;
+                    continue;
+                }
+                masses[n] = packer.getMass(encoded);
+                formulas[n] = encoded;
+                if (++n == chunkSize) {
+                    runs.add(writeRun(masses, formulas, n));
+                    n = 0;
+                }
+            }
+            skipped += reader.missing;
+        }
+        if (n > 0 || runs.isEmpty()) runs.add(writeRun(masses, formulas, n));
+    }
+
+    private File writeRun(double[] masses, long[] formulas, int n) throws IOException {
+        sort(masses, formulas, 0, n);
+        final File run = File.createTempFile("formulas", ".run", target.getAbsoluteFile().getParentFile());
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+            for (int i = 0; i < n; ++i) {
+                out.writeDouble(masses[i]);
+                out.writeLong(formulas[i]);
+            }
+        }
+        return run;
+    }
+
+    /*
+     * last pass: merge the sorted runs into the database. The masses are written directly into the target, the
+     * formulas into a temporary file which is appended afterwards.
+     */
+    private void merge(List<File> runs, MolecularFormulaPacker packer) throws IOException {
+        final byte[] packerBytes;
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeUTF(packer.serializeToString());
+            packerBytes = bytes.toByteArray();
+        }
+        final long massesOffset = align(MappedFormulaDatabase.HEADER_SIZE + packerBytes.length);
+        final File formulaFile = File.createTempFile("formulas", ".packed", target.getAbsoluteFile().getParentFile());
+        final TLongArrayList bucketStart = new TLongArrayList();
+        long numberOfFormulas = 0;
+        int firstBucket = 0;
+        final PriorityQueue<Run> queue = new PriorityQueue<Run>(Math.max(1, runs.size()));
+        try {
+            try (final DataOutputStream massOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), 1 << 16));
+                 final DataOutputStream formulaOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(formulaFile), 1 << 16))) {
+                massOut.write(new byte[MappedFormulaDatabase.HEADER_SIZE]);
+                massOut.write(packerBytes);
+                massOut.write(new byte[(int) (massesOffset - MappedFormulaDatabase.HEADER_SIZE - packerBytes.length)]);
+                for (File file : runs) {
+                    final Run run = new Run(file);
+                    if (run.next()) queue.add(run);
+                    else run.close();
+                }
+                double previousMass = Double.NaN;
+                long previousFormula = 0;
+                while (!queue.isEmpty()) {
+                    final Run run = queue.poll();
+                    final double mass = run.mass;
+                    final long formula = run.formula;
+                    if (run.next()) queue.add(run);
+                    else run.close();
+                    if (mass == previousMass && formula == previousFormula) continue;
+                    final int bucket = (int) Math.floor(mass * bucketsPerDalton);
+                    if (bucketStart.size() == 0) firstBucket = bucket;
+                    while (bucketStart.size() <= bucket - firstBucket) bucketStart.add(numberOfFormulas);
+                    massOut.writeDouble(mass);
+                    formulaOut.writeLong(formula);
+                    ++numberOfFormulas;
+                    previousMass = mass;
+                    previousFormula = formula;
+                }
+                bucketStart.add(numberOfFormulas);
+                formulaOut.close();
+                try (final InputStream in = new FileInputStream(formulaFile)) {
+                    final byte[] buffer = new byte[1 << 16];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) massOut.write(buffer, 0, read);
+                }
+                for (int i = 0; i < bucketStart.size(); ++i) massOut.writeLong(bucketStart.get(i));
+            }
+        } finally {
+            for (Run run : queue) run.close();
+            formulaFile.delete();
+        }
+        try (final RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+            raf.writeInt(MappedFormulaDatabase.MAGIC);
+            raf.writeInt(MappedFormulaDatabase.VERSION);
+            raf.writeInt(bucketsPerDalton);
+            raf.writeInt(firstBucket);
+            raf.writeInt(bucketStart.size() - 1);
+            raf.writeLong(numberOfFormulas);
+            raf.writeLong(MappedFormulaDatabase.HEADER_SIZE);
+            raf.writeLong(massesOffset);
+            raf.writeLong(massesOffset + 8 * numberOfFormulas);
+            raf.writeLong(massesOffset + 16 * numberOfFormulas);
+        }
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private final static Pattern CHARGE = Pattern.compile("[+-]+\\d*$");
+
+    private static MolecularFormula parse(String value) {
+        try {
+            final MolecularFormula formula = MolecularFormula.parse(CHARGE.matcher(value).replaceFirst(""));
+            return formula.atomCount() > 0 ? formula : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /*
+     * returns the formulas of a text or SDF file and counts the SDF records without formula
+     */
+    private static class FormulaListReader implements Closeable {
+        private final static Pattern SDF_FORMULA_TAG = Pattern.compile(">.*<(PUBCHEM_MOLECULAR_FORMULA|MOLECULAR_FORMULA|FORMULA)>.*", Pattern.CASE_INSENSITIVE);
+        private final BufferedReader reader;
+        private final boolean sdf;
+        private boolean recordHasFormula;
+        private long missing;
+
+        private FormulaListReader(File file) throws IOException {
+            this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+            this.sdf = file.getName().toLowerCase().endsWith(".sdf");
+        }
+
+        private String next() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (sdf) {
+                    if (line.startsWith("$$$$")) {
+                        if (!recordHasFormula) ++missing;
+                        recordHasFormula = false;
+                    } else if (SDF_FORMULA_TAG.matcher(line).matches()) {
+                        final String value = reader.readLine();
+                        if (value != null && !value.trim().isEmpty()) {
+                            recordHasFormula = true;
+                            return value.trim();
+                        }
+                    }
+                } else {
+                    final String trimmed = line.trim();
+                    if (trimmed.isEmpty() || trimmed.charAt(0) == '#') continue;
+                    final int tab = trimmed.indexOf('\t');
+                    return tab >= 0 ? trimmed.substring(0, tab).trim() : trimmed;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /*
+     * sorts the formulas by mass and encoding
+     */
+    private static void sort(double[] masses, long[] formulas, int from, int to) {
+        while (to - from > 16) {
+            final int middle = (from + to) >>> 1;
+            if (compare(masses, formulas, middle, from) < 0) swap(masses, formulas, middle, from);
+            if (compare(masses, formulas, to - 1, from) < 0) swap(masses, formulas, to - 1, from);
+            if (compare(masses, formulas, to - 1, middle) < 0) swap(masses, formulas, to - 1, middle);
+            final double pivotMass = masses[middle];
+            final long pivotFormula = formulas[middle];
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (compare(masses[i], formulas[i], pivotMass, pivotFormula) < 0) ++i;
+                while (compare(masses[j], formulas[j], pivotMass, pivotFormula) > 0) --j;
+                if (i <= j) swap(masses, formulas, i++, j--);
+            }
+            // recurse into the smaller part to bound the stack depth
+            if (j - from < to - i) {
+                sort(masses, formulas, from, j + 1);
+                from = i;
+            } else {
+                sort(masses, formulas, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; ++i) {
+            for (int j = i; j > from && compare(masses, formulas, j, j - 1) < 0; --j) swap(masses, formulas, j, j - 1);
+        }
+    }
+
+    private static int compare(double[] masses, long[] formulas, int i, int j) {
+        return compare(masses[i], formulas[i], masses[j], formulas[j]);
+    }
+
+    private static int compare(double massA, long formulaA, double massB, long formulaB) {
+        final int c = Double.compare(massA, massB);
+        return c != 0 ? c : Long.compare(formulaA, formulaB);
+    }
+
+    private static void swap(double[] masses, long[] formulas, int i, int j) {
+        final double m = masses[i];
+        masses[i] = masses[j];
+        masses[j] = m;
+        final long f = formulas[i];
+        formulas[i] = formulas[j];
+        formulas[j] = f;
+    }
+
+    private static class Run implements Comparable<Run>, Closeable {
+        private final DataInputStream in;
+        private double mass;
+        private long formula;
+
+        private Run(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        private boolean next() throws IOException {
+            try {
+                mass = in.readDouble();
+            } catch (EOFException e) {
+                return false;
+            }
+            formula = in.readLong();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Run o) {
+            return compare(mass, formula, o.mass, o.formula);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
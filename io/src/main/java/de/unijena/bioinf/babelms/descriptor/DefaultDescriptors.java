@@ -294,7 +294,8 @@ class DefaultDescriptors {
 
 
             for (String key : document.keySetOfDictionary(score)) {
-                if (key.equals("total") || key.equals("root") || key.equals("recalibrationBonus") || key.equals("beautificationPenalty") || key.equals("tree")) continue;
+                // scores which are written by this descriptor itself are no additional scores
+                if (key.equals("total") || key.equals("root") || key.equals("recalibrationBonus") || key.equals("recalibrationPenalty") || key.equals("beautificationPenalty") || key.equals("tree") || key.equals("isotope")) continue;
                 final double addScore = document.getDoubleFromDictionary(score, key);
                 scoring.addAdditionalScore(key, addScore);
                 scoring.setOverallScore(scoring.getOverallScore()-addScore);
@@ -18,10 +18,12 @@
 package de.unijena.bioinf.babelms.json;
 
 import com.google.common.collect.HashMultimap;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.ms.ft.*;
 import de.unijena.bioinf.babelms.Parser;
@@ -29,7 +31,9 @@ import de.unijena.bioinf.babelms.descriptor.Descriptor;
 import de.unijena.bioinf.babelms.descriptor.DescriptorRegistry;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URL;
 import java.util.*;
 
@@ -45,39 +49,76 @@ public class FTJsonReader implements Parser<FTree> {
     }
 
     public FTree parse(BufferedReader reader, URL source) throws IOException {
-        final StringBuilder buffer = new StringBuilder(1024);
-        String line = null;
-        while ((line = reader.readLine()) != null) {
-            buffer.append(line).append('\n');
+        final JsonReader json = new JsonReader(reader);
+        json.setLenient(true);
+        try {
+            if (json.peek() == JsonToken.END_DOCUMENT) return null;
+        } catch (EOFException e) {
+            // empty document
+            return null;
         }
-        if (buffer.length() == 0) return null;
-        return treeFromJsonString(buffer.toString(), source);
+        return readTree(json, source);
     }
 
     public FTree treeFromJsonString(String jsonString, URL source) {
+        try {
+            final JsonReader json = new JsonReader(new StringReader(jsonString));
+            json.setLenient(true);
+            return readTree(json, source);
+        } catch (IOException e) {
+            throw new JsonParseException(e);
+        }
+    }
+
+    /**
+     * Reads a tree in a single pass over the document. Only the json object of a single fragment or loss is
+     * kept in memory at once: it is passed to the descriptors and replaced by the decoded annotations.
+     */
+    protected FTree readTree(JsonReader json, URL source) throws IOException {
         final DescriptorRegistry registry = DescriptorRegistry.getInstance();
         final JSONDocumentType JSONdoc = new JSONDocumentType();
-        final JsonParser r = new JsonParser();
-        final JsonObject json = r.parse(jsonString).getAsJsonObject();
-        final FTree tree = new FTree(MolecularFormula.parse(json.get("root").getAsString()));
-        final JsonArray fragments = json.getAsJsonArray("fragments");
-        final HashMap<MolecularFormula, JsonObject> fragmentMap = new HashMap<>(fragments.size());
-        for (int k = 0; k < fragments.size(); ++k) {
-            final JsonObject fragment = fragments.get(k).getAsJsonObject();
-            final MolecularFormula vertex = MolecularFormula.parse(fragment.get("molecularFormula").getAsString());
-            fragmentMap.put(vertex, fragment);
-        }
+        final JsonParser parser = new JsonParser();
 
-        final HashMap<MolecularFormula, JsonObject> incomingLossMap = new HashMap<>();
+        MolecularFormula root = null;
+        JsonObject treeAnnotations = null;
+        final HashMap<MolecularFormula, Map<Class<Object>, Object>> fragmentMap = new HashMap<>();
+        final HashMap<MolecularFormula, IncomingLoss> incomingLossMap = new HashMap<>();
         final HashMultimap<MolecularFormula, MolecularFormula> edges = HashMultimap.create();
-        final JsonArray losses = json.get("losses").getAsJsonArray();
-        for (int k = 0; k < losses.size(); ++k) {
-            final JsonObject loss = losses.get(k).getAsJsonObject();
-            final MolecularFormula a = MolecularFormula.parse(loss.get("source").getAsString()),
-                    b = MolecularFormula.parse(loss.get("target").getAsString());
-            edges.put(a, b);
-            incomingLossMap.put(b, loss);
+
+        json.beginObject();
+        while (json.hasNext()) {
+            final String name = json.nextName();
+            if (name.equals("root")) {
+                root = MolecularFormula.parse(json.nextString());
+            } else if (name.equals("annotations")) {
+                treeAnnotations = parser.parse(json).getAsJsonObject();
+            } else if (name.equals("fragments")) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    final JsonObject fragment = parser.parse(json).getAsJsonObject();
+                    final MolecularFormula vertex = MolecularFormula.parse(fragment.get("molecularFormula").getAsString());
+                    fragmentMap.put(vertex, readAnnotations(registry, JSONdoc, Fragment.class, fragment));
+                }
+                json.endArray();
+            } else if (name.equals("losses")) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    final JsonObject loss = parser.parse(json).getAsJsonObject();
+                    final MolecularFormula a = MolecularFormula.parse(loss.get("source").getAsString()),
+                            b = MolecularFormula.parse(loss.get("target").getAsString());
+                    edges.put(a, b);
+                    incomingLossMap.put(b, new IncomingLoss(loss.has("score") ? loss.get("score").getAsDouble() : null,
+                            readAnnotations(registry, JSONdoc, Loss.class, loss)));
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
         }
+        json.endObject();
+
+        if (root == null) throw new JsonParseException("Tree has no root");
+        final FTree tree = new FTree(root);
         final ArrayDeque<Fragment> stack = new ArrayDeque<Fragment>();
         stack.push(tree.getRoot());
         while (!stack.isEmpty()) {
@@ -85,46 +126,28 @@ public class FTJsonReader implements Parser<FTree> {
             for (MolecularFormula child : edges.get(u.getFormula())) {
                 final Fragment v = tree.addFragment(u, child);
                 stack.push(v);
-                if (incomingLossMap.get(child).has("score"))
-                    v.getIncomingEdge().setWeight(incomingLossMap.get(child).get("score").getAsDouble());
+                if (incomingLossMap.get(child).score != null)
+                    v.getIncomingEdge().setWeight(incomingLossMap.get(child).score);
             }
         }
 
-        {
-            final JsonObject treeAnnotations = json.get("annotations").getAsJsonObject();
-            final String[] keywords = getKeyArray(treeAnnotations);
-            final Descriptor[] descriptors = registry.getByKeywords(FTree.class, keywords);
-            for (Descriptor<Object> descriptor : descriptors) {
-                final Object annotation = descriptor.read(JSONdoc, treeAnnotations);
-                if (annotation != null) {
-                    tree.addAnnotation(descriptor.getAnnotationClass(), annotation);
-                }
+        if (treeAnnotations != null) {
+            for (Map.Entry<Class<Object>, Object> entry : readAnnotations(registry, JSONdoc, FTree.class, treeAnnotations).entrySet()) {
+                tree.addAnnotation(entry.getKey(), entry.getValue());
             }
         }
 
         for (Fragment f : tree.getFragments()) {
-            final JsonObject jsonfragment = fragmentMap.get(f.getFormula());
-            final String[] keywords = getKeyArray(jsonfragment);
-            final Descriptor[] descriptors = registry.getByKeywords(Fragment.class, keywords);
-            for (Descriptor<Object> descriptor : descriptors) {
-                final Object annotation = descriptor.read(JSONdoc, jsonfragment);
-                if (annotation != null) {
-                    FragmentAnnotation<Object> fano = tree.getOrCreateFragmentAnnotation(descriptor.getAnnotationClass());
-                    fano.set(f, annotation);
-                }
+            for (Map.Entry<Class<Object>, Object> entry : fragmentMap.get(f.getFormula()).entrySet()) {
+                FragmentAnnotation<Object> fano = tree.getOrCreateFragmentAnnotation(entry.getKey());
+                fano.set(f, entry.getValue());
             }
         }
 
         for (Loss l : tree.losses()) {
-            final JsonObject jsonloss = incomingLossMap.get(l.getTarget().getFormula());
-            final String[] keywords = getKeyArray(jsonloss);
-            final Descriptor[] descriptors = registry.getByKeywords(Loss.class, keywords);
-            for (Descriptor<Object> descriptor : descriptors) {
-                final Object annotation = descriptor.read(JSONdoc, jsonloss);
-                if (annotation != null) {
-                    LossAnnotation<Object> lano = tree.getOrCreateLossAnnotation(descriptor.getAnnotationClass());
-                    lano.set(l, annotation);
-                }
+            for (Map.Entry<Class<Object>, Object> entry : incomingLossMap.get(l.getTarget().getFormula()).annotations.entrySet()) {
+                LossAnnotation<Object> lano = tree.getOrCreateLossAnnotation(entry.getKey());
+                lano.set(l, entry.getValue());
             }
         }
 
@@ -132,6 +155,32 @@ public class FTJsonReader implements Parser<FTree> {
         return tree;
     }
 
+    /*
+     * decodes all annotations of the given json object in the order of the descriptors
+     */
+    private static Map<Class<Object>, Object> readAnnotations(DescriptorRegistry registry, JSONDocumentType JSONdoc, Class<?> type, JsonObject json) {
+        final String[] keywords = getKeyArray(json);
+        final Descriptor[] descriptors = registry.getByKeywords(type, keywords);
+        final Map<Class<Object>, Object> annotations = new LinkedHashMap<>(descriptors.length);
+        for (Descriptor<Object> descriptor : descriptors) {
+            final Object annotation = descriptor.read(JSONdoc, json);
+            if (annotation != null) {
+                annotations.put(descriptor.getAnnotationClass(), annotation);
+            }
+        }
+        return annotations;
+    }
+
+    private static class IncomingLoss {
+        private final Double score;
+        private final Map<Class<Object>, Object> annotations;
+
+        private IncomingLoss(Double score, Map<Class<Object>, Object> annotations) {
+            this.score = score;
+            this.annotations = annotations;
+        }
+    }
+
     public static String[] getKeyArray(JsonObject object) {
         final Set<Map.Entry<String, JsonElement>> entrySet = object.entrySet();
         final String[] a = new String[entrySet.size()];
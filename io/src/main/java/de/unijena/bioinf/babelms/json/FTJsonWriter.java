@@ -21,6 +21,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
 import de.unijena.bioinf.ChemistryBase.ms.ft.*;
@@ -30,6 +31,7 @@ import de.unijena.bioinf.babelms.descriptor.DescriptorRegistry;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -41,13 +43,55 @@ public class FTJsonWriter {
 
     private DescriptorRegistry registry = DescriptorRegistry.getInstance();
 
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
     public String treeToJsonString(FTree tree) {
-        final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        return gson.toJson(tree2json(tree));
+        final StringWriter writer = new StringWriter();
+        try {
+            writeTree(writer, tree);
+        } catch (IOException e) {
+            // cannot happen with a StringWriter
+            throw new RuntimeException(e);
+        }
+        return writer.toString();
     }
 
+    /**
+     * Writes the tree in a single pass: only the json object of a single fragment or loss is built in memory
+     * at once. The output is identical to serializing {@link #tree2json(FTree)} with a pretty printing {@link Gson}.
+     */
     public void writeTree(Writer writer, FTree tree) throws IOException {
-        writer.write(treeToJsonString(tree));
+        // use the same settings as Gson.toJson(JsonElement, Appendable) with pretty printing
+        final JsonWriter out = new JsonWriter(writer);
+        out.setIndent("  ");
+        out.setLenient(true);
+        out.setHtmlSafe(true);
+        out.setSerializeNulls(false);
+        final JSONDocumentType JSON = new JSONDocumentType();
+        out.beginObject();
+        writeHeader(out, tree);
+
+        out.name("annotations");
+        gson.toJson(treeAnnotations(JSON, tree), out);
+
+        out.name("fragments");
+        out.beginArray();
+        final List<FragmentAnnotation<Object>> fragmentAnnotations = tree.getFragmentAnnotations();
+        for (Fragment f : tree.getFragments()) {
+            gson.toJson(fragment2json(JSON, fragmentAnnotations, f), out);
+        }
+        out.endArray();
+
+        out.name("losses");
+        out.beginArray();
+        final List<LossAnnotation<Object>> lossAnnotations = tree.getLossAnnotations();
+        for (Loss l : tree.losses()) {
+            gson.toJson(loss2json(JSON, lossAnnotations, l), out);
+        }
+        out.endArray();
+
+        out.endObject();
+        out.flush();
     }
 
     public void writeTreeToFile(File f, FTree tree) throws IOException {
@@ -56,6 +100,21 @@ public class FTJsonWriter {
         }
     }
 
+    private void writeHeader(JsonWriter out, FTree tree) throws IOException {
+        final PrecursorIonType generalIonType = tree.getAnnotationOrNull(PrecursorIonType.class);
+        final FragmentAnnotation<PrecursorIonType> ionPerFragment = tree.getFragmentAnnotationOrNull(PrecursorIonType.class);
+        final String formula = tree.getRoot().getFormula().toString();
+        out.name("molecularFormula");
+        if (generalIonType!=null) {
+            final PrecursorIonType fragmentIon = getFragmentIon(ionPerFragment, tree.getRoot(), generalIonType);
+            out.value(fragmentIon.measuredNeutralMoleculeToNeutralMolecule(tree.getRoot().getFormula()).toString());
+        } else {
+            out.value(formula);
+        }
+        out.name("root");
+        out.value(formula);
+    }
+
     protected JsonObject tree2json(FTree tree){
         final JSONDocumentType JSON = new JSONDocumentType();
         final JsonObject j = new JsonObject();
@@ -73,34 +132,14 @@ public class FTJsonWriter {
             j.addProperty("root", f);
         }
 
-        final JsonObject ano = new JsonObject();
-        j.add("annotations", ano);
-
-        for (Map.Entry<Class<Object>, Object> anot : tree.getAnnotations().entrySet()) {
-            Descriptor<Object> d = registry.get(FTree.class, anot.getKey());
-            if (d != null) {
-                d.write(JSON, ano, anot.getValue());
-            } else {
-                hardCodedAnnotations(JSON, ano, tree);
-            }
-        }
+        j.add("annotations", treeAnnotations(JSON, tree));
 
         final JsonArray fragmentList = new JsonArray();
         j.add("fragments", fragmentList);
 
         final List<FragmentAnnotation<Object>> fragmentAnnotations = tree.getFragmentAnnotations();
         for (Fragment f : tree.getFragments()) {
-            final JsonObject fragment = new JsonObject();
-            fragmentList.add(fragment);
-            fragment.addProperty("id", f.getVertexId());
-            fragment.addProperty("molecularFormula", f.getFormula().toString());
-            for (FragmentAnnotation<Object> fano : fragmentAnnotations) {
-                if (fano.get(f)!=null) {
-                    Descriptor<Object> d = registry.get(Fragment.class, fano.getAnnotationType());
-                    if (d != null)
-                        d.write(JSON, fragment, fano.get(f));
-                }
-            }
+            fragmentList.add(fragment2json(JSON, fragmentAnnotations, f));
         }
 
         final JsonArray lossList = new JsonArray();
@@ -108,23 +147,54 @@ public class FTJsonWriter {
 
         final List<LossAnnotation<Object>> lossAnnotations = tree.getLossAnnotations();
         for (Loss l : tree.losses()) {
-            final JsonObject loss = new JsonObject();
-            lossList.add(loss);
-            loss.addProperty("source", l.getSource().getFormula().toString());
-            loss.addProperty("target", l.getTarget().getFormula().toString());
-            loss.addProperty("molecularFormula", l.getFormula().toString());
-            for (LossAnnotation<Object> lano : lossAnnotations) {
-                if (lano.get(l)!=null) {
-                    Descriptor<Object> d = registry.get(Loss.class, lano.getAnnotationType());
-                    if (d != null)
-                        d.write(JSON, loss, lano.get(l));
-                }
-            }
+            lossList.add(loss2json(JSON, lossAnnotations, l));
         }
 
         return j;
     }
 
+    private JsonObject treeAnnotations(JSONDocumentType JSON, FTree tree) {
+        final JsonObject ano = new JsonObject();
+        for (Map.Entry<Class<Object>, Object> anot : tree.getAnnotations().entrySet()) {
+            Descriptor<Object> d = registry.get(FTree.class, anot.getKey());
+            if (d != null) {
+                d.write(JSON, ano, anot.getValue());
+            } else {
+                hardCodedAnnotations(JSON, ano, tree);
+            }
+        }
+        return ano;
+    }
+
+    private JsonObject fragment2json(JSONDocumentType JSON, List<FragmentAnnotation<Object>> fragmentAnnotations, Fragment f) {
+        final JsonObject fragment = new JsonObject();
+        fragment.addProperty("id", f.getVertexId());
+        fragment.addProperty("molecularFormula", f.getFormula().toString());
+        for (FragmentAnnotation<Object> fano : fragmentAnnotations) {
+            if (fano.get(f)!=null) {
+                Descriptor<Object> d = registry.get(Fragment.class, fano.getAnnotationType());
+                if (d != null)
+                    d.write(JSON, fragment, fano.get(f));
+            }
+        }
+        return fragment;
+    }
+
+    private JsonObject loss2json(JSONDocumentType JSON, List<LossAnnotation<Object>> lossAnnotations, Loss l) {
+        final JsonObject loss = new JsonObject();
+        loss.addProperty("source", l.getSource().getFormula().toString());
+        loss.addProperty("target", l.getTarget().getFormula().toString());
+        loss.addProperty("molecularFormula", l.getFormula().toString());
+        for (LossAnnotation<Object> lano : lossAnnotations) {
+            if (lano.get(l)!=null) {
+                Descriptor<Object> d = registry.get(Loss.class, lano.getAnnotationType());
+                if (d != null)
+                    d.write(JSON, loss, lano.get(l));
+            }
+        }
+        return loss;
+    }
+
     private void hardCodedAnnotations(JSONDocumentType json, JsonObject ano, FTree tree) {
     }
 
@@ -22,8 +22,10 @@ import de.unijena.bioinf.ChemistryBase.exceptions.MultipleChargeException;
 import de.unijena.bioinf.ChemistryBase.ms.*;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 import de.unijena.bioinf.ChemistryBase.sirius.projectspace.Index;
+import de.unijena.bioinf.babelms.MappedFileParser;
 import de.unijena.bioinf.babelms.Parser;
 import de.unijena.bioinf.babelms.SpectralParser;
+import de.unijena.bioinf.babelms.utils.LineCursor;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
@@ -33,7 +35,7 @@ import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class MgfParser extends SpectralParser implements Parser<Ms2Experiment> {
+public class MgfParser extends SpectralParser implements Parser<Ms2Experiment>, MappedFileParser {
 
     private static enum SpecType {
         UNKNOWN, MS1, MSMS, CORRELATED;
@@ -73,11 +75,14 @@ public class MgfParser extends SpectralParser implements Parser<Ms2Experiment> {
         private final MgfSpec prototype;
         private final ArrayDeque<MgfSpec> buffer;
         private final BufferedReader reader;
+        private final LineCursor lines;
+        private final double[] peak = new double[2];
         private int specIndex = 0;
         protected boolean ignoreUnsupportedIonTypes;
 
         public MgfParserInstance(BufferedReader reader) {
             this.reader = reader;
+            this.lines = LineCursor.forReader(reader);
             this.prototype = new MgfSpec();
             this.prototype.spectrum = new MutableMs2Spectrum();
             this.buffer = new ArrayDeque<MgfSpec>();
@@ -200,24 +205,30 @@ public class MgfParser extends SpectralParser implements Parser<Ms2Experiment> {
             String line;
             boolean reading = false;
             MgfSpec spec = null;
-            while ((line = reader.readLine()) != null) {
+            while (lines.nextLine()) {
                 try {
-                    if (line.isEmpty()) continue;
-                    if (!reading && line.startsWith("BEGIN IONS")) {
+                    if (lines.isEmptyLine()) continue;
+                    if (!reading && lines.lineStartsWith("BEGIN IONS")) {
                         spec = new MgfSpec(prototype);
                         reading = true;
-                    } else if (reading && line.startsWith("END IONS")) {
+                    } else if (reading && lines.lineStartsWith("END IONS")) {
                         lastErrorFeatureId = null;
                         return spec;
                     } else if (reading) {
-                        if (Character.isDigit(line.charAt(0))) {
-                            final String[] parts = line.split("\\s+");
-                            spec.spectrum.addPeak(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]));
+                        if (Character.isDigit(lines.firstChar())) {
+                            if (lines.parsePeak(peak)) {
+                                spec.spectrum.addPeak(peak[0], peak[1]);
+                            } else {
+                                final String[] parts = lines.line().split("\\s+");
+                                spec.spectrum.addPeak(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]));
+                            }
                         } else {
+                            line = lines.line();
                             final int i = line.indexOf('=');
                             if (i >= 0) handleKeyword(spec, line.substring(0, i), line.substring(i + 1));
                         }
                     } else {
+                        line = lines.line();
                         final int i = line.indexOf('=');
                         if (i >= 0) handleKeyword(prototype, line.substring(0, i), line.substring(i + 1));
                     }
@@ -237,15 +248,16 @@ public class MgfParser extends SpectralParser implements Parser<Ms2Experiment> {
                     }
 
                     if (reading) {
-                        while ((line = reader.readLine()) != null) {
-                            if (line.startsWith("END IONS")) {
+                        while (lines.nextLine()) {
+                            if (lines.lineStartsWith("END IONS")) {
                                 reading = false;
                                 break;
-                            } else if (line.startsWith("BEGIN IONS")) {
+                            } else if (lines.lineStartsWith("BEGIN IONS")) {
                                 reading = true;
                                 spec = new MgfSpec(prototype);
                                 break;
-                            } else if (!increasedIndex && line.toUpperCase().startsWith("FEATURE_ID")) {
+                            } else if (!increasedIndex && !lines.isEmptyLine() && !Character.isDigit(lines.firstChar()) && lines.line().toUpperCase().startsWith("FEATURE_ID")) {
+                                line = lines.line();
                                 final int i = line.indexOf('=');
                                 String id = line.substring(i + 1).trim();
                                 if (id.length() > 0 && !id.equals(lastErrorFeatureId)) {
@@ -22,7 +22,9 @@ import de.unijena.bioinf.ChemistryBase.ms.*;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleMutableSpectrum;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 import de.unijena.bioinf.ChemistryBase.sirius.projectspace.Index;
+import de.unijena.bioinf.babelms.MappedFileParser;
 import de.unijena.bioinf.babelms.Parser;
+import de.unijena.bioinf.babelms.utils.LineCursor;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
@@ -34,7 +36,7 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class JenaMsParser implements Parser<Ms2Experiment> {
+public class JenaMsParser implements Parser<Ms2Experiment>, MappedFileParser {
 
     // quickn dirty hack
     BufferedReader lastReader = null;
@@ -69,12 +71,15 @@ public class JenaMsParser implements Parser<Ms2Experiment> {
         private ParserInstance(URL source, BufferedReader reader) {
             this.source = source;
             this.reader = reader;
+            this.lines = LineCursor.forReader(reader);
             lineNumber = 0;
             this.currentSpectrum = new SimpleMutableSpectrum();
         }
 
         private URL source;
         private final BufferedReader reader;
+        private final LineCursor lines;
+        private final double[] peak = new double[2];
         private int lineNumber;
         private String compoundName = null;
         private MolecularFormula formula;
@@ -115,21 +120,23 @@ public class JenaMsParser implements Parser<Ms2Experiment> {
 
         private MutableMs2Experiment parse() throws IOException {
             String line;
-            while ((line = reader.readLine()) != null) {
+            while (lines.nextLine()) {
                 try {
                     ++lineNumber;
-                    if (line.isEmpty()) {
+                    if (lines.isEmptyLine()) {
                         parseEmptyLine();
                     } else {
-                        final char firstCharacter = line.charAt(0);
+                        final char firstCharacter = lines.firstChar();
                         if (firstCharacter == '>') {
-                            if (parseOption(line))
+                            if (parseOption(lines.line()))
                                 return experiment;
                         } else if (firstCharacter == '#') {
-                            parseComment(line);
+                            parseComment(lines.line());
                         } else if (Character.isDigit(firstCharacter)) {
-                            parsePeak(line);
+                            if (lines.parsePeak(peak)) currentSpectrum.addPeak(new Peak(peak[0], peak[1]));
+                            else parsePeak(lines.line());
                         } else {
+                            line = lines.line();
                             final Matcher m = LINE_PATTERN.matcher(line);
                             if (m.find()) {
                                 final char token = m.group(1).charAt(0);
@@ -0,0 +1,266 @@
+package de.unijena.bioinf.babelms.utils;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JobManager;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads a text file in chunks which are scanned concurrently on the CPU threads of the {@link JobManager}.
+ * A chunk is a byte range of the file which starts and ends at a line boundary. For each chunk a job maps the
+ * byte range, finds the line boundaries and parses all peak lines (see {@link LineCursor#parsePeak(double[])}).
+ * The lines are then handed over to the parser in their original order, so a parser reading from this cursor
+ * gives exactly the same result as reading the file sequentially. Parsing the records themselves stays
+ * sequential, as the parser state might cross record boundaries (e.g. global parameters in MGF files).
+ *
+ * At most maxChunksInFlight chunks are scanned ahead of the parser, so memory is bounded by the chunk size,
+ * independent of the size of the file.
+ */
+public class ChunkedFileReader extends LineCursorReader {
+
+    public final static int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final Charset charset;
+    private final int chunkSize, maxChunksInFlight;
+    private final JobManager jobManager;
+    private final ArrayDeque<ChunkJJob> chunksInFlight;
+    private long nextChunkStart;
+    private boolean closed;
+
+    private LineChunk chunk;
+    private int line;
+
+    /**
+     * opens a chunked reader for the given file. Small files and files in a non ASCII compatible encoding are
+     * opened by {@link MappedFileReader#open(File)} instead.
+     */
+    public static BufferedReader open(File file) throws IOException {
+        if (file.length() >= 2L * DEFAULT_CHUNK_SIZE && LineScanner.isAsciiCompatible(Charset.defaultCharset()))
+            return new ChunkedFileReader(file, Charset.defaultCharset());
+        else return MappedFileReader.open(file);
+    }
+
+    public ChunkedFileReader(File file, Charset charset) throws IOException {
+        this(file, charset, DEFAULT_CHUNK_SIZE, 2 * SiriusJobs.getGlobalJobManager().getCPUThreads());
+    }
+
+    public ChunkedFileReader(File file, Charset charset, int chunkSize, int maxChunksInFlight) throws IOException {
+        if (chunkSize <= 0 || maxChunksInFlight <= 0)
+            throw new IllegalArgumentException("chunk size and number of chunks have to be positive");
+        this.charset = charset;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.jobManager = SiriusJobs.getGlobalJobManager();
+        this.chunksInFlight = new ArrayDeque<>(maxChunksInFlight);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.nextChunkStart = 0;
+        submitChunks();
+    }
+
+    private void submitChunks() {
+        while (chunksInFlight.size() < maxChunksInFlight && nextChunkStart < fileSize) {
+            final long end = Math.min(fileSize, nextChunkStart + chunkSize);
+            chunksInFlight.add(jobManager.submitJob(new ChunkJJob(nextChunkStart, end)));
+            nextChunkStart = end;
+        }
+    }
+
+    private LineChunk takeChunk() throws IOException {
+        final ChunkJJob job = chunksInFlight.poll();
+        if (job == null) return null;
+        submitChunks();
+        if (job.claim()) {
+            // the job did not start yet, so the chunk is scanned by the calling thread. This also prevents
+            // a deadlock if the parser itself occupies all CPU threads
+            job.cancel(false);
+            return job.scan();
+        }
+        try {
+            return job.awaitResult();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public boolean nextLine() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        if (chunk != null && line + 1 < chunk.numberOfLines) {
+            ++line;
+            return true;
+        }
+        while (true) {
+            chunk = takeChunk();
+            if (chunk == null) return false;
+            if (chunk.numberOfLines > 0) {
+                line = 0;
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmptyLine() {
+        return chunk.starts[line] == chunk.ends[line];
+    }
+
+    @Override
+    public boolean lineStartsWith(String prefix) {
+        final int start = chunk.starts[line];
+        if (chunk.ends[line] - start < prefix.length()) return false;
+        for (int k = 0; k < prefix.length(); ++k) {
+            if (chunk.buffer.get(start + k) != prefix.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public char firstChar() {
+        final byte b = chunk.buffer.get(chunk.starts[line]);
+        if (b >= 0) return (char) b;
+        else return line().charAt(0);
+    }
+
+    @Override
+    public String line() {
+        return LineScanner.decode(chunk.buffer, chunk.starts[line], chunk.ends[line], charset);
+    }
+
+    @Override
+    public boolean parsePeak(double[] peak) {
+        if (!chunk.isPeak[line]) return false;
+        peak[0] = chunk.peaks[2 * line];
+        peak[1] = chunk.peaks[2 * line + 1];
+        return true;
+    }
+
+    @Override
+    protected boolean hasRemaining() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        return (chunk != null && line + 1 < chunk.numberOfLines) || !chunksInFlight.isEmpty();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        chunk = null;
+        for (ChunkJJob job : chunksInFlight) job.cancel(false);
+        chunksInFlight.clear();
+        channel.close();
+    }
+
+    /**
+     * Scans the lines in the byte range of the file which starts at the first line start at or after start and
+     * ends at the first line start at or after end. Neighbouring chunks therefore share their boundary.
+     */
+    private class ChunkJJob extends BasicJJob<LineChunk> {
+        private final long start, end;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        private ChunkJJob(long start, long end) {
+            super(JobType.CPU);
+            this.start = start;
+            this.end = end;
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        protected LineChunk compute() throws Exception {
+            return claim() ? scan() : null;
+        }
+
+        private LineChunk scan() throws IOException {
+            // a line start is the position after a line terminator, so the search begins one byte before the range
+            final long mapStart = Math.max(0, start - 1);
+            long slack = 1 << 16;
+            while (true) {
+                final long mapEnd = Math.min(fileSize, end + slack);
+                if (mapEnd - mapStart > Integer.MAX_VALUE)
+                    throw new IOException("Line is longer than " + Integer.MAX_VALUE + " bytes");
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+                final int limit = buffer.limit();
+                final boolean endOfFile = mapEnd >= fileSize;
+                final int from = start == 0 ? 0 : nextLineStart(buffer, 0, limit, endOfFile);
+                final int to = end >= fileSize ? limit : nextLineStart(buffer, (int) (end - 1 - mapStart), limit, endOfFile);
+                if (to < 0 && mapEnd < fileSize) {
+                    // the last line of the chunk crosses the mapped range
+                    slack *= 4;
+                    continue;
+                }
+                return new LineChunk(buffer, from < 0 ? limit : from, to < 0 ? limit : to);
+            }
+        }
+    }
+
+    /**
+     * - finds the first line start after the given position, i.e. the position after a '\n', '\r' or "\r\n"
+     * - as BufferedReader, a '\r' followed by '\n' is a single line terminator
+     *
+     * @param endOfFile true if the buffer ends at the end of the file. Otherwise, a '\r' as last byte of the buffer
+     *                  might be followed by a '\n' outside of the buffer and is not a line start yet
+     * @return the position of the line start or -1 if there is no line start in the buffer
+     */
+    static int nextLineStart(ByteBuffer buffer, int from, int limit, boolean endOfFile) {
+        for (int i = from; i < limit; ++i) {
+            final byte b = buffer.get(i);
+            if (b == '\n') return i + 1;
+            if (b == '\r') {
+                if (i + 1 < limit) {
+                    if (buffer.get(i + 1) != '\n') return i + 1;
+                } else return endOfFile ? i + 1 : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static class LineChunk {
+        private final MappedByteBuffer buffer;
+        private int numberOfLines;
+        private int[] starts, ends;
+        private boolean[] isPeak;
+        private double[] peaks;
+
+        private LineChunk(MappedByteBuffer buffer, int from, int to) {
+            this.buffer = buffer;
+            int capacity = Math.max(16, (to - from) / 32);
+            this.starts = new int[capacity];
+            this.ends = new int[capacity];
+            this.isPeak = new boolean[capacity];
+            this.peaks = new double[2 * capacity];
+            int position = from;
+            while (position < to) {
+                if (numberOfLines >= starts.length) {
+                    capacity *= 2;
+                    starts = Arrays.copyOf(starts, capacity);
+                    ends = Arrays.copyOf(ends, capacity);
+                    isPeak = Arrays.copyOf(isPeak, capacity);
+                    peaks = Arrays.copyOf(peaks, 2 * capacity);
+                }
+                final int lineEnd = LineScanner.findLineEnd(buffer, position, to);
+                starts[numberOfLines] = position;
+                ends[numberOfLines] = lineEnd;
+                isPeak[numberOfLines] = lineEnd > position && LineScanner.isDigit(buffer.get(position))
+                        && LineScanner.parsePeak(buffer, position, lineEnd, peaks, 2 * numberOfLines);
+                ++numberOfLines;
+                position = LineScanner.skipLineTerminator(buffer, lineEnd, to);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package de.unijena.bioinf.babelms.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Iterates over the lines of a text input. In contrast to {@link BufferedReader#readLine()}, a line is only
+ * converted into a String if {@link #line()} is called, so parsers can check the beginning of a line or read
+ * the numbers of a peak line without creating any objects.
+ */
+public interface LineCursor {
+
+    /**
+     * @return a cursor over the lines of the given reader. If the reader is a {@link MappedFileReader} or a
+     * {@link ChunkedFileReader}, the reader itself is returned
+     */
+    static LineCursor forReader(BufferedReader reader) {
+        if (reader instanceof LineCursor) return (LineCursor) reader;
+        else return new ReaderLineCursor(reader);
+    }
+
+    /**
+     * moves the cursor to the next line
+     * @return false if there are no further lines
+     */
+    boolean nextLine() throws IOException;
+
+    boolean isEmptyLine();
+
+    boolean lineStartsWith(String prefix);
+
+    /**
+     * @return the first character of the current line. Must not be called on an empty line
+     */
+    char firstChar();
+
+    /**
+     * @return the current line without line terminator
+     */
+    String line();
+
+    /**
+     * Parses the first two numbers of a peak line "mz intensity". Only lines of the form
+     * digits[.digits][e[+-]digits] whitespace digits[.digits][e[+-]digits] [whitespace ...] are parsed. The numbers
+     * are equal to the ones returned by {@link Double#parseDouble(String)}.
+     * @param peak array of size two in which mass and intensity are stored
+     * @return false if the line is not in the expected format or the cursor does not support parsing peaks. The
+     * caller has to parse the String returned by {@link #line()} instead.
+     */
+    boolean parsePeak(double[] peak);
+
+}
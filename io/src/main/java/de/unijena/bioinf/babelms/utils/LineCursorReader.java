@@ -0,0 +1,91 @@
+package de.unijena.bioinf.babelms.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * A {@link BufferedReader} whose input is given by a {@link LineCursor}. The {@link Reader} methods return the
+ * lines of the cursor terminated by '\n', so parsers which do not know the cursor can still read the input.
+ */
+abstract class LineCursorReader extends BufferedReader implements LineCursor {
+
+    // remaining characters of the current line if the Reader methods are used
+    private String pending;
+    private int pendingOffset;
+
+    LineCursorReader() {
+        super(new StringReader(""), 1);
+    }
+
+    /**
+     * @return true if the input contains further characters after the current line
+     */
+    protected abstract boolean hasRemaining() throws IOException;
+
+    @Override
+    public String readLine() throws IOException {
+        if (pending != null && pendingOffset < pending.length()) {
+            final String rest = pending.substring(pendingOffset, pending.length() - 1);
+            pending = null;
+            return rest;
+        }
+        return nextLine() ? line() : null;
+    }
+
+    private boolean fillPending() throws IOException {
+        if (pending != null && pendingOffset < pending.length()) return true;
+        if (!nextLine()) {
+            pending = null;
+            return false;
+        }
+        pending = line() + "\n";
+        pendingOffset = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillPending()) return -1;
+        return pending.charAt(pendingOffset++);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!fillPending()) return -1;
+        final int n = Math.min(len, pending.length() - pendingOffset);
+        pending.getChars(pendingOffset, pendingOffset + n, cbuf, off);
+        pendingOffset += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && read() >= 0) ++skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return (pending != null && pendingOffset < pending.length()) || hasRemaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+}
@@ -0,0 +1,136 @@
+package de.unijena.bioinf.babelms.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Scans lines and numbers directly on the bytes of a buffer. Shared by the memory mapped readers.
+ */
+final class LineScanner {
+
+    private final static double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private LineScanner() {
+    }
+
+    static boolean isAsciiCompatible(Charset charset) {
+        final String probe = "\n\r\t +-.0123456789=AZaz";
+        return Arrays.equals(probe.getBytes(charset), probe.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return the position of the first '\n' or '\r' in [from, limit) or limit if there is none
+     */
+    static int findLineEnd(ByteBuffer buffer, int from, int limit) {
+        int i = from;
+        while (i < limit) {
+            final byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') break;
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * @return the position after the line terminator starting at lineEnd
+     */
+    static int skipLineTerminator(ByteBuffer buffer, int lineEnd, int limit) {
+        if (lineEnd >= limit) return lineEnd;
+        int position = lineEnd + 1;
+        if (buffer.get(lineEnd) == '\r' && position < limit && buffer.get(position) == '\n') ++position;
+        return position;
+    }
+
+    static String decode(ByteBuffer buffer, int from, int to, Charset charset) {
+        final byte[] bytes = new byte[to - from];
+        for (int k = 0; k < bytes.length; ++k) bytes[k] = buffer.get(from + k);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * see {@link LineCursor#parsePeak(double[])}
+     */
+    static boolean parsePeak(ByteBuffer buffer, int lineStart, int lineEnd, double[] peak, int offset) {
+        int i = parseNumber(buffer, lineStart, lineEnd, peak, offset);
+        if (i < 0 || i >= lineEnd || !isWhitespace(buffer.get(i))) return false;
+        while (i < lineEnd && isWhitespace(buffer.get(i))) ++i;
+        if (i >= lineEnd) return false;
+        i = parseNumber(buffer, i, lineEnd, peak, offset + 1);
+        return i >= 0 && (i == lineEnd || isWhitespace(buffer.get(i)));
+    }
+
+    /*
+     * Parses a number of the form digits[.digits][e[+-]digits] starting at position i and returns the position
+     * after the number or -1 if the bytes are not in this form. The value is exact if the mantissa fits into
+     * 53 bits and the decimal exponent is at most 22 (Clingers fast path), otherwise the token is parsed by
+     * Double.parseDouble.
+     */
+    private static int parseNumber(ByteBuffer buffer, int i, int lineEnd, double[] values, int slot) {
+        final int start = i;
+        long mantissa = 0;
+        int digits = 0, exponent = 0;
+        byte b = 0;
+        while (i < lineEnd && isDigit(b = buffer.get(i))) {
+            if (mantissa != 0 || b != '0') {
+                if (++digits <= 18) mantissa = mantissa * 10 + (b - '0');
+                else ++exponent;
+            }
+            ++i;
+        }
+        if (i == start) return -1;
+        if (i < lineEnd && b == '.') {
+            final int fractionStart = ++i;
+            while (i < lineEnd && isDigit(b = buffer.get(i))) {
+                if (mantissa != 0 || b != '0') {
+                    if (++digits <= 18) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        --exponent;
+                    }
+                } else {
+                    --exponent;
+                }
+                ++i;
+            }
+            if (i == fractionStart) return -1;
+        }
+        if (i < lineEnd && (b == 'e' || b == 'E')) {
+            ++i;
+            boolean negative = false;
+            if (i < lineEnd && (buffer.get(i) == '+' || buffer.get(i) == '-')) {
+                negative = buffer.get(i) == '-';
+                ++i;
+            }
+            final int exponentStart = i;
+            int e = 0;
+            while (i < lineEnd && isDigit(b = buffer.get(i))) {
+                if (e < 100000) e = e * 10 + (b - '0');
+                ++i;
+            }
+            if (i == exponentStart) return -1;
+            exponent += negative ? -e : e;
+        }
+        if (digits <= 18 && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            values[slot] = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            values[slot] = Double.parseDouble(decode(buffer, start, i, StandardCharsets.US_ASCII));
+        }
+        return i;
+    }
+
+    static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /*
+     * same characters as \s in java regular expressions
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+}
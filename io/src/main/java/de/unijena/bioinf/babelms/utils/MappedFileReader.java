@@ -0,0 +1,126 @@
+package de.unijena.bioinf.babelms.utils;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a text file through a memory mapped buffer. Lines are scanned directly on the mapped bytes and
+ * numbers in peak lines are parsed without creating a String (see {@link #parsePeak(double[])}). Files larger
+ * than the mapping window are mapped in consecutive windows.
+ *
+ * The reader only works with ASCII compatible encodings, use {@link #open(File)} to fall back to a
+ * {@link FileReader} otherwise. The {@link Reader} methods return the lines terminated by '\n'.
+ */
+public class MappedFileReader extends LineCursorReader {
+
+    private final static long WINDOW_SIZE = 1L << 30;
+
+    private final long windowSize;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final Charset charset;
+    private MappedByteBuffer buffer;
+    private long bufferOffset;
+    // all positions are relative to the current window
+    private int position, lineStart, lineEnd;
+    private byte[] bytes = new byte[256];
+
+    /**
+     * opens a memory mapped reader for the given file. If the default charset is not ASCII compatible, a
+     * BufferedReader over a {@link FileReader} is returned instead.
+     */
+    public static BufferedReader open(File file) throws IOException {
+        if (LineScanner.isAsciiCompatible(Charset.defaultCharset())) return new MappedFileReader(file, Charset.defaultCharset());
+        else return new BufferedReader(new FileReader(file));
+    }
+
+    public MappedFileReader(File file, Charset charset) throws IOException {
+        this(file, charset, WINDOW_SIZE);
+    }
+
+    MappedFileReader(File file, Charset charset, long windowSize) throws IOException {
+        this.windowSize = windowSize;
+        this.charset = charset;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        map(0);
+    }
+
+    private void map(long offset) throws IOException {
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(windowSize, fileSize - offset));
+        this.bufferOffset = offset;
+        this.position = 0;
+        this.lineStart = 0;
+        this.lineEnd = 0;
+    }
+
+    @Override
+    public boolean nextLine() throws IOException {
+        if (buffer == null) throw new IOException("Stream closed");
+        while (true) {
+            final int limit = buffer.limit();
+            final boolean lastWindow = bufferOffset + limit >= fileSize;
+            if (position >= limit && lastWindow) return false;
+            final int i = LineScanner.findLineEnd(buffer, position, limit);
+            if (!lastWindow && (i >= limit || (buffer.get(i) == '\r' && i + 1 >= limit))) {
+                // line crosses the end of the window
+                if (position == 0) throw new IOException("Line is longer than " + windowSize + " bytes");
+                map(bufferOffset + position);
+                continue;
+            }
+            lineStart = position;
+            lineEnd = i;
+            position = LineScanner.skipLineTerminator(buffer, i, limit);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isEmptyLine() {
+        return lineStart == lineEnd;
+    }
+
+    @Override
+    public boolean lineStartsWith(String prefix) {
+        if (lineEnd - lineStart < prefix.length()) return false;
+        for (int k = 0; k < prefix.length(); ++k) {
+            if (buffer.get(lineStart + k) != prefix.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public char firstChar() {
+        final byte b = buffer.get(lineStart);
+        if (b >= 0) return (char) b;
+        else return line().charAt(0);
+    }
+
+    @Override
+    public String line() {
+        final int n = lineEnd - lineStart;
+        if (bytes.length < n) bytes = new byte[Math.max(n, bytes.length * 2)];
+        for (int k = 0; k < n; ++k) bytes[k] = buffer.get(lineStart + k);
+        return new String(bytes, 0, n, charset);
+    }
+
+    @Override
+    public boolean parsePeak(double[] peak) {
+        return LineScanner.parsePeak(buffer, lineStart, lineEnd, peak, 0);
+    }
+
+    @Override
+    protected boolean hasRemaining() throws IOException {
+        if (buffer == null) throw new IOException("Stream closed");
+        return bufferOffset + position < fileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,48 @@
+package de.unijena.bioinf.babelms.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Line cursor over an arbitrary {@link BufferedReader}. Each line is read as String.
+ */
+class ReaderLineCursor implements LineCursor {
+
+    private final BufferedReader reader;
+    private String line;
+
+    ReaderLineCursor(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public boolean nextLine() throws IOException {
+        line = reader.readLine();
+        return line != null;
+    }
+
+    @Override
+    public boolean isEmptyLine() {
+        return line.isEmpty();
+    }
+
+    @Override
+    public boolean lineStartsWith(String prefix) {
+        return line.startsWith(prefix);
+    }
+
+    @Override
+    public char firstChar() {
+        return line.charAt(0);
+    }
+
+    @Override
+    public String line() {
+        return line;
+    }
+
+    @Override
+    public boolean parsePeak(double[] peak) {
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+package de.unijena.bioinf.babelms;
+
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Spectrum;
+import de.unijena.bioinf.ChemistryBase.ms.Peak;
+import de.unijena.bioinf.ChemistryBase.ms.Spectrum;
+import de.unijena.bioinf.babelms.mgf.MgfParser;
+import de.unijena.bioinf.babelms.ms.JenaMsParser;
+import de.unijena.bioinf.babelms.utils.ChunkedFileReader;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The memory mapped and the chunked input have to give the same experiments as reading the files line by line
+ */
+public class MappedFileParserTest {
+
+    @Test
+    public void testMsFile() throws IOException {
+        final File file = new File(getClass().getClassLoader().getResource("Adenosine.ms").getFile());
+        compare(file, new JenaMsParser(), new JenaMsParser());
+    }
+
+    @Test
+    public void testGeneratedMsFile() throws IOException {
+        final File file = File.createTempFile("mapped", ".ms");
+        file.deleteOnExit();
+        final Random r = new Random(5);
+        try (final Writer w = new FileWriter(file)) {
+            for (int c = 0; c < 20; ++c) {
+                w.write(">compound compound" + c + "\n>parentmass " + (100 + r.nextDouble() * 500) + "\n>ionization [M+H]+\n\r\n");
+                w.write(">ms1\n");
+                writePeaks(w, r, 10);
+                w.write("\n>collision 20\r\n");
+                writePeaks(w, r, 30);
+                w.write("\n#comment value\n>collision 40\n");
+                writePeaks(w, r, 30);
+                w.write("\n\n");
+            }
+        }
+        compare(file, new JenaMsParser(), new JenaMsParser());
+    }
+
+    @Test
+    public void testGeneratedMgfFile() throws IOException {
+        final File file = generateMgfFile(20);
+        compare(file, new MgfParser(), new MgfParser());
+    }
+
+    @Test
+    public void testChunkedMgfFile() throws IOException {
+        final File file = generateMgfFile(200);
+        // small chunks, so that chunk boundaries fall into and between the records
+        for (int chunkSize : new int[]{1, 97, 1000, 65536}) {
+            try (final ChunkedFileReader reader = new ChunkedFileReader(file, Charset.defaultCharset(), chunkSize, 3)) {
+                compare(file, parseAll(new MgfParser(), reader, file), new MgfParser());
+            }
+        }
+    }
+
+    @Test
+    public void testChunkedMsFile() throws IOException {
+        final File file = new File(getClass().getClassLoader().getResource("Adenosine.ms").getFile());
+        for (int chunkSize : new int[]{13, 256, 4096}) {
+            try (final ChunkedFileReader reader = new ChunkedFileReader(file, Charset.defaultCharset(), chunkSize, 2)) {
+                compare(file, parseAll(new JenaMsParser(), reader, file), new JenaMsParser());
+            }
+        }
+    }
+
+    @Test
+    public void testChunkedFileWithCarriageReturns() throws IOException {
+        // old Mac line endings: a lone '\r' terminates a line
+        final File file = File.createTempFile("mapped", ".mgf");
+        file.deleteOnExit();
+        try (final Writer w = new FileWriter(file)) {
+            w.write(new String(java.nio.file.Files.readAllBytes(generateMgfFile(200).toPath()), Charset.defaultCharset()).replace("\r\n", "\n").replace('\n', '\r'));
+        }
+        for (int chunkSize : new int[]{1, 97, 1000, 65536}) {
+            try (final ChunkedFileReader reader = new ChunkedFileReader(file, Charset.defaultCharset(), chunkSize, 3)) {
+                compare(file, parseAll(new MgfParser(), reader, file), new MgfParser());
+            }
+        }
+    }
+
+    private static File generateMgfFile(int numberOfCompounds) throws IOException {
+        final File file = File.createTempFile("mapped", ".mgf");
+        file.deleteOnExit();
+        final Random r = new Random(3);
+        try (final Writer w = new FileWriter(file)) {
+            for (int c = 0; c < numberOfCompounds; ++c) {
+                final double mz = 100 + r.nextDouble() * 500;
+                for (int level = 1; level <= 2; ++level) {
+                    w.write("BEGIN IONS\nFEATURE_ID=" + c + "\nPEPMASS=" + mz + "\nCHARGE=1+\nMSLEVEL=" + level + "\nRTINSECONDS=" + (c * 10) + "\r\n");
+                    writePeaks(w, r, 40);
+                    w.write("END IONS\n\n");
+                }
+            }
+        }
+        return file;
+    }
+
+    private static void writePeaks(Writer w, Random r, int n) throws IOException {
+        for (int k = 0; k < n; ++k) {
+            final double mz = r.nextDouble() * 1000, intensity = r.nextDouble() * 1e6;
+            switch (k % 6) {
+                case 0: w.write(mz + " " + intensity + "\n"); break;
+                case 1: w.write(String.format(Locale.US, "%.4f\t%.1f\n", mz, intensity)); break;
+                case 2: w.write((float) mz + "  " + (float) intensity + " 1\r\n"); break;
+                case 3: w.write(String.format(Locale.US, "%.3e %.3E\n", mz, intensity)); break;
+                case 4: w.write(((int) mz) + " " + ((long) intensity) + "\n"); break;
+                default: w.write(String.format(Locale.US, "%.10f %.20f\n", mz, intensity / 1e6));
+            }
+        }
+    }
+
+    private static List<Ms2Experiment> parseAll(Parser<Ms2Experiment> parser, BufferedReader reader, File file) throws IOException {
+        final List<Ms2Experiment> experiments = new ArrayList<>();
+        Ms2Experiment exp;
+        while ((exp = parser.parse(reader, file.toURI().toURL())) != null) experiments.add(exp);
+        return experiments;
+    }
+
+    private static void compare(File file, Parser<Ms2Experiment> mappedParser, Parser<Ms2Experiment> readerParser) throws IOException {
+        compare(file, new GenericParser<Ms2Experiment>(mappedParser).parseFromFile(file), readerParser);
+    }
+
+    private static void compare(File file, List<Ms2Experiment> mapped, Parser<Ms2Experiment> readerParser) throws IOException {
+        final List<Ms2Experiment> expected;
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.defaultCharset()))) {
+            expected = parseAll(readerParser, reader, file);
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.size(), mapped.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            final Ms2Experiment a = expected.get(i), b = mapped.get(i);
+            assertEquals(a.getName(), b.getName());
+            assertEquals(a.getIonMass(), b.getIonMass(), 0d);
+            assertEquals(a.getPrecursorIonType(), b.getPrecursorIonType());
+            assertEquals(a.getAnnotation(Map.class), b.getAnnotation(Map.class));
+            assertEquals(a.getMs1Spectra().size(), b.getMs1Spectra().size());
+            for (int k = 0; k < a.getMs1Spectra().size(); ++k)
+                assertSpectrumEquals(a.getMs1Spectra().get(k), b.getMs1Spectra().get(k));
+            assertEquals(a.getMs2Spectra().size(), b.getMs2Spectra().size());
+            for (int k = 0; k < a.getMs2Spectra().size(); ++k) {
+                final Ms2Spectrum<Peak> x = a.getMs2Spectra().get(k), y = b.getMs2Spectra().get(k);
+                assertEquals(x.getPrecursorMz(), y.getPrecursorMz(), 0d);
+                assertSpectrumEquals(x, y);
+            }
+        }
+    }
+
+    private static void assertSpectrumEquals(Spectrum<Peak> a, Spectrum<Peak> b) {
+        assertEquals(a.size(), b.size());
+        for (int k = 0; k < a.size(); ++k) {
+            assertEquals(a.getMzAt(k), b.getMzAt(k), 0d);
+            assertEquals(a.getIntensityAt(k), b.getIntensityAt(k), 0d);
+        }
+    }
+
+}
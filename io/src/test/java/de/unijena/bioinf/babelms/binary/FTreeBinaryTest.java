@@ -0,0 +1,178 @@
+package de.unijena.bioinf.babelms.binary;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
+import de.unijena.bioinf.ChemistryBase.ms.AnnotatedPeak;
+import de.unijena.bioinf.ChemistryBase.ms.Peak;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FragmentAnnotation;
+import de.unijena.bioinf.babelms.json.FTJsonReader;
+import de.unijena.bioinf.babelms.json.FTJsonWriter;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class FTreeBinaryTest {
+    final String input = getClass().getResource("/de/unijena/bioinf/babelms/ms/casmi2016_084.json").getFile();
+
+    private FTree readJsonTree() throws IOException {
+        try (BufferedReader b = Files.newBufferedReader(Paths.get(input), Charset.defaultCharset())) {
+            return new FTJsonReader().parse(b);
+        }
+    }
+
+    private static FTree[] roundTrip(FTree[] trees, boolean version1) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        if (version1) FTreeBinaryWriter.writeTreesVersion1(out, trees);
+        else FTreeBinaryWriter.writeTrees(out, trees);
+        out.close();
+        return FTreeBinaryReader.readTrees(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testRoundTripAgainstJson() throws IOException {
+        final FTree tree = readJsonTree();
+        final FTree[] trees = roundTrip(new FTree[]{tree, tree}, false);
+        assertEquals(2, trees.length);
+        final FTJsonWriter writer = new FTJsonWriter();
+        final JsonObject expected = new JsonParser().parse(writer.treeToJsonString(tree)).getAsJsonObject();
+        for (FTree t : trees) {
+            assertEquals(tree.getTreeWeight(), t.getTreeWeight(), 0d);
+            final JsonObject json = new JsonParser().parse(writer.treeToJsonString(t)).getAsJsonObject();
+            assertEquals(expected.get("molecularFormula"), json.get("molecularFormula"));
+            assertEquals(expected.get("root"), json.get("root"));
+            assertEquals(expected.getAsJsonObject("annotations").get("precursorIonType"), json.getAsJsonObject("annotations").get("precursorIonType"));
+
+            final HashMap<String, JsonObject> fragments = byKey(expected.getAsJsonArray("fragments"), "molecularFormula");
+            assertEquals(fragments.size(), json.getAsJsonArray("fragments").size());
+            for (JsonElement e : json.getAsJsonArray("fragments")) {
+                final JsonObject fragment = e.getAsJsonObject();
+                final JsonObject ref = fragments.get(fragment.get("molecularFormula").getAsString());
+                assertNotNull(ref);
+                assertEquals(ref.get("recalibratedMass").getAsDouble(), fragment.get("mz").getAsDouble(), 0d);
+                assertEquals(ref.get("relativeIntensity").getAsDouble(), fragment.get("relativeIntensity").getAsDouble(), 0d);
+                assertEquals(ref.get("ion"), fragment.get("ion"));
+            }
+
+            final HashMap<String, JsonObject> losses = byKey(expected.getAsJsonArray("losses"), "target");
+            assertEquals(losses.size(), json.getAsJsonArray("losses").size());
+            for (JsonElement e : json.getAsJsonArray("losses")) {
+                final JsonObject loss = e.getAsJsonObject();
+                final JsonObject ref = losses.get(loss.get("target").getAsString());
+                assertNotNull(ref);
+                assertEquals(ref.get("source"), loss.get("source"));
+                assertEquals(ref.get("molecularFormula"), loss.get("molecularFormula"));
+                assertEquals(tree.getLoss(fragment(tree, ref.get("source").getAsString()), fragment(tree, ref.get("target").getAsString())).getWeight(),
+                        t.getLoss(fragment(t, ref.get("source").getAsString()), fragment(t, ref.get("target").getAsString())).getWeight(), 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testReadVersion1() throws IOException {
+        final FTree tree = readJsonTree();
+        final FTree oldFormat = roundTrip(new FTree[]{tree}, true)[0];
+        final FTree newFormat = roundTrip(new FTree[]{tree}, false)[0];
+        assertEquals(newFormat.numberOfVertices(), oldFormat.numberOfVertices());
+        final FragmentAnnotation<Peak> oldPeaks = oldFormat.getFragmentAnnotationOrThrow(Peak.class);
+        final FragmentAnnotation<Peak> newPeaks = newFormat.getFragmentAnnotationOrThrow(Peak.class);
+        final FragmentAnnotation<AnnotatedPeak> oldAnnotated = oldFormat.getFragmentAnnotationOrThrow(AnnotatedPeak.class);
+        for (Fragment f : oldFormat.getFragments()) {
+            final Fragment g = fragment(newFormat, f.getFormula().toString());
+            assertNotNull(g);
+            if (f.isRoot()) assertTrue(g.isRoot());
+            else assertEquals(f.getParent().getFormula(), g.getParent().getFormula());
+            assertEquals(oldPeaks.get(f).getMass(), newPeaks.get(g).getMass(), 0d);
+            assertEquals(oldPeaks.get(f).getIntensity(), newPeaks.get(g).getIntensity(), 0d);
+            assertEquals(f.getFormula(), oldAnnotated.get(f).getMolecularFormula());
+            assertNull(oldAnnotated.get(f).getOriginalPeaks());
+            assertNull(oldAnnotated.get(f).getCollisionEnergies());
+        }
+        // writing a version 1 tree again results in the same tree
+        final FTree again = roundTrip(new FTree[]{oldFormat}, true)[0];
+        assertEquals(oldFormat.numberOfVertices(), again.numberOfVertices());
+        for (Fragment f : again.getFragments()) {
+            assertNotNull(fragment(oldFormat, f.getFormula().toString()));
+        }
+    }
+
+    @Test
+    public void testSkipUnknownColumns() throws IOException {
+        final MolecularFormula glucose = MolecularFormula.parse("C6H12O6"), fragment = MolecularFormula.parse("C6H10O5");
+        final MolecularFormulaPacker packer = MolecularFormulaPacker.newPackerFor(glucose, fragment);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FTreeBinaryWriter.MAGIC_VERSION_2);
+        out.writeInt(1);
+        out.writeUTF(packer.serializeToString());
+        out.writeInt(2);
+        out.writeDouble(3.5);
+        out.writeUTF("");
+        out.writeLong(packer.encode(glucose));
+        out.writeLong(packer.encode(fragment));
+        out.writeInt(-1);
+        out.writeInt(0);
+        out.writeByte(5);
+        // column of an unknown type
+        out.writeUTF("future");
+        out.writeByte(42);
+        out.writeInt(5);
+        out.write(new byte[]{1, 2, 3, 4, 5});
+        writeDoubleColumn(out, FTreeBinaryWriter.MZ_COLUMN, 181.07, 163.06);
+        // column of a known type but with an unknown name
+        writeDoubleColumn(out, "charge", 1, 1);
+        writeDoubleColumn(out, FTreeBinaryWriter.INTENSITY_COLUMN, 0.5, 1d);
+        writeDoubleColumn(out, FTreeBinaryWriter.LOSS_WEIGHT_COLUMN, 0d, 2.25);
+        out.close();
+
+        final FTree[] trees = FTreeBinaryReader.readTrees(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(1, trees.length);
+        final FTree tree = trees[0];
+        assertEquals(3.5, tree.getTreeWeight(), 0d);
+        assertEquals(2, tree.numberOfVertices());
+        assertEquals(glucose, tree.getRoot().getFormula());
+        final Fragment child = tree.getRoot().getChildren(0);
+        assertEquals(fragment, child.getFormula());
+        assertEquals(2.25, child.getIncomingEdge().getWeight(), 0d);
+        final FragmentAnnotation<Peak> peaks = tree.getFragmentAnnotationOrThrow(Peak.class);
+        assertEquals(181.07, peaks.get(tree.getRoot()).getMass(), 0d);
+        assertEquals(0.5, peaks.get(tree.getRoot()).getIntensity(), 0d);
+        assertEquals(163.06, peaks.get(child).getMass(), 0d);
+        assertEquals(1d, peaks.get(child).getIntensity(), 0d);
+    }
+
+    private static void writeDoubleColumn(DataOutputStream out, String name, double... values) throws IOException {
+        out.writeUTF(name);
+        out.writeByte(FTreeBinaryWriter.DOUBLE_COLUMN);
+        out.writeInt(values.length * 8);
+        for (double value : values) out.writeDouble(value);
+    }
+
+    private static Fragment fragment(FTree tree, String formula) {
+        for (Fragment f : tree.getFragments()) {
+            if (f.getFormula().toString().equals(formula)) return f;
+        }
+        return null;
+    }
+
+    private static HashMap<String, JsonObject> byKey(JsonArray array, String key) {
+        final HashMap<String, JsonObject> map = new HashMap<>();
+        for (JsonElement e : array) {
+            map.put(e.getAsJsonObject().get(key).getAsString(), e.getAsJsonObject());
+        }
+        return map;
+    }
+
+}
@@ -0,0 +1,110 @@
+package de.unijena.bioinf.babelms.binary;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.ChemistryBase.ms.Peak;
+import de.unijena.bioinf.ChemistryBase.ms.Spectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpectrumLibraryTest {
+
+    private static SimpleSpectrum[] randomSpectra(Random r, int n) {
+        final SimpleSpectrum[] spectra = new SimpleSpectrum[n];
+        for (int i = 0; i < n; ++i) {
+            final int size = r.nextInt(8) == 0 ? 0 : 1 + r.nextInt(60);
+            final double[] mz = new double[size], intensities = new double[size];
+            double mass = 50 + r.nextDouble() * 10;
+            for (int j = 0; j < size; ++j) {
+                mass += 0.001 + r.nextDouble() * 30;
+                mz[j] = mass;
+                intensities[j] = r.nextDouble() * 1e5;
+            }
+            spectra[i] = new SimpleSpectrum(mz, intensities);
+        }
+        return spectra;
+    }
+
+    private static double[] randomPrecursors(Random r, int n) {
+        final double[] precursors = new double[n];
+        for (int i = 0; i < n; ++i) precursors[i] = i % 17 == 0 ? Double.NaN : 100 + r.nextInt(400) + r.nextDouble();
+        return precursors;
+    }
+
+    private static File write(SimpleSpectrum[] spectra, double[] precursors, SpectrumLibrary.MzEncoding encoding) throws IOException {
+        final File file = File.createTempFile("spectra", ".lib");
+        file.deleteOnExit();
+        try (SpectrumLibraryWriter writer = new SpectrumLibraryWriter(file, encoding)) {
+            for (int i = 0; i < spectra.length; ++i) assertEquals(i, writer.add(spectra[i], precursors[i]));
+        }
+        return file;
+    }
+
+    private static void compare(SimpleSpectrum[] spectra, double[] precursors, SpectrumLibrary library, double mzDelta, double relativeIntensityDelta) throws IOException {
+        assertEquals(spectra.length, library.numberOfSpectra());
+        for (int i = spectra.length - 1; i >= 0; --i) {
+            final Spectrum<Peak> spectrum = library.getSpectrum(i);
+            assertEquals(spectra[i].size(), spectrum.size());
+            for (int j = 0; j < spectrum.size(); ++j) {
+                assertEquals(spectra[i].getMzAt(j), spectrum.getMzAt(j), mzDelta);
+                assertEquals(spectra[i].getIntensityAt(j), spectrum.getIntensityAt(j), spectra[i].getIntensityAt(j) * relativeIntensityDelta);
+            }
+            assertEquals(precursors[i], library.getPrecursorMz(i), 0d);
+        }
+    }
+
+    @Test
+    public void testRandomAccess() throws IOException {
+        final Random r = new Random(1234);
+        final SimpleSpectrum[] spectra = randomSpectra(r, 500);
+        final double[] precursors = randomPrecursors(r, spectra.length);
+        for (SpectrumLibrary.MzEncoding encoding : SpectrumLibrary.MzEncoding.values()) {
+            final File file = write(spectra, precursors, encoding);
+            final double mzDelta = encoding == SpectrumLibrary.MzEncoding.DOUBLE ? 0d : (encoding == SpectrumLibrary.MzEncoding.FLOAT ? 1e-4 : SpectrumLibrary.MZ_RESOLUTION);
+            final double intensityDelta = encoding == SpectrumLibrary.MzEncoding.DOUBLE ? 0d : 1e-6;
+            try (SpectrumLibrary library = SpectrumLibrary.open(file)) {
+                assertEquals(encoding, library.getEncoding());
+                compare(spectra, precursors, library, mzDelta, intensityDelta);
+            }
+            try (SpectrumLibrary library = SpectrumLibrary.open(file, false)) {
+                compare(spectra, precursors, library, mzDelta, intensityDelta);
+            }
+            // values crossing the mapped segments are copied
+            try (SpectrumLibrary library = new SpectrumLibrary(file, true, 256)) {
+                compare(spectra, precursors, library, mzDelta, intensityDelta);
+            }
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPrecursorSearch() throws IOException {
+        final Random r = new Random(42);
+        final SimpleSpectrum[] spectra = randomSpectra(r, 1000);
+        final double[] precursors = randomPrecursors(r, spectra.length);
+        final File file = write(spectra, precursors, SpectrumLibrary.MzEncoding.FLOAT);
+        try (SpectrumLibrary library = SpectrumLibrary.open(file)) {
+            for (int k = 0; k < 100; ++k) {
+                final double from = 100 + r.nextDouble() * 400, to = from + r.nextDouble() * 5;
+                final int[] found = library.searchByPrecursor(from, to);
+                int expected = 0;
+                for (double p : precursors) if (p >= from && p <= to) ++expected;
+                assertEquals(expected, found.length);
+                for (int i = 0; i < found.length; ++i) {
+                    assertTrue(precursors[found[i]] >= from && precursors[found[i]] <= to);
+                    if (i > 0) assertTrue(precursors[found[i - 1]] <= precursors[found[i]]);
+                }
+            }
+            final int[] found = library.searchByPrecursor(precursors[1], new Deviation(10));
+            assertTrue(Arrays.stream(found).anyMatch(i -> i == 1));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package de.unijena.bioinf.babelms.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MappedFormulaDatabaseTest {
+
+    private static List<MolecularFormula> randomFormulas(Random r, int n) {
+        final List<MolecularFormula> formulas = new ArrayList<MolecularFormula>(n);
+        for (int i = 0; i < n; ++i) {
+            final StringBuilder buffer = new StringBuilder();
+            buffer.append('C').append(1 + r.nextInt(40)).append('H').append(r.nextInt(80));
+            if (r.nextBoolean()) buffer.append('N').append(1 + r.nextInt(6));
+            if (r.nextBoolean()) buffer.append('O').append(1 + r.nextInt(12));
+            if (r.nextInt(10) == 0) buffer.append('S');
+            if (r.nextInt(20) == 0) buffer.append("Cl").append(1 + r.nextInt(3));
+            formulas.add(MolecularFormula.parse(buffer.toString()));
+        }
+        return formulas;
+    }
+
+    private static File writeList(List<MolecularFormula> formulas) throws IOException {
+        final File file = File.createTempFile("formulas", ".txt");
+        file.deleteOnExit();
+        try (final PrintStream out = new PrintStream(file, "UTF-8")) {
+            out.println("# synthetic formula list");
+            for (int i = 0; i < formulas.size(); ++i) {
+                out.println(formulas.get(i).toString() + "\tcompound" + i);
+                if (i % 100 == 0) out.println();
+            }
+            out.println("this is not a formula");
+        }
+        return file;
+    }
+
+    private static File build(File list, int chunkSize, int bucketsPerDalton) throws IOException {
+        final File target = File.createTempFile("formulas", ".db");
+        target.deleteOnExit();
+        final MappedFormulaDatabaseBuilder builder = new MappedFormulaDatabaseBuilder(target).setChunkSize(chunkSize).setBucketsPerDalton(bucketsPerDalton);
+        builder.build(list);
+        assertEquals(1, builder.getNumberOfSkippedLines());
+        return target;
+    }
+
+    @Test
+    public void testMembership() throws IOException {
+        final Random r = new Random(4711);
+        final List<MolecularFormula> formulas = randomFormulas(r, 5000);
+        // duplicates are removed
+        formulas.addAll(formulas.subList(0, 500));
+        final HashSet<MolecularFormula> set = new HashSet<MolecularFormula>(formulas);
+        final File list = writeList(formulas);
+        // small chunks to test the merge of many runs
+        final File file = build(list, 333, 1);
+        try (final MappedFormulaDatabase database = MappedFormulaDatabase.open(file)) {
+            assertEquals(set.size(), database.size());
+            for (MolecularFormula f : set) assertTrue(f.toString(), database.isFormulaExist(f));
+            for (MolecularFormula f : randomFormulas(new Random(12), 2000)) {
+                assertEquals(f.toString(), set.contains(f), database.isFormulaExist(f));
+            }
+            assertFalse(database.isFormulaExist(MolecularFormula.parse("C6H12O6Fe")));
+            for (long i = 1; i < database.size(); ++i) assertTrue(database.getMass(i - 1) <= database.getMass(i));
+        } finally {
+            list.delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMassWindow() throws IOException {
+        final Random r = new Random(815);
+        final List<MolecularFormula> formulas = randomFormulas(r, 5000);
+        final HashSet<MolecularFormula> set = new HashSet<MolecularFormula>(formulas);
+        final File list = writeList(formulas);
+        final File file = build(list, MappedFormulaDatabaseBuilder.DEFAULT_CHUNK_SIZE, 10);
+        try (final MappedFormulaDatabase database = MappedFormulaDatabase.open(file)) {
+            final Deviation deviation = new Deviation(10);
+            for (int k = 0; k < 200; ++k) {
+                final double mass = k % 2 == 0 ? formulas.get(r.nextInt(formulas.size())).getMass() : 50 + r.nextDouble() * 700;
+                final double delta = deviation.absoluteFor(mass);
+                final Set<MolecularFormula> expected = new HashSet<MolecularFormula>();
+                for (MolecularFormula f : set) {
+                    if (Math.abs(f.getMass() - mass) <= delta) expected.add(f);
+                }
+                // masses at the border of the window may differ in the last digits, depending on how they are computed
+                final Set<MolecularFormula> found = database.findMolecularFormulasByMass(mass, deviation);
+                for (MolecularFormula f : found) assertTrue(Math.abs(f.getMass() - mass) <= delta + 1e-9);
+                for (MolecularFormula f : expected) {
+                    if (Math.abs(f.getMass() - mass) < delta - 1e-9) assertTrue(f.toString(), found.contains(f));
+                }
+            }
+            assertEquals(0, database.findEncodedFormulasByMass(-10, 10).length);
+            assertEquals(0, database.findEncodedFormulasByMass(5000, 6000).length);
+            assertEquals(database.size(), database.findEncodedFormulasByMass(0, 5000).length);
+        } finally {
+            list.delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPrecursorQuery() throws IOException {
+        final Random r = new Random(99);
+        final List<MolecularFormula> formulas = randomFormulas(r, 3000);
+        final HashSet<MolecularFormula> set = new HashSet<MolecularFormula>(formulas);
+        final File list = writeList(formulas);
+        final File file = build(list, MappedFormulaDatabaseBuilder.DEFAULT_CHUNK_SIZE, 1);
+        final List<PrecursorIonType> ionTypes = Arrays.asList(PrecursorIonType.getPrecursorIonType("[M+H]+"), PrecursorIonType.getPrecursorIonType("[M+Na]+"));
+        final Deviation deviation = new Deviation(10);
+        try (final MappedFormulaDatabase database = MappedFormulaDatabase.open(file)) {
+            for (int k = 0; k < 100; ++k) {
+                final MolecularFormula compound = formulas.get(r.nextInt(formulas.size()));
+                final double precursorMz = ionTypes.get(k % 2).neutralMassToPrecursorMass(compound.getMass());
+                final Set<MolecularFormula> found = database.findMolecularFormulasByPrecursor(precursorMz, deviation, ionTypes);
+                assertTrue(found.contains(compound));
+                for (MolecularFormula f : set) {
+                    boolean explains = false;
+                    for (PrecursorIonType ionType : ionTypes) {
+                        explains |= Math.abs(ionType.neutralMassToPrecursorMass(f.getMass()) - precursorMz) < deviation.absoluteFor(precursorMz) - 1e-9;
+                    }
+                    if (explains) assertTrue(f.toString(), found.contains(f));
+                }
+            }
+        } finally {
+            list.delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSdf() throws IOException {
+        final File sdf = File.createTempFile("formulas", ".sdf");
+        sdf.deleteOnExit();
+        try (final PrintStream out = new PrintStream(sdf, "UTF-8")) {
+            final String[] formulas = new String[]{"C6H12O6", "C9H8O4", null, "C6H5O7-3", "C10H16N+", "C6H12O6"};
+            for (String formula : formulas) {
+                out.println("compound\n  program\n\n  0  0  0  0  0  0  0  0  0  0999 V2000\nM  END");
+                if (formula != null) {
+                    out.println("> <PUBCHEM_MOLECULAR_FORMULA>");
+                    out.println(formula);
+                    out.println();
+                }
+                out.println("> <PUBCHEM_COMPOUND_CID>\n1\n\n$$$$");
+            }
+        }
+        final File target = File.createTempFile("formulas", ".db");
+        target.deleteOnExit();
+        final MappedFormulaDatabaseBuilder builder = new MappedFormulaDatabaseBuilder(target);
+        builder.build(sdf);
+        // the record without formula is skipped
+        assertEquals(1, builder.getNumberOfSkippedLines());
+        try (final MappedFormulaDatabase database = MappedFormulaDatabase.open(target)) {
+            assertEquals(4, database.size());
+            for (String f : new String[]{"C6H12O6", "C9H8O4", "C6H5O7", "C10H16N"})
+                assertTrue(f, database.isFormulaExist(MolecularFormula.parse(f)));
+        } finally {
+            sdf.delete();
+            target.delete();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.unijena.bioinf.babelms.json;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.ChemistryBase.ms.ft.TreeScoring;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class FTJsonStreamingTest {
+    final String input = getClass().getResource("/de/unijena/bioinf/babelms/ms/casmi2016_084.json").getFile();
+
+    private FTree readTree() throws IOException {
+        try (BufferedReader b = Files.newBufferedReader(Paths.get(input), Charset.defaultCharset())) {
+            return new FTJsonReader().parse(b, null);
+        }
+    }
+
+    @Test
+    public void testWriterIsByteCompatible() throws IOException {
+        final FTree tree = readTree();
+        final FTJsonWriter writer = new FTJsonWriter();
+        final String expected = new GsonBuilder().setPrettyPrinting().create().toJson(writer.tree2json(tree));
+        assertEquals(expected, writer.treeToJsonString(tree));
+    }
+
+    @Test
+    public void testReadTree() throws IOException {
+        final FTree tree = readTree();
+        final JsonObject json = new JsonParser().parse(new String(Files.readAllBytes(Paths.get(input)), Charset.defaultCharset())).getAsJsonObject();
+        assertEquals(json.get("root").getAsString(), tree.getRoot().getFormula().toString());
+        assertEquals(json.getAsJsonArray("fragments").size(), tree.numberOfVertices());
+        assertEquals(json.getAsJsonArray("losses").size(), tree.numberOfEdges());
+        for (JsonElement e : json.getAsJsonArray("losses")) {
+            final JsonObject loss = e.getAsJsonObject();
+            final Loss l = findLoss(tree, MolecularFormula.parse(loss.get("target").getAsString()));
+            assertNotNull(l);
+            assertEquals(loss.get("source").getAsString(), l.getSource().getFormula().toString());
+            assertEquals(loss.get("score").getAsDouble(), l.getWeight(), 0d);
+        }
+        assertNotNull(tree.getAnnotationOrNull(PrecursorIonType.class));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final FTJsonWriter writer = new FTJsonWriter();
+        final FTJsonReader reader = new FTJsonReader();
+        final String first = writer.treeToJsonString(readTree());
+        final FTree again = reader.parse(new BufferedReader(new StringReader(first)), null);
+        assertEquals(first, writer.treeToJsonString(again));
+        assertEquals(first, writer.treeToJsonString(reader.treeFromJsonString(first, null)));
+        // an empty document contains no tree
+        assertNull(reader.parse(new BufferedReader(new StringReader("")), null));
+    }
+
+    @Test
+    public void testScoresSurviveRoundTrip() throws IOException {
+        final FTJsonWriter writer = new FTJsonWriter();
+        final FTJsonReader reader = new FTJsonReader();
+        final FTree tree = readTree();
+        final TreeScoring scoring = tree.getAnnotationOrThrow(TreeScoring.class);
+        scoring.setIsotopeMs1Score(1.5);
+        scoring.setRecalibrationPenalty(-0.25);
+        final String first = writer.treeToJsonString(tree);
+        final FTree again = reader.treeFromJsonString(first, null);
+        final TreeScoring scoringAgain = again.getAnnotationOrThrow(TreeScoring.class);
+        // these scores are no additional scores and must not be subtracted from the total score
+        assertTrue(scoringAgain.getAdditionalScores().isEmpty());
+        assertEquals(scoring.getOverallScore(), scoringAgain.getOverallScore(), 0d);
+        assertEquals(1.5, scoringAgain.getIsotopeMs1Score(), 0d);
+        assertEquals(-0.25, scoringAgain.getRecalibrationPenalty(), 0d);
+        assertEquals(first, writer.treeToJsonString(again));
+    }
+
+    private static Loss findLoss(FTree tree, MolecularFormula target) {
+        for (Fragment f : tree.getFragments()) {
+            if (f.getFormula().equals(target)) return f.isRoot() ? null : f.getIncomingEdge();
+        }
+        return null;
+    }
+
+}
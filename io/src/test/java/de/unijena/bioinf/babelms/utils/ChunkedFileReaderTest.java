@@ -0,0 +1,41 @@
+package de.unijena.bioinf.babelms.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChunkedFileReaderTest {
+
+    private static int nextLineStart(String s, int from, boolean endOfFile) {
+        final byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        return ChunkedFileReader.nextLineStart(ByteBuffer.wrap(bytes), from, bytes.length, endOfFile);
+    }
+
+    @Test
+    public void testLineTerminators() {
+        assertEquals(2, nextLineStart("a\nb", 0, false));
+        assertEquals(3, nextLineStart("a\r\nb", 0, false));
+        // a lone '\r' terminates a line, as in BufferedReader
+        assertEquals(2, nextLineStart("a\rb\rc", 0, false));
+        assertEquals(4, nextLineStart("a\rb\rc", 2, false));
+        assertEquals(-1, nextLineStart("abc", 0, true));
+    }
+
+    @Test
+    public void testSearchStartsWithinTerminator() {
+        // the search starts one byte before a chunk, so it might start on the '\r' or '\n' of a "\r\n"
+        assertEquals(3, nextLineStart("a\r\nb", 1, false));
+        assertEquals(3, nextLineStart("a\r\nb", 2, false));
+    }
+
+    @Test
+    public void testCarriageReturnAtEndOfBuffer() {
+        // the '\n' of a "\r\n" might be outside the buffer
+        assertEquals(-1, nextLineStart("ab\r", 0, false));
+        assertEquals(3, nextLineStart("ab\r", 0, true));
+    }
+
+}
@@ -185,17 +185,7 @@ public class Ms2DatasetPreprocessor {
 
 
         for (Ms2Experiment experiment : ms2Dataset.getExperiments()) {
-            Ms2Experiment validatedExperiment = experiment;
-            for (Ms2ExperimentValidator ms2ExperimentValidator : ms2ExperimentValidators) {
-                try {
-                    validatedExperiment = ms2ExperimentValidator.validate(validatedExperiment, validatorWarning, repairInput);
-
-                } catch (InvalidException exception) {
-                    LOG.warn("validation error: remove compound "+experiment.getName());
-                    validatedExperiment = null;
-                    break;
-                }
-            }
+            Ms2Experiment validatedExperiment = validate(experiment, validatorWarning);
             if (validatedExperiment!=null) validatedExperiments.add(validatedExperiment);
         }
         mutableMs2Dataset.setExperiments(validatedExperiments);
@@ -203,18 +193,33 @@ public class Ms2DatasetPreprocessor {
         return mutableMs2Dataset;
     }
 
+    /**
+     * validate a single experiment. Repair it if possible.
+     * @param experiment
+     * @param warning
+     * @return the validated experiment or null if it has to be removed
+     */
+    public Ms2Experiment validate(Ms2Experiment experiment, Warning warning) {
+        Ms2Experiment validatedExperiment = experiment;
+        for (Ms2ExperimentValidator ms2ExperimentValidator : ms2ExperimentValidators) {
+            try {
+                validatedExperiment = ms2ExperimentValidator.validate(validatedExperiment, warning, repairInput);
+
+            } catch (InvalidException exception) {
+                LOG.warn("validation error: remove compound "+experiment.getName());
+                return null;
+            }
+        }
+        return validatedExperiment;
+    }
+
 
     /**
      * initialized Sirus, ionizations, element predictors etc.
      * @param ms2Dataset
      */
     private void init(Ms2Dataset ms2Dataset) {
-        try {
-            sirius = new Sirius(ms2Dataset.getProfile());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
+        init(ms2Dataset.getProfile(), ms2Dataset.getMeasurementProfile());
 
         int chargeSign;
         try {
@@ -222,28 +227,51 @@ public class Ms2DatasetPreprocessor {
         } catch (IllegalArgumentException e) {
             throw new IllegalArgumentException("currently do not support preprocessing datasets with positive and negative charges.");
         }
+        setChargeSign(chargeSign);
+    }
 
+    /**
+     * initializes Sirius and the element predictor without looking at the experiments.
+     * The ionizations have to be set by {@link #setChargeSign(int)} or {@link #makeStatistics(List)}.
+     * @param profile
+     * @param measurementProfile
+     */
+    public void init(String profile, MeasurementProfile measurementProfile) {
+        try {
+            sirius = new Sirius(profile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        sirius.getMs2Analyzer().setDefaultProfile(measurementProfile);
+
+        //use silicon for our purpose
+        DNNRegressionPredictor defaultPredictor = new DNNRegressionPredictor();
+//        defaultPredictor.disableSilicon();
+        sirius.setElementPrediction(defaultPredictor);
+    }
+
+    /**
+     * set the standard ionizations which are used to find noise peaks
+     * @param chargeSign sign of the charges in the dataset. 0 if unknown
+     */
+    public void setChargeSign(int chargeSign) {
+        precursorIonTypes = getStandardIonTypes(chargeSign);
+    }
+
+    private static PrecursorIonType[] getStandardIonTypes(int chargeSign) {
         String[] STANDARD_IONIZATIONS;
         if (chargeSign<0){
             STANDARD_IONIZATIONS = STANDARD_IONIZATIONS_NEGATIVE;
         } else {
             STANDARD_IONIZATIONS = STANDARD_IONIZATIONS_POSITIVE;
         }
-        precursorIonTypes = new PrecursorIonType[STANDARD_IONIZATIONS.length];
+        PrecursorIonType[] precursorIonTypes = new PrecursorIonType[STANDARD_IONIZATIONS.length];
         for (int i = 0; i < STANDARD_IONIZATIONS.length; i++) {
             precursorIonTypes[i] = PrecursorIonType.getPrecursorIonType(STANDARD_IONIZATIONS[i]);
 
         }
-
-
-
-        MeasurementProfile measurementProfile = ms2Dataset.getMeasurementProfile();
-        sirius.getMs2Analyzer().setDefaultProfile(measurementProfile);
-
-        //use silicon for our purpose
-        DNNRegressionPredictor defaultPredictor = new DNNRegressionPredictor();
-//        defaultPredictor.disableSilicon();
-        sirius.setElementPrediction(defaultPredictor);
+        return precursorIonTypes;
     }
 
     /**
@@ -499,8 +527,12 @@ public class Ms2DatasetPreprocessor {
     }
 
     private FormulaConstraints predictElements(Ms2Experiment experiment, Ms2Dataset ms2Dataset) {
+        return predictElements(experiment, ms2Dataset.getMeasurementProfile());
+    }
+
+    private FormulaConstraints predictElements(Ms2Experiment experiment, MeasurementProfile measurementProfile) {
         FormulaConstraints constraints = sirius.predictElementsFromMs1(experiment);
-        FormulaConstraints globalConstraints = ms2Dataset.getMeasurementProfile().getFormulaConstraints();
+        FormulaConstraints globalConstraints = measurementProfile.getFormulaConstraints();
         if (constraints==null) return globalConstraints;
 
         ElementPredictor elementPredictor = sirius.getElementPrediction();
@@ -516,11 +548,15 @@ public class Ms2DatasetPreprocessor {
 
 
     private void annotateNoise(ExperimentWithAnnotatedSpectra experiment){
+        annotateNoise(experiment, precursorIonTypes);
+    }
+
+    private void annotateNoise(ExperimentWithAnnotatedSpectra experiment, PrecursorIonType[] precursorIonTypes){
         for (Spectrum<PeakWithAnnotation> spectrum : experiment.getMs1spectra()) {
-            annotateNoise(spectrum, experiment.getExperiment());
+            annotateNoise(spectrum, experiment.getExperiment(), precursorIonTypes);
         }
         for (Spectrum<PeakWithAnnotation> spectrum : experiment.getMs2spectra()) {
-            annotateNoise(spectrum, experiment.getExperiment());
+            annotateNoise(spectrum, experiment.getExperiment(), precursorIonTypes);
         }
     }
 
@@ -529,7 +565,7 @@ public class Ms2DatasetPreprocessor {
      * only annote peaks with very high possibility being noise (use large mass deviation window)
      * @param spectrum mass ordered spectrum
      */
-    private void annotateNoise(Spectrum<PeakWithAnnotation> spectrum, Ms2Experiment experiment){
+    private void annotateNoise(Spectrum<PeakWithAnnotation> spectrum, Ms2Experiment experiment, PrecursorIonType[] precursorIonTypes){
         for (PeakWithAnnotation peakWithAnnotation : spectrum) {
             peakWithAnnotation.setNoise(true);
         }
@@ -658,20 +694,198 @@ public class Ms2DatasetPreprocessor {
     }
 
     public void estimateIsolationWindow(MutableMs2Dataset ms2Dataset){
-        if (ms2Dataset.getIsolationWindow()==null){
-            double width = ms2Dataset.getIsolationWindowWidth();
-            if (Double.isNaN(width) || width<=0){
-                width = 10;
-                ms2Dataset.setIsolationWindow(new EstimatedIsolationWindow(width, 0, true, findMs1PeakDeviation));
-                ms2Dataset.getIsolationWindow().estimate(ms2Dataset);
-                width = ms2Dataset.getIsolationWindow().getEstimatedWindowSize();
-                ms2Dataset.setIsolationWindowWidth(width);
-            } else {
-                ms2Dataset.setIsolationWindow(new EstimatedIsolationWindow(width, 0, false, findMs1PeakDeviation));
-                ms2Dataset.getIsolationWindow().estimate(ms2Dataset);
-                //todo also set new isolationWindowWidth?
+        IsolationWindow.Estimation estimation = startIsolationWindowEstimation(ms2Dataset);
+        if (estimation==null) return;
+        for (Ms2Experiment experiment : ms2Dataset.getExperiments()) {
+            estimation.add(experiment);
+        }
+        finishIsolationWindowEstimation(ms2Dataset, estimation);
+    }
+
+    /**
+     * set the isolation window of the dataset which is estimated from the experiments added to the returned estimation.
+     * Allows to estimate the window without keeping all experiments in memory.
+     * @param ms2Dataset
+     * @return the estimation or null if the dataset already has an isolation window
+     */
+    public IsolationWindow.Estimation startIsolationWindowEstimation(MutableMs2Dataset ms2Dataset){
+        if (ms2Dataset.getIsolationWindow()!=null) return null;
+        double width = ms2Dataset.getIsolationWindowWidth();
+        if (Double.isNaN(width) || width<=0){
+            width = 10;
+            ms2Dataset.setIsolationWindow(new EstimatedIsolationWindow(width, 0, true, findMs1PeakDeviation));
+        } else {
+            ms2Dataset.setIsolationWindow(new EstimatedIsolationWindow(width, 0, false, findMs1PeakDeviation));
+        }
+        return ms2Dataset.getIsolationWindow().startEstimation(ms2Dataset);
+    }
+
+    public void finishIsolationWindowEstimation(MutableMs2Dataset ms2Dataset, IsolationWindow.Estimation estimation){
+        estimation.finish();
+        double width = ms2Dataset.getIsolationWindowWidth();
+        if (Double.isNaN(width) || width<=0){
+            width = ms2Dataset.getIsolationWindow().getEstimatedWindowSize();
+            ms2Dataset.setIsolationWindowWidth(width);
+        }
+        //todo also set new isolationWindowWidth?
+    }
+
+    /*
+    streaming preprocessing: the steps of preprocess for a single experiment, so a dataset can be preprocessed
+    without having all experiments in memory. See StreamingBatchPipeline. The dataset passed to these methods
+    provides the profile, the isolation window width and the statistics, its experiments are ignored.
+        -> init(String, MeasurementProfile)
+        -> validate(Ms2Experiment, Warning)
+        -> collectStatistics for all experiments
+        -> makeStatistics (sets charge and statistics, prepares the quality annotators)
+        -> flagBadQuality for all experiments -> isolation window estimation
+        -> flagBadQuality + finishPreprocessing for all experiments
+     */
+
+    /**
+     * element prediction, min/max intensities and noise intensities of a single experiment. Requires {@link #init(String, MeasurementProfile)}
+     * @param experiment validated experiment
+     * @param measurementProfile
+     * @return
+     */
+    public ExperimentStatistics collectStatistics(Ms2Experiment experiment, MeasurementProfile measurementProfile) {
+        MutableMs2Experiment mutableExperiment = new MutableMs2Experiment(experiment);
+        mutableExperiment.setAnnotation(FormulaConstraints.class, predictElements(mutableExperiment, measurementProfile));
+
+        List<Spectrum<PeakWithAnnotation>> ms1 = convert(mutableExperiment.getMs1Spectra());
+        List<Spectrum<PeakWithAnnotation>> ms2 = convert(mutableExperiment.getMs2Spectra());
+        ExperimentWithAnnotatedSpectra experimentWithAnnotatedSpectra = new ExperimentWithAnnotatedSpectra(new MutableMs2Experiment(mutableExperiment), ms1, ms2);
+
+        int chargeSign = (int)Math.signum(experiment.getPrecursorIonType().getCharge());
+        ExperimentStatistics statistics = new ExperimentStatistics(chargeSign);
+        for (Spectrum<PeakWithAnnotation> spectrum : ms1) {
+            statistics.maxMs1Intensities.add(Spectrums.getMaximalIntensity(spectrum));
+            statistics.minMs1Intensities.add(Spectrums.getMinimalIntensity(spectrum));
+        }
+        for (Spectrum<PeakWithAnnotation> spectrum : ms2) {
+            statistics.maxMs2Intensities.add(Spectrums.getMaximalIntensity(spectrum));
+            statistics.minMs2Intensities.add(Spectrums.getMinimalIntensity(spectrum));
+        }
+
+        //the ionizations depend on the charge of the whole dataset. If the charge of this experiment is unknown, use both.
+        if (chargeSign>=0) statistics.positiveNoiseIntensities = collectNoiseIntensities(experimentWithAnnotatedSpectra, getStandardIonTypes(1));
+        if (chargeSign<=0) statistics.negativeNoiseIntensities = collectNoiseIntensities(experimentWithAnnotatedSpectra, getStandardIonTypes(-1));
+        return statistics;
+    }
+
+    private TDoubleArrayList collectNoiseIntensities(ExperimentWithAnnotatedSpectra experiment, PrecursorIonType[] precursorIonTypes) {
+        TDoubleArrayList noiseIntensities = new TDoubleArrayList();
+        annotateNoise(experiment, precursorIonTypes);
+        for (Spectrum<PeakWithAnnotation> spectrum : experiment.getMs2spectra()) {
+            for (PeakWithAnnotation peakWithAnnotation : spectrum) {
+                if (peakWithAnnotation.isNoise()){
+                    noiseIntensities.add(peakWithAnnotation.getIntensity());
+                }
+            }
+        }
+        return noiseIntensities;
+    }
+
+    /**
+     * combines the statistics of all experiments of the dataset, sets the ionizations and prepares the quality annotators.
+     * @param experimentStatistics statistics of all experiments in the order of the dataset
+     * @return the same statistics as computed by {@link #flagBadQualitySpectra(Ms2Dataset)}
+     * @throws IllegalArgumentException dataset contains positive and negative charges
+     */
+    public DatasetStatistics makeStatistics(List<ExperimentStatistics> experimentStatistics) throws IllegalArgumentException {
+        int chargeSign = 0;
+        for (ExperimentStatistics statistics : experimentStatistics) {
+            if (chargeSign==0){
+                chargeSign = statistics.chargeSign;
+            } else if (chargeSign*statistics.chargeSign<0){
+                throw new IllegalArgumentException("currently do not support preprocessing datasets with positive and negative charges.");
             }
+        }
+        setChargeSign(chargeSign);
 
+        DatasetStatistics datasetStatistics = new DatasetStatistics();
+        for (ExperimentStatistics statistics : experimentStatistics) {
+            for (int i = 0; i < statistics.maxMs1Intensities.size(); i++) {
+                datasetStatistics.addMaxMs1Intensity(statistics.maxMs1Intensities.get(i));
+                datasetStatistics.addMinMs1Intensity(statistics.minMs1Intensities.get(i));
+            }
+            for (int i = 0; i < statistics.maxMs2Intensities.size(); i++) {
+                datasetStatistics.addMaxMs2Intensity(statistics.maxMs2Intensities.get(i));
+                datasetStatistics.addMinMs2Intensity(statistics.minMs2Intensities.get(i));
+            }
+        }
+        for (ExperimentStatistics statistics : experimentStatistics) {
+            TDoubleArrayList noiseIntensities = chargeSign<0 ? statistics.negativeNoiseIntensities : statistics.positiveNoiseIntensities;
+            for (int i = 0; i < noiseIntensities.size(); i++) {
+                datasetStatistics.addMs2NoiseIntensity(noiseIntensities.get(i));
+            }
+        }
+
+        this.datasetStatistics = datasetStatistics;
+        for (QualityAnnotator qualityAnnotator : qualityAnnotators) {
+            qualityAnnotator.prepare(datasetStatistics);
+        }
+        return datasetStatistics;
+    }
+
+    /**
+     * predict elements and annotate {@link CompoundQuality} of a single experiment (without chimerics).
+     * Requires {@link #makeStatistics(List)}
+     * @param experiment validated experiment
+     * @param ms2Dataset
+     * @return
+     */
+    public MutableMs2Experiment flagBadQuality(Ms2Experiment experiment, Ms2Dataset ms2Dataset) {
+        MutableMs2Experiment mutableExperiment = new MutableMs2Experiment(experiment);
+        mutableExperiment.setAnnotation(FormulaConstraints.class, predictElements(mutableExperiment, ms2Dataset));
+        return annotateQuality(mutableExperiment, ms2Dataset, false);
+    }
+
+    /**
+     * flag chimerics and annotate the isolation window of a single experiment. The dataset has to contain the estimated isolation window.
+     * @param experiment experiment returned by {@link #flagBadQuality(Ms2Experiment, Ms2Dataset)}
+     * @param ms2Dataset
+     * @return
+     */
+    public MutableMs2Experiment finishPreprocessing(Ms2Experiment experiment, Ms2Dataset ms2Dataset) {
+        MutableMs2Experiment mutableExperiment = annotateQuality(experiment, ms2Dataset, true);
+        mutableExperiment.setAnnotation(IsolationWindow.class,  ms2Dataset.getIsolationWindow());
+        CompoundQuality quality = mutableExperiment.getAnnotation(CompoundQuality.class);
+        if (quality==null) {
+            mutableExperiment.setAnnotation(CompoundQuality.class, new CompoundQuality(SpectrumProperty.Good));
+        } else if (quality.isNotBadQuality() && !quality.isGoodQuality()) quality.addProperty(SpectrumProperty.Good);
+        return mutableExperiment;
+    }
+
+    private MutableMs2Experiment annotateQuality(Ms2Experiment experiment, Ms2Dataset ms2Dataset, boolean chimeric) {
+        MutableMs2Dataset singleExperimentDataset = new MutableMs2Dataset(Collections.singletonList(experiment), ms2Dataset.getProfile(), ms2Dataset.getIsolationWindowWidth(), ms2Dataset.getMeasurementProfile());
+        singleExperimentDataset.setIsolationWindow(ms2Dataset.getIsolationWindow());
+        singleExperimentDataset.setDatasetStatistics(ms2Dataset.getDatasetStatistics());
+        for (QualityAnnotator qualityAnnotator : qualityAnnotators) {
+            if ((qualityAnnotator instanceof ChimericAnnotator) == chimeric) qualityAnnotator.annotate(singleExperimentDataset);
+        }
+        return singleExperimentDataset.getExperiments().get(0);
+    }
+
+    /**
+     * statistics of a single experiment, see {@link #collectStatistics(Ms2Experiment, MeasurementProfile)}
+     */
+    public static class ExperimentStatistics {
+        private final int chargeSign;
+        private final TDoubleArrayList minMs1Intensities, maxMs1Intensities, minMs2Intensities, maxMs2Intensities;
+        //noise intensities assuming positive or negative standard ionizations
+        private TDoubleArrayList positiveNoiseIntensities, negativeNoiseIntensities;
+
+        private ExperimentStatistics(int chargeSign) {
+            this.chargeSign = chargeSign;
+            this.minMs1Intensities = new TDoubleArrayList();
+            this.maxMs1Intensities = new TDoubleArrayList();
+            this.minMs2Intensities = new TDoubleArrayList();
+            this.maxMs2Intensities = new TDoubleArrayList();
+        }
+
+        public int getChargeSign() {
+            return chargeSign;
         }
     }
 
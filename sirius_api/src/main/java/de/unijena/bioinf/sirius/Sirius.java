@@ -40,6 +40,7 @@ import de.unijena.bioinf.IsotopePatternAnalysis.prediction.DNNRegressionPredicto
 import de.unijena.bioinf.IsotopePatternAnalysis.prediction.ElementPredictor;
 import de.unijena.bioinf.babelms.CloseableIterator;
 import de.unijena.bioinf.babelms.MsExperimentParser;
+import de.unijena.bioinf.babelms.chemdb.MappedFormulaDatabase;
 import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.BasicMasterJJob;
 import de.unijena.bioinf.jjobs.JobProgressEvent;
@@ -676,6 +677,53 @@ public class Sirius {
         experiment.setAnnotation(Whiteset.class, whiteset);
     }
 
+    /**
+     * Restricts the molecular formula candidates of the experiment to the formulas of the given database. The database
+     * is queried for all formulas which explain the precursor mass within the allowed mass deviation, and these
+     * formulas are set as whiteset, so the precursor is not decomposed. If the ion type is unknown, all allowed
+     * adducts (or all known ion types of the charge) are considered.
+     * The given experiment is modified: the whiteset is set as its annotation and, if the ion type is unknown and the
+     * experiment has no {@link PossibleAdducts}, the considered adducts are set as its PossibleAdducts.
+     *
+     * @return the number of candidate formulas. If no formula is found, the experiment has no candidates.
+     */
+    public int setFormulaSearchDatabase(Ms2Experiment experiment, MappedFormulaDatabase database) {
+        return setFormulaSearchDatabase(experiment, database, false);
+    }
+
+    /**
+     * Restricts the molecular formula candidates of the experiment to the formulas of the given database.
+     * Modifies the annotations of the given experiment, see {@link #setFormulaSearchDatabase(Ms2Experiment, MappedFormulaDatabase)}.
+     *
+     * @param decomposeIfNotFound if no formula of the database explains the precursor mass, the precursor is
+     *                            decomposed as usual instead of leaving the experiment without candidates
+     * @return the number of candidate formulas found in the database
+     */
+    public int setFormulaSearchDatabase(Ms2Experiment experiment, MappedFormulaDatabase database, boolean decomposeIfNotFound) {
+        final MeasurementProfile profile = experiment.getAnnotation(MeasurementProfile.class, null);
+        final Deviation deviation = profile != null && profile.getAllowedMassDeviation() != null ? profile.getAllowedMassDeviation() : getMs2Analyzer().getDefaultProfile().getAllowedMassDeviation();
+        final PrecursorIonType ionType = experiment.getPrecursorIonType();
+        final List<PrecursorIonType> ionTypes = new ArrayList<>();
+        if (ionType.isIonizationUnknown()) {
+            final PossibleAdducts adducts = experiment.getAnnotation(PossibleAdducts.class, null);
+            if (adducts != null && !adducts.getAdducts().isEmpty()) Iterables.addAll(ionTypes, adducts.getAdducts());
+            else if (ionType.getCharge() != 0) Iterables.addAll(ionTypes, PeriodicTable.getInstance().getKnownLikelyPrecursorIonizations(ionType.getCharge()));
+            else Iterables.addAll(ionTypes, Iterables.concat(PeriodicTable.getInstance().getKnownLikelyPrecursorIonizations(1), PeriodicTable.getInstance().getKnownLikelyPrecursorIonizations(-1)));
+        } else {
+            ionTypes.add(ionType);
+        }
+        final Set<MolecularFormula> formulas = database.findMolecularFormulasByPrecursor(experiment.getIonMass(), deviation, ionTypes);
+        if (!formulas.isEmpty()) {
+            experiment.setAnnotation(Whiteset.class, new Whiteset(formulas));
+            // the whiteset is resolved against the possible adducts if the ion type is unknown
+            if (ionType.isIonizationUnknown() && experiment.getAnnotation(PossibleAdducts.class, null) == null)
+                experiment.setAnnotation(PossibleAdducts.class, new PossibleAdducts(ionTypes));
+        } else if (!decomposeIfNotFound) {
+            experiment.setAnnotation(Whiteset.class, Whiteset.none());
+        }
+        return formulas.size();
+    }
+
     public void enableRecalibration(MutableMs2Experiment experiment, boolean enabled) {
         experiment.setAnnotation(ForbidRecalibration.class, enabled ? ForbidRecalibration.ALLOWED : ForbidRecalibration.FORBIDDEN);
     }
@@ -0,0 +1,250 @@
+package de.unijena.bioinf.sirius;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.*;
+import de.unijena.bioinf.ChemistryBase.ms.inputValidators.Warning;
+import de.unijena.bioinf.babelms.CloseableIterator;
+import de.unijena.bioinf.babelms.GenericParser;
+import de.unijena.bioinf.babelms.MsExperimentParser;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.BasicMasterJJob;
+import de.unijena.bioinf.jjobs.JobManager;
+import de.unijena.bioinf.sirius.projectspace.AsyncProjectWriter;
+import de.unijena.bioinf.sirius.projectspace.ExperimentResult;
+import de.unijena.bioinf.sirius.projectspace.ProjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Preprocesses and identifies all compounds of an input file and writes them into a project space without keeping
+ * the dataset in memory. The compounds are streamed from the parser through the per compound steps of the
+ * {@link Ms2DatasetPreprocessor} and the identification job into the {@link ProjectWriter}. At most
+ * maxCompoundsInFlight compounds are parsed ahead of the writer, and the computed results wait in the bounded queue
+ * of an {@link AsyncProjectWriter}, so memory does not grow with the size of the dataset.
+ *
+ * Some preprocessing steps need information about the whole dataset. Therefore, the input file is parsed up to
+ * three times: the first pass collects the intensity and noise statistics, the second pass estimates the isolation
+ * window from the compounds of good quality (skipped if the window is already known) and the last pass
+ * preprocesses and identifies the compounds. The results are written in the order of the input file and are the
+ * same as if the whole dataset was preprocessed by {@link Ms2DatasetPreprocessor#preprocess(Ms2Dataset)} and each
+ * compound was identified afterwards.
+ *
+ * The pipeline is an IO job which waits for the compound jobs on the CPU threads. The results are written by the
+ * own thread of the {@link AsyncProjectWriter}, so the pipeline occupies only a single IO thread and does not wait
+ * for jobs on the IO pool. It returns the number of written compounds and closes the writer when finished.
+ */
+public class StreamingBatchPipeline extends BasicJJob<Integer> {
+
+    protected static Logger logger = LoggerFactory.getLogger(StreamingBatchPipeline.class);
+
+    protected final Sirius sirius;
+    protected final File input;
+    protected final GenericParser<Ms2Experiment> parser;
+    protected final ProjectWriter writer;
+    protected final int numberOfCandidates, maxCompoundsInFlight;
+    protected final Ms2DatasetPreprocessor preprocessor;
+    // provides profile, isolation window and statistics for the per compound steps. Has no experiments.
+    protected final MutableMs2Dataset dataset;
+    // the dataset as it is before the isolation window is estimated, which is used to flag bad quality compounds
+    protected MutableMs2Dataset qualityDataset;
+
+    public StreamingBatchPipeline(Sirius sirius, File input, ProjectWriter writer, int numberOfCandidates) {
+        this(sirius, input, writer, numberOfCandidates, "default", Double.NaN, 2 * SiriusJobs.getGlobalJobManager().getCPUThreads());
+    }
+
+    /**
+     * @param sirius               used for the identification
+     * @param input                a file in a format known by {@link MsExperimentParser}
+     * @param writer               receives the results in the order of the input file
+     * @param numberOfCandidates   number of candidates to keep per compound
+     * @param profile              profile which is used for preprocessing
+     * @param isolationWindowWidth maximum isolation window width, NaN if unknown
+     * @param maxCompoundsInFlight maximum number of compounds which are parsed but not yet handed to the writer
+     */
+    public StreamingBatchPipeline(Sirius sirius, File input, ProjectWriter writer, int numberOfCandidates, String profile, double isolationWindowWidth, int maxCompoundsInFlight) {
+        super(JobType.IO);
+        if (maxCompoundsInFlight <= 0) throw new IllegalArgumentException("number of compounds in flight has to be positive");
+        this.sirius = sirius;
+        this.input = input;
+        this.parser = new MsExperimentParser().getParser(input);
+        if (parser == null) throw new IllegalArgumentException("Unknown file format: " + input.getName());
+        this.writer = writer;
+        this.numberOfCandidates = numberOfCandidates;
+        this.maxCompoundsInFlight = maxCompoundsInFlight;
+        this.preprocessor = new Ms2DatasetPreprocessor(true);
+        this.dataset = new MutableMs2Dataset(Collections.<Ms2Experiment>emptyList(), profile, isolationWindowWidth, sirius.getMs2Analyzer().getDefaultProfile());
+    }
+
+    @Override
+    protected Integer compute() throws Exception {
+        final AsyncProjectWriter asyncWriter = writer instanceof AsyncProjectWriter ? (AsyncProjectWriter) writer : new AsyncProjectWriter(writer);
+        final int written;
+        try {
+            preprocessor.init(dataset.getProfile(), dataset.getMeasurementProfile());
+            final int numberOfCompounds = collectStatistics();
+            estimateIsolationWindow();
+            written = identify(asyncWriter, numberOfCompounds);
+        } catch (Exception e) {
+            try {
+                asyncWriter.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
+        }
+        asyncWriter.close();
+        return written;
+    }
+
+    /**
+     * first pass: statistics about intensities and noise
+     */
+    protected int collectStatistics() throws Exception {
+        final Warning quiet = new Warning.Noop();
+        final MeasurementProfile measurementProfile = dataset.getMeasurementProfile();
+        final List<Ms2DatasetPreprocessor.ExperimentStatistics> statistics = new ArrayList<>();
+        stream(experiment -> {
+            final Ms2Experiment validated = preprocessor.validate(experiment, quiet);
+            return validated == null ? null : preprocessor.collectStatistics(validated, measurementProfile);
+        }, statistics::add);
+        dataset.setDatasetStatistics(preprocessor.makeStatistics(statistics));
+        qualityDataset = new MutableMs2Dataset(dataset);
+        return statistics.size();
+    }
+
+    /**
+     * second pass: isolation window from the compounds of good quality
+     */
+    protected void estimateIsolationWindow() throws Exception {
+        final IsolationWindow.Estimation estimation = preprocessor.startIsolationWindowEstimation(dataset);
+        if (estimation == null) return;
+        final Warning quiet = new Warning.Noop();
+        stream(experiment -> {
+            final Ms2Experiment validated = preprocessor.validate(experiment, quiet);
+            return validated == null ? null : estimation.extract(preprocessor.flagBadQuality(validated, qualityDataset));
+        }, estimation::add);
+        preprocessor.finishIsolationWindowEstimation(dataset, estimation);
+    }
+
+    /**
+     * last pass: preprocess, identify and write the compounds
+     */
+    protected int identify(final ProjectWriter writer, final int numberOfCompounds) throws Exception {
+        final int[] written = new int[1];
+        final ArrayDeque<IdentificationJJob> inFlight = new ArrayDeque<>();
+        final JobManager jobManager = SiriusJobs.getGlobalJobManager();
+        try (final CloseableIterator<Ms2Experiment> experiments = parser.parseFromFileIterator(input)) {
+            while (experiments.hasNext()) {
+                checkForInterruption();
+                final Ms2Experiment experiment = experiments.next();
+                if (experiment == null) continue;
+                inFlight.add(jobManager.submitJob(new IdentificationJJob(experiment)));
+                if (inFlight.size() >= maxCompoundsInFlight) write(inFlight.poll(), writer, written, numberOfCompounds);
+            }
+            while (!inFlight.isEmpty()) write(inFlight.poll(), writer, written, numberOfCompounds);
+        } finally {
+            for (IdentificationJJob job : inFlight) job.cancel(false);
+        }
+        return written[0];
+    }
+
+    private void write(IdentificationJJob job, ProjectWriter writer, int[] written, int numberOfCompounds) throws IOException, ExecutionException {
+        final ExperimentResult result = job.awaitResult();
+        if (result == null) return;
+        writer.writeExperiment(result);
+        updateProgress(0, numberOfCompounds, ++written[0]);
+    }
+
+    /**
+     * parses the input file and applies the step to each compound on the CPU threads. The results are handed to
+     * the consumer in the order of the input file, null results are skipped.
+     */
+    protected <R> void stream(Function<Ms2Experiment, R> step, ResultConsumer<R> consumer) throws Exception {
+        final ArrayDeque<CompoundJJob<R>> inFlight = new ArrayDeque<>();
+        final JobManager jobManager = SiriusJobs.getGlobalJobManager();
+        try (final CloseableIterator<Ms2Experiment> experiments = parser.parseFromFileIterator(input)) {
+            while (experiments.hasNext()) {
+                checkForInterruption();
+                final Ms2Experiment experiment = experiments.next();
+                if (experiment == null) continue;
+                inFlight.add(jobManager.submitJob(new CompoundJJob<>(experiment, step)));
+                if (inFlight.size() >= maxCompoundsInFlight) consume(inFlight.poll(), consumer);
+            }
+            while (!inFlight.isEmpty()) consume(inFlight.poll(), consumer);
+        } finally {
+            for (CompoundJJob<R> job : inFlight) job.cancel(false);
+        }
+    }
+
+    private static <R> void consume(CompoundJJob<R> job, ResultConsumer<R> consumer) throws Exception {
+        final R result = job.awaitResult();
+        if (result != null) consumer.accept(result);
+    }
+
+    /**
+     * @return the statistics of the dataset, available after the first pass
+     */
+    public DatasetStatistics getDatasetStatistics() {
+        return dataset.getDatasetStatistics();
+    }
+
+    /**
+     * @return the isolation window of the dataset, available after the second pass
+     */
+    public IsolationWindow getIsolationWindow() {
+        return dataset.getIsolationWindow();
+    }
+
+    protected interface ResultConsumer<R> {
+        void accept(R result) throws Exception;
+    }
+
+    protected static class CompoundJJob<R> extends BasicJJob<R> {
+        protected final Ms2Experiment experiment;
+        protected final Function<Ms2Experiment, R> step;
+
+        protected CompoundJJob(Ms2Experiment experiment, Function<Ms2Experiment, R> step) {
+            super(JobType.CPU);
+            this.experiment = experiment;
+            this.step = step;
+        }
+
+        @Override
+        protected R compute() throws Exception {
+            return step.apply(experiment);
+        }
+    }
+
+    protected class IdentificationJJob extends BasicMasterJJob<ExperimentResult> {
+        protected final Ms2Experiment experiment;
+
+        protected IdentificationJJob(Ms2Experiment experiment) {
+            super(JobType.CPU);
+            this.experiment = experiment;
+        }
+
+        @Override
+        protected ExperimentResult compute() throws Exception {
+            final Ms2Experiment validated = preprocessor.validate(experiment, logger::warn);
+            if (validated == null) return null;
+            final Ms2Experiment preprocessed = preprocessor.finishPreprocessing(preprocessor.flagBadQuality(validated, qualityDataset), dataset);
+            final Sirius.SiriusIdentificationJob identificationJob = sirius.makeIdentificationJob(preprocessed, numberOfCandidates);
+            submitSubJob(identificationJob);
+            try {
+                return new ExperimentResult(preprocessed, identificationJob.awaitResult());
+            } catch (ExecutionException e) {
+                logger.error("Error while identifying " + preprocessed.getName(), e.getCause());
+                return new ExperimentResult(preprocessed, null, ExperimentResult.ErrorCause.ERROR, String.valueOf(e.getCause().getMessage()));
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.Spectrum;
+import de.unijena.bioinf.sirius.IdentificationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes experiments asynchronously into another {@link ProjectWriter}. {@link #writeExperiment(ExperimentResult)}
+ * only puts the result into a queue, which is written by a dedicated daemon thread. The writer does not use a
+ * thread of the job manager, because the jobs which produce the results might occupy all of its (few) IO threads
+ * while they wait for space in the queue. The queue is bounded by the estimated
+ * size of the queued results (see {@link #estimateBytes(ExperimentResult)}). If the queue is full, the calling
+ * job is blocked until the writer catches up, so results cannot pile up on the heap if the disk is slower than
+ * the computation. A single result which is larger than the limit is accepted if the queue is empty.
+ *
+ * {@link #close()} waits until all queued results are written and closes the underlying writer. An error of the
+ * underlying writer is thrown by the next call of writeExperiment or close.
+ */
+public class AsyncProjectWriter implements ProjectWriter {
+
+    protected static Logger logger = LoggerFactory.getLogger(AsyncProjectWriter.class);
+
+    public final static long DEFAULT_MAX_QUEUED_BYTES = 64L << 20;
+
+    protected static class QueuedResult {
+        protected final ExperimentResult result;
+        protected final long bytes;
+
+        protected QueuedResult(ExperimentResult result, long bytes) {
+            this.result = result;
+            this.bytes = bytes;
+        }
+    }
+
+    protected final ProjectWriter writer;
+    protected final long maxQueuedBytes;
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition notFull = lock.newCondition(), notEmpty = lock.newCondition();
+    protected final ArrayDeque<QueuedResult> queue = new ArrayDeque<>();
+    protected final Thread writerThread;
+    protected final long startTime;
+
+    // all fields below are guarded by lock
+    protected long queuedBytes, writtenEstimatedBytes, writtenExperiments, stallNanos, maxQueueLength;
+    protected boolean closed = false;
+    protected Throwable error;
+
+    public AsyncProjectWriter(ProjectWriter writer) {
+        this(writer, DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    public AsyncProjectWriter(ProjectWriter writer, long maxQueuedBytes) {
+        if (maxQueuedBytes <= 0) throw new IllegalArgumentException("queue limit has to be positive");
+        this.writer = writer;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.startTime = System.nanoTime();
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeQueue();
+            }
+        }, "async-project-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * puts the result into the queue. Blocks while the queue is full.
+     */
+    @Override
+    public void writeExperiment(ExperimentResult result) throws IOException {
+        final long bytes = estimateBytes(result);
+        lock.lock();
+        try {
+            if (!queue.isEmpty() && queuedBytes + bytes > maxQueuedBytes) {
+                final long start = System.nanoTime();
+                try {
+                    while (error == null && !closed && !queue.isEmpty() && queuedBytes + bytes > maxQueuedBytes)
+                        notFull.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the project writer");
+                } finally {
+                    stallNanos += System.nanoTime() - start;
+                }
+            }
+            checkError();
+            if (closed) throw new IOException("Project writer is already closed");
+            queue.add(new QueuedResult(result, bytes));
+            queuedBytes += bytes;
+            maxQueueLength = Math.max(maxQueueLength, queue.size());
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * writes all queued results and closes the underlying writer
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the project writer");
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            setError(e);
+        }
+        logger.debug(toString());
+        lock.lock();
+        try {
+            checkError();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getWrittenExperiments() {
+        lock.lock();
+        try {
+            return writtenExperiments;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the throughput since the writer was created in bytes per second. The bytes are counted by the
+     * underlying {@link DirectoryWriter}s (see {@link DirectoryWriter#getWrittenBytes()}). For other writers, the
+     * estimated size of the written results is used instead (see {@link #estimateBytes(ExperimentResult)}).
+     */
+    public double getBytesPerSecond() {
+        final double seconds = (System.nanoTime() - startTime) / 1e9;
+        final long written = writtenBytes(writer);
+        lock.lock();
+        try {
+            return seconds > 0 ? (written >= 0 ? written : writtenEstimatedBytes) / seconds : 0d;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * returns the number of bytes written by the writer or -1 if it does not count its bytes
+     */
+    protected static long writtenBytes(ProjectWriter writer) {
+        if (writer instanceof DirectoryWriter) return ((DirectoryWriter) writer).getWrittenBytes();
+        if (writer instanceof MultipleProjectWriter) {
+            long sum = 0;
+            for (ProjectWriter w : ((MultipleProjectWriter) writer).writers) {
+                final long bytes = writtenBytes(w);
+                if (bytes < 0) return -1;
+                sum += bytes;
+            }
+            return sum;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the total time in milliseconds which jobs spent waiting because the queue was full
+     */
+    public long getStallTimeMillis() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(stallNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "AsyncProjectWriter: " + writtenExperiments + " experiments written, " + queue.size() + " queued (max. "
+                    + maxQueueLength + "), " + String.format("%.1f", getBytesPerSecond() / 1024d) + " KB/s, stalled for "
+                    + getStallTimeMillis() + " ms";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimates the memory of a result by the number of peaks in its spectra and the number of fragments in its
+     * trees. The estimate is only used to bound the queue, so it does not have to be exact.
+     */
+    public static long estimateBytes(ExperimentResult result) {
+        long bytes = 1024;
+        final Ms2Experiment experiment = result.getExperiment();
+        if (experiment != null) {
+            for (Spectrum<?> s : experiment.getMs1Spectra()) bytes += 64 + 16L * s.size();
+            for (Spectrum<?> s : experiment.getMs2Spectra()) bytes += 64 + 16L * s.size();
+            if (experiment.getMergedMs1Spectrum() != null) bytes += 64 + 16L * experiment.getMergedMs1Spectrum().size();
+        }
+        if (result.getResults() != null) {
+            for (IdentificationResult r : result.getResults()) {
+                bytes += 512;
+                if (r.getRawTree() != null) bytes += 512L * r.getRawTree().numberOfVertices();
+            }
+        }
+        return bytes;
+    }
+
+    protected void setError(Throwable t) {
+        lock.lock();
+        try {
+            if (error == null) error = t;
+            else if (error != t) error.addSuppressed(t);
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void checkError() throws IOException {
+        if (error == null) return;
+        if (error instanceof IOException) throw (IOException) error;
+        throw new IOException("Error while writing project", error);
+    }
+
+    /*
+     * runs in the writer thread until the writer is closed and the queue is empty, or an error occurs
+     */
+    protected void writeQueue() {
+        while (true) {
+            final QueuedResult next;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) notEmpty.awaitUninterruptibly();
+                if (queue.isEmpty()) return;
+                // the result stays in the queue until it is written, so its memory is still counted
+                next = queue.peek();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                writer.writeExperiment(next.result);
+            } catch (Throwable e) {
+                lock.lock();
+                try {
+                    setError(e);
+                    // nothing more is written, so the queued results are dropped
+                    queue.clear();
+                    queuedBytes = 0;
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            lock.lock();
+            try {
+                queue.poll();
+                queuedBytes -= next.bytes;
+                writtenEstimatedBytes += next.bytes;
+                ++writtenExperiments;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
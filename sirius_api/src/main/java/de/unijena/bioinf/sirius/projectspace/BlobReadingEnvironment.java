@@ -0,0 +1,84 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Reads a project space written with a {@link BlobWritingEnvironment}. Files which refer to a blob are replaced by
+ * the content of the blob, so readers like the {@link DirectoryReader} do not see any difference to a project space
+ * which contains the files itself. Files without reference are read from the wrapped environment as they are.
+ */
+public class BlobReadingEnvironment implements DirectoryReader.ReadingEnvironment {
+
+    protected final DirectoryReader.ReadingEnvironment env;
+    protected final BlobStore store;
+    protected InputStream currentBlob;
+
+    public BlobReadingEnvironment(DirectoryReader.ReadingEnvironment env, BlobStore store) {
+        this.env = env;
+        this.store = store;
+    }
+
+    @Override
+    public List<String> list() {
+        return env.list();
+    }
+
+    @Override
+    public void enterDirectory(String name) throws IOException {
+        env.enterDirectory(name);
+    }
+
+    @Override
+    public boolean isDirectory(String name) {
+        return env.isDirectory(name);
+    }
+
+    @Override
+    public InputStream openFile(String name) throws IOException {
+        final BufferedInputStream in = new BufferedInputStream(env.openFile(name), Math.max(8192, BlobStore.REFERENCE_LENGTH));
+        final String key;
+        try {
+            in.mark(BlobStore.REFERENCE_LENGTH);
+            final byte[] header = new byte[BlobStore.REFERENCE_LENGTH];
+            key = BlobStore.parseReference(header, BlobStore.readHeader(in, header));
+            in.reset();
+        } catch (IOException | RuntimeException e) {
+            env.closeFile();
+            throw e;
+        }
+        if (key == null) return in;
+        env.closeFile();
+        currentBlob = store.open(key);
+        return currentBlob;
+    }
+
+    @Override
+    public URL absolutePath(String name) throws IOException {
+        return env.absolutePath(name);
+    }
+
+    @Override
+    public void closeFile() throws IOException {
+        if (currentBlob == null) {
+            env.closeFile();
+        } else {
+            final InputStream blob = currentBlob;
+            currentBlob = null;
+            blob.close();
+        }
+    }
+
+    @Override
+    public void leaveDirectory() throws IOException {
+        env.leaveDirectory();
+    }
+
+    @Override
+    public void close() throws IOException {
+        env.close();
+    }
+}
@@ -0,0 +1,260 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A content-addressed store for files of project spaces, which can be shared by any number of project spaces.
+ * Each file content is stored once under the SHA-256 hash of its bytes. Spectra and trees are serialized
+ * deterministically, so the same input spectrum or tree has the same hash in every project space in which it is
+ * written. A project space written with a {@link BlobWritingEnvironment} contains a small reference file instead of
+ * the content, and a {@link BlobReadingEnvironment} resolves these references transparently.
+ *
+ * Blobs are never changed after they are written, so the store can be used by several writers (and processes)
+ * concurrently. Unreferenced blobs are removed by a mark-and-sweep garbage collection ({@link #gc(Collection, long)})
+ * over all project spaces which use the store. Blobs which were written or referenced recently are kept, so writers
+ * which run while the garbage is collected do not lose their blobs.
+ *
+ * Use {@link #materialize(File, File)} to export a project space which does not depend on the store.
+ */
+public class BlobStore {
+
+    protected static Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+    final static String REFERENCE_PREFIX = "#sirius-blob sha256:";
+    final static int KEY_LENGTH = 64, REFERENCE_LENGTH = REFERENCE_PREFIX.length() + KEY_LENGTH;
+    private final static Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{" + KEY_LENGTH + "}");
+
+    protected final File root;
+
+    public BlobStore(File root) throws IOException {
+        this.root = root;
+        root.mkdirs();
+        if (!root.isDirectory()) throw new IOException("Cannot create blob store '" + root + "'");
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * stores the content if it is not already in the store
+     *
+     * @return the key of the content
+     */
+    public String put(byte[] content) throws IOException {
+        return put(content, 0, content.length);
+    }
+
+    public String put(byte[] content, int offset, int length) throws IOException {
+        final String key = hash(content, offset, length);
+        final File file = file(key);
+        // protects the blob from a garbage collection which is running concurrently. If the blob was deleted
+        // before it was touched, it is written again
+        if (file.exists() && file.setLastModified(System.currentTimeMillis()) && file.exists()) return key;
+        final File dir = file.getParentFile();
+        dir.mkdirs();
+        final File tmp = File.createTempFile("blob", ".tmp", dir);
+        try {
+            try (final OutputStream out = new FileOutputStream(tmp)) {
+                out.write(content, offset, length);
+            }
+            // another writer may have stored the same content in the meantime, which is fine as it is identical
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (tmp.exists()) tmp.delete();
+        }
+        return key;
+    }
+
+    public boolean contains(String key) {
+        return file(key).exists();
+    }
+
+    public InputStream open(String key) throws IOException {
+        final File file = file(key);
+        if (!file.exists()) throw new FileNotFoundException("Missing blob " + key + " in store '" + root + "'");
+        return new FileInputStream(file);
+    }
+
+    protected File file(String key) {
+        if (!KEY_PATTERN.matcher(key).matches()) throw new IllegalArgumentException("Invalid blob key: " + key);
+        return new File(new File(root, key.substring(0, 2)), key);
+    }
+
+    public static String hash(byte[] content, int offset, int length) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(content, offset, length);
+        final StringBuilder buffer = new StringBuilder(KEY_LENGTH);
+        for (byte b : digest.digest()) {
+            buffer.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * @return the content of a file which refers to the blob with the given key
+     */
+    static byte[] reference(String key) {
+        return (REFERENCE_PREFIX + key + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the key of the blob if the given bytes are the beginning of a reference file, otherwise null
+     */
+    static String parseReference(byte[] header, int length) {
+        if (length < REFERENCE_LENGTH) return null;
+        final String s = new String(header, 0, REFERENCE_LENGTH, StandardCharsets.US_ASCII);
+        if (!s.startsWith(REFERENCE_PREFIX)) return null;
+        final String key = s.substring(REFERENCE_PREFIX.length());
+        return KEY_PATTERN.matcher(key).matches() ? key : null;
+    }
+
+    static int readHeader(InputStream in, byte[] header) throws IOException {
+        int length = 0, n;
+        while (length < header.length && (n = in.read(header, length, header.length - length)) > 0) length += n;
+        return length;
+    }
+
+    //////////////////////////////////////////////////////////////
+    // garbage collection
+
+    /**
+     * collects the keys of all blobs which are referenced by the files of the given environment and its subdirectories
+     */
+    public static void findReferences(DirectoryReader.ReadingEnvironment env, Set<String> keys) throws IOException {
+        final byte[] header = new byte[REFERENCE_LENGTH];
+        for (String name : env.list()) {
+            if (env.isDirectory(name)) {
+                env.enterDirectory(name);
+                findReferences(env, keys);
+                env.leaveDirectory();
+            } else {
+                final InputStream in = env.openFile(name);
+                try {
+                    final String key = parseReference(header, readHeader(in, header));
+                    if (key != null) keys.add(key);
+                } finally {
+                    env.closeFile();
+                }
+            }
+        }
+    }
+
+    /**
+     * deletes all blobs which are not in the given set of keys and were not written or referenced within the
+     * last minAgeMillis milliseconds
+     *
+     * @return the number of deleted blobs
+     */
+    public int sweep(Set<String> referenced, long minAgeMillis) {
+        final long threshold = System.currentTimeMillis() - minAgeMillis;
+        int deleted = 0;
+        final File[] dirs = root.listFiles();
+        if (dirs == null) return 0;
+        for (File dir : dirs) {
+            final File[] files = dir.isDirectory() ? dir.listFiles() : null;
+            if (files == null) continue;
+            for (File file : files) {
+                final String name = file.getName();
+                final boolean isBlob = KEY_PATTERN.matcher(name).matches();
+                // temporary files of interrupted writers are removed, too
+                if ((isBlob && referenced.contains(name)) || file.lastModified() > threshold) continue;
+                if (!isBlob && !name.endsWith(".tmp")) continue;
+                if (isBlob ? deleteBlob(file, threshold) : file.delete()) ++deleted;
+                else if (file.exists()) logger.warn("Cannot delete blob '" + file + "'");
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes the blob unless it is touched by a writer in the meantime. The blob is moved away before its age is
+     * checked again: a writer which touches the blob before the move is seen here, a writer which comes later does
+     * not find the blob and writes it again.
+     */
+    private static boolean deleteBlob(File file, long threshold) {
+        final File trash = new File(file.getParentFile(), file.getName() + ".gc.tmp");
+        if (!file.renameTo(trash)) return false;
+        if (trash.lastModified() > threshold) {
+            if (!trash.renameTo(file)) logger.warn("Cannot restore blob '" + file + "'");
+            return false;
+        }
+        return trash.delete();
+    }
+
+    /**
+     * Removes all blobs which are not referenced by any of the given project spaces. All project spaces which use
+     * this store have to be given, otherwise their blobs are lost. Project spaces can be directories or .sirius files.
+     *
+     * @param minAgeMillis blobs which were written or referenced within this time are kept, even if they are not referenced
+     * @return the number of deleted blobs
+     */
+    public int gc(Collection<File> projectSpaces, long minAgeMillis) throws IOException {
+        final Set<String> referenced = new HashSet<>();
+        for (File projectSpace : projectSpaces) {
+            final DirectoryReader.ReadingEnvironment env = openProjectSpace(projectSpace);
+            try {
+                findReferences(env, referenced);
+            } finally {
+                env.close();
+            }
+        }
+        return sweep(referenced, minAgeMillis);
+    }
+
+    //////////////////////////////////////////////////////////////
+    // export
+
+    /**
+     * copies all files of the project space, where references are replaced by the content of their blobs
+     */
+    public void materialize(DirectoryReader.ReadingEnvironment from, DirectoryWriter.WritingEnvironment to) throws IOException {
+        IndexedWorkspace.copy(new BlobReadingEnvironment(from, this), to);
+    }
+
+    /**
+     * Writes a self-contained copy of the project space. Source and target can be directories or .sirius files.
+     */
+    public void materialize(File projectSpace, File target) throws IOException {
+        final DirectoryReader.ReadingEnvironment from = openProjectSpace(projectSpace);
+        try {
+            final DirectoryWriter.WritingEnvironment to;
+            if (target.getName().endsWith(".sirius")) {
+                to = new SiriusWorkspaceWriter(target);
+            } else {
+                target.mkdirs();
+                to = new SiriusFileWriter(target);
+            }
+            try {
+                materialize(from, to);
+            } finally {
+                to.close();
+            }
+        } finally {
+            from.close();
+        }
+    }
+
+    protected static DirectoryReader.ReadingEnvironment openProjectSpace(File file) throws IOException {
+        if (file.isDirectory()) return new SiriusFileReader(file);
+        if (file.isFile()) return new SiriusWorkspaceReader(file);
+        throw new FileNotFoundException("Unknown project space '" + file + "'");
+    }
+}
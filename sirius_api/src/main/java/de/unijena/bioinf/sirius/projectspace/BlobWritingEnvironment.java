@@ -0,0 +1,113 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes spectra and trees into a {@link BlobStore} and only a reference to the blob into the project space.
+ * Use it as environment of a {@link DirectoryWriter} to deduplicate the input spectra, trees and annotated spectra
+ * of project spaces with overlapping datasets, e.g.
+ * <pre>
+ *     new DirectoryWriter(new BlobWritingEnvironment(new SiriusFileWriter(dir), store), version, formatter)
+ * </pre>
+ * All other files (summaries, version information) and files smaller than the minimal size are written into the
+ * wrapped environment as they are. Project spaces written this way have to be read with a {@link BlobReadingEnvironment}.
+ */
+public class BlobWritingEnvironment implements DirectoryWriter.WritingEnvironment {
+
+    public final static int DEFAULT_MIN_SIZE = 512;
+
+    protected final DirectoryWriter.WritingEnvironment env;
+    protected final BlobStore store;
+    protected final int minSize;
+    protected ByteArrayOutputStream currentStream;
+    protected String currentName;
+    protected long storedBytes, referencedFiles;
+
+    public BlobWritingEnvironment(DirectoryWriter.WritingEnvironment env, BlobStore store) {
+        this(env, store, DEFAULT_MIN_SIZE);
+    }
+
+    /**
+     * @param minSize files smaller than this are not stored in the blob store
+     */
+    public BlobWritingEnvironment(DirectoryWriter.WritingEnvironment env, BlobStore store, int minSize) {
+        this.env = env;
+        this.store = store;
+        this.minSize = Math.max(minSize, BlobStore.REFERENCE_LENGTH + 1);
+    }
+
+    /**
+     * @return true if the file is a spectrum or a tree, which might be shared with other project spaces
+     */
+    protected boolean isShared(String name) {
+        return name.endsWith(".ms") || name.endsWith(".json") || name.endsWith(".dot");
+    }
+
+    @Override
+    public void enterDirectory(String name) throws IOException {
+        env.enterDirectory(name);
+    }
+
+    @Override
+    public OutputStream openFile(String name) throws IOException {
+        if (!isShared(name)) return env.openFile(name);
+        this.currentName = name;
+        this.currentStream = new ByteArrayOutputStream(4096);
+        return currentStream;
+    }
+
+    @Override
+    public void closeFile() throws IOException {
+        if (currentStream == null) {
+            env.closeFile();
+            return;
+        }
+        final byte[] content = currentStream.toByteArray();
+        currentStream = null;
+        final byte[] written;
+        if (content.length >= minSize) {
+            written = BlobStore.reference(store.put(content));
+            storedBytes += content.length;
+            ++referencedFiles;
+        } else {
+            written = content;
+        }
+        final OutputStream out = env.openFile(currentName);
+        try {
+            out.write(written);
+        } finally {
+            env.closeFile();
+        }
+    }
+
+    @Override
+    public void leaveDirectory() throws IOException {
+        env.leaveDirectory();
+    }
+
+    @Override
+    public void close() throws IOException {
+        env.close();
+    }
+
+    @Override
+    public void updateProgress(String s) throws IOException {
+        env.updateProgress(s);
+    }
+
+    /**
+     * @return the number of files which were replaced by references
+     */
+    public long getReferencedFiles() {
+        return referencedFiles;
+    }
+
+    /**
+     * @return the total size of the files which were replaced by references
+     */
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+}
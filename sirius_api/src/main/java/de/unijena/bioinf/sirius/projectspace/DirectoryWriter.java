@@ -1,6 +1,7 @@
 package de.unijena.bioinf.sirius.projectspace;
 
 import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.ChemistryBase.sirius.projectspace.Index;
 import de.unijena.bioinf.babelms.dot.FTDotWriter;
@@ -8,12 +9,16 @@ import de.unijena.bioinf.babelms.json.FTJsonWriter;
 import de.unijena.bioinf.babelms.ms.AnnotatedSpectrumWriter;
 import de.unijena.bioinf.babelms.ms.JenaMsWriter;
 import de.unijena.bioinf.sirius.CSVOutputWriter;
+import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.sirius.IdentificationResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DirectoryWriter extends AbstractProjectWriter {
 
@@ -21,6 +26,8 @@ public class DirectoryWriter extends AbstractProjectWriter {
     protected int counter = 0;
     protected String currentExperimentName;
     protected WritingEnvironment W;
+    // bytes passed to the writing environment, updated only by the thread which writes
+    protected volatile long writtenBytes = 0;
     private String versionString;
     private FilenameFormatter filenameFormatter;
 
@@ -151,25 +158,87 @@ public class DirectoryWriter extends AbstractProjectWriter {
     }
 
     protected void write(String name, Do f)throws IOException  {
-        final
-        OutputStream stream = W.openFile(name);
+        if (W instanceof DeferredWritingEnvironment) {
+            ((DeferredWritingEnvironment) W).submit(name, f);
+            return;
+        }
+        final ByteCounter stream = new ByteCounter(W.openFile(name));
         try {
-            final BufferedWriter outWriter = new BufferedWriter(new OutputStreamWriter(stream));
+            render(stream, f);
+        } finally {
+            writtenBytes += stream.count;
+            W.closeFile();
+        }
+    }
+
+    /**
+     * @return the number of bytes written into the files of the writing environment. For a compressed
+     * environment, this is the size before compression.
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    protected static class ByteCounter extends FilterOutputStream {
+        protected long count = 0;
+
+        protected ByteCounter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    protected static void render(OutputStream stream, Do f) throws IOException {
+        final BufferedWriter outWriter = new BufferedWriter(new OutputStreamWriter(stream));
+        try {
+            f.run(new DoNotCloseWriter(outWriter));
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            throw e;
+        } finally {
             try {
-                f.run(new DoNotCloseWriter(outWriter));
+                outWriter.flush();
             } catch (IOException e) {
                 logger.error(e.getMessage(), e);
-                throw e;
-            } finally {
-                try {
-                    outWriter.flush();
-                } catch (IOException e) {
-                    logger.error(e.getMessage(), e);
-                }
             }
+        }
+    }
+
+    /**
+     * Serializes the files of the experiment concurrently: while the experiment is written, all calls to the
+     * writing environment are recorded and each file is rendered by a job. Afterwards, the recorded calls are
+     * replayed in their original order, so the environment receives the same files in the same order as if they
+     * were written sequentially.
+     */
+    @Override
+    public void writeExperiment(ExperimentResult result) throws IOException {
+        // resolved trees are computed lazily, so they have to be computed before they are read concurrently
+        if (result.results != null) {
+            for (IdentificationResult r : result.results) r.getResolvedTree();
+        }
+        final WritingEnvironment target = W;
+        final DeferredWritingEnvironment deferred = new DeferredWritingEnvironment();
+        W = deferred;
+        try {
+            super.writeExperiment(result);
+        } catch (IOException | RuntimeException e) {
+            deferred.cancel();
+            throw e;
         } finally {
-            W.closeFile();
+            W = target;
         }
+        writtenBytes += deferred.replay(target);
     }
 
     @Override
@@ -336,4 +405,159 @@ public class DirectoryWriter extends AbstractProjectWriter {
         void run(Writer w) throws IOException;
     }
 
+    /**
+     * Records the calls of a {@link DirectoryWriter} to its writing environment. Files written with
+     * {@link #write(String, Do)} are rendered into byte arrays on the CPU threads of the job manager.
+     */
+    protected static class DeferredWritingEnvironment implements WritingEnvironment {
+
+        protected final List<Object> operations = new ArrayList<>();
+        protected ByteArrayOutputStream currentStream;
+        protected String currentName;
+
+        protected static class Enter {
+            protected final String name;
+
+            protected Enter(String name) {
+                this.name = name;
+            }
+        }
+
+        protected static class Leave {
+        }
+
+        protected static class Progress {
+            protected final String message;
+
+            protected Progress(String message) {
+                this.message = message;
+            }
+        }
+
+        protected static class RenderJJob extends BasicJJob<byte[]> {
+            protected final String name;
+            protected final Do f;
+            protected byte[] content;
+            protected final AtomicBoolean claimed = new AtomicBoolean(false);
+
+            protected RenderJJob(String name, Do f) {
+                super(JobType.CPU);
+                this.name = name;
+                this.f = f;
+            }
+
+            protected RenderJJob(String name, byte[] content) {
+                this(name, (Do) null);
+                this.content = content;
+                claimed.set(true);
+            }
+
+            protected boolean claim() {
+                return claimed.compareAndSet(false, true);
+            }
+
+            @Override
+            protected byte[] compute() throws Exception {
+                return claim() ? render() : null;
+            }
+
+            protected byte[] render() throws IOException {
+                final ByteArrayOutputStream stream = new ByteArrayOutputStream(4096);
+                DirectoryWriter.render(stream, f);
+                return stream.toByteArray();
+            }
+
+            protected byte[] takeContent() throws IOException {
+                if (content != null) return content;
+                if (claim()) {
+                    // the job did not start yet, so the file is rendered by the calling thread
+                    cancel(false);
+                    return render();
+                }
+                try {
+                    return awaitResult();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+
+        protected void submit(String name, Do f) {
+            operations.add(SiriusJobs.getGlobalJobManager().submitJob(new RenderJJob(name, f)));
+        }
+
+        /**
+         * @return the number of bytes written into the target
+         */
+        protected long replay(WritingEnvironment target) throws IOException {
+            long bytes = 0;
+            try {
+                for (Object op : operations) {
+                    if (op instanceof Enter) {
+                        target.enterDirectory(((Enter) op).name);
+                    } else if (op instanceof Leave) {
+                        target.leaveDirectory();
+                    } else if (op instanceof Progress) {
+                        target.updateProgress(((Progress) op).message);
+                    } else {
+                        final RenderJJob file = (RenderJJob) op;
+                        final byte[] content = file.takeContent();
+                        final OutputStream stream = target.openFile(file.name);
+                        try {
+                            stream.write(content);
+                            stream.flush();
+                        } finally {
+                            target.closeFile();
+                        }
+                        bytes += content.length;
+                    }
+                }
+                return bytes;
+            } catch (IOException | RuntimeException e) {
+                cancel();
+                throw e;
+            }
+        }
+
+        protected void cancel() {
+            for (Object op : operations) {
+                if (op instanceof RenderJJob && ((RenderJJob) op).f != null) ((RenderJJob) op).cancel(false);
+            }
+        }
+
+        @Override
+        public void enterDirectory(String name) {
+            operations.add(new Enter(name));
+        }
+
+        @Override
+        public OutputStream openFile(String name) {
+            this.currentName = name;
+            this.currentStream = new ByteArrayOutputStream(4096);
+            return currentStream;
+        }
+
+        @Override
+        public void closeFile() {
+            operations.add(new RenderJJob(currentName, currentStream.toByteArray()));
+            currentStream = null;
+        }
+
+        @Override
+        public void leaveDirectory() {
+            operations.add(new Leave());
+        }
+
+        @Override
+        public void close() throws IOException {
+            throw new IOException("Environment cannot be closed while an experiment is written");
+        }
+
+        @Override
+        public void updateProgress(String s) {
+            operations.add(new Progress(s));
+        }
+    }
+
 }
@@ -0,0 +1,665 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * A project space stored in a directory with two files: an append-only data file containing the content of all
+ * files of the project and an index file which maps each compound to the offsets of its files in the data file.
+ * In contrast to the .sirius zip format, a single compound can be read or replaced without reading or rewriting
+ * the whole project.
+ *
+ * The index is a journal of records, each containing all files of one compound. A compound is updated by
+ * appending the new file contents to the data file and then appending a new record for the compound to the
+ * index. Each record is protected by a checksum, so an update which was interrupted is ignored and the previous
+ * state of the compound is still valid. Replaced file contents remain in the data file until {@link #compact()}
+ * is called, which writes a new generation of both files and switches to it by an atomic rename. Streams which
+ * were opened before the switch stay readable, the data file of the old generation is closed as soon as the last
+ * of them is closed.
+ *
+ * There is at most one writing instance per directory (protected by a file lock), but any number of reading
+ * instances which see new compounds after {@link #refresh()}. Within one instance, reading is thread-safe.
+ *
+ * Use {@link IndexedWorkspaceWriter} and {@link IndexedWorkspaceReader} to access the workspace in the
+ * {@link DirectoryWriter} layout, and {@link #copy(DirectoryReader.ReadingEnvironment, DirectoryWriter.WritingEnvironment)}
+ * to import from or export to .sirius files and directories.
+ */
+public class IndexedWorkspace implements Closeable {
+
+    protected static Logger logger = LoggerFactory.getLogger(IndexedWorkspace.class);
+
+    private final static int DATA_MAGIC = 0x53574431, INDEX_MAGIC = 0x53574931, VERSION = 1, HEADER_SIZE = 8;
+    private final static byte PUT = 1, REMOVE = 2;
+    private final static Pattern INDEX_FILE_PATTERN = Pattern.compile("index-(\\d+)\\.bin");
+    private final static Pattern RANK_PATTERN = Pattern.compile("^(\\d+)_");
+
+    /**
+     * id of the compound which contains the files in the root directory of the project
+     */
+    public final static String ROOT = "";
+
+    public enum ResultType {
+        INPUT, SUMMARY, TREE, TREE_DOT, ANNOTATED_SPECTRUM, OTHER;
+
+        private static ResultType of(String path) {
+            if (path.equals("spectrum.ms")) return INPUT;
+            if (path.equals("summary_sirius.csv")) return SUMMARY;
+            if (path.startsWith("trees/") && path.endsWith(".json")) return TREE;
+            if (path.startsWith("trees/") && path.endsWith(".dot")) return TREE_DOT;
+            if (path.startsWith("spectra/") && path.endsWith(".ms")) return ANNOTATED_SPECTRUM;
+            return OTHER;
+        }
+    }
+
+    public static class Entry {
+        protected final String path;
+        protected final ResultType type;
+        protected final int rank;
+        protected final long offset;
+        protected final int length;
+
+        protected Entry(String path, long offset, int length) {
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+            this.type = ResultType.of(path);
+            final Matcher m = RANK_PATTERN.matcher(path.substring(path.lastIndexOf('/') + 1));
+            this.rank = m.find() ? Integer.parseInt(m.group(1)) : -1;
+        }
+
+        /**
+         * @return path of the file relative to the compound directory
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public ResultType getType() {
+            return type;
+        }
+
+        /**
+         * @return the rank of the candidate this file belongs to or -1 if the file does not belong to a candidate
+         */
+        public int getRank() {
+            return rank;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * An immutable snapshot of the files of a compound.
+     */
+    public static class Compound {
+        protected final String id;
+        protected final Entry[] entries;
+        protected final Generation generation;
+
+        protected Compound(String id, Entry[] entries, Generation generation) {
+            this.id = id;
+            this.entries = entries;
+            this.generation = generation;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public List<Entry> getEntries() {
+            return Collections.unmodifiableList(Arrays.asList(entries));
+        }
+
+        public Entry getEntry(String path) {
+            for (Entry e : entries)
+                if (e.path.equals(path)) return e;
+            return null;
+        }
+
+        public Entry getEntry(ResultType type, int rank) {
+            for (Entry e : entries)
+                if (e.type == type && e.rank == rank) return e;
+            return null;
+        }
+    }
+
+    protected static class Generation {
+        protected final int number;
+        protected final FileChannel data, index;
+        protected final ConcurrentSkipListMap<String, Compound> compounds = new ConcurrentSkipListMap<>();
+        protected long dataEnd, indexEnd;
+        // number of open streams on the data file
+        protected int readers = 0;
+        protected boolean retired = false;
+
+        protected Generation(int number, FileChannel data, FileChannel index) {
+            this.number = number;
+            this.data = data;
+            this.index = index;
+        }
+
+        protected synchronized boolean acquire() {
+            if (!data.isOpen()) return false;
+            ++readers;
+            return true;
+        }
+
+        protected synchronized void release() throws IOException {
+            if (--readers == 0 && retired) data.close();
+        }
+
+        /*
+         * called when a newer generation replaces this one. The data file stays open until the last stream is closed
+         */
+        protected synchronized void retire() throws IOException {
+            retired = true;
+            index.close();
+            if (readers == 0) data.close();
+        }
+    }
+
+    /**
+     * Collects the files of a compound. The file contents are appended to the data file immediately, but the
+     * compound is only changed when {@link #commit()} is called.
+     */
+    public class Transaction {
+        protected final String compoundId;
+        protected final Generation target;
+        protected final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        protected boolean finished = false;
+
+        protected Transaction(String compoundId, Generation target) {
+            this.compoundId = compoundId;
+            this.target = target;
+        }
+
+        public void put(String path, byte[] content) throws IOException {
+            put(path, content, 0, content.length);
+        }
+
+        public void put(String path, byte[] content, int offset, int length) throws IOException {
+            if (finished) throw new IllegalStateException("transaction is already finished");
+            entries.put(path, append(target, path, content, offset, length));
+        }
+
+        public void remove(String path) {
+            entries.remove(path);
+        }
+
+        public void commit() throws IOException {
+            if (finished) throw new IllegalStateException("transaction is already finished");
+            finished = true;
+            IndexedWorkspace.this.commit(target, compoundId, entries.values().toArray(new Entry[entries.size()]));
+        }
+    }
+
+    protected final File directory;
+    protected final boolean writable;
+    protected final FileChannel lockChannel;
+    protected final FileLock lock;
+    protected volatile Generation generation;
+    // older generations whose data files are still read by open streams
+    protected final List<Generation> retired = new ArrayList<>();
+
+    /**
+     * opens the workspace in the given directory for reading and writing. The workspace is created if it does not
+     * exist yet.
+     */
+    public static IndexedWorkspace openForWriting(File directory) throws IOException {
+        return new IndexedWorkspace(directory, true);
+    }
+
+    public static IndexedWorkspace openForReading(File directory) throws IOException {
+        return new IndexedWorkspace(directory, false);
+    }
+
+    public static boolean isIndexedWorkspace(File directory) {
+        return directory.isDirectory() && newestGeneration(directory) >= 0;
+    }
+
+    protected IndexedWorkspace(File directory, boolean writable) throws IOException {
+        this.directory = directory;
+        this.writable = writable;
+        if (writable) {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Cannot create directory '" + directory + "'");
+            this.lockChannel = FileChannel.open(new File(directory, "lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock l;
+            try {
+                l = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                l = null;
+            }
+            if (l == null) {
+                lockChannel.close();
+                throw new IOException("Workspace '" + directory + "' is already opened for writing");
+            }
+            this.lock = l;
+            int number = newestGeneration(directory);
+            if (number < 0) {
+                number = 0;
+                createGeneration(number);
+            }
+            this.generation = openGeneration(number);
+            // an interrupted update leaves an incomplete record at the end of the index
+            generation.index.truncate(generation.indexEnd);
+            deleteOtherGenerations(number);
+        } else {
+            this.lockChannel = null;
+            this.lock = null;
+            final int number = newestGeneration(directory);
+            if (number < 0) throw new IOException("'" + directory + "' does not contain an indexed workspace");
+            this.generation = openGeneration(number);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the ids of all compounds in the workspace, in lexicographic order
+     */
+    public List<String> getCompoundIds() {
+        return new ArrayList<>(generation.compounds.keySet());
+    }
+
+    /**
+     * @return a snapshot of the files of the given compound or null if there is no such compound
+     */
+    public Compound getCompound(String id) {
+        return generation.compounds.get(id);
+    }
+
+    /**
+     * @return the content of the given file. The stream stays valid when the compound is updated or the
+     * workspace is compacted, and has to be closed to release the data file.
+     * @throws IOException if the compound was read before a compaction and all streams of the old generation are
+     * already closed. In this case, the compound has to be read again.
+     */
+    public InputStream open(Compound compound, Entry entry) throws IOException {
+        if (!compound.generation.acquire())
+            throw new IOException("Compound '" + compound.id + "' was read before the workspace was compacted");
+        return new EntryInputStream(compound.generation, entry.offset, entry.length);
+    }
+
+    /**
+     * starts a new version of the compound which replaces all of its current files
+     */
+    public synchronized Transaction begin(String compoundId) {
+        checkWritable();
+        return new Transaction(compoundId, generation);
+    }
+
+    /**
+     * starts a new version of the compound which keeps all current files which are not replaced or removed
+     */
+    public synchronized Transaction update(String compoundId) {
+        checkWritable();
+        final Transaction t = new Transaction(compoundId, generation);
+        final Compound previous = generation.compounds.get(compoundId);
+        if (previous != null) {
+            for (Entry e : previous.entries) t.entries.put(e.path, e);
+        }
+        return t;
+    }
+
+    public synchronized void remove(String compoundId) throws IOException {
+        checkWritable();
+        if (!generation.compounds.containsKey(compoundId)) return;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REMOVE);
+        out.writeUTF(compoundId);
+        out.flush();
+        appendRecord(generation, bytes.toByteArray(), true);
+        generation.compounds.remove(compoundId);
+    }
+
+    /**
+     * reads the records which were appended by a writing instance since the last call. If the workspace was
+     * compacted in the meantime, the new generation is opened.
+     */
+    public synchronized void refresh() throws IOException {
+        if (writable) return;
+        final int newest = newestGeneration(directory);
+        if (newest > generation.number) {
+            final Generation g = openGeneration(newest);
+            retire(generation);
+            generation = g;
+        } else {
+            readRecords(generation);
+        }
+    }
+
+    /**
+     * Rewrites the workspace into a new generation which only contains the current files of each compound. The
+     * new generation becomes valid with the atomic rename of its index file, so an interrupted compaction keeps
+     * the old generation.
+     */
+    public synchronized void compact() throws IOException {
+        checkWritable();
+        final Generation old = generation;
+        final int number = old.number + 1;
+        final File indexTmp = new File(directory, "index-" + number + ".tmp");
+        try (final FileChannel data = FileChannel.open(dataFile(number).toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             final FileChannel index = FileChannel.open(indexTmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeHeader(data, DATA_MAGIC);
+            writeHeader(index, INDEX_MAGIC);
+            final Generation target = new Generation(number, data, index);
+            target.dataEnd = HEADER_SIZE;
+            target.indexEnd = HEADER_SIZE;
+            for (Compound c : old.compounds.values()) {
+                final Entry[] entries = new Entry[c.entries.length];
+                for (int k = 0; k < entries.length; ++k) {
+                    final Entry e = c.entries[k];
+                    long copied = 0;
+                    while (copied < e.length)
+                        copied += old.data.transferTo(e.offset + copied, e.length - copied, data.position(target.dataEnd + copied));
+                    entries[k] = new Entry(e.path, target.dataEnd, e.length);
+                    target.dataEnd += e.length;
+                }
+                appendRecord(target, putRecord(c.id, entries), false);
+            }
+            data.force(true);
+            index.force(true);
+        }
+        Files.move(indexTmp.toPath(), indexFile(number).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        generation = openGeneration(number);
+        retire(old);
+        deleteOtherGenerations(number);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        generation.data.close();
+        generation.index.close();
+        for (Generation g : retired) g.data.close();
+        retired.clear();
+        if (lock != null) {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    /**
+     * Copies all files and directories of a project space, e.g. from a .sirius file
+     * ({@link SiriusWorkspaceReader}) into an indexed workspace ({@link IndexedWorkspaceWriter}) or from an
+     * indexed workspace ({@link IndexedWorkspaceReader}) into a directory ({@link SiriusFileWriter}).
+     */
+    public static void copy(DirectoryReader.ReadingEnvironment from, DirectoryWriter.WritingEnvironment to) throws IOException {
+        final byte[] buffer = new byte[32768];
+        for (String name : from.list()) {
+            if (from.isDirectory(name)) {
+                from.enterDirectory(name);
+                to.enterDirectory(name);
+                copy(from, to);
+                to.leaveDirectory();
+                from.leaveDirectory();
+            } else {
+                try (final InputStream in = from.openFile(name); final OutputStream out = to.openFile(name)) {
+                    int n;
+                    while ((n = in.read(buffer)) >= 0) out.write(buffer, 0, n);
+                    to.closeFile();
+                    from.closeFile();
+                }
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////////////
+
+    protected void retire(Generation g) throws IOException {
+        g.retire();
+        retired.add(g);
+        final Iterator<Generation> iter = retired.iterator();
+        while (iter.hasNext()) {
+            if (!iter.next().data.isOpen()) iter.remove();
+        }
+    }
+
+    protected void checkWritable() {
+        if (!writable) throw new IllegalStateException("Workspace '" + directory + "' is opened for reading only");
+    }
+
+    protected synchronized Entry append(Generation g, String path, byte[] content, int offset, int length) throws IOException {
+        checkGeneration(g);
+        final Entry entry = new Entry(path, g.dataEnd, length);
+        writeFully(g.data, ByteBuffer.wrap(content, offset, length), g.dataEnd);
+        g.dataEnd += length;
+        return entry;
+    }
+
+    protected synchronized void commit(Generation g, String compoundId, Entry[] entries) throws IOException {
+        checkGeneration(g);
+        // the file contents have to be on disk before the record which refers to them
+        g.data.force(false);
+        appendRecord(g, putRecord(compoundId, entries), true);
+        g.compounds.put(compoundId, new Compound(compoundId, entries, g));
+    }
+
+    protected static byte[] putRecord(String compoundId, Entry[] entries) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 48 * entries.length);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PUT);
+        out.writeUTF(compoundId);
+        out.writeInt(entries.length);
+        for (Entry e : entries) {
+            out.writeUTF(e.path);
+            out.writeLong(e.offset);
+            out.writeInt(e.length);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    protected void checkGeneration(Generation g) throws IOException {
+        if (g != generation) throw new IOException("Workspace '" + directory + "' was compacted during the update");
+    }
+
+    protected static void appendRecord(Generation g, byte[] payload, boolean force) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        writeFully(g.index, buffer, g.indexEnd);
+        if (force) g.index.force(false);
+        g.indexEnd += 8 + payload.length;
+    }
+
+    /*
+     * reads all complete records after indexEnd. Reading stops at an incomplete record, which is either
+     * still written or was interrupted.
+     */
+    protected static void readRecords(Generation g) throws IOException {
+        final long size = g.index.size();
+        final ByteBuffer header = ByteBuffer.allocate(8);
+        while (size - g.indexEnd >= 8) {
+            header.clear();
+            readFully(g.index, header, g.indexEnd);
+            final int length = header.getInt(0), checksum = header.getInt(4);
+            if (length < 0 || size - g.indexEnd - 8 < length) return;
+            final ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(g.index, payload, g.indexEnd + 8);
+            final CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != checksum) return;
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+            final byte kind = in.readByte();
+            final String id = in.readUTF();
+            if (kind == PUT) {
+                final Entry[] entries = new Entry[in.readInt()];
+                for (int k = 0; k < entries.length; ++k) entries[k] = new Entry(in.readUTF(), in.readLong(), in.readInt());
+                g.compounds.put(id, new Compound(id, entries, g));
+            } else if (kind == REMOVE) {
+                g.compounds.remove(id);
+            } else {
+                throw new IOException("Unknown record type " + kind + " in index of workspace");
+            }
+            g.indexEnd += 8 + length;
+        }
+    }
+
+    protected Generation openGeneration(int number) throws IOException {
+        final StandardOpenOption[] options = writable ? new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE} : new StandardOpenOption[]{StandardOpenOption.READ};
+        final FileChannel data = FileChannel.open(dataFile(number).toPath(), options);
+        final FileChannel index;
+        try {
+            index = FileChannel.open(indexFile(number).toPath(), options);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        final Generation g = new Generation(number, data, index);
+        try {
+            checkHeader(data, DATA_MAGIC);
+            checkHeader(index, INDEX_MAGIC);
+            g.dataEnd = data.size();
+            g.indexEnd = HEADER_SIZE;
+            readRecords(g);
+        } catch (IOException e) {
+            data.close();
+            index.close();
+            throw e;
+        }
+        return g;
+    }
+
+    protected void createGeneration(int number) throws IOException {
+        final File indexTmp = new File(directory, "index-" + number + ".tmp");
+        try (final FileChannel data = FileChannel.open(dataFile(number).toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             final FileChannel index = FileChannel.open(indexTmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeHeader(data, DATA_MAGIC);
+            writeHeader(index, INDEX_MAGIC);
+            data.force(true);
+            index.force(true);
+        }
+        Files.move(indexTmp.toPath(), indexFile(number).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    protected void deleteOtherGenerations(int number) {
+        final String[] names = directory.list();
+        if (names == null) return;
+        for (String name : names) {
+            if (!(name.startsWith("data-") || name.startsWith("index-"))) continue;
+            if (name.equals(dataFile(number).getName()) || name.equals(indexFile(number).getName())) continue;
+            // files of older generations might still be opened by readers, so a failure is not an error
+            if (!new File(directory, name).delete())
+                logger.debug("Cannot delete " + name + " of workspace " + directory);
+        }
+    }
+
+    protected static int newestGeneration(File directory) {
+        final String[] names = directory.list();
+        int newest = -1;
+        if (names == null) return newest;
+        for (String name : names) {
+            final Matcher m = INDEX_FILE_PATTERN.matcher(name);
+            if (m.matches()) newest = Math.max(newest, Integer.parseInt(m.group(1)));
+        }
+        return newest;
+    }
+
+    protected File dataFile(int number) {
+        return new File(directory, "data-" + number + ".bin");
+    }
+
+    protected File indexFile(int number) {
+        return new File(directory, "index-" + number + ".bin");
+    }
+
+    private static void writeHeader(FileChannel channel, int magic) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(magic).putInt(VERSION).flip();
+        writeFully(channel, header, 0);
+        channel.position(HEADER_SIZE);
+    }
+
+    private static void checkHeader(FileChannel channel, int magic) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != magic) throw new IOException("Invalid workspace file");
+        if (header.getInt(4) > VERSION)
+            throw new IOException("Unsupported workspace version " + header.getInt(4));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, position);
+            if (n < 0) throw new EOFException();
+            position += n;
+        }
+    }
+
+    protected static class EntryInputStream extends InputStream {
+        private final Generation generation;
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+        private boolean closed = false;
+
+        protected EntryInputStream(Generation generation, long offset, int length) {
+            this.generation = generation;
+            this.channel = generation.data;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("Stream is closed");
+            if (len == 0) return 0;
+            if (position >= end) return -1;
+            final int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) throw new EOFException();
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            final long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            generation.release();
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Reads an {@link IndexedWorkspace} in the {@link DirectoryWriter} layout. Entering a compound directory takes a
+ * snapshot of the compound, so all of its files are read consistently even if the compound is updated at the
+ * same time.
+ */
+public class IndexedWorkspaceReader implements DirectoryReader.ReadingEnvironment {
+
+    protected final IndexedWorkspace workspace;
+    protected final boolean closeWorkspace;
+    protected IndexedWorkspace.Compound compound;
+    // path of the current directory within the compound, ending with '/' if not empty
+    protected String prefix;
+    protected int depth;
+    protected InputStream currentStream;
+
+    public IndexedWorkspaceReader(File directory) throws IOException {
+        this(IndexedWorkspace.openForReading(directory), true);
+    }
+
+    public IndexedWorkspaceReader(IndexedWorkspace workspace) {
+        this(workspace, false);
+    }
+
+    protected IndexedWorkspaceReader(IndexedWorkspace workspace, boolean closeWorkspace) {
+        this.workspace = workspace;
+        this.closeWorkspace = closeWorkspace;
+        this.depth = 0;
+        this.prefix = "";
+    }
+
+    @Override
+    public List<String> list() {
+        final LinkedHashSet<String> names = new LinkedHashSet<>();
+        if (depth == 0) {
+            for (String id : workspace.getCompoundIds())
+                if (!id.equals(IndexedWorkspace.ROOT)) names.add(id);
+            final IndexedWorkspace.Compound root = workspace.getCompound(IndexedWorkspace.ROOT);
+            if (root != null) addChildren(root, "", names);
+        } else {
+            addChildren(compound, prefix, names);
+        }
+        return new ArrayList<>(names);
+    }
+
+    private static void addChildren(IndexedWorkspace.Compound compound, String prefix, LinkedHashSet<String> names) {
+        for (IndexedWorkspace.Entry e : compound.getEntries()) {
+            if (!e.getPath().startsWith(prefix)) continue;
+            final int slash = e.getPath().indexOf('/', prefix.length());
+            names.add(slash < 0 ? e.getPath().substring(prefix.length()) : e.getPath().substring(prefix.length(), slash));
+        }
+    }
+
+    @Override
+    public void enterDirectory(String name) throws IOException {
+        if (depth == 0) {
+            compound = workspace.getCompound(name);
+            if (compound == null || name.equals(IndexedWorkspace.ROOT))
+                throw new IOException("Unknown directory '" + name + "'");
+            prefix = "";
+        } else {
+            prefix = prefix + name + "/";
+        }
+        ++depth;
+    }
+
+    @Override
+    public boolean isDirectory(String name) {
+        if (depth == 0) return !name.equals(IndexedWorkspace.ROOT) && workspace.getCompound(name) != null;
+        final String path = prefix + name + "/";
+        for (IndexedWorkspace.Entry e : compound.getEntries())
+            if (e.getPath().startsWith(path)) return true;
+        return false;
+    }
+
+    @Override
+    public InputStream openFile(String name) throws IOException {
+        final IndexedWorkspace.Compound c = depth == 0 ? workspace.getCompound(IndexedWorkspace.ROOT) : compound;
+        final IndexedWorkspace.Entry entry = c == null ? null : c.getEntry(prefix + name);
+        if (entry == null) throw new IOException("Unknown file '" + prefix + name + "'");
+        currentStream = workspace.open(c, entry);
+        return currentStream;
+    }
+
+    @Override
+    public URL absolutePath(String name) throws IOException {
+        return new File(workspace.getDirectory(), name).toURI().toURL();
+    }
+
+    @Override
+    public void closeFile() throws IOException {
+        currentStream.close();
+        currentStream = null;
+    }
+
+    @Override
+    public void leaveDirectory() throws IOException {
+        --depth;
+        if (depth == 0) {
+            compound = null;
+            prefix = "";
+        } else {
+            prefix = prefix.substring(0, prefix.lastIndexOf('/', prefix.length() - 2) + 1);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeWorkspace) workspace.close();
+    }
+}
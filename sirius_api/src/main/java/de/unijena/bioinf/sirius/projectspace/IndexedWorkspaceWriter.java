@@ -0,0 +1,90 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the {@link DirectoryWriter} layout into an {@link IndexedWorkspace}. Each directory in the root of the
+ * project is a compound, which is committed as a whole when the directory is left. Writing a compound which
+ * already exists replaces all of its files.
+ */
+public class IndexedWorkspaceWriter implements DirectoryWriter.WritingEnvironment {
+
+    protected final IndexedWorkspace workspace;
+    protected final boolean closeWorkspace;
+    protected final List<String> pathElements;
+    protected IndexedWorkspace.Transaction transaction;
+    protected ByteArrayOutputStream currentStream;
+    protected String currentPath;
+
+    public IndexedWorkspaceWriter(File directory) throws IOException {
+        this(IndexedWorkspace.openForWriting(directory), true);
+    }
+
+    public IndexedWorkspaceWriter(IndexedWorkspace workspace) {
+        this(workspace, false);
+    }
+
+    protected IndexedWorkspaceWriter(IndexedWorkspace workspace, boolean closeWorkspace) {
+        this.workspace = workspace;
+        this.closeWorkspace = closeWorkspace;
+        this.pathElements = new ArrayList<>();
+    }
+
+    public IndexedWorkspace getWorkspace() {
+        return workspace;
+    }
+
+    @Override
+    public void enterDirectory(String name) throws IOException {
+        if (pathElements.isEmpty()) transaction = workspace.begin(name);
+        pathElements.add(name);
+    }
+
+    @Override
+    public OutputStream openFile(String name) throws IOException {
+        if (currentStream != null) throw new IOException("Last file was not properly closed");
+        final StringBuilder buf = new StringBuilder();
+        for (int k = 1; k < pathElements.size(); ++k) buf.append(pathElements.get(k)).append('/');
+        this.currentPath = buf.append(name).toString();
+        this.currentStream = new ByteArrayOutputStream(4096);
+        return currentStream;
+    }
+
+    @Override
+    public void closeFile() throws IOException {
+        if (pathElements.isEmpty()) {
+            // files in the root directory belong to the root compound
+            final IndexedWorkspace.Transaction t = workspace.update(IndexedWorkspace.ROOT);
+            t.put(currentPath, currentStream.toByteArray());
+            t.commit();
+        } else {
+            transaction.put(currentPath, currentStream.toByteArray());
+        }
+        currentStream = null;
+    }
+
+    @Override
+    public void leaveDirectory() throws IOException {
+        pathElements.remove(pathElements.size() - 1);
+        if (pathElements.isEmpty()) {
+            transaction.commit();
+            transaction = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (currentStream != null || transaction != null) throw new IOException("Last compound was not properly closed");
+        if (closeWorkspace) workspace.close();
+    }
+
+    @Override
+    public void updateProgress(String s) throws IOException {
+        // not necessary yet
+    }
+}
@@ -0,0 +1,296 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.jjobs.BasicJJob;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip archive whose entries are compressed concurrently on the CPU threads of the job manager. The
+ * entries are written in the order in which they are added, so the archive has the same entries with the same
+ * content as one written by a {@link java.util.zip.ZipOutputStream}. Deflating uses the same settings as
+ * ZipOutputStream. In contrast to ZipOutputStream, the compressed size and checksum are known before an entry
+ * is written, so the sizes are stored in the local headers instead of data descriptors. Archives with more than
+ * 65535 entries or more than 4GB are written in the Zip64 format.
+ *
+ * At most maxPendingEntries entries are compressed ahead of the output, which bounds the memory.
+ */
+public class ParallelZipWriter implements Closeable {
+
+    private final static int LOCAL_HEADER = 0x04034b50, CENTRAL_HEADER = 0x02014b50, END_OF_CENTRAL_DIRECTORY = 0x06054b50,
+            ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50, ZIP64_LOCATOR = 0x07064b50;
+    private final static int DEFLATED = 8, UTF8_FLAG = 0x0800;
+    private final static long MAX_32 = 0xFFFFFFFFL;
+    private final static int MAX_16 = 0xFFFF;
+
+    protected static class ZipEntryData {
+        protected final byte[] name;
+        protected final int method, dosTime;
+        protected long crc, size, compressedSize, offset;
+        protected byte[] compressed;
+
+        protected ZipEntryData(String name, int method, int dosTime) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.dosTime = dosTime;
+        }
+    }
+
+    protected class DeflateJJob extends BasicJJob<ZipEntryData> {
+        protected final ZipEntryData entry;
+        protected final byte[] content;
+        protected final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        protected DeflateJJob(ZipEntryData entry, byte[] content) {
+            super(JobType.CPU);
+            this.entry = entry;
+            this.content = content;
+        }
+
+        protected boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        protected ZipEntryData compute() throws Exception {
+            return claim() ? deflate() : null;
+        }
+
+        protected ZipEntryData deflate() {
+            final CRC32 crc = new CRC32();
+            crc.update(content);
+            final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(content);
+                deflater.finish();
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 64);
+                final byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    final int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+                entry.crc = crc.getValue();
+                entry.size = content.length;
+                entry.compressed = out.toByteArray();
+                entry.compressedSize = entry.compressed.length;
+                return entry;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    protected final LittleEndianOutput out;
+    protected final int maxPendingEntries;
+    protected final ArrayDeque<DeflateJJob> pending;
+    protected final ArrayList<ZipEntryData> written;
+    protected boolean closed = false;
+
+    public ParallelZipWriter(OutputStream stream) {
+        this(stream, 4 * SiriusJobs.getGlobalJobManager().getCPUThreads());
+    }
+
+    public ParallelZipWriter(OutputStream stream, int maxPendingEntries) {
+        this.out = new LittleEndianOutput(new BufferedOutputStream(stream, 65536));
+        this.maxPendingEntries = Math.max(1, maxPendingEntries);
+        this.pending = new ArrayDeque<>();
+        this.written = new ArrayList<>();
+    }
+
+    /**
+     * adds a directory entry. The name has to end with '/'
+     */
+    public void putDirectory(String name) throws IOException {
+        // like ZipOutputStream, directories are stored as deflated empty entries
+        final ZipEntryData entry = new DeflateJJob(new ZipEntryData(name, DEFLATED, dosTime(System.currentTimeMillis())), new byte[0]).deflate();
+        final DeflateJJob done = new DeflateJJob(entry, null);
+        done.claim();
+        enqueue(done);
+    }
+
+    /**
+     * adds a file entry which is compressed in the background. The content must not be changed afterwards.
+     */
+    public void putEntry(String name, byte[] content) throws IOException {
+        final DeflateJJob job = new DeflateJJob(new ZipEntryData(name, DEFLATED, dosTime(System.currentTimeMillis())), content);
+        SiriusJobs.getGlobalJobManager().submitJob(job);
+        enqueue(job);
+    }
+
+    private void enqueue(DeflateJJob job) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        pending.add(job);
+        while (pending.size() > maxPendingEntries) writeNext();
+    }
+
+    private void writeNext() throws IOException {
+        final DeflateJJob job = pending.poll();
+        final ZipEntryData entry;
+        if (job.content == null) {
+            entry = job.entry;
+        } else if (job.claim()) {
+            // not started yet, so it is compressed by the writing thread
+            job.cancel(false);
+            entry = job.deflate();
+        } else {
+            try {
+                entry = job.awaitResult();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        entry.offset = out.written;
+        final boolean zip64 = entry.offset >= MAX_32 || entry.size >= MAX_32 || entry.compressedSize >= MAX_32;
+        out.writeInt(LOCAL_HEADER);
+        out.writeShort(zip64 ? 45 : (entry.method == DEFLATED ? 20 : 10));
+        out.writeShort(UTF8_FLAG);
+        out.writeShort(entry.method);
+        out.writeInt(entry.dosTime);
+        out.writeInt(entry.crc);
+        out.writeInt(zip64 ? MAX_32 : entry.compressedSize);
+        out.writeInt(zip64 ? MAX_32 : entry.size);
+        out.writeShort(entry.name.length);
+        out.writeShort(zip64 ? 20 : 0);
+        out.write(entry.name);
+        if (zip64) {
+            out.writeShort(1);
+            out.writeShort(16);
+            out.writeLong(entry.size);
+            out.writeLong(entry.compressedSize);
+        }
+        out.write(entry.compressed);
+        entry.compressed = null;
+        written.add(entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            while (!pending.isEmpty()) writeNext();
+            final long centralDirectoryOffset = out.written;
+            for (ZipEntryData entry : written) writeCentralHeader(entry);
+            final long centralDirectorySize = out.written - centralDirectoryOffset;
+            final long numberOfEntries = written.size();
+            if (numberOfEntries >= MAX_16 || centralDirectoryOffset >= MAX_32 || centralDirectorySize >= MAX_32) {
+                final long zip64Offset = out.written;
+                out.writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+                out.writeLong(44);
+                out.writeShort(45);
+                out.writeShort(45);
+                out.writeInt(0);
+                out.writeInt(0);
+                out.writeLong(numberOfEntries);
+                out.writeLong(numberOfEntries);
+                out.writeLong(centralDirectorySize);
+                out.writeLong(centralDirectoryOffset);
+                out.writeInt(ZIP64_LOCATOR);
+                out.writeInt(0);
+                out.writeLong(zip64Offset);
+                out.writeInt(1);
+            }
+            out.writeInt(END_OF_CENTRAL_DIRECTORY);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort((int) Math.min(numberOfEntries, MAX_16));
+            out.writeShort((int) Math.min(numberOfEntries, MAX_16));
+            out.writeInt(Math.min(centralDirectorySize, MAX_32));
+            out.writeInt(Math.min(centralDirectoryOffset, MAX_32));
+            out.writeShort(0);
+        } finally {
+            closed = true;
+            for (DeflateJJob job : pending)
+                if (job.content != null) job.cancel(false);
+            pending.clear();
+            out.close();
+        }
+    }
+
+    private void writeCentralHeader(ZipEntryData entry) throws IOException {
+        final boolean largeSize = entry.size >= MAX_32 || entry.compressedSize >= MAX_32, largeOffset = entry.offset >= MAX_32;
+        final boolean zip64 = largeSize || largeOffset;
+        final int extraLength = zip64 ? 4 + (largeSize ? 16 : 0) + (largeOffset ? 8 : 0) : 0;
+        final int version = zip64 ? 45 : (entry.method == DEFLATED ? 20 : 10);
+        out.writeInt(CENTRAL_HEADER);
+        out.writeShort(version);
+        out.writeShort(version);
+        out.writeShort(UTF8_FLAG);
+        out.writeShort(entry.method);
+        out.writeInt(entry.dosTime);
+        out.writeInt(entry.crc);
+        out.writeInt(largeSize ? MAX_32 : entry.compressedSize);
+        out.writeInt(largeSize ? MAX_32 : entry.size);
+        out.writeShort(entry.name.length);
+        out.writeShort(extraLength);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeInt(0);
+        out.writeInt(largeOffset ? MAX_32 : entry.offset);
+        out.write(entry.name);
+        if (zip64) {
+            out.writeShort(1);
+            out.writeShort(extraLength - 4);
+            if (largeSize) {
+                out.writeLong(entry.size);
+                out.writeLong(entry.compressedSize);
+            }
+            if (largeOffset) out.writeLong(entry.offset);
+        }
+    }
+
+    private static int dosTime(long time) {
+        final Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        final int year = c.get(Calendar.YEAR);
+        if (year < 1980) return (1 << 21) | (1 << 16);
+        return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+                | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+
+    /*
+     * writes the little endian values of the zip format and counts the written bytes
+     */
+    protected static class LittleEndianOutput extends FilterOutputStream {
+        protected long written = 0;
+
+        protected LittleEndianOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++written;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+
+        protected void writeShort(int v) throws IOException {
+            write(v & 0xff);
+            write((v >>> 8) & 0xff);
+        }
+
+        protected void writeInt(long v) throws IOException {
+            writeShort((int) (v & 0xffff));
+            writeShort((int) ((v >>> 16) & 0xffff));
+        }
+
+        protected void writeLong(long v) throws IOException {
+            writeInt(v & MAX_32);
+            writeInt(v >>> 32);
+        }
+    }
+}
@@ -1,23 +1,27 @@
 package de.unijena.bioinf.sirius.projectspace;
 
 import java.io.*;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
+/**
+ * Writes the project space into a .sirius zip file. The content of each file is buffered until the file is
+ * closed and then compressed in the background by the {@link ParallelZipWriter}, so the thread which writes the
+ * project only serializes the results.
+ */
 public class SiriusWorkspaceWriter implements DirectoryWriter.WritingEnvironment {
 
-    protected ZipOutputStream zip;
+    protected ParallelZipWriter zip;
     protected List<String> pathElements;
+    protected ByteArrayOutputStream currentStream;
+    protected String currentName;
 
     public SiriusWorkspaceWriter(File file) throws FileNotFoundException {
         this(new FileOutputStream(file));
     }
 
     public SiriusWorkspaceWriter(OutputStream stream) {
-        this.zip = new ZipOutputStream(stream, Charset.forName("UTF-8"));
+        this.zip = new ParallelZipWriter(stream);
         this.pathElements = new ArrayList<>();
     }
 
@@ -25,8 +29,7 @@ public class SiriusWorkspaceWriter implements DirectoryWriter.WritingEnvironment
     public void enterDirectory(String name) {
         pathElements.add(name);
         try {
-            zip.putNextEntry(new ZipEntry(join(pathElements)));
-            zip.closeEntry();
+            zip.putDirectory(join(pathElements));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -40,20 +43,18 @@ public class SiriusWorkspaceWriter implements DirectoryWriter.WritingEnvironment
 
     @Override
     public OutputStream openFile(String name) {
-        try {
-            zip.putNextEntry(new ZipEntry(join(pathElements) + name));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        return zip;
+        this.currentName = join(pathElements) + name;
+        this.currentStream = new ByteArrayOutputStream(4096);
+        return currentStream;
     }
 
     @Override
     public void closeFile() {
         try {
-            zip.closeEntry();
+            zip.putEntry(currentName, currentStream.toByteArray());
+            currentStream = null;
         } catch (IOException e) {
-            throw new RuntimeException();
+            throw new RuntimeException(e);
         }
     }
 
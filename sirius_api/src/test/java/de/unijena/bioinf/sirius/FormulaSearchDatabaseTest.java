@@ -0,0 +1,97 @@
+package de.unijena.bioinf.sirius;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.maximumColorfulSubtree.DPTreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Whiteset;
+import de.unijena.bioinf.babelms.MsExperimentParser;
+import de.unijena.bioinf.babelms.chemdb.MappedFormulaDatabase;
+import de.unijena.bioinf.babelms.chemdb.MappedFormulaDatabaseBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FormulaSearchDatabaseTest {
+
+    private static Sirius sirius;
+    private static File input;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        SiriusJobs.setGlobalJobManager(1);
+        sirius = new Sirius();
+        sirius.getMs2Analyzer().setTreeBuilder(new DPTreeBuilder());
+        input = new File(FormulaSearchDatabaseTest.class.getResource("/streaming.ms").toURI());
+    }
+
+    /**
+     * the first compound of the input file, which has no molecular formula
+     */
+    private static Ms2Experiment experiment() throws IOException {
+        final List<Ms2Experiment> experiments = new MsExperimentParser().getParser(input).parseFromFile(input);
+        final Ms2Experiment experiment = experiments.get(0);
+        assertNull(experiment.getMolecularFormula());
+        return experiment;
+    }
+
+    private static MappedFormulaDatabase database(String... formulas) throws IOException {
+        final File list = File.createTempFile("formulas", ".txt");
+        list.deleteOnExit();
+        try (final PrintStream out = new PrintStream(list, "UTF-8")) {
+            for (String f : formulas) out.println(f);
+        }
+        final File target = File.createTempFile("formulas", ".db");
+        target.deleteOnExit();
+        MappedFormulaDatabaseBuilder.build(list, target);
+        list.delete();
+        return MappedFormulaDatabase.open(target);
+    }
+
+    private static List<IdentificationResult> identify(Ms2Experiment experiment) throws Exception {
+        return SiriusJobs.getGlobalJobManager().submitJob(sirius.makeIdentificationJob(experiment, 3)).awaitResult();
+    }
+
+    @Test
+    public void testCandidatesFromDatabase() throws Exception {
+        final Ms2Experiment experiment = experiment();
+        try (final MappedFormulaDatabase database = database("C9H13N7OS", "C8H19N3O3P2", "C6H12O6", "C20H25N3O")) {
+            assertEquals(2, sirius.setFormulaSearchDatabase(experiment, database));
+        }
+        final Set<MolecularFormula> formulas = new HashSet<>();
+        for (IdentificationResult r : identify(experiment)) formulas.add(r.getMolecularFormula());
+        assertEquals(new HashSet<>(Arrays.asList(MolecularFormula.parse("C9H13N7OS"), MolecularFormula.parse("C8H19N3O3P2"))), formulas);
+    }
+
+    @Test
+    public void testNoCandidatesIfNotInDatabase() throws Exception {
+        final Ms2Experiment experiment = experiment();
+        try (final MappedFormulaDatabase database = database("C6H12O6", "C20H25N3O")) {
+            assertEquals(0, sirius.setFormulaSearchDatabase(experiment, database));
+        }
+        assertTrue(experiment.getAnnotation(Whiteset.class).allowsNoFormula());
+        assertTrue(identify(experiment).isEmpty());
+    }
+
+    @Test
+    public void testDecomposeIfNotInDatabase() throws Exception {
+        final Ms2Experiment experiment = experiment();
+        try (final MappedFormulaDatabase database = database("C6H12O6", "C20H25N3O")) {
+            assertEquals(0, sirius.setFormulaSearchDatabase(experiment, database, true));
+        }
+        assertNull(experiment.getAnnotation(Whiteset.class, null));
+        final List<IdentificationResult> results = identify(experiment);
+        assertEquals(3, results.size());
+        assertEquals(MolecularFormula.parse("C9H13N7OS"), results.get(0).getMolecularFormula());
+    }
+
+}
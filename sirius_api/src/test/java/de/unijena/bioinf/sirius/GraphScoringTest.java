@@ -0,0 +1,170 @@
+package de.unijena.bioinf.sirius;
+
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FragmentAnnotation;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.FasterTreeComputationInstance;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.FragmentationPatternAnalysis;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.FormulaLossScorer;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.LossScoreCache;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.LossScorer;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.scoring.PeakPairScorer;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Decomposition;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.DecompositionList;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.PeakPairScores;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Scoring;
+import de.unijena.bioinf.babelms.MsExperimentParser;
+import de.unijena.bioinf.ChemistryBase.algorithm.ParameterHelper;
+import de.unijena.bioinf.ChemistryBase.data.DataDocument;
+import gnu.trove.list.array.TLongArrayList;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GraphScoringTest {
+
+    /**
+     * the compound without molecular formula of the test file, which has many candidates
+     */
+    static Ms2Experiment experiment() throws IOException, URISyntaxException {
+        final File input = new File(GraphScoringTest.class.getResource("/streaming.ms").toURI());
+        return new MsExperimentParser().getParser(input).<Ms2Experiment>parseFromFile(input).get(0);
+    }
+
+    /**
+     * preprocessed and peak scored input, as it is used for building the graphs
+     */
+    static ProcessedInput scoredInput(FragmentationPatternAnalysis analyzer, Ms2Experiment experiment) {
+        return analyzer.performPeakScoring(new FasterTreeComputationInstance(analyzer, experiment, 1).precompute());
+    }
+
+    static List<Decomposition> decompositions(ProcessedInput input) {
+        final List<Decomposition> decompositions = input.getAnnotationOrThrow(DecompositionList.class).getDecompositions();
+        assertTrue(decompositions.size() > 10);
+        return decompositions;
+    }
+
+    /**
+     * hides that the scorer only depends on the loss formula, so its scores are not cached
+     */
+    private static class UncachedLossScorer<T> implements LossScorer<T> {
+        private final LossScorer<T> scorer;
+
+        private UncachedLossScorer(LossScorer<T> scorer) {
+            this.scorer = scorer;
+        }
+
+        @Override
+        public T prepare(ProcessedInput input) {
+            return scorer.prepare(input);
+        }
+
+        @Override
+        public double score(Loss loss, ProcessedInput input, T precomputed) {
+            return scorer.score(loss, input, precomputed);
+        }
+
+        @Override
+        public <G, D, L> void importParameters(ParameterHelper helper, DataDocument<G, D, L> document, D dictionary) {
+            scorer.importParameters(helper, document, dictionary);
+        }
+
+        @Override
+        public <G, D, L> void exportParameters(ParameterHelper helper, DataDocument<G, D, L> document, D dictionary) {
+            scorer.exportParameters(helper, document, dictionary);
+        }
+    }
+
+    private static List<double[]> edgeWeights(FragmentationPatternAnalysis analyzer, ProcessedInput input, List<Decomposition> decompositions) {
+        final List<double[]> weights = new ArrayList<>();
+        for (Decomposition d : decompositions) {
+            final FGraph graph = analyzer.buildGraphWithoutReduction(input, d);
+            final double[] w = new double[graph.numberOfEdges()];
+            int k = 0;
+            for (Loss l : graph.losses()) w[k++] = l.getWeight();
+            weights.add(w);
+        }
+        return weights;
+    }
+
+    @Test
+    public void testLossScoreCacheKeepsEdgeWeights() throws Exception {
+        final FragmentationPatternAnalysis analyzer = new Sirius().getMs2Analyzer();
+        int cachedScorers = 0;
+        for (LossScorer s : analyzer.getLossScorers()) if (s instanceof FormulaLossScorer) ++cachedScorers;
+        assertTrue(cachedScorers > 1);
+
+        final ProcessedInput input = scoredInput(analyzer, experiment());
+        final List<Decomposition> decompositions = decompositions(input);
+        final List<double[]> cold = edgeWeights(analyzer, input, decompositions);
+        final int cacheSize = input.getAnnotationOrThrow(LossScoreCache.class).size();
+        assertTrue(cacheSize > 0);
+        // all losses are in the cache now
+        final List<double[]> warm = edgeWeights(analyzer, input, decompositions);
+        assertEquals(cacheSize, input.getAnnotationOrThrow(LossScoreCache.class).size());
+
+        final List<LossScorer> scorers = analyzer.getLossScorers();
+        final List<LossScorer> uncached = new ArrayList<>();
+        for (LossScorer s : scorers) uncached.add(new UncachedLossScorer<>(s));
+        analyzer.setLossScorers(uncached);
+        final ProcessedInput uncachedInput = scoredInput(analyzer, experiment());
+        final List<double[]> expected = edgeWeights(analyzer, uncachedInput, decompositions(uncachedInput));
+        analyzer.setLossScorers(scorers);
+
+        assertEquals(expected.size(), cold.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            // bit identical, not only up to rounding
+            assertArrayEquals(expected.get(i), cold.get(i), 0d);
+            assertArrayEquals(expected.get(i), warm.get(i), 0d);
+        }
+    }
+
+    @Test
+    public void testSparsePeakPairScoresMatchDenseMatrix() throws Exception {
+        final FragmentationPatternAnalysis analyzer = new Sirius().getMs2Analyzer();
+        final ProcessedInput input = scoredInput(analyzer, experiment());
+        final PeakPairScores sparse = input.getAnnotationOrThrow(Scoring.class).getPeakPairScores();
+        final List<ProcessedPeak> peaks = input.getMergedPeaks();
+        final PeakPairScores dense = PeakPairScores.complete(peaks.size());
+        for (PeakPairScorer scorer : analyzer.getPeakPairScorers()) scorer.score(peaks, input, dense);
+        assertTrue(sparse.size() < dense.size());
+
+        int edges = 0;
+        for (Decomposition d : decompositions(input)) {
+            final FGraph graph = analyzer.buildGraphWithoutReduction(input, d);
+            final FragmentAnnotation<ProcessedPeak> peakAno = graph.getFragmentAnnotationOrThrow(ProcessedPeak.class);
+            for (Loss l : graph.losses()) {
+                if (l.getSource().isRoot()) continue;
+                final int u = peakAno.get(l.getSource()).getIndex(), v = peakAno.get(l.getTarget()).getIndex();
+                assertTrue(sparse.contains(u, v));
+                assertEquals(dense.get(u, v), sparse.get(u, v), 0d);
+                ++edges;
+            }
+        }
+        assertTrue(edges > 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEdgeWithoutPeakPairScore() throws Exception {
+        final FragmentationPatternAnalysis analyzer = new Sirius().getMs2Analyzer();
+        final ProcessedInput input = scoredInput(analyzer, experiment());
+        FGraph graph = null;
+        for (Decomposition d : decompositions(input)) {
+            graph = analyzer.buildGraphWithoutReduction(input, d);
+            if (graph.numberOfEdges() > graph.getRoot().getOutDegree()) break;
+        }
+        // no pair is scored
+        input.getAnnotationOrThrow(Scoring.class).initializeScoring(PeakPairScores.fromPairs(input.getMergedPeaks().size(), new TLongArrayList()));
+        analyzer.performGraphScoring(graph);
+    }
+
+}
@@ -0,0 +1,91 @@
+package de.unijena.bioinf.sirius;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FragmentAnnotation;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.FragmentationPatternAnalysis;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.recalibration.SpectralRecalibration;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.maximumColorfulSubtree.DPTreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Decomposition;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.DecompositionList;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedPeak;
+import org.apache.commons.math3.analysis.UnivariateFunction;
+import org.apache.commons.math3.analysis.polynomials.PolynomialFunction;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RescoreGraphTest {
+
+    /**
+     * recalibrates the input like the tree computation does: the merged peaks are shifted by the given function,
+     * decomposed and scored again
+     */
+    private static ProcessedInput recalibrate(FragmentationPatternAnalysis analyzer, ProcessedInput input, Decomposition candidate, UnivariateFunction f) {
+        final ProcessedInput pin = input.getRecalibratedVersion(new SpectralRecalibration(null, new UnivariateFunction[input.getExperimentInformation().getMs2Spectra().size()], f));
+        final Decomposition d = pin.getAnnotationOrThrow(DecompositionList.class).find(candidate.getCandidate());
+        assertNotNull(d);
+        pin.setAnnotation(DecompositionList.class, new DecompositionList(new ArrayList<>(Collections.singletonList(d))));
+        analyzer.performDecomposition(pin);
+        analyzer.performPeakScoring(pin);
+        return pin;
+    }
+
+    /**
+     * vertices with their peaks and colors and all edges with their weights in the order of the graph
+     */
+    private static List<String> describe(FGraph graph) {
+        final FragmentAnnotation<ProcessedPeak> peakAno = graph.getFragmentAnnotationOrThrow(ProcessedPeak.class);
+        final List<String> lines = new ArrayList<>();
+        for (Fragment f : graph) {
+            lines.add(f.getVertexId() + " " + f.getFormula() + " color " + f.getColor() + (f.isRoot() ? "" : " peak " + peakAno.get(f).getIndex() + " " + peakAno.get(f).getMass()));
+            for (int i = 0; i < f.getOutDegree(); ++i) {
+                final Loss l = f.getOutgoingEdge(i);
+                lines.add("  -> " + l.getTarget().getVertexId() + " " + l.getTarget().getFormula() + " " + l.getWeight());
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> formulas(FGraph graph) {
+        final List<String> formulas = new ArrayList<>();
+        for (Fragment f : graph) formulas.add(f.getFormula() + " " + f.getColor());
+        Collections.sort(formulas);
+        return formulas;
+    }
+
+    @Test
+    public void testRescoredGraphEqualsNewGraph() throws Exception {
+        final FragmentationPatternAnalysis analyzer = new Sirius().getMs2Analyzer();
+        final DPTreeBuilder treeBuilder = new DPTreeBuilder();
+        final ProcessedInput input = GraphScoringTest.scoredInput(analyzer, GraphScoringTest.experiment());
+        final List<Decomposition> decompositions = GraphScoringTest.decompositions(input);
+        // the identity keeps the decompositions of all peaks, a shift of 8 ppm changes some of them
+        final UnivariateFunction[] recalibrations = new UnivariateFunction[]{new PolynomialFunction(new double[]{0, 1}), new PolynomialFunction(new double[]{0, 1 + 8e-6})};
+        final int[] changedGraphs = new int[recalibrations.length];
+        for (int k = 0; k < recalibrations.length; ++k) {
+            for (Decomposition d : decompositions.subList(0, 10)) {
+                final FGraph unsortedGraph = analyzer.buildUnsortedGraph(input, d);
+                final ProcessedInput pin = recalibrate(analyzer, input, d, recalibrations[k]);
+                final Decomposition root = pin.getAnnotationOrThrow(DecompositionList.class).find(d.getCandidate());
+                final FGraph rescored = analyzer.finalizeGraph(analyzer.rescoreGraph(unsortedGraph, pin, root));
+                final FGraph built = analyzer.buildGraph(pin, root);
+                assertEquals(describe(built), describe(rescored));
+                final FTree a = treeBuilder.computeTree().solve(pin, rescored).tree, b = treeBuilder.computeTree().solve(pin, built).tree;
+                assertEquals(b.getTreeWeight(), a.getTreeWeight(), 0d);
+                assertEquals(b.numberOfVertices(), a.numberOfVertices());
+                if (!formulas(analyzer.finalizeGraph(unsortedGraph)).equals(formulas(built))) ++changedGraphs[k];
+            }
+        }
+        assertEquals(0, changedGraphs[0]);
+        assertTrue(changedGraphs[1] > 0);
+    }
+
+}
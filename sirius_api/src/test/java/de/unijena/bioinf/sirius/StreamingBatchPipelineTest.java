@@ -0,0 +1,84 @@
+package de.unijena.bioinf.sirius;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Dataset;
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Dataset;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.maximumColorfulSubtree.DPTreeBuilder;
+import de.unijena.bioinf.babelms.MsExperimentParser;
+import de.unijena.bioinf.sirius.projectspace.ExperimentResult;
+import de.unijena.bioinf.sirius.projectspace.ProjectWriter;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingBatchPipelineTest {
+
+    private static Sirius sirius;
+    private static File input;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        // a single IO thread: the pipeline must not depend on further IO threads
+        SiriusJobs.setGlobalJobManager(1);
+        sirius = new Sirius();
+        // does not need an ILP solver
+        sirius.getMs2Analyzer().setTreeBuilder(new DPTreeBuilder());
+        input = new File(StreamingBatchPipelineTest.class.getResource("/streaming.ms").toURI());
+    }
+
+    private static class RecordingWriter implements ProjectWriter {
+        private final List<ExperimentResult> results = new ArrayList<>();
+        private boolean closed = false;
+
+        @Override
+        public void writeExperiment(ExperimentResult result) {
+            results.add(result);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * name, formulas and scores of all candidates of a compound
+     */
+    private static List<String> describe(String name, List<IdentificationResult> results) {
+        final List<String> lines = new ArrayList<>();
+        for (IdentificationResult r : results)
+            lines.add(name + " " + r.getRank() + " " + r.getMolecularFormula() + " " + r.getScore());
+        return lines;
+    }
+
+    @Test
+    public void testSameResultsAsBatchMode() throws Exception {
+        final List<String> expected = new ArrayList<>();
+        final List<Ms2Experiment> experiments = new MsExperimentParser().getParser(input).parseFromFile(input);
+        final Ms2Dataset dataset = new Ms2DatasetPreprocessor(true).preprocess(new MutableMs2Dataset(experiments, "default", Double.NaN, sirius.getMs2Analyzer().getDefaultProfile()));
+        for (Ms2Experiment experiment : dataset.getExperiments()) {
+            final List<IdentificationResult> results = SiriusJobs.getGlobalJobManager().submitJob(sirius.makeIdentificationJob(experiment, 3)).awaitResult();
+            expected.addAll(describe(experiment.getName(), results));
+        }
+        assertEquals(7, expected.size());
+
+        for (int maxCompoundsInFlight : new int[]{1, 2, 10}) {
+            final RecordingWriter writer = new RecordingWriter();
+            final StreamingBatchPipeline pipeline = new StreamingBatchPipeline(sirius, input, writer, 3, "default", Double.NaN, maxCompoundsInFlight);
+            assertEquals(3, (int) SiriusJobs.getGlobalJobManager().submitJob(pipeline).awaitResult());
+            assertTrue(writer.closed);
+            final List<String> actual = new ArrayList<>();
+            for (ExperimentResult result : writer.results)
+                actual.addAll(describe(result.getExperiment().getName(), result.getResults()));
+            assertEquals(expected, actual);
+        }
+    }
+
+}
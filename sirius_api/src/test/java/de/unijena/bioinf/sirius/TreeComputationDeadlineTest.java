@@ -0,0 +1,82 @@
+package de.unijena.bioinf.sirius;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.AbstractTreeComputationInstance;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.FasterTreeComputationInstance;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.FragmentationPatternAnalysis;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.maximumColorfulSubtree.DPTreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Deadline;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.ProcessedInput;
+import de.unijena.bioinf.FragmentationTreeConstruction.model.Timeout;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TreeComputationDeadlineTest {
+
+    private static FragmentationPatternAnalysis analyzer;
+
+    @BeforeClass
+    public static void setup() {
+        SiriusJobs.setGlobalJobManager(2);
+        analyzer = new Sirius().getMs2Analyzer();
+    }
+
+    /**
+     * computes trees with the DP and cancels the deadline of the instance after the given number of trees, such that
+     * the instance is canceled at the same point in every run, independent of the speed of the machine
+     */
+    private static class CancelingTreeBuilder extends DPTreeBuilder {
+        private final AtomicInteger remainingTrees;
+
+        private CancelingTreeBuilder(int numberOfTrees) {
+            this.remainingTrees = new AtomicInteger(numberOfTrees);
+        }
+
+        @Override
+        public Result computeTree(ProcessedInput input, FGraph graph, FluentInterface options) {
+            final Result result = super.computeTree(input, graph, options);
+            if (remainingTrees.decrementAndGet() == 0) Deadline.of(graph).cancel();
+            return result;
+        }
+    }
+
+    private static AbstractTreeComputationInstance.FinalResult compute(TreeBuilder builder, int numberOfResults) throws Exception {
+        final MutableMs2Experiment experiment = new MutableMs2Experiment(GraphScoringTest.experiment());
+        experiment.setAnnotation(Timeout.class, Timeout.newTimeout(3600, 3600));
+        analyzer.setTreeBuilder(builder);
+        return SiriusJobs.getGlobalJobManager().submitJob(new FasterTreeComputationInstance(analyzer, experiment, numberOfResults)).awaitResult();
+    }
+
+    @Test
+    public void testCompleteResultBeforeDeadline() throws Exception {
+        final AbstractTreeComputationInstance.FinalResult result = compute(new DPTreeBuilder(), 5);
+        assertFalse(result.isPartial());
+        assertEquals(5, result.getResults().size());
+    }
+
+    @Test
+    public void testPartialResultAtDeadline() throws Exception {
+        final AbstractTreeComputationInstance.FinalResult result = compute(new CancelingTreeBuilder(3), 5);
+        assertTrue(result.isPartial());
+        final List<FTree> trees = result.getResults();
+        assertFalse(trees.isEmpty());
+        assertTrue(trees.size() <= 5);
+        for (int i = 0; i < trees.size(); ++i) {
+            final FTree tree = trees.get(i);
+            if (i > 0) assertTrue(trees.get(i - 1).getTreeWeight() >= tree.getTreeWeight());
+            // the trees are annotated and do not cancel later computations on their input
+            final ProcessedInput input = tree.getAnnotationOrThrow(ProcessedInput.class);
+            assertSame(Deadline.NEVER, Deadline.of(input));
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package de.unijena.bioinf.sirius;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.AbstractTreeComputationInstance;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.FasterTreeComputationInstance;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.FragmentationPatternAnalysis;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.maximumColorfulSubtree.DPTreeBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UpperBoundPruningTest {
+
+    private static FragmentationPatternAnalysis analyzer;
+
+    @BeforeClass
+    public static void setup() {
+        SiriusJobs.setGlobalJobManager(2);
+        analyzer = new Sirius().getMs2Analyzer();
+        analyzer.setTreeBuilder(new DPTreeBuilder());
+    }
+
+    private static FasterTreeComputationInstance compute(Ms2Experiment experiment, int numberOfResults, boolean pruning) throws Exception {
+        final FasterTreeComputationInstance instance = new FasterTreeComputationInstance(analyzer, experiment, numberOfResults);
+        instance.setUpperBoundPruning(pruning);
+        final AbstractTreeComputationInstance.FinalResult result = SiriusJobs.getGlobalJobManager().submitJob(instance).awaitResult();
+        assertFalse(result.isPartial());
+        assertEquals(numberOfResults, result.getResults().size());
+        return instance;
+    }
+
+    /**
+     * formulas and scores of the trees of an instance
+     */
+    private static List<String> describe(FasterTreeComputationInstance instance) throws Exception {
+        final List<String> trees = new ArrayList<>();
+        for (FTree tree : instance.awaitResult().getResults())
+            trees.add(tree.getRoot().getFormula() + " " + tree.getTreeWeight());
+        return trees;
+    }
+
+    @Test
+    public void testSameTreesWithAndWithoutPruning() throws Exception {
+        for (int numberOfResults : new int[]{1, 5}) {
+            final FasterTreeComputationInstance pruned = compute(GraphScoringTest.experiment(), numberOfResults, true);
+            final FasterTreeComputationInstance complete = compute(GraphScoringTest.experiment(), numberOfResults, false);
+            assertEquals(describe(complete), describe(pruned));
+            assertEquals(0, complete.getNumberOfSkippedTrees());
+            assertTrue(pruned.getNumberOfSkippedTrees() > 0);
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AsyncProjectWriterTest {
+
+    /**
+     * records the names of the written experiments. Writing blocks until the gate is opened.
+     */
+    private static class RecordingWriter implements ProjectWriter {
+        private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch gate;
+        private final String failOn;
+        private volatile boolean closed = false;
+
+        private RecordingWriter(CountDownLatch gate, String failOn) {
+            this.gate = gate;
+            this.failOn = failOn;
+        }
+
+        @Override
+        public void writeExperiment(ExperimentResult result) throws IOException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (result.getExperimentName().equals(failOn)) throw new IOException("disk is full");
+            written.add(result.getExperimentName());
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static ExperimentResult result(String name) {
+        return new ExperimentResult(null, null, "test", name);
+    }
+
+    private static List<String> names(int n) {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < n; ++i) names.add("compound" + i);
+        return names;
+    }
+
+    private static void awaitBlocked(Thread thread) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) Thread.sleep(1);
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    @Test
+    public void testProducerBlocksWhenQueueIsFull() throws Exception {
+        final long size = AsyncProjectWriter.estimateBytes(result("a"));
+        final CountDownLatch gate = new CountDownLatch(1);
+        final RecordingWriter recorder = new RecordingWriter(gate, null);
+        final AsyncProjectWriter writer = new AsyncProjectWriter(recorder, 2 * size);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (String name : names(5)) writer.writeExperiment(result(name));
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        producer.start();
+        // the first result is being written and the second one is queued, so the third one does not fit
+        awaitBlocked(producer);
+        assertEquals(2, writer.getQueueLength());
+        assertEquals(2 * size, writer.getQueuedBytes());
+        assertEquals(0, writer.getWrittenExperiments());
+        gate.countDown();
+        producer.join();
+        assertNull(error.get());
+        writer.close();
+        assertEquals(names(5), recorder.written);
+        assertEquals(5, writer.getWrittenExperiments());
+        assertEquals(0, writer.getQueuedBytes());
+        assertTrue(writer.getStallTimeMillis() >= 0);
+    }
+
+    @Test
+    public void testOversizedResultIsAcceptedIntoEmptyQueue() throws IOException {
+        final RecordingWriter recorder = new RecordingWriter(new CountDownLatch(0), null);
+        final AsyncProjectWriter writer = new AsyncProjectWriter(recorder, 1);
+        for (String name : names(3)) writer.writeExperiment(result(name));
+        writer.close();
+        assertEquals(names(3), recorder.written);
+    }
+
+    @Test
+    public void testCloseWritesQueue() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final RecordingWriter recorder = new RecordingWriter(gate, null);
+        final AsyncProjectWriter writer = new AsyncProjectWriter(recorder);
+        for (String name : names(20)) writer.writeExperiment(result(name));
+        assertTrue(recorder.written.isEmpty());
+        final Thread closing = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        closing.start();
+        // close waits for the queue
+        awaitBlocked(closing);
+        assertFalse(recorder.closed);
+        gate.countDown();
+        closing.join();
+        assertEquals(names(20), recorder.written);
+        assertTrue(recorder.closed);
+        try {
+            writer.writeExperiment(result("late"));
+            fail("closed writer accepts results");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testErrorIsPropagated() throws Exception {
+        final RecordingWriter recorder = new RecordingWriter(new CountDownLatch(0), "compound2");
+        final AsyncProjectWriter writer = new AsyncProjectWriter(recorder);
+        IOException error = null;
+        try {
+            for (String name : names(100)) {
+                writer.writeExperiment(result(name));
+                Thread.sleep(1);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        try {
+            writer.close();
+            fail("error of the writer is not thrown by close");
+        } catch (IOException e) {
+            if (error != null) assertSame(error, e);
+            assertEquals("disk is full", e.getMessage());
+        }
+        assertEquals(names(2), recorder.written);
+        assertTrue(recorder.closed);
+    }
+
+    @Test
+    public void testProjectWriterJobsWithSingleIOThread() throws Exception {
+        // the writer thread must not depend on the IO threads which are blocked by the producing jobs
+        SiriusJobs.setGlobalJobManager(1);
+        final long size = AsyncProjectWriter.estimateBytes(result("a"));
+        final RecordingWriter recorder = new RecordingWriter(new CountDownLatch(0), null);
+        final AsyncProjectWriter writer = new AsyncProjectWriter(recorder, size);
+        final List<ProjectWriterJJob> jobs = new ArrayList<>();
+        for (String name : names(10))
+            jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new ProjectWriterJJob(writer, result(name))));
+        for (ProjectWriterJJob job : jobs) {
+            try {
+                job.awaitResult();
+            } catch (ExecutionException e) {
+                throw new AssertionError(e.getCause());
+            }
+        }
+        writer.close();
+        assertEquals(names(10), recorder.written);
+    }
+
+}
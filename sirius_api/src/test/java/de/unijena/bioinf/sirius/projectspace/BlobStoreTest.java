@@ -0,0 +1,230 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BlobStoreTest {
+
+    private final static long HOUR = 60 * 60 * 1000;
+
+    private File directory;
+    private BlobStore store;
+
+    @Before
+    public void createStore() throws IOException {
+        directory = Files.createTempDirectory("blobs").toFile();
+        store = new BlobStore(new File(directory, "store"));
+    }
+
+    @After
+    public void deleteDirectory() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) for (File f : files) delete(f);
+        file.delete();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String spectrum(String name) {
+        final StringBuilder buf = new StringBuilder(">compound ").append(name).append('\n');
+        for (int i = 0; i < 100; ++i) buf.append(100 + i * 0.5).append(' ').append(i * 17 % 100).append('\n');
+        return buf.toString();
+    }
+
+    private static void writeFile(DirectoryWriter.WritingEnvironment env, String name, String content) throws IOException {
+        env.openFile(name).write(bytes(content));
+        env.closeFile();
+    }
+
+    /**
+     * writes a project space with a large spectrum, a small tree and a summary into the store
+     */
+    private File writeProjectSpace(String name, String compound) throws IOException {
+        final File dir = new File(directory, name);
+        dir.mkdirs();
+        final DirectoryWriter.WritingEnvironment env = new BlobWritingEnvironment(new SiriusFileWriter(dir), store);
+        env.enterDirectory("1_" + compound);
+        writeFile(env, "spectrum.ms", spectrum(compound));
+        env.enterDirectory("trees");
+        writeFile(env, "1_H2O.json", "{}");
+        env.leaveDirectory();
+        env.leaveDirectory();
+        writeFile(env, "summary.csv", spectrum("summary of " + compound));
+        env.close();
+        return dir;
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) >= 0) out.write(buffer, 0, n);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * contents of all files of the environment by their path
+     */
+    private static Map<String, String> readFiles(DirectoryReader.ReadingEnvironment env, String prefix, Map<String, String> files) throws IOException {
+        for (String name : env.list()) {
+            if (env.isDirectory(name)) {
+                env.enterDirectory(name);
+                readFiles(env, prefix + name + "/", files);
+                env.leaveDirectory();
+            } else {
+                try {
+                    files.put(prefix + name, readAll(env.openFile(name)));
+                } finally {
+                    env.closeFile();
+                }
+            }
+        }
+        return files;
+    }
+
+    private static Map<String, String> expectedFiles(String compound) {
+        final Map<String, String> files = new TreeMap<>();
+        // written by the SiriusFileWriter
+        files.put(".progress", "");
+        files.put("1_" + compound + "/spectrum.ms", spectrum(compound));
+        files.put("1_" + compound + "/trees/1_H2O.json", "{}");
+        files.put("summary.csv", spectrum("summary of " + compound));
+        return files;
+    }
+
+    private static String readFile(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private List<File> blobs() {
+        final List<File> blobs = new ArrayList<>();
+        for (File dir : store.getRoot().listFiles())
+            for (File f : dir.listFiles()) blobs.add(f);
+        return blobs;
+    }
+
+    @Test
+    public void testPutDeduplicates() throws IOException {
+        final String key = store.put(bytes("abc"));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", key);
+        assertEquals(key, store.put(bytes("xabcx"), 1, 3));
+        assertNotEquals(key, store.put(bytes("abd")));
+        assertEquals(2, blobs().size());
+        assertTrue(store.contains(key));
+        try (InputStream in = store.open(key)) {
+            assertEquals("abc", readAll(in));
+        }
+    }
+
+    @Test
+    public void testPutTouchesExistingBlob() throws IOException {
+        final String key = store.put(bytes("abc"));
+        final File blob = store.file(key);
+        assertTrue(blob.setLastModified(System.currentTimeMillis() - 2 * HOUR));
+        store.put(bytes("abc"));
+        assertTrue(blob.lastModified() > System.currentTimeMillis() - HOUR);
+        assertEquals(0, store.sweep(Collections.<String>emptySet(), HOUR));
+        assertTrue(store.contains(key));
+    }
+
+    @Test
+    public void testPutRewritesBlobRemovedByGc() throws IOException {
+        final String key = store.put(bytes("abc"));
+        final File blob = store.file(key);
+        // the garbage collection moved the blob away before the writer touched it
+        final File trash = new File(blob.getParentFile(), blob.getName() + ".gc.tmp");
+        assertTrue(blob.renameTo(trash));
+        assertEquals(key, store.put(bytes("abc")));
+        assertTrue(store.contains(key));
+        trash.delete();
+        try (InputStream in = store.open(key)) {
+            assertEquals("abc", readAll(in));
+        }
+    }
+
+    @Test
+    public void testReferencesAreResolved() throws IOException {
+        final File dir = writeProjectSpace("project", "a");
+        // the spectrum is replaced by a reference, the small tree and the summary are written as they are
+        final String reference = readFile(new File(dir, "1_a/spectrum.ms"));
+        assertEquals(new String(BlobStore.reference(BlobStore.hash(bytes(spectrum("a")), 0, bytes(spectrum("a")).length)), StandardCharsets.US_ASCII), reference);
+        assertEquals("{}", readFile(new File(dir, "1_a/trees/1_H2O.json")));
+        assertEquals(spectrum("summary of a"), readFile(new File(dir, "summary.csv")));
+
+        final DirectoryReader.ReadingEnvironment env = new BlobReadingEnvironment(new SiriusFileReader(dir), store);
+        try {
+            assertEquals(expectedFiles("a"), readFiles(env, "", new TreeMap<String, String>()));
+        } finally {
+            env.close();
+        }
+
+        final Set<String> keys = new HashSet<>();
+        final DirectoryReader.ReadingEnvironment plain = new SiriusFileReader(dir);
+        try {
+            BlobStore.findReferences(plain, keys);
+        } finally {
+            plain.close();
+        }
+        assertEquals(Collections.singleton(reference.substring(BlobStore.REFERENCE_PREFIX.length()).trim()), keys);
+    }
+
+    @Test
+    public void testGcKeepsReferencedAndRecentBlobs() throws IOException {
+        final File a = writeProjectSpace("a", "shared"), b = writeProjectSpace("b", "shared"), c = writeProjectSpace("c", "c");
+        assertEquals(2, blobs().size());
+        final String orphan = store.put(bytes(spectrum("orphan")));
+        final File interrupted = new File(store.file(orphan).getParentFile(), "blob123.tmp");
+        assertTrue(interrupted.createNewFile());
+
+        // everything is within the grace period
+        assertEquals(0, store.gc(Arrays.asList(a, b), HOUR));
+        assertEquals(4, blobs().size());
+
+        for (File f : blobs()) assertTrue(f.setLastModified(System.currentTimeMillis() - 2 * HOUR));
+        // the blobs of c and the orphan are not referenced, the temporary file is left from an interrupted writer
+        assertEquals(3, store.gc(Arrays.asList(a, b), HOUR));
+        assertEquals(1, blobs().size());
+        assertFalse(store.contains(orphan));
+        assertFalse(interrupted.exists());
+
+        final DirectoryReader.ReadingEnvironment env = new BlobReadingEnvironment(new SiriusFileReader(b), store);
+        try {
+            assertEquals(expectedFiles("shared"), readFiles(env, "", new TreeMap<String, String>()));
+        } finally {
+            env.close();
+        }
+    }
+
+    @Test
+    public void testMaterialize() throws IOException {
+        final File dir = writeProjectSpace("project", "a");
+        final File copy = new File(directory, "copy"), zip = new File(directory, "copy.sirius");
+        store.materialize(dir, copy);
+        store.materialize(dir, zip);
+        // the copies do not depend on the store anymore
+        delete(store.getRoot());
+        assertEquals(spectrum("a"), readFile(new File(copy, "1_a/spectrum.ms")));
+        for (DirectoryReader.ReadingEnvironment env : new DirectoryReader.ReadingEnvironment[]{new SiriusFileReader(copy), new SiriusWorkspaceReader(zip)}) {
+            try {
+                assertEquals(expectedFiles("a"), readFiles(env, "", new TreeMap<String, String>()));
+            } finally {
+                env.close();
+            }
+        }
+    }
+
+}
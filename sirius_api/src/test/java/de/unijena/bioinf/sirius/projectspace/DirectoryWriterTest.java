@@ -0,0 +1,168 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DirectoryWriterTest {
+
+    @BeforeClass
+    public static void setupJobManager() {
+        SiriusJobs.setGlobalJobManager(4);
+    }
+
+    /**
+     * records all calls in a readable form
+     */
+    private static class RecordingEnvironment implements DirectoryWriter.WritingEnvironment {
+        private final List<String> calls = new ArrayList<>();
+        private ByteArrayOutputStream current;
+        private String currentName;
+        private long bytes = 0;
+
+        @Override
+        public void enterDirectory(String name) {
+            calls.add("enter " + name);
+        }
+
+        @Override
+        public OutputStream openFile(String name) {
+            currentName = name;
+            current = new ByteArrayOutputStream();
+            return current;
+        }
+
+        @Override
+        public void closeFile() {
+            calls.add("file " + currentName + ": " + new String(current.toByteArray(), StandardCharsets.UTF_8));
+            bytes += current.size();
+            current = null;
+        }
+
+        @Override
+        public void leaveDirectory() {
+            calls.add("leave");
+        }
+
+        @Override
+        public void close() {
+            calls.add("close");
+        }
+
+        @Override
+        public void updateProgress(String s) {
+            calls.add("progress " + s);
+        }
+    }
+
+    /**
+     * file whose rendering takes a random time, so the render jobs finish in a different order than submitted
+     */
+    private static DirectoryWriter.Do slowFile(final String content, final long sleep) {
+        return new DirectoryWriter.Do() {
+            @Override
+            public void run(Writer w) throws IOException {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                w.write(content);
+            }
+        };
+    }
+
+    private static void writeCalls(DirectoryWriter.DeferredWritingEnvironment deferred, DirectoryWriter.WritingEnvironment direct, long seed) throws IOException {
+        final Random r = new Random(seed);
+        for (int c = 0; c < 5; ++c) {
+            deferred.enterDirectory("compound" + c);
+            direct.enterDirectory("compound" + c);
+            for (int f = 0; f < 10; ++f) {
+                final String name = c + "_" + f + ".txt", content = "content of " + name;
+                if (f % 4 == 3) {
+                    // files written directly into the environment
+                    deferred.openFile(name).write(content.getBytes(StandardCharsets.UTF_8));
+                    deferred.closeFile();
+                } else {
+                    deferred.submit(name, slowFile(content, r.nextInt(20)));
+                }
+                direct.openFile(name).write(content.getBytes(StandardCharsets.UTF_8));
+                direct.closeFile();
+                if (f == 5) {
+                    deferred.enterDirectory("trees");
+                    direct.enterDirectory("trees");
+                    deferred.submit("tree.json", slowFile("{}", r.nextInt(20)));
+                    direct.openFile("tree.json").write("{}".getBytes(StandardCharsets.UTF_8));
+                    direct.closeFile();
+                    deferred.leaveDirectory();
+                    direct.leaveDirectory();
+                }
+            }
+            deferred.leaveDirectory();
+            direct.leaveDirectory();
+            deferred.updateProgress("compound" + c + "\tDONE\n");
+            direct.updateProgress("compound" + c + "\tDONE\n");
+        }
+    }
+
+    @Test
+    public void testReplayKeepsOrder() throws IOException {
+        for (long seed = 0; seed < 5; ++seed) {
+            final DirectoryWriter.DeferredWritingEnvironment deferred = new DirectoryWriter.DeferredWritingEnvironment();
+            final RecordingEnvironment direct = new RecordingEnvironment(), replayed = new RecordingEnvironment();
+            writeCalls(deferred, direct, seed);
+            assertEquals(direct.bytes, deferred.replay(replayed));
+            assertEquals(direct.calls, replayed.calls);
+        }
+    }
+
+    @Test
+    public void testWrittenBytes() throws IOException {
+        final RecordingEnvironment environment = new RecordingEnvironment();
+        final DirectoryWriter writer = new DirectoryWriter(environment, "test", null);
+        writer.write("a.txt", slowFile("abc", 0));
+        writer.write("b.txt", slowFile("de", 0));
+        assertEquals(5, writer.getWrittenBytes());
+        assertEquals(environment.bytes, writer.getWrittenBytes());
+    }
+
+    @Test
+    public void testReplayPropagatesErrors() throws IOException {
+        final DirectoryWriter.DeferredWritingEnvironment deferred = new DirectoryWriter.DeferredWritingEnvironment();
+        final RecordingEnvironment replayed = new RecordingEnvironment();
+        deferred.enterDirectory("compound");
+        deferred.submit("good.txt", slowFile("good", 0));
+        deferred.submit("bad.txt", new DirectoryWriter.Do() {
+            @Override
+            public void run(Writer w) throws IOException {
+                throw new IOException("cannot render file");
+            }
+        });
+        deferred.submit("never.txt", slowFile("never", 0));
+        deferred.leaveDirectory();
+        try {
+            deferred.replay(replayed);
+            fail("error of the render job is not propagated");
+        } catch (IOException e) {
+            assertEquals("cannot render file", e.getMessage());
+        }
+        // only the calls before the failing file were replayed
+        final List<String> expected = new ArrayList<>();
+        expected.add("enter compound");
+        expected.add("file good.txt: good");
+        assertEquals(expected, replayed.calls);
+    }
+
+}
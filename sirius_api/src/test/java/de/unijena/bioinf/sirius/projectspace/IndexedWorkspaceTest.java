@@ -0,0 +1,240 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class IndexedWorkspaceTest {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("workspace").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        final File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+
+    private static void putCompound(IndexedWorkspace workspace, String id, String... pathsAndContents) throws IOException {
+        final IndexedWorkspace.Transaction t = workspace.begin(id);
+        for (int k = 0; k < pathsAndContents.length; k += 2)
+            t.put(pathsAndContents[k], pathsAndContents[k + 1].getBytes(UTF8));
+        t.commit();
+    }
+
+    private static String read(IndexedWorkspace workspace, String id, String path) throws IOException {
+        final IndexedWorkspace.Compound c = workspace.getCompound(id);
+        assertNotNull("compound " + id + " is missing", c);
+        final IndexedWorkspace.Entry e = c.getEntry(path);
+        assertNotNull("file " + path + " of compound " + id + " is missing", e);
+        try (InputStream in = workspace.open(c, e)) {
+            return readAll(in);
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[7];
+        int n;
+        while ((n = in.read(buffer)) >= 0) out.write(buffer, 0, n);
+        return new String(out.toByteArray(), UTF8);
+    }
+
+    private File indexFile() {
+        return new File(directory, "index-" + IndexedWorkspace.newestGeneration(directory) + ".bin");
+    }
+
+    @Test
+    public void testRandomAccess() throws IOException {
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForWriting(directory)) {
+            for (int i = 0; i < 20; ++i) {
+                putCompound(workspace, "compound" + i,
+                        "spectrum.ms", ">compound compound" + i,
+                        "trees/1_C" + i + "H4.json", "{tree 1 of " + i + "}",
+                        "trees/2_C" + i + "H6.json", "{tree 2 of " + i + "}",
+                        "trees/1_C" + i + "H4.dot", "digraph " + i);
+            }
+        }
+        assertTrue(IndexedWorkspace.isIndexedWorkspace(directory));
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForReading(directory)) {
+            assertEquals(20, workspace.getCompoundIds().size());
+            for (int i : new int[]{13, 0, 19, 7}) {
+                final IndexedWorkspace.Compound c = workspace.getCompound("compound" + i);
+                assertEquals(4, c.getEntries().size());
+                final IndexedWorkspace.Entry tree = c.getEntry(IndexedWorkspace.ResultType.TREE, 2);
+                assertEquals("trees/2_C" + i + "H6.json", tree.getPath());
+                assertEquals(2, tree.getRank());
+                try (InputStream in = workspace.open(c, tree)) {
+                    assertEquals("{tree 2 of " + i + "}", readAll(in));
+                }
+                assertEquals(IndexedWorkspace.ResultType.TREE_DOT, c.getEntry("trees/1_C" + i + "H4.dot").getType());
+                assertEquals(-1, c.getEntry(IndexedWorkspace.ResultType.INPUT, -1).getRank());
+                assertEquals(">compound compound" + i, read(workspace, "compound" + i, "spectrum.ms"));
+            }
+            assertNull(workspace.getCompound("compound20"));
+        }
+    }
+
+    @Test
+    public void testUpdateAndRemove() throws IOException {
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForWriting(directory)) {
+            putCompound(workspace, "a", "spectrum.ms", "a1", "summary_sirius.csv", "summary a1");
+            putCompound(workspace, "b", "spectrum.ms", "b1");
+            final IndexedWorkspace.Transaction t = workspace.update("a");
+            t.put("spectrum.ms", "a2".getBytes(UTF8));
+            t.commit();
+            workspace.remove("b");
+        }
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForReading(directory)) {
+            assertEquals(Arrays.asList("a"), workspace.getCompoundIds());
+            assertEquals("a2", read(workspace, "a", "spectrum.ms"));
+            assertEquals("summary a1", read(workspace, "a", "summary_sirius.csv"));
+        }
+    }
+
+    @Test
+    public void testTruncatedJournalTail() throws IOException {
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForWriting(directory)) {
+            putCompound(workspace, "a", "spectrum.ms", "content of a");
+            putCompound(workspace, "b", "spectrum.ms", "content of b");
+        }
+        // an update which was interrupted while its record was written
+        try (RandomAccessFile file = new RandomAccessFile(indexFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForReading(directory)) {
+            assertEquals(Arrays.asList("a"), workspace.getCompoundIds());
+            assertEquals("content of a", read(workspace, "a", "spectrum.ms"));
+        }
+        // the torn record is removed before new records are appended
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForWriting(directory)) {
+            assertEquals(Arrays.asList("a"), workspace.getCompoundIds());
+            putCompound(workspace, "c", "spectrum.ms", "content of c");
+        }
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForReading(directory)) {
+            assertEquals(Arrays.asList("a", "c"), workspace.getCompoundIds());
+            assertEquals("content of c", read(workspace, "c", "spectrum.ms"));
+        }
+    }
+
+    @Test
+    public void testCorruptedRecord() throws IOException {
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForWriting(directory)) {
+            putCompound(workspace, "a", "spectrum.ms", "content of a");
+            putCompound(workspace, "b", "spectrum.ms", "content of b");
+        }
+        // flip a byte in the payload of the last record, so its checksum does not match
+        try (RandomAccessFile file = new RandomAccessFile(indexFile(), "rw")) {
+            file.seek(file.length() - 2);
+            final int b = file.read();
+            file.seek(file.length() - 2);
+            file.write(b ^ 0xff);
+        }
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForReading(directory)) {
+            assertEquals(Arrays.asList("a"), workspace.getCompoundIds());
+        }
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForWriting(directory)) {
+            putCompound(workspace, "b", "spectrum.ms", "new content of b");
+        }
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForReading(directory)) {
+            assertEquals(Arrays.asList("a", "b"), workspace.getCompoundIds());
+            assertEquals("new content of b", read(workspace, "b", "spectrum.ms"));
+        }
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForWriting(directory)) {
+            for (int i = 0; i < 10; ++i) putCompound(workspace, "a", "spectrum.ms", "version " + i + " of a");
+            putCompound(workspace, "b", "spectrum.ms", "content of b", "trees/1_H2O.json", "tree of b");
+            putCompound(workspace, "c", "spectrum.ms", "content of c");
+            workspace.remove("c");
+            final long sizeBefore = new File(directory, "data-0.bin").length();
+
+            final IndexedWorkspace.Compound before = workspace.getCompound("b");
+            final InputStream openStream = workspace.open(before, before.getEntry("trees/1_H2O.json"));
+            workspace.compact();
+
+            assertFalse(new File(directory, "data-0.bin").exists());
+            assertTrue(new File(directory, "data-1.bin").length() < sizeBefore);
+            assertEquals(Arrays.asList("a", "b"), workspace.getCompoundIds());
+            assertEquals("version 9 of a", read(workspace, "a", "spectrum.ms"));
+            assertEquals("tree of b", read(workspace, "b", "trees/1_H2O.json"));
+
+            // streams which were opened before the compaction stay readable
+            assertEquals("tree of b", readAll(openStream));
+            assertEquals(1, workspace.retired.size());
+            openStream.close();
+            assertFalse(workspace.retired.get(0).data.isOpen());
+            try {
+                workspace.open(before, before.getEntry("spectrum.ms"));
+                fail("old generation is already released");
+            } catch (IOException e) {
+                // the compound has to be read again
+            }
+
+            // the compacted workspace can be updated further
+            putCompound(workspace, "d", "spectrum.ms", "content of d");
+        }
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForReading(directory)) {
+            assertEquals(Arrays.asList("a", "b", "d"), workspace.getCompoundIds());
+            assertEquals("content of d", read(workspace, "d", "spectrum.ms"));
+        }
+    }
+
+    @Test
+    public void testReaderReleasesRetiredGenerations() throws IOException {
+        try (IndexedWorkspace writer = IndexedWorkspace.openForWriting(directory);
+             IndexedWorkspace reader = IndexedWorkspace.openForReading(directory)) {
+            putCompound(writer, "a", "spectrum.ms", "content of a");
+            reader.refresh();
+            assertEquals("content of a", read(reader, "a", "spectrum.ms"));
+            for (int i = 0; i < 5; ++i) {
+                putCompound(writer, "b" + i, "spectrum.ms", "content of b" + i);
+                writer.compact();
+                reader.refresh();
+                assertEquals("content of b" + i, read(reader, "b" + i, "spectrum.ms"));
+            }
+            // no stream is open anymore, so no old data file is kept open
+            assertTrue(reader.retired.isEmpty());
+            assertTrue(writer.retired.isEmpty());
+
+            final IndexedWorkspace.Compound a = reader.getCompound("a");
+            final InputStream in = reader.open(a, a.getEntry("spectrum.ms"));
+            writer.compact();
+            reader.refresh();
+            assertEquals(1, reader.retired.size());
+            assertEquals("content of a", readAll(in));
+            in.close();
+            in.close();
+            assertFalse(reader.retired.get(0).data.isOpen());
+            reader.refresh();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testSingleWriter() throws IOException {
+        try (IndexedWorkspace workspace = IndexedWorkspace.openForWriting(directory)) {
+            IndexedWorkspace.openForWriting(directory).close();
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package de.unijena.bioinf.sirius.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ParallelZipWriterTest {
+
+    @BeforeClass
+    public static void setupJobManager() {
+        SiriusJobs.setGlobalJobManager(4);
+    }
+
+    /**
+     * directories, empty files, compressible and incompressible files of different sizes and non ASCII names
+     */
+    private static LinkedHashMap<String, byte[]> entries(long seed, int n) {
+        final Random r = new Random(seed);
+        final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < n; ++i) {
+            if (i % 10 == 0) {
+                entries.put("compound" + i + "/", null);
+            } else if (i % 10 == 1) {
+                entries.put("compound" + (i - 1) + "/empty.txt", new byte[0]);
+            } else if (i % 10 == 2) {
+                final byte[] random = new byte[r.nextInt(200000)];
+                r.nextBytes(random);
+                entries.put("compound" + (i - 2) + "/random.bin", random);
+            } else {
+                final StringBuilder buf = new StringBuilder();
+                for (int k = r.nextInt(5000); k >= 0; --k) buf.append("peak ").append(r.nextInt(1000)).append('\n');
+                entries.put("compound" + (i - i % 10) + "/Ä_" + i + ".txt", buf.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] writeParallel(Map<String, byte[]> entries, int maxPendingEntries) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelZipWriter zip = new ParallelZipWriter(bytes, maxPendingEntries)) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                if (e.getValue() == null) zip.putDirectory(e.getKey());
+                else zip.putEntry(e.getKey(), e.getValue());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] writeSequential(Map<String, byte[]> entries) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(e.getKey()));
+                if (e.getValue() != null) zip.write(e.getValue());
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    private static List<String> names(Map<String, byte[]> entries) {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    private static LinkedHashMap<String, byte[]> readWithZipInputStream(byte[] zip) throws IOException {
+        final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip), StandardCharsets.UTF_8)) {
+            ZipEntry e;
+            while ((e = in.getNextEntry()) != null) entries.put(e.getName(), e.isDirectory() ? null : readAll(in));
+        }
+        return entries;
+    }
+
+    private static LinkedHashMap<String, ZipEntry> readWithZipFile(File file, Map<String, byte[]> expected) throws IOException {
+        final LinkedHashMap<String, ZipEntry> entries = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(file, StandardCharsets.UTF_8)) {
+            final Enumeration<? extends ZipEntry> iter = zip.entries();
+            while (iter.hasMoreElements()) {
+                final ZipEntry e = iter.nextElement();
+                entries.put(e.getName(), e);
+                final byte[] content = expected.get(e.getName());
+                if (content == null) {
+                    assertTrue(e.getName(), e.isDirectory());
+                } else {
+                    try (InputStream in = zip.getInputStream(e)) {
+                        assertArrayEquals(e.getName(), content, readAll(in));
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static File tempFile(byte[] content) throws IOException {
+        final File file = File.createTempFile("parallel", ".zip");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private static void assertSameEntries(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(names(expected), names(actual));
+        for (String name : expected.keySet()) {
+            if (expected.get(name) == null) assertNull(name, actual.get(name));
+            else assertArrayEquals(name, expected.get(name), actual.get(name));
+        }
+    }
+
+    @Test
+    public void testSameEntriesAsZipOutputStream() throws IOException {
+        final LinkedHashMap<String, byte[]> entries = entries(1, 200);
+        final byte[] sequential = writeSequential(entries);
+        for (int maxPending : new int[]{1, 3, 64}) {
+            final byte[] parallel = writeParallel(entries, maxPending);
+            assertSameEntries(entries, readWithZipInputStream(parallel));
+            assertSameEntries(readWithZipInputStream(sequential), readWithZipInputStream(parallel));
+
+            final LinkedHashMap<String, ZipEntry> expected = readWithZipFile(tempFile(sequential), entries);
+            final LinkedHashMap<String, ZipEntry> actual = readWithZipFile(tempFile(parallel), entries);
+            assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+            for (String name : expected.keySet()) {
+                final ZipEntry e = expected.get(name), a = actual.get(name);
+                assertEquals(name, e.getSize(), a.getSize());
+                assertEquals(name, e.getCrc(), a.getCrc());
+                // same deflate settings as ZipOutputStream
+                assertEquals(name, e.getCompressedSize(), a.getCompressedSize());
+                assertEquals(name, e.getMethod(), a.getMethod());
+            }
+        }
+    }
+
+    @Test
+    public void testZip64ForManyEntries() throws IOException {
+        final int n = 70000;
+        final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < n; ++i) entries.put("entry" + i + ".txt", ("content " + i).getBytes(StandardCharsets.UTF_8));
+        final byte[] parallel = writeParallel(entries, 16);
+        assertSameEntries(entries, readWithZipInputStream(parallel));
+        try (ZipFile zip = new ZipFile(tempFile(parallel))) {
+            assertEquals(n, zip.size());
+            for (int i : new int[]{0, 65534, 65535, 65536, n - 1}) {
+                try (InputStream in = zip.getInputStream(zip.getEntry("entry" + i + ".txt"))) {
+                    assertEquals("content " + i, new String(readAll(in), StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testZip64ForLargeOffsets() throws IOException {
+        // the entries start after 4GB. The file is sparse, so the leading gap does not occupy disk space
+        final File file = File.createTempFile("parallel64", ".zip");
+        file.deleteOnExit();
+        final long start = (1L << 32) + 12345;
+        final LinkedHashMap<String, byte[]> entries = entries(2, 30);
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.getChannel().position(start);
+            final ParallelZipWriter zip = new ParallelZipWriter(stream, 4);
+            zip.out.written = start;
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                if (e.getValue() == null) zip.putDirectory(e.getKey());
+                else zip.putEntry(e.getKey(), e.getValue());
+            }
+            zip.close();
+        }
+        try {
+            assertEquals(names(entries), new ArrayList<>(readWithZipFile(file, entries).keySet()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSiriusWorkspaceWriter() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final SiriusWorkspaceWriter writer = new SiriusWorkspaceWriter(bytes);
+        writer.enterDirectory("1_compound");
+        writer.openFile("spectrum.ms").write(">compound x".getBytes(StandardCharsets.UTF_8));
+        writer.closeFile();
+        writer.enterDirectory("trees");
+        writer.openFile("1_H2O.json").write("{}".getBytes(StandardCharsets.UTF_8));
+        writer.closeFile();
+        writer.leaveDirectory();
+        writer.leaveDirectory();
+        writer.openFile("version.txt").write("1".getBytes(StandardCharsets.UTF_8));
+        writer.closeFile();
+        writer.close();
+
+        final LinkedHashMap<String, byte[]> entries = readWithZipInputStream(bytes.toByteArray());
+        assertEquals(Arrays.asList("1_compound/", "1_compound/spectrum.ms", "1_compound/trees/", "1_compound/trees/1_H2O.json", "version.txt"), names(entries));
+        assertEquals(">compound x", new String(entries.get("1_compound/spectrum.ms"), StandardCharsets.UTF_8));
+    }
+
+}